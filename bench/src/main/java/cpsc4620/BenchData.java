@@ -0,0 +1,72 @@
+package cpsc4620;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Random;
+
+/*
+ * Builds orders the way Menu does (base price, then addToppings and
+ * addDiscounts adjusting the prices), with random choices instead of
+ * prompts.
+ */
+
+final class BenchData {
+
+	static final String[] SIZES = {DBNinja.size_s, DBNinja.size_m, DBNinja.size_l, DBNinja.size_xl};
+	static final String[] CRUSTS = {DBNinja.crust_thin, DBNinja.crust_orig, DBNinja.crust_pan, DBNinja.crust_gf};
+
+	private BenchData() {
+	}
+
+	static Order randomOrder(Random r, ReferenceData.Snapshot ref, int pizzaCount, int[] custIds, Timestamp when) {
+		ArrayList<Pizza> pizzas = new ArrayList<>(pizzaCount);
+		double cust = 0;
+		double bus = 0;
+		for (int i = 0; i < pizzaCount; i++) {
+			Pizza p = randomPizza(r, ref, when);
+			pizzas.add(p);
+			cust += p.getCustPrice();
+			bus += p.getBusPrice();
+		}
+
+		Order o;
+		int kind = r.nextInt(3);
+		if (kind == 0 || custIds.length == 0) {
+			o = new DineinOrder(0, -1, when.toString(), cust, bus, false, 1 + r.nextInt(20));
+		} else if (kind == 1) {
+			o = new PickupOrder(0, custIds[r.nextInt(custIds.length)], when.toString(), cust, bus, false, false);
+		} else {
+			o = new DeliveryOrder(0, custIds[r.nextInt(custIds.length)], when.toString(), cust, bus, false,
+					(100 + r.nextInt(900)) + "\tMain St\tClemson\tSC\t29631");
+		}
+		o.setPizzaList(pizzas);
+
+		ArrayList<Discount> discounts = ref.discountList();
+		if (!discounts.isEmpty() && r.nextInt(5) == 0) {
+			o.addDiscount(discounts.get(r.nextInt(discounts.size())));
+		}
+		return o;
+	}
+
+	static Pizza randomPizza(Random r, ReferenceData.Snapshot ref, Timestamp when) {
+		String size = SIZES[r.nextInt(SIZES.length)];
+		String crust = CRUSTS[r.nextInt(CRUSTS.length)];
+		Pizza p = new Pizza(0, size, crust, 0, "In Progress", when.toString(),
+				ref.baseCustPrice(size, crust), ref.baseBusPrice(size, crust));
+
+		ArrayList<Topping> toppings = ref.toppingList();
+		int count = toppings.isEmpty() ? 0 : r.nextInt(Math.min(5, toppings.size() + 1));
+		for (int i = 0; i < count; i++) {
+			Topping t = toppings.remove(r.nextInt(toppings.size()));
+			boolean extra = r.nextInt(4) == 0;
+			t.setDoubled(extra);
+			p.addToppings(t, extra);
+		}
+
+		ArrayList<Discount> discounts = ref.discountList();
+		if (!discounts.isEmpty() && r.nextInt(6) == 0) {
+			p.addDiscounts(discounts.get(r.nextInt(discounts.size())));
+		}
+		return p;
+	}
+}
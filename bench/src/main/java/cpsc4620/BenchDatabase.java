@@ -0,0 +1,276 @@
+package cpsc4620;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Creates and seeds the database the benchmarks run against.
+ *
+ * Everything is configured with system properties, which JMH passes on to
+ * its forked JVMs:
+ *
+ *   bench.embedded=false   start a throwaway MariaDB (build with -Pembedded)
+ *   bench.embeddedPort     port for the embedded server (3307)
+ *   bench.database         schema to create (PizzaDB_bench); never PizzaDB itself
+ *   bench.reset=false      drop and re-seed the schema even if it exists
+ *   bench.customers        synthetic customers to add (1000)
+ *   bench.orders           synthetic orders to add on top of PopulateData.sql (10000)
+ *   bench.seed             DataGenerator seed for the synthetic data (4620)
+ *
+ * plus the usual pizzadb.url / pizzadb.user / pizzadb.password for an
+ * existing server. The schema comes from the scripts in ../sql with the
+ * database name swapped, so the benchmarks see the same tables, views,
+ * triggers and indexes as the application.
+ */
+
+final class BenchDatabase {
+
+	static final boolean embedded = Boolean.getBoolean("bench.embedded");
+	static final int embeddedPort = Integer.getInteger("bench.embeddedPort", 3307);
+	static final String database = System.getProperty("bench.database", "PizzaDB_bench");
+	static final boolean reset = Boolean.getBoolean("bench.reset");
+	static final int customers = Integer.getInteger("bench.customers", 1000);
+	static final int orders = Integer.getInteger("bench.orders", 10_000);
+	static final long seed = Long.getLong("bench.seed", 4620L);
+
+	// schema scripts, in the order a fresh install runs them
+	private static final String[] SCRIPTS = {"CreateTables.sql", "CreateViews.sql", "CreateSPs.sql", "PopulateData.sql"};
+
+	private static boolean ready;
+	private static Object embeddedServer;
+
+	private BenchDatabase() {
+	}
+
+	static synchronized void ensureReady() throws Exception {
+		/*
+		 * Starts the server if needed and makes sure the bench schema exists
+		 * and is seeded. Runs once per JVM; DBConnector is pointed at the bench
+		 * schema before anything touches it.
+		 */
+
+		if (ready) {
+			return;
+		}
+		if (database.equalsIgnoreCase("PizzaDB")) {
+			throw new IllegalArgumentException("bench.database must not be the application database");
+		}
+		if (embedded) {
+			startEmbedded();
+		}
+		System.setProperty("pizzadb.database", database);
+
+		boolean fresh;
+		try (Connection server = serverConnection()) {
+			fresh = reset || !schemaExists(server);
+			if (fresh) {
+				try (Statement st = server.createStatement()) {
+					st.executeUpdate("DROP DATABASE IF EXISTS `" + database + "`");
+				}
+				for (String script : SCRIPTS) {
+					runScript(server, script);
+				}
+			}
+		}
+
+		DBNinja.migrateSchema();
+		if (fresh) {
+			seed();
+		}
+		ready = true;
+	}
+
+	static synchronized void shutdown() {
+		/*
+		 * Stops the embedded server, if this JVM started one. Benchmarks call
+		 * this from their trial teardown: MariaDB4j's process thread keeps a
+		 * JMH fork alive until JMH halts it, and a halt skips shutdown hooks,
+		 * which would leave the server running and its port taken.
+		 */
+
+		if (embeddedServer != null) {
+			stopEmbedded();
+		}
+		ready = false;
+	}
+
+	static void restockInventory() throws SQLException, IOException {
+		// write benchmarks consume toppings; keep them from running out mid-run
+		DBNinja.runInSession("BenchDatabase.restockInventory", s -> {
+			try (Statement st = s.getConnection().createStatement()) {
+				st.executeUpdate("UPDATE topping SET topping_CurINVT = 1000000000");
+			}
+		});
+	}
+
+	static List<String> customerPhones() throws SQLException, IOException {
+		ArrayList<String> phones = new ArrayList<>();
+		for (Customer c : DBNinja.getCustomerList()) {
+			phones.add(c.getPhone());
+		}
+		return phones;
+	}
+
+	static int[] customerIds() throws SQLException, IOException {
+		ArrayList<Customer> list = DBNinja.getCustomerList();
+		int[] ids = new int[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i).getCustID();
+		}
+		return ids;
+	}
+
+	// =========================================================
+	// SEEDING
+	// =========================================================
+
+	private static void seed() throws SQLException, IOException {
+		/*
+		 * Bulk-loads bench.customers customers and bench.orders orders with
+		 * DataGenerator, so two runs with the same seed see identical data.
+		 * pizzadb.gen.* properties (mode, start, days, ...) are honoured; the
+		 * load mode defaults to BATCH since stock MySQL has local_infile off.
+		 */
+
+		DataGenerator.Config cfg = generatorConfig();
+		cfg.customers = customers;
+		cfg.orders = orders;
+		cfg.seed = seed;
+		DataGenerator.Result r = DataGenerator.generate(cfg);
+		System.out.println(r + " into " + database);
+	}
+
+	static DataGenerator.Config generatorConfig() {
+		DataGenerator.Config cfg = DataGenerator.Config.fromSystemProperties();
+		if (System.getProperty("pizzadb.gen.mode") == null) {
+			cfg.mode = DataGenerator.Mode.BATCH;
+		}
+		return cfg;
+	}
+
+	// =========================================================
+	// SERVER / SCRIPTS
+	// =========================================================
+
+	private static Connection serverConnection() throws SQLException {
+		// no default schema: the scripts create and USE it themselves
+		String url = System.getProperty("pizzadb.url", "jdbc:mysql://localhost:3306");
+		String user = System.getProperty("pizzadb.user", DBConnector.user);
+		String password = System.getProperty("pizzadb.password", DBConnector.password);
+		return DriverManager.getConnection(url + "/?allowMultiQueries=false", user, password);
+	}
+
+	private static boolean schemaExists(Connection server) throws SQLException {
+		String sql = "SELECT COUNT(*) FROM information_schema.TABLES WHERE TABLE_SCHEMA = ? AND TABLE_NAME = 'ordertable'";
+		try (PreparedStatement ps = server.prepareStatement(sql)) {
+			ps.setString(1, database);
+			try (ResultSet rs = ps.executeQuery()) {
+				return rs.next() && rs.getInt(1) > 0;
+			}
+		}
+	}
+
+	private static void runScript(Connection server, String name) throws SQLException, IOException {
+		/*
+		 * Runs one of the sql/ scripts statement by statement, honouring the
+		 * DELIMITER lines the procedure and trigger definitions use.
+		 */
+
+		String delimiter = ";";
+		StringBuilder statement = new StringBuilder();
+		try (BufferedReader in = openScript(name);
+		     Statement st = server.createStatement()) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String trimmed = line.trim();
+				if (statement.length() == 0 && (trimmed.isEmpty() || trimmed.startsWith("--"))) {
+					continue;
+				}
+				if (trimmed.toUpperCase().startsWith("DELIMITER ")) {
+					delimiter = trimmed.substring("DELIMITER ".length()).trim();
+					continue;
+				}
+				statement.append(line.replaceAll("\\bPizzaDB\\b", database)).append('\n');
+				if (trimmed.endsWith(delimiter)) {
+					String sql = statement.toString().trim();
+					sql = sql.substring(0, sql.length() - delimiter.length()).trim();
+					if (!sql.isEmpty()) {
+						st.execute(sql);
+					}
+					statement.setLength(0);
+				}
+			}
+		}
+	}
+
+	static Path seedScript() throws IOException {
+		// PopulateData.sql as a file, for an EmbeddedStore to seed itself from
+		Path p = Files.createTempFile("PopulateData", ".sql");
+		p.toFile().deleteOnExit();
+		try (BufferedReader in = openScript("PopulateData.sql")) {
+			Files.write(p, (Iterable<String>) in.lines()::iterator, StandardCharsets.UTF_8);
+		}
+		return p;
+	}
+
+	private static BufferedReader openScript(String name) throws IOException {
+		// packaged into the jar by the pom; fall back to ../sql when run from an IDE
+		InputStream in = BenchDatabase.class.getResourceAsStream("/sql/" + name);
+		if (in == null) {
+			Path p = Paths.get(System.getProperty("bench.sqlDir", "../sql"), name);
+			in = Files.newInputStream(p);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	private static void startEmbedded() throws Exception {
+		/*
+		 * MariaDB4j is only on the classpath with -Pembedded, so it is reached
+		 * reflectively and the module still builds without it.
+		 */
+
+		Class<?> builderClass = Class.forName("ch.vorburger.mariadb4j.DBConfigurationBuilder");
+		Object builder = builderClass.getMethod("newBuilder").invoke(null);
+		builderClass.getMethod("setPort", int.class).invoke(builder, embeddedPort);
+		if ("root".equals(System.getProperty("user.name"))) {
+			// mariadbd refuses to start as root (e.g. in a container) unless told to
+			builderClass.getMethod("addArg", String.class).invoke(builder, "--user=root");
+		}
+		Object config = builderClass.getMethod("build").invoke(builder);
+
+		Class<?> dbClass = Class.forName("ch.vorburger.mariadb4j.DB");
+		Class<?> configClass = Class.forName("ch.vorburger.mariadb4j.DBConfiguration");
+		Object db = dbClass.getMethod("newEmbeddedDB", configClass).invoke(null, config);
+		dbClass.getMethod("start").invoke(db);
+		embeddedServer = db;
+
+		Runtime.getRuntime().addShutdownHook(new Thread(BenchDatabase::shutdown));
+
+		System.setProperty("pizzadb.url", "jdbc:mysql://localhost:" + embeddedPort);
+		System.setProperty("pizzadb.user", "root");
+		System.setProperty("pizzadb.password", "");
+	}
+
+	private static void stopEmbedded() {
+		try {
+			embeddedServer.getClass().getMethod("stop").invoke(embeddedServer);
+		} catch (ReflectiveOperationException e) {
+			System.err.println("Could not stop the embedded database: " + e);
+		}
+		embeddedServer = null;
+	}
+}
@@ -0,0 +1,31 @@
+package cpsc4620;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Entry point of benchmarks.jar: the usual JMH command line, with the GC
+ * profiler always on so every result comes with its allocation rate
+ * (gc.alloc.rate.norm is bytes per operation).
+ *
+ * Throughput and SampleTime are both measured; SampleTime reports the
+ * p50/p90/p99/p99.9 latency percentiles.
+ */
+
+public final class BenchMain {
+
+	private BenchMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cli = new CommandLineOptions(args);
+		Options options = new OptionsBuilder()
+				.parent(cli)
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,54 @@
+package cpsc4620;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * What DBMetrics costs on the read path.
+ *
+ * getOrders(3) hydrates every seeded order with the full fetch plan, so
+ * most of its time goes to ResultSet getters, and with metrics on every
+ * result is read through a CountingResultSet. The two benchmarks make the
+ * same call in forks started with -Dpizzadb.metrics=true and false (the
+ * flag is read once per JVM); the difference between their scores and
+ * their gc.alloc.rate.norm is the overhead.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MetricsBenchmark {
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.shutdown();
+	}
+
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Dpizzadb.metrics=true")
+	public ArrayList<Order> metricsOn() throws Exception {
+		return DBNinja.getOrders(3);
+	}
+
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Dpizzadb.metrics=false")
+	public ArrayList<Order> metricsOff() throws Exception {
+		return DBNinja.getOrders(3);
+	}
+}
@@ -0,0 +1,80 @@
+package cpsc4620;
+
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * OrderIntake group commit against one commit per order. Each invocation
+ * submits a burst of one-pizza orders and waits for all of their futures,
+ * so the score is the time per order with the writers kept busy.
+ * batchSize=1 commits every order in its own transaction; 32 is the
+ * default batch.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(OrderIntakeBenchmark.BURST)
+public class OrderIntakeBenchmark {
+
+	static final int BURST = 256;
+
+	@Param({"1", "32"})
+	public int batchSize;
+
+	@Param({"2"})
+	public int writers;
+
+	private Random random;
+	private int[] custIds;
+	private ReferenceData.Snapshot ref;
+	private OrderIntake intake;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+		random = new Random(BenchDatabase.seed);
+		custIds = BenchDatabase.customerIds();
+		try (DBSession s = DBSession.open()) {
+			ref = ReferenceData.get(s.getConnection());
+		}
+		intake = new OrderIntake(2 * BURST, batchSize, 5L, writers, 2000L);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		intake.close();
+		System.out.println(intake);
+		BenchDatabase.shutdown();
+	}
+
+	@Setup(Level.Iteration)
+	public void restock() throws Exception {
+		BenchDatabase.restockInventory();
+	}
+
+	@Benchmark
+	public int submitBurst() throws Exception {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		CompletableFuture<?>[] results = new CompletableFuture<?>[BURST];
+		for (int i = 0; i < BURST; i++) {
+			results[i] = intake.submit(BenchData.randomOrder(random, ref, 1, custIds, now));
+		}
+		CompletableFuture.allOf(results).join();
+		return BURST;
+	}
+}
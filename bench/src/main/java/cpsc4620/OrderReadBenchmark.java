@@ -0,0 +1,79 @@
+package cpsc4620;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The order listing and customer lookup paths Menu uses.
+ *
+ * getOrders(1/2/3) load every open / completed / all order with the full
+ * fetch plan. getOrdersByDate and findCustomerByPhone pick a random seeded
+ * day or phone number per invocation so they are not served from one hot row.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderReadBenchmark {
+
+	// only getOrders takes the status, so the lookups aren't run once per status
+	@State(Scope.Benchmark)
+	public static class Status {
+		@Param({"1", "2", "3"})
+		public int status;
+	}
+
+	private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+	private Random random;
+	private List<String> phones;
+	private List<String> days;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+		random = new Random(BenchDatabase.seed);
+		phones = BenchDatabase.customerPhones();
+
+		// the window DataGenerator spread the seeded orders over
+		DataGenerator.Config gen = BenchDatabase.generatorConfig();
+		days = new ArrayList<>();
+		for (int i = 0; i < gen.days; i++) {
+			days.add(gen.start.plusDays(i).format(DATE));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.shutdown();
+	}
+
+	@Benchmark
+	public ArrayList<Order> getOrders(Status s) throws Exception {
+		return DBNinja.getOrders(s.status);
+	}
+
+	@Benchmark
+	public ArrayList<Order> getOrdersByDate() throws Exception {
+		return DBNinja.getOrdersByDate(days.get(random.nextInt(days.size())));
+	}
+
+	@Benchmark
+	public Customer findCustomerByPhone() throws Exception {
+		return DBNinja.findCustomerByPhone(phones.get(random.nextInt(phones.size())));
+	}
+}
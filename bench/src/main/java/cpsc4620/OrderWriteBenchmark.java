@@ -0,0 +1,63 @@
+package cpsc4620;
+
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * DBNinja.addOrder with 1, 5 and 20 pizzas per order. Every invocation
+ * inserts a new order, so the tables grow over the run; restocking each
+ * iteration keeps consumeInventory from failing.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OrderWriteBenchmark {
+
+	@Param({"1", "5", "20"})
+	public int pizzas;
+
+	private Random random;
+	private int[] custIds;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+		random = new Random(BenchDatabase.seed);
+		custIds = BenchDatabase.customerIds();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.shutdown();
+	}
+
+	@Setup(Level.Iteration)
+	public void restock() throws Exception {
+		BenchDatabase.restockInventory();
+	}
+
+	@Benchmark
+	public Order addOrder() throws Exception {
+		Order o;
+		try (DBSession s = DBSession.open()) {
+			// building the order from cached reference data is part of the real path
+			o = BenchData.randomOrder(random, ReferenceData.get(s.getConnection()), pizzas, custIds,
+					new Timestamp(System.currentTimeMillis()));
+		}
+		DBNinja.addOrder(o);
+		return o;
+	}
+}
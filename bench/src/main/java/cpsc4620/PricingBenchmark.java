@@ -0,0 +1,70 @@
+package cpsc4620;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The insert path's price check and a PriceMatrix pizza quote on their own:
+ * pure CPU against a cached reference-data snapshot, no database round trips
+ * in the measured part. Run with the GC profiler to check that neither
+ * allocates.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PricingBenchmark {
+
+	// distinct pizzas cycled through so the branch mix isn't one fixed case
+	private static final int PIZZAS = 1024;
+
+	private ReferenceData.Snapshot ref;
+	private Pizza[] pizzas;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+		try (DBSession s = DBSession.open()) {
+			ref = ReferenceData.get(s.getConnection());
+		}
+		Random random = new Random(BenchDatabase.seed);
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		pizzas = new Pizza[PIZZAS];
+		for (int i = 0; i < PIZZAS; i++) {
+			pizzas[i] = BenchData.randomPizza(random, ref, now);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		BenchDatabase.shutdown();
+	}
+
+	@Benchmark
+	public Pizza checkPizzaPrice() throws SQLException {
+		Pizza p = pizzas[next];
+		next = (next + 1) % PIZZAS;
+		DBSession.checkPizzaPrice(ref.priceMatrix(), p);
+		return p;
+	}
+
+	@Benchmark
+	public long quotePizza() {
+		Pizza p = pizzas[next];
+		next = (next + 1) % PIZZAS;
+		return ref.priceMatrix().quote(p, true);
+	}
+}
@@ -0,0 +1,62 @@
+package cpsc4620;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The three print*Report methods, once per report source. System.out is
+ * swapped for a stream that discards its input while measuring, so the
+ * numbers include formatting but not the terminal.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReportBenchmark {
+
+	@Param({"VIEW", "SUMMARY", "ENGINE"})
+	public ReportSource source;
+
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		BenchDatabase.ensureReady();
+		DBNinja.setReportSource(source);
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+		BenchDatabase.shutdown();
+	}
+
+	@Benchmark
+	public void printToppingReport() throws Exception {
+		DBNinja.printToppingReport();
+	}
+
+	@Benchmark
+	public void printProfitByPizzaReport() throws Exception {
+		DBNinja.printProfitByPizzaReport();
+	}
+
+	@Benchmark
+	public void printProfitByOrderTypeReport() throws Exception {
+		DBNinja.printProfitByOrderTypeReport();
+	}
+}
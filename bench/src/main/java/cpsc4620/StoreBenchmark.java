@@ -0,0 +1,120 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/*
+ * The same PizzaStore calls on MySqlStore and on EmbeddedStore (a fresh
+ * store in a temporary directory, forcing its log on every write like
+ * InnoDB does). Orders are built from the store's own catalog, and each
+ * store gets the same preloaded orders for getOrder to read.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StoreBenchmark {
+
+	private static final int PRELOADED = 2000;
+
+	@Param({"mysql", "embedded"})
+	public String store;
+
+	private PizzaStore s;
+	private Path embeddedDir;
+	private Random random;
+	private int[] custIds;
+	private ReferenceData.Snapshot ref;
+	private int[] orderIds;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		if (store.equals("mysql")) {
+			BenchDatabase.ensureReady();
+			s = new MySqlStore();
+		} else {
+			embeddedDir = Files.createTempDirectory("pizzadb-bench-store");
+			s = new EmbeddedStore(embeddedDir, true, 64L << 20, BenchDatabase.seedScript());
+		}
+		random = new Random(BenchDatabase.seed);
+		ArrayList<Customer> customers = s.getCustomerList();
+		custIds = new int[customers.size()];
+		for (int i = 0; i < custIds.length; i++) {
+			custIds[i] = customers.get(i).getCustID();
+		}
+		ref = catalog(s);
+
+		restock();
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		orderIds = new int[PRELOADED];
+		for (int i = 0; i < PRELOADED; i++) {
+			Order o = BenchData.randomOrder(random, ref, 2, custIds, now);
+			s.addOrder(o);
+			orderIds[i] = o.getOrderID();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		s.close();
+		if (embeddedDir != null) {
+			try (Stream<Path> files = Files.walk(embeddedDir)) {
+				for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+					Files.delete(p);
+				}
+			}
+		}
+		BenchDatabase.shutdown();
+	}
+
+	@Setup(Level.Iteration)
+	public void restock() throws SQLException, IOException {
+		// write benchmarks consume toppings; keep them from running out mid-run
+		for (Topping t : s.getToppingList()) {
+			s.addToInventory(t.getTopID(), 1_000_000_000 - t.getCurINVT());
+		}
+	}
+
+	@Benchmark
+	public int addOrder() throws Exception {
+		Order o = BenchData.randomOrder(random, ref, 1, custIds, new Timestamp(System.currentTimeMillis()));
+		s.addOrder(o);
+		return o.getOrderID();
+	}
+
+	@Benchmark
+	public Order getOrder() throws Exception {
+		return s.getOrder(orderIds[random.nextInt(orderIds.length)]);
+	}
+
+	private static ReferenceData.Snapshot catalog(PizzaStore s) throws SQLException, IOException {
+		// the store's prices, toppings and discounts, for BenchData to build orders from
+		double[][] prices = new double[PizzaSize.COUNT * CrustType.COUNT][];
+		for (PizzaSize size : PizzaSize.values()) {
+			for (CrustType crust : CrustType.values()) {
+				prices[ReferenceData.basePriceIndex(size, crust)] = new double[]{
+						s.getBaseCustPrice(size.label, crust.label), s.getBaseBusPrice(size.label, crust.label)};
+			}
+		}
+		return ReferenceData.of(prices, s.getToppingList(), s.getDiscountList());
+	}
+}
@@ -0,0 +1,132 @@
+package cpsc4620;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/*
+ * The contract on EmbeddedStore, plus its recovery: a crash is simulated by
+ * copying the store's files while it is open (before close() writes its
+ * final snapshot) and opening the copy.
+ */
+
+class EmbeddedStoreTest extends PizzaStoreContract {
+
+	private static final long CHECKPOINT_BYTES = 64L << 20;
+
+	@TempDir
+	static Path dir;
+
+	private static Path seed;
+	private static EmbeddedStore store;
+
+	@BeforeAll
+	static void open() throws IOException {
+		seed = BenchDatabase.seedScript();
+		store = new EmbeddedStore(dir.resolve("store"), true, CHECKPOINT_BYTES, seed);
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		store.close();
+	}
+
+	@Override
+	PizzaStore store() {
+		return store;
+	}
+
+	@Test
+	void tornLogTailIsCutOnOpen(@TempDir Path tmp) throws Exception {
+		Path live = tmp.resolve("live");
+		Path crashed = tmp.resolve("crashed");
+		Order first = dineIn(store, TODAY, DBNinja.size_l, DBNinja.crust_thin, "Pepperoni");
+		Order second = dineIn(store, TODAY, DBNinja.size_m, DBNinja.crust_pan, "Ham");
+		try (EmbeddedStore s = new EmbeddedStore(live, true, CHECKPOINT_BYTES, seed)) {
+			s.addOrder(first);
+			s.addOrder(second);
+			crashImage(live, crashed);
+		}
+
+		// the last frame (the second order) loses its last bytes
+		try (FileChannel log = FileChannel.open(crashed.resolve("log.db"), StandardOpenOption.WRITE)) {
+			log.truncate(log.size() - 5);
+		}
+
+		Order third = dineIn(store, TODAY, DBNinja.size_s, DBNinja.crust_gf, "Onion");
+		try (EmbeddedStore s = new EmbeddedStore(crashed, true, CHECKPOINT_BYTES, seed)) {
+			assertSameOrder(first, s.getOrder(first.getOrderID()));
+			assertNull(s.getOrder(second.getOrderID()));
+			assertEquals(first.getOrderID(), s.getLastOrder().getOrderID());
+
+			// the log was cut back to its last whole frame, so new writes land after it
+			s.addOrder(third);
+			assertEquals(second.getOrderID(), third.getOrderID());
+		}
+		try (EmbeddedStore s = new EmbeddedStore(crashed, true, CHECKPOINT_BYTES, seed)) {
+			assertSameOrder(first, s.getOrder(first.getOrderID()));
+			assertSameOrder(third, s.getOrder(third.getOrderID()));
+		}
+	}
+
+	@Test
+	void checkpointIsReloaded(@TempDir Path tmp) throws Exception {
+		Path live = tmp.resolve("live");
+		Path crashed = tmp.resolve("crashed");
+		ArrayList<Order> added = new ArrayList<>();
+		int pepperoni;
+		try (EmbeddedStore s = new EmbeddedStore(live, true, 4096, seed)) {
+			s.addToInventory(s.findToppingByName("Pepperoni").getTopID(), 1000);
+			for (int i = 0; i < 40; i++) {
+				Order o = dineIn(s, TODAY, BenchData.SIZES[i % 4], BenchData.CRUSTS[i / 4 % 4], "Pepperoni");
+				s.addOrder(o);
+				added.add(o);
+			}
+			pepperoni = s.findToppingByName("Pepperoni").getCurINVT();
+
+			// the log has been checkpointed into the snapshot at least once
+			assertTrue(Files.exists(live.resolve("snapshot.db")));
+			assertTrue(Files.size(live.resolve("log.db")) < 4096);
+			// snapshot plus the log since it, as a crash would leave them
+			crashImage(live, crashed);
+		}
+
+		// after close(): the snapshot alone; after the crash: snapshot and log
+		for (Path d : new Path[]{live, crashed}) {
+			try (EmbeddedStore s = new EmbeddedStore(d, true, 4096, seed)) {
+				for (Order o : added) {
+					assertSameOrder(o, s.getOrder(o.getOrderID()));
+				}
+				assertEquals(added.get(added.size() - 1).getOrderID(), s.getLastOrder().getOrderID());
+				assertEquals(pepperoni, s.findToppingByName("Pepperoni").getCurINVT());
+				assertNotNull(s.findCustomerByPhone(s.getCustomerList().get(0).getPhone()));
+			}
+		}
+	}
+
+	private static void crashImage(Path from, Path to) throws IOException {
+		// the store's files as they are on disk now; the lock file is left behind
+		Files.createDirectories(to);
+		try (Stream<Path> files = Files.list(from)) {
+			for (Path f : (Iterable<Path>) files::iterator) {
+				if (!f.getFileName().toString().equals("store.lock")) {
+					Files.copy(f, to.resolve(f.getFileName()));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package cpsc4620;
+
+import java.sql.SQLException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+
+/*
+ * The contract on MySqlStore, on the schema BenchDatabase creates (see the
+ * surefire settings in pom.xml): the embedded MariaDB with -Pembedded, or
+ * the server pizzadb.url names. Skipped when there is no server to reach.
+ */
+
+class MySqlStoreTest extends PizzaStoreContract {
+
+	private static MySqlStore store;
+
+	@BeforeAll
+	static void open() throws Exception {
+		try {
+			BenchDatabase.ensureReady();
+		} catch (SQLException e) {
+			// SQLSTATE class 08: no connection
+			if (e.getSQLState() == null || !e.getSQLState().startsWith("08")) {
+				throw e;
+			}
+			Assumptions.abort("No MySQL server to test against: " + e.getMessage());
+		}
+		store = new MySqlStore();
+	}
+
+	@AfterAll
+	static void close() {
+		BenchDatabase.shutdown();
+	}
+
+	@Override
+	PizzaStore store() {
+		return store;
+	}
+}
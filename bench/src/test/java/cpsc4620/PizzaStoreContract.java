@@ -0,0 +1,312 @@
+package cpsc4620;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ * What every PizzaStore must do the same way, run against each store by a
+ * subclass (MySqlStoreTest, EmbeddedStoreTest). The stores don't start out
+ * with the same orders, so the tests look at the difference their own
+ * writes make; orders that feed a report check go in a month no other test
+ * uses.
+ */
+
+abstract class PizzaStoreContract {
+
+	static final String TODAY = "2030-01-15 12:00:00";
+
+	abstract PizzaStore store();
+
+	// =========================================================
+	// ORDERS
+	// =========================================================
+
+	@Test
+	void addOrderAssignsIdsAndReadsBack() throws Exception {
+		PizzaStore s = store();
+		Order o = dineIn(s, TODAY, DBNinja.size_l, DBNinja.crust_thin, "Pepperoni", "Sausage");
+		s.addOrder(o);
+
+		assertTrue(o.getOrderID() > 0);
+		Pizza added = o.getPizzaList().get(0);
+		assertTrue(added.getPizzaID() > 0);
+		assertEquals(o.getOrderID(), added.getOrderID());
+
+		Order back = s.getOrder(o.getOrderID());
+		assertNotNull(back);
+		assertEquals(o.getOrderID(), s.getLastOrder().getOrderID());
+		assertTrue(back instanceof DineinOrder);
+		assertEquals(7, ((DineinOrder) back).getTableNum());
+		assertEquals(o.getCustPrice(), back.getCustPrice(), 0.005);
+		assertEquals(o.getBusPrice(), back.getBusPrice(), 0.005);
+		assertEquals(1, back.getPizzaList().size());
+		Pizza p = back.getPizzaList().get(0);
+		assertEquals(added.getPizzaID(), p.getPizzaID());
+		assertEquals(DBNinja.size_l, p.getSize());
+		assertEquals(DBNinja.crust_thin, p.getCrustType());
+		assertEquals(List.of("Pepperoni", "Sausage"), toppingNames(p));
+	}
+
+	@Test
+	void submitOrderCompletesWithTheOrderId() throws Exception {
+		PizzaStore s = store();
+		Order o = dineIn(s, TODAY, DBNinja.size_m, DBNinja.crust_pan, "Ham");
+		int id = s.submitOrder(o).get(30, TimeUnit.SECONDS);
+
+		assertEquals(id, o.getOrderID());
+		assertNotNull(s.getOrder(id));
+	}
+
+	@Test
+	void addOrderRejectsAMissingCustomer() throws Exception {
+		PizzaStore s = store();
+		int last = s.getLastOrder() == null ? 0 : s.getLastOrder().getOrderID();
+		int stock = s.findToppingByName("Pepperoni").getCurINVT();
+
+		Pizza p = pizza(s, TODAY, DBNinja.size_l, DBNinja.crust_thin, "Pepperoni");
+		PickupOrder o = new PickupOrder(0, 999_999, TODAY, p.getCustPrice(), p.getBusPrice(), false, false);
+		o.addPizza(p);
+		assertThrows(SQLIntegrityConstraintViolationException.class, () -> s.addOrder(o));
+
+		// nothing of the order was kept
+		assertEquals(last, s.getLastOrder() == null ? 0 : s.getLastOrder().getOrderID());
+		assertEquals(stock, s.findToppingByName("Pepperoni").getCurINVT());
+	}
+
+	@Test
+	void addOrderRejectsAPizzaPricedOffTheMenu() throws Exception {
+		PizzaStore s = store();
+		Pizza p = new Pizza(0, DBNinja.size_l, DBNinja.crust_thin, 0, "In Progress", TODAY, 1.00, 0.50);
+		DineinOrder o = new DineinOrder(0, -1, TODAY, 1.00, 0.50, false, 7);
+		o.addPizza(p);
+
+		assertThrows(SQLDataException.class, () -> s.addOrder(o));
+	}
+
+	// =========================================================
+	// INVENTORY
+	// =========================================================
+
+	@Test
+	void addOrderTakesToppingsOutOfStock() throws Exception {
+		PizzaStore s = store();
+		Topping before = s.findToppingByName("Green Pepper");
+
+		s.addOrder(dineIn(s, TODAY, DBNinja.size_xl, DBNinja.crust_orig, "Green Pepper"));
+
+		int used = (int) Math.ceil(before.getXLAMT());
+		assertEquals(before.getCurINVT() - used, s.findToppingByName("Green Pepper").getCurINVT());
+		assertEquals(before.getCurINVT() - used, listed(s, "Green Pepper").getCurINVT());
+
+		s.addToInventory(before.getTopID(), used);
+		assertEquals(before.getCurINVT(), s.findToppingByName("Green Pepper").getCurINVT());
+	}
+
+	@Test
+	void addOrderFailsWhenAToppingRunsOut() throws Exception {
+		PizzaStore s = store();
+		Topping t = s.findToppingByName("Pineapple");
+		s.addToInventory(t.getTopID(), -t.getCurINVT());
+		try {
+			int last = s.getLastOrder() == null ? 0 : s.getLastOrder().getOrderID();
+			Order o = dineIn(s, TODAY, DBNinja.size_s, DBNinja.crust_thin, "Pineapple");
+			SQLException e = assertThrows(SQLException.class, () -> s.addOrder(o));
+			assertTrue(e.getMessage().contains("Pineapple"), e.getMessage());
+			assertEquals(last, s.getLastOrder() == null ? 0 : s.getLastOrder().getOrderID());
+			assertEquals(0, s.findToppingByName("Pineapple").getCurINVT());
+		} finally {
+			s.addToInventory(t.getTopID(), t.getCurINVT());
+		}
+		assertEquals(t.getCurINVT(), s.findToppingByName("Pineapple").getCurINVT());
+	}
+
+	// =========================================================
+	// CUSTOMERS
+	// =========================================================
+
+	@Test
+	void addCustomerIsFoundByPhone() throws Exception {
+		PizzaStore s = store();
+		String phone = String.format("864%07d", System.nanoTime() % 10_000_000L);
+		int id = s.addCustomer(new Customer(0, "Contract", "Test", phone));
+
+		assertTrue(id > 0);
+		Customer c = s.findCustomerByPhone(phone);
+		assertNotNull(c);
+		assertEquals(id, c.getCustID());
+		assertEquals("Contract", c.getFName());
+		assertEquals("Test", c.getLName());
+		assertNull(s.findCustomerByPhone("0000000000"));
+	}
+
+	// =========================================================
+	// REPORTS
+	// =========================================================
+
+	@Test
+	void reportsCountNewOrders() throws Exception {
+		PizzaStore s = store();
+		// before 2038: MariaDB binds a later TIMESTAMP parameter as NULL
+		String date = "2037-06-15 12:00:00";
+		String month = "6/2037";
+		long pepperoni = toppingCount(s, "Pepperoni");
+
+		Order first = dineIn(s, date, DBNinja.size_l, DBNinja.crust_thin, "Pepperoni");
+		Order second = dineIn(s, date, DBNinja.size_l, DBNinja.crust_thin);
+		s.addOrder(first);
+		s.addOrder(second);
+		double price = first.getCustPrice() + second.getCustPrice();
+		double cost = first.getBusPrice() + second.getBusPrice();
+
+		assertEquals(pepperoni + 1, toppingCount(s, "Pepperoni"));
+
+		String[] pizzaRow = null;
+		for (String[] r : printed(s::printProfitByPizzaReport, 20)) {
+			if (month.equals(r[3])) {
+				assertNull(pizzaRow, "one row per size, crust and month");
+				pizzaRow = r;
+			}
+		}
+		assertNotNull(pizzaRow);
+		assertEquals(DBNinja.size_l, pizzaRow[0]);
+		assertEquals(DBNinja.crust_thin, pizzaRow[1]);
+		assertEquals(price - cost, new BigDecimal(pizzaRow[2]).doubleValue(), 0.005);
+
+		String[] typeRow = null;
+		for (String[] r : printed(s::printProfitByOrderTypeReport, 20)) {
+			if (month.equals(r[1])) {
+				typeRow = r;
+			}
+		}
+		assertNotNull(typeRow);
+		assertEquals(DBNinja.dine_in, typeRow[0]);
+		assertEquals(price, new BigDecimal(typeRow[2]).doubleValue(), 0.005);
+		assertEquals(cost, new BigDecimal(typeRow[3]).doubleValue(), 0.005);
+		assertEquals(price - cost, new BigDecimal(typeRow[4]).doubleValue(), 0.005);
+	}
+
+	// =========================================================
+	// HELPERS
+	// =========================================================
+
+	static Pizza pizza(PizzaStore s, String date, String size, String crust, String... toppings) throws Exception {
+		// priced the way Menu prices it
+		Pizza p = new Pizza(0, size, crust, 0, "In Progress", date,
+				s.getBaseCustPrice(size, crust), s.getBaseBusPrice(size, crust));
+		for (String name : toppings) {
+			p.addToppings(s.findToppingByName(name), false);
+		}
+		return p;
+	}
+
+	static Order dineIn(PizzaStore s, String date, String size, String crust, String... toppings) throws Exception {
+		Pizza p = pizza(s, date, size, crust, toppings);
+		DineinOrder o = new DineinOrder(0, -1, date, p.getCustPrice(), p.getBusPrice(), false, 7);
+		o.addPizza(p);
+		return o;
+	}
+
+	static List<String> toppingNames(Pizza p) {
+		ArrayList<String> names = new ArrayList<>();
+		for (Topping t : p.getToppings()) {
+			names.add(t.getTopName());
+		}
+		names.sort(null);
+		return names;
+	}
+
+	static void assertSameOrder(Order expected, Order actual) {
+		assertNotNull(actual);
+		assertEquals(expected.getOrderID(), actual.getOrderID());
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.getCustID(), actual.getCustID());
+		assertEquals(expected.getCustPrice(), actual.getCustPrice(), 0.005);
+		assertEquals(expected.getBusPrice(), actual.getBusPrice(), 0.005);
+		assertEquals(expected.getIsComplete(), actual.getIsComplete());
+		assertEquals(expected.getPizzaList().size(), actual.getPizzaList().size());
+		for (int i = 0; i < expected.getPizzaList().size(); i++) {
+			Pizza e = expected.getPizzaList().get(i);
+			Pizza a = actual.getPizzaList().get(i);
+			assertEquals(e.getPizzaID(), a.getPizzaID());
+			assertEquals(e.getSize(), a.getSize());
+			assertEquals(e.getCrustType(), a.getCrustType());
+			assertEquals(toppingNames(e), toppingNames(a));
+		}
+	}
+
+	private static Topping listed(PizzaStore s, String name) throws Exception {
+		for (Topping t : s.getToppingList()) {
+			if (t.getTopName().equals(name)) {
+				return t;
+			}
+		}
+		return null;
+	}
+
+	private static long toppingCount(PizzaStore s, String name) throws Exception {
+		// the name column is 15 wide but some names are longer; the count is the last field
+		for (String line : printed(s::printToppingReport)) {
+			String row = line.trim();
+			int split = row.lastIndexOf(' ');
+			if (split > 0 && name.equals(row.substring(0, split).trim())) {
+				return Long.parseLong(row.substring(split + 1));
+			}
+		}
+		return 0;
+	}
+
+	interface Report {
+		void print() throws Exception;
+	}
+
+	private static List<String[]> printed(Report report, int width) throws Exception {
+		// the rows a report prints, split into its fixed-width columns
+		ArrayList<String[]> rows = new ArrayList<>();
+		for (String line : printed(report)) {
+			ArrayList<String> columns = new ArrayList<>();
+			for (int at = 0; at < line.length(); at += width) {
+				columns.add(line.substring(at, Math.min(line.length(), at + width)).trim());
+			}
+			rows.add(columns.toArray(new String[0]));
+		}
+		return rows;
+	}
+
+	private static List<String> printed(Report report) throws Exception {
+		// the lines a report prints, without its two header lines
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+		try {
+			report.print();
+		} finally {
+			System.setOut(out);
+		}
+
+		ArrayList<String> rows = new ArrayList<>();
+		String[] lines = buffer.toString(StandardCharsets.UTF_8).split("\\R");
+		for (int i = 2; i < lines.length; i++) {
+			if (!lines[i].isBlank()) {
+				rows.add(lines[i]);
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,145 @@
+package cpsc4620;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/*
+ * The at= call site QueryTracer logs, through the same layers as in the
+ * application: a DBSession on a pooled connection, whose statements come
+ * from the StatementCache and whose results are counted by DBMetrics, over
+ * a traced connection. The driver underneath is a stub that records the
+ * call site each time it runs a statement or reads a row; frames above
+ * the tracer are dropped first, as they are when the tracer looks the site
+ * up itself.
+ */
+
+class QueryTracerTest {
+
+	private final List<String> sites = new ArrayList<>();
+	private ConnectionPool pool;
+
+	@BeforeEach
+	void open() {
+		pool = new ConnectionPool(() -> QueryTracer.trace(driver()), 0, 1, 60_000L, 60_000L, 0L, 1_000L, 8);
+	}
+
+	@AfterEach
+	void close() {
+		pool.close();
+	}
+
+	@Test
+	void selectNamesTheSessionMethod() throws Exception {
+		DBMetrics.Call call = DBMetrics.begin("QueryTracerTest.select");
+		try (DBSession s = new DBSession(pool.borrow())) {
+			s.getCustomerName(1);
+		} finally {
+			DBMetrics.end(call, true);
+		}
+		assertSites("DBSession.getCustomerName(");
+	}
+
+	@Test
+	void updateNamesTheSessionMethod() throws Exception {
+		try (DBSession s = new DBSession(pool.borrow())) {
+			s.addCustomer(new Customer(0, "Ada", "Lovelace", "8645550100"));
+		}
+		assertSites("DBSession.addCustomer(");
+	}
+
+	private void assertSites(String expected) {
+		assertTrue(!sites.isEmpty(), "the driver ran nothing");
+		for (String site : sites) {
+			assertTrue(site.startsWith(expected), "at=" + site + ", expected " + expected + "...)");
+		}
+	}
+
+	private void recordSite() {
+		String tracer = QueryTracer.class.getName();
+		sites.add(StackWalker.getInstance().walk(frames -> QueryTracer.callSite(frames.dropWhile(
+				f -> !f.getClassName().equals(tracer) && !f.getClassName().startsWith(tracer + "$")))));
+	}
+
+	// =========================================================
+	// STUB DRIVER
+	// =========================================================
+
+	private Connection driver() {
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "prepareStatement":
+							return statement();
+						case "isValid":
+						case "getAutoCommit":
+							return true;
+						default:
+							return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private PreparedStatement statement() {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[]{PreparedStatement.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "executeQuery":
+							recordSite();
+							return result(true);
+						case "executeUpdate":
+							recordSite();
+							return 1;
+						case "getGeneratedKeys":
+							// not an execution, so the tracer doesn't see it
+							return result(false);
+						default:
+							return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private ResultSet result(boolean traced) {
+		// one row whose columns are all 1 / "1"
+		int[] read = {0};
+		return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "next":
+							if (traced) {
+								recordSite();
+							}
+							return read[0]++ == 0;
+						case "getInt":
+							return 1;
+						case "getString":
+							return "1";
+						default:
+							return defaultValue(method.getReturnType());
+					}
+				});
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return false;
+		}
+		if (type == int.class) {
+			return 0;
+		}
+		if (type == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
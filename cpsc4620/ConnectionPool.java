@@ -0,0 +1,462 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * A small JDBC connection pool that sits behind DBConnector.
+ *
+ * Physical connections are opened through DBConnector.make_connection() and
+ * kept open between calls. Callers borrow a logical handle and give it back
+ * by calling close() on it (try-with-resources), which returns the physical
+ * connection to the idle stack instead of closing it.
+ *
+ *   - minIdle / maxSize bound how many physical connections exist
+ *   - connections idle longer than idleTimeout are evicted (down to minIdle)
+ *   - a connection is only pinged if it sat idle longer than validationInterval
+ *   - handles held longer than leakThreshold are reported (0 turns this off),
+ *     with their borrow site if traceBorrows is on; capturing it costs a
+ *     stack walk per borrow, so it is off by default
+ *   - borrow latency is recorded so pool pressure is visible
+ *   - each physical connection keeps its own prepared statement cache
+ */
+
+public final class ConnectionPool {
+
+	/*
+	 * Opens a new physical connection. DBConnector::make_connection fits this.
+	 */
+	public interface ConnectionFactory {
+		Connection create() throws SQLException, IOException;
+	}
+
+	private final ConnectionFactory factory;
+	private final int minIdle;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long validationIntervalMillis;
+	private final long leakThresholdMillis;
+	private final long borrowTimeoutMillis;
+	private final int statementCacheSize;
+	private final boolean traceBorrows;
+
+	// Most recently returned connection sits at the head, so hot connections
+	// get reused and cold ones drift to the tail where eviction finds them.
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+	private final Set<PooledConnection> leased = ConcurrentHashMap.newKeySet();
+	private final Semaphore permits;
+	private final ScheduledExecutorService housekeeper;
+	private volatile boolean closed;
+
+	// statistics
+	private final LongAdder borrows = new LongAdder();
+	private final LongAdder creates = new LongAdder();
+	private final LongAdder validations = new LongAdder();
+	private final LongAdder validationFailures = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder leaks = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder borrowNanosTotal = new LongAdder();
+	private final AtomicLong borrowNanosMax = new AtomicLong();
+	private final LongAdder statementHits = new LongAdder();
+	private final LongAdder statementMisses = new LongAdder();
+	private final LongAdder roundTrips = new LongAdder();
+
+	public ConnectionPool(ConnectionFactory factory, int minIdle, int maxSize, long idleTimeoutMillis,
+	                      long validationIntervalMillis, long leakThresholdMillis, long borrowTimeoutMillis,
+	                      int statementCacheSize) {
+		this(factory, minIdle, maxSize, idleTimeoutMillis, validationIntervalMillis, leakThresholdMillis,
+				borrowTimeoutMillis, statementCacheSize, false);
+	}
+
+	public ConnectionPool(ConnectionFactory factory, int minIdle, int maxSize, long idleTimeoutMillis,
+	                      long validationIntervalMillis, long leakThresholdMillis, long borrowTimeoutMillis,
+	                      int statementCacheSize, boolean traceBorrows) {
+		if (maxSize <= 0 || minIdle < 0 || minIdle > maxSize) {
+			throw new IllegalArgumentException("Invalid pool sizing: min=" + minIdle + ", max=" + maxSize);
+		}
+		this.factory = factory;
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.validationIntervalMillis = validationIntervalMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.traceBorrows = traceBorrows;
+		this.permits = new Semaphore(maxSize, true);
+
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pizzadb-pool-housekeeper");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000L, (leakThresholdMillis > 0 ? Math.min(idleTimeoutMillis, leakThresholdMillis)
+				: idleTimeoutMillis) / 2);
+		housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	// =========================================================
+	// BORROW / RELEASE
+	// =========================================================
+
+	public Connection borrow() throws SQLException, IOException {
+		/*
+		 * Hands out a logical connection. Waits up to borrowTimeout for a free
+		 * slot when the pool is at maxSize.
+		 */
+
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeouts.increment();
+				throw new SQLException("Timed out after " + borrowTimeoutMillis
+						+ " ms waiting for a database connection (" + leased.size() + " in use)");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+
+		PooledConnection pc;
+		try {
+			pc = takeIdleOrCreate();
+		} catch (SQLException | IOException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+
+		pc.borrowedAt = System.currentTimeMillis();
+		pc.borrowSite = traceBorrows ? new Throwable("Connection borrowed here") : null;
+		pc.leakReported = false;
+		leased.add(pc);
+
+		long elapsed = System.nanoTime() - start;
+		borrows.increment();
+		borrowNanosTotal.add(elapsed);
+		borrowNanosMax.accumulateAndGet(elapsed, Math::max);
+
+		return pc.newHandle();
+	}
+
+	private PooledConnection takeIdleOrCreate() throws SQLException, IOException {
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			if (isUsable(pc)) {
+				return pc;
+			}
+			discard(pc);
+		}
+
+		Connection raw = factory.create();
+		if (raw == null) {
+			throw new SQLException("Could not open a database connection");
+		}
+		creates.increment();
+		return new PooledConnection(raw);
+	}
+
+	private boolean isUsable(PooledConnection pc) {
+		/*
+		 * Cheap validation: a connection that was used recently is trusted,
+		 * only one that sat idle past the validation interval gets pinged.
+		 */
+		try {
+			if (pc.raw.isClosed()) {
+				return false;
+			}
+			if (System.currentTimeMillis() - pc.lastUsed < validationIntervalMillis) {
+				return true;
+			}
+			validations.increment();
+			if (pc.raw.isValid(2)) {
+				return true;
+			}
+		} catch (SQLException e) {
+			// fall through, treat as broken
+		}
+		validationFailures.increment();
+		return false;
+	}
+
+	private void release(PooledConnection pc) {
+		/*
+		 * Resets per-borrower state and puts the connection back on the idle stack.
+		 * An abandoned transaction is rolled back rather than leaked to the next borrower.
+		 */
+
+		if (!leased.remove(pc)) {
+			return;
+		}
+
+		boolean reusable = !closed;
+		try {
+			if (pc.raw.isClosed()) {
+				reusable = false;
+			} else if (!pc.raw.getAutoCommit()) {
+				pc.raw.rollback();
+				pc.raw.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			reusable = false;
+		}
+
+		pc.borrowSite = null;
+		pc.lastUsed = System.currentTimeMillis();
+
+		if (reusable) {
+			idle.offerFirst(pc);
+		} else {
+			discard(pc);
+		}
+		permits.release();
+	}
+
+	private void discard(PooledConnection pc) {
+		pc.statements.closeAll();
+		try {
+			pc.raw.close();
+		} catch (SQLException e) {
+			// already broken, nothing more to do
+		}
+	}
+
+	// =========================================================
+	// HOUSEKEEPING (IDLE EVICTION, MIN IDLE, LEAK DETECTION)
+	// =========================================================
+
+	private void housekeep() {
+		if (closed) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		// evict connections idle too long, oldest first, but keep minIdle around
+		Iterator<PooledConnection> it = idle.descendingIterator();
+		while (it.hasNext() && idle.size() > minIdle) {
+			PooledConnection pc = it.next();
+			if (now - pc.lastUsed > idleTimeoutMillis && idle.removeLastOccurrence(pc)) {
+				evictions.increment();
+				discard(pc);
+			}
+		}
+
+		// top the idle stack back up to minIdle
+		while (idle.size() + leased.size() < minIdle && permits.tryAcquire()) {
+			try {
+				Connection raw = factory.create();
+				if (raw != null) {
+					creates.increment();
+					idle.offerLast(new PooledConnection(raw));
+				}
+			} catch (SQLException | IOException e) {
+				break;
+			} finally {
+				permits.release();
+			}
+		}
+
+		// report handles that have been out too long
+		if (leakThresholdMillis > 0) {
+			for (PooledConnection pc : leased) {
+				if (!pc.leakReported && now - pc.borrowedAt > leakThresholdMillis) {
+					pc.leakReported = true;
+					leaks.increment();
+					System.err.println("Possible connection leak: connection held for "
+							+ (now - pc.borrowedAt) + " ms");
+					Throwable site = pc.borrowSite;
+					if (site != null) {
+						site.printStackTrace();
+					} else {
+						System.err.println("  (run with -Dpizzadb.pool.traceBorrows=true to see where it was borrowed)");
+					}
+				}
+			}
+		}
+	}
+
+	public void close() {
+		/*
+		 * Closes every idle connection. Leased connections are closed as they come back.
+		 */
+		closed = true;
+		housekeeper.shutdownNow();
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null) {
+			discard(pc);
+		}
+	}
+
+	// =========================================================
+	// STATISTICS
+	// =========================================================
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getActiveCount() {
+		return leased.size();
+	}
+
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	public long getBorrowCount() {
+		return borrows.sum();
+	}
+
+	public long getCreatedCount() {
+		return creates.sum();
+	}
+
+	public long getLeakCount() {
+		return leaks.sum();
+	}
+
+	public double getAverageBorrowMillis() {
+		long n = borrows.sum();
+		return n == 0 ? 0.0 : borrowNanosTotal.sum() / (double) n / 1_000_000.0;
+	}
+
+	public double getMaxBorrowMillis() {
+		return borrowNanosMax.get() / 1_000_000.0;
+	}
+
+	public long getStatementCacheHits() {
+		return statementHits.sum();
+	}
+
+	public long getStatementCacheMisses() {
+		return statementMisses.sum();
+	}
+
+	public long getRoundTripCount() {
+		/*
+		 * Statement executions plus transaction control calls made through
+		 * pooled connections. Diff it around an operation to see its cost.
+		 */
+		return roundTrips.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPool [active=" + leased.size() + ", idle=" + idle.size() + ", max=" + maxSize
+				+ ", borrows=" + borrows.sum() + ", created=" + creates.sum()
+				+ ", validations=" + validations.sum() + ", validationFailures=" + validationFailures.sum()
+				+ ", evicted=" + evictions.sum() + ", leaks=" + leaks.sum() + ", timeouts=" + timeouts.sum()
+				+ ", stmtCacheHits=" + statementHits.sum() + ", stmtCacheMisses=" + statementMisses.sum()
+				+ ", roundTrips=" + roundTrips.sum()
+				+ String.format(", avgBorrowMs=%.3f, maxBorrowMs=%.3f]", getAverageBorrowMillis(), getMaxBorrowMillis());
+	}
+
+	// =========================================================
+	// POOLED CONNECTION + LOGICAL HANDLE
+	// =========================================================
+
+	private final class PooledConnection {
+		final Connection raw;
+		final StatementCache statements;
+		volatile long lastUsed = System.currentTimeMillis();
+		volatile long borrowedAt;
+		volatile Throwable borrowSite;
+		volatile boolean leakReported;
+
+		PooledConnection(Connection raw) {
+			this.raw = raw;
+			this.statements = new StatementCache(raw, statementCacheSize, statementHits, statementMisses, roundTrips);
+		}
+
+		Connection newHandle() {
+			/*
+			 * Each borrow gets its own proxy so a stale reference kept after
+			 * close() cannot touch the connection once someone else has it.
+			 */
+			return (Connection) Proxy.newProxyInstance(
+					Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class},
+					new Handle(this));
+		}
+	}
+
+	private final class Handle implements InvocationHandler {
+		private final PooledConnection pc;
+		private volatile boolean returned;
+
+		Handle(PooledConnection pc) {
+			this.pc = pc;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (!returned) {
+						returned = true;
+						release(pc);
+					}
+					return null;
+				case "isClosed":
+					return returned || pc.raw.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "Pooled" + pc.raw;
+				default:
+					break;
+			}
+
+			if (returned) {
+				throw new SQLException("Connection has already been returned to the pool");
+			}
+			switch (method.getName()) {
+				case "commit":
+				case "rollback":
+				case "setAutoCommit":
+					roundTrips.increment();
+					DBMetrics.roundTrip();
+					break;
+				default:
+					break;
+			}
+			if (method.getName().equals("prepareStatement")) {
+				Class<?>[] types = method.getParameterTypes();
+				if (types.length == 1) {
+					return pc.statements.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+				}
+				if (types.length == 2 && types[1] == int.class) {
+					return pc.statements.prepare((String) args[0], (Integer) args[1]);
+				}
+			}
+			try {
+				return method.invoke(pc.raw, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package cpsc4620;
+
+/*
+ * Crust types, stored in pizza_CrustType / baseprice_CrustType as a MySQL
+ * ENUM since schema migration 3. The label is the column value and the
+ * DBNinja crust_* constant. Declaration order is the ENUM order, so only
+ * append.
+ */
+
+enum CrustType {
+	THIN(DBNinja.crust_thin),
+	ORIGINAL(DBNinja.crust_orig),
+	PAN(DBNinja.crust_pan),
+	GLUTEN_FREE(DBNinja.crust_gf);
+
+	private static final CrustType[] VALUES = values();
+	static final int COUNT = VALUES.length;
+
+	final String label;
+
+	CrustType(String label) {
+		this.label = label;
+	}
+
+	static CrustType of(String label) {
+		// null for null or an unknown label; case-insensitive like the column
+		if (label != null) {
+			for (CrustType c : VALUES) {
+				if (c.label.equalsIgnoreCase(label)) {
+					return c;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
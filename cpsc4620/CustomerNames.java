@@ -0,0 +1,115 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * LRU cache of "First Last" customer names keyed by CustID.
+ *
+ * Order's print methods resolve names through here instead of running a
+ * query per printed row. Listing screens call prefetch() with the orders they
+ * are about to print, which loads every missing name in one IN-list query
+ * per OrderHydrator.PAGE_SIZE ids.
+ *
+ * Names that are not found are not cached, so a customer added later still
+ * resolves. CustID -1 (dine-in, no customer) resolves to "" without a query.
+ */
+
+final class CustomerNames {
+
+	private static final int capacity = Integer.getInteger("pizzadb.customerNameCacheSize", 10_000);
+
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+
+	private static final LinkedHashMap<Integer, String> names =
+			new LinkedHashMap<Integer, String>(256, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+					return size() > capacity;
+				}
+			};
+
+	private CustomerNames() {
+	}
+
+	static String resolve(int custId) throws SQLException, IOException {
+		/*
+		 * Name for one customer, or "" if there is none.
+		 */
+
+		if (custId <= 0) {
+			return "";
+		}
+		String name = cached(custId);
+		if (name != null) {
+			hits.increment();
+			return name;
+		}
+		misses.increment();
+		name = DBNinja.store().getCustomerName(custId);
+		if (!name.isEmpty()) {
+			put(custId, name);
+		}
+		return name;
+	}
+
+	static void prefetch(Collection<? extends Order> orders) throws SQLException, IOException {
+		/*
+		 * Loads the names of every customer on these orders that isn't cached
+		 * yet, in as few queries as possible.
+		 */
+
+		LinkedHashSet<Integer> missing = new LinkedHashSet<>();
+		synchronized (names) {
+			for (Order o : orders) {
+				int id = o.getCustID();
+				if (id > 0 && !names.containsKey(id)) {
+					missing.add(id);
+				}
+			}
+		}
+		if (missing.isEmpty()) {
+			return;
+		}
+		misses.add(missing.size());
+
+		ArrayList<Integer> ids = new ArrayList<>(missing);
+		Map<Integer, String> found = DBNinja.store().getCustomerNames(ids);
+		synchronized (names) {
+			names.putAll(found);
+		}
+	}
+
+	static void clear() {
+		synchronized (names) {
+			names.clear();
+		}
+	}
+
+	static long getHitCount() {
+		return hits.sum();
+	}
+
+	static long getMissCount() {
+		return misses.sum();
+	}
+
+	private static String cached(int custId) {
+		synchronized (names) {
+			return names.get(custId);
+		}
+	}
+
+	private static void put(int custId, String name) {
+		synchronized (names) {
+			names.put(custId, name);
+		}
+	}
+}
@@ -11,39 +11,133 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Properties;
 
 public class DBConnector {
 
-    // enter your user name here
-    protected static String user = "root";
-    // enter your password here
-    protected static String password = "Aryan.Panchal@007";
-    // enter your database name here
-    private static String database_name = "PizzaDB";
-    // Do not change the port. 3306 is the default MySQL port
-    private static String url = "jdbc:mysql://localhost:3306";
-    private static Connection conn;
+    // enter your user name here (or -Dpizzadb.user)
+    protected static String user = System.getProperty("pizzadb.user", "root");
+    // enter your password here (or -Dpizzadb.password)
+    protected static String password = System.getProperty("pizzadb.password", "Aryan.Panchal@007");
+    // enter your database name here (or -Dpizzadb.database)
+    private static String database_name = System.getProperty("pizzadb.database", "PizzaDB");
+    // Do not change the port. 3306 is the default MySQL port.
+    // -Dpizzadb.url points the benchmarks at another server.
+    private static String url = System.getProperty("pizzadb.url", "jdbc:mysql://localhost:3306");
+    // connection pool sizing; override with -Dpizzadb.pool.* on the command line.
+    // Each concurrent DBSession holds one connection, so the default scales with cores.
+    private static final int pool_min_idle = Integer.getInteger("pizzadb.pool.minIdle", 1);
+    private static final int pool_max_size = Integer.getInteger("pizzadb.pool.maxSize",
+            Math.max(8, 2 * Runtime.getRuntime().availableProcessors()));
+    private static final long pool_idle_timeout_ms = Long.getLong("pizzadb.pool.idleTimeoutMs", 300_000L);
+    private static final long pool_validation_interval_ms = Long.getLong("pizzadb.pool.validationIntervalMs", 5_000L);
+    private static final long pool_leak_threshold_ms = Long.getLong("pizzadb.pool.leakThresholdMs", 60_000L);
+    // capture a stack trace per borrow so leak reports show where the handle came from (debugging only)
+    private static final boolean pool_trace_borrows = Boolean.getBoolean("pizzadb.pool.traceBorrows");
+    private static final long pool_borrow_timeout_ms = Long.getLong("pizzadb.pool.borrowTimeoutMs", 30_000L);
+    // prepared statements kept open per pooled connection (0 disables the cache)
+    private static final int pool_statement_cache_size = Integer.getInteger("pizzadb.pool.statementCacheSize", 64);
+    // prepare statements on the server so cached handles skip re-parsing the SQL
+    private static final boolean use_server_prepare =
+            Boolean.parseBoolean(System.getProperty("pizzadb.serverPrepare", "true"));
+
+    private static volatile boolean driverLoaded;
+    private static volatile ConnectionPool pool;
 
 
     /**
-     * This function will handle the connection to the database
+     * This function will handle the connection to the database.
+     * It always opens a new physical connection; application code should
+     * borrow from the pool with {@link #getConnection()} instead.
      *
-     * @return true if the connection was successfully made
+     * @return a new connection, or null if the driver could not be loaded
      * @throws SQLException
      * @throws IOException
      */
     public static Connection make_connection() throws SQLException, IOException {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-        } catch (ClassNotFoundException e) {
-            System.out.println("Could not load the driver");
+        return make_connection(new Properties());
+    }
+
+    /**
+     * Opens a new physical connection with extra driver properties on top of
+     * the usual ones. For tools like DataGenerator that need settings pooled
+     * connections must not have, such as allowLoadLocalInfile.
+     *
+     * @param extra driver properties that override the defaults
+     * @return a new connection, or null if the driver could not be loaded
+     * @throws SQLException
+     * @throws IOException
+     */
+    static Connection make_connection(Properties extra) throws SQLException, IOException {
+        if (!driverLoaded) {
+            try {
+                Class.forName("com.mysql.cj.jdbc.Driver");
+                driverLoaded = true;
+            } catch (ClassNotFoundException e) {
+                System.out.println("Could not load the driver");
+
+                System.out.println("Message     : " + e.getMessage());
+
+                return null;
+            }
+        }
+
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        props.setProperty("useServerPrepStmts", Boolean.toString(use_server_prepare));
+        // statements are cached by the pool, not by the driver
+        props.setProperty("cachePrepStmts", "false");
+        // send addBatch()/executeBatch() inserts as multi-row INSERTs
+        props.setProperty("rewriteBatchedStatements", "true");
+        props.putAll(extra);
+
+        // a no-op unless -Dpizzadb.trace=true
+        return QueryTracer.wrap(DriverManager.getConnection(url + "/" + database_name, props));
+    }
 
-            System.out.println("Message     : " + e.getMessage());
+    /**
+     * Borrows a connection from the shared pool. Closing the returned
+     * connection hands it back to the pool.
+     *
+     * @return a pooled connection
+     * @throws SQLException
+     * @throws IOException
+     */
+    public static Connection getConnection() throws SQLException, IOException {
+        return getPool().borrow();
+    }
 
-            return null;
+    /**
+     * @return the shared connection pool, created on first use
+     */
+    public static ConnectionPool getPool() {
+        ConnectionPool p = pool;
+        if (p == null) {
+            synchronized (DBConnector.class) {
+                p = pool;
+                if (p == null) {
+                    p = newPool(pool_min_idle, pool_max_size);
+                    pool = p;
+                }
+            }
         }
+        return p;
+    }
 
-        conn = DriverManager.getConnection(url + "/" + database_name, user, password);
-        return conn;
+    /**
+     * Creates a separate pool with the shared pool's settings but its own
+     * sizing, for callers that must never wait on the shared pool while
+     * holding one of its connections (see ReportEngine).
+     *
+     * @param minIdle connections kept open when idle
+     * @param maxSize most connections the pool opens
+     * @return a new connection pool
+     */
+    static ConnectionPool newPool(int minIdle, int maxSize) {
+        return new ConnectionPool(DBConnector::make_connection,
+                minIdle, maxSize, pool_idle_timeout_ms,
+                pool_validation_interval_ms, pool_leak_threshold_ms, pool_borrow_timeout_ms,
+                pool_statement_cache_size, pool_trace_borrows);
     }
 }
@@ -0,0 +1,321 @@
+package cpsc4620;
+
+import java.lang.management.ManagementFactory;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * Per-operation call counts, error counts, latency histograms, rows read
+ * and database round trips.
+ *
+ * DBNinja names every call it makes (callInSession/runInSession); the
+ * internal paths (lazy loads, cursors, name lookups, the order intake) name
+ * theirs too. A call's rows and round trips are counted on the calling
+ * thread: StatementCache and ConnectionPool report each round trip, and
+ * executeQuery() results are wrapped in a CountingResultSet to count next(). Nested calls add
+ * their counts to the enclosing call as well. Work done on other threads
+ * (ReportEngine's parallel scans) is not attributed to the caller.
+ *
+ * Every operation is an MBean, cpsc4620:type=DBMetrics,operation=<name>,
+ * and cpsc4620:type=DBMetrics,name=summary offers dump() and reset().
+ * dump() is also on the Menu's report screen.
+ *
+ * Round trips are counted inside the ConnectionPool.Handle and
+ * StatementCache.Checkout proxies, so every statement call already goes
+ * through a reflective invoke (boxed arguments and results) before
+ * recording adds a ThreadLocal lookup to it. On top of that, recording
+ * costs one delegating call per ResultSet call and a Call, a ThreadLocal
+ * update and a few adder increments per operation. MetricsBenchmark
+ * measures the difference with metrics on and off; until it has been run
+ * against MySQL, recording is off by default. -Dpizzadb.metrics=true turns
+ * it on and -Dpizzadb.metrics.jmx=false then skips the MBeans.
+ */
+
+public final class DBMetrics {
+
+	private static final boolean enabled = Boolean.parseBoolean(System.getProperty("pizzadb.metrics", "false"));
+	private static final boolean jmx = Boolean.parseBoolean(System.getProperty("pizzadb.metrics.jmx", "true"));
+
+	private static final ConcurrentHashMap<String, Operation> operations = new ConcurrentHashMap<>();
+	private static final ThreadLocal<Call> current = new ThreadLocal<>();
+
+	private static volatile boolean summaryRegistered;
+
+	private DBMetrics() {
+	}
+
+	// =========================================================
+	// RECORDING
+	// =========================================================
+
+	static Call begin(String operation) {
+		/*
+		 * Starts timing an operation on this thread. Pass the result to end();
+		 * null (metrics off) is fine to pass back.
+		 */
+
+		if (!enabled) {
+			return null;
+		}
+		Call c = new Call(operation(operation), current.get());
+		current.set(c);
+		return c;
+	}
+
+	static void end(Call c, boolean succeeded) {
+		if (c == null) {
+			return;
+		}
+		long elapsed = System.nanoTime() - c.started;
+		c.operation.record(elapsed, c.rows, c.roundTrips, succeeded);
+		if (c.parent != null) {
+			c.parent.rows += c.rows;
+			c.parent.roundTrips += c.roundTrips;
+			current.set(c.parent);
+		} else {
+			current.remove();
+		}
+	}
+
+	static void roundTrip() {
+		Call c = enabled ? current.get() : null;
+		if (c != null) {
+			c.roundTrips++;
+		}
+	}
+
+	static String currentOperation() {
+		// name of the call in progress on this thread, or null
+		Call c = enabled ? current.get() : null;
+		return c == null ? null : c.operation.name;
+	}
+
+	static ResultSet countRows(ResultSet rs) {
+		// only results read inside a recorded call are wrapped
+		Call c = enabled && rs != null ? current.get() : null;
+		if (c == null) {
+			return rs;
+		}
+		return new CountingResultSet(rs, c);
+	}
+
+	// =========================================================
+	// REPORTING
+	// =========================================================
+
+	public static String dump() {
+		/*
+		 * One line per operation: calls, errors, latency percentiles in ms,
+		 * and mean rows and round trips per call.
+		 */
+
+		if (!enabled) {
+			return "Metrics are off; start with -Dpizzadb.metrics=true to record them." + System.lineSeparator();
+		}
+		List<String> names = new ArrayList<>(operations.keySet());
+		Collections.sort(names);
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-32s%10s%8s%10s%10s%10s%10s%10s%10s%n",
+				"Operation", "Calls", "Errors", "p50 ms", "p99 ms", "p99.9 ms", "Max ms", "Rows/call", "RT/call"));
+		for (String name : names) {
+			Operation o = operations.get(name);
+			long calls = o.getCalls();
+			out.append(String.format("%-32s%10d%8d%10.3f%10.3f%10.3f%10.3f%10.1f%10.1f%n",
+					name, calls, o.getErrors(),
+					o.getP50Millis(), o.getP99Millis(), o.getP999Millis(), o.getMaxMillis(),
+					calls == 0 ? 0.0 : o.getRows() / (double) calls,
+					calls == 0 ? 0.0 : o.getRoundTrips() / (double) calls));
+		}
+		return out.toString();
+	}
+
+	public static void reset() {
+		for (Operation o : operations.values()) {
+			o.reset();
+		}
+	}
+
+	static Operation operation(String name) {
+		Operation o = operations.get(name);
+		if (o != null) {
+			return o;
+		}
+		Operation created = new Operation(name);
+		o = operations.putIfAbsent(name, created);
+		if (o != null) {
+			return o;
+		}
+		register(created);
+		return created;
+	}
+
+	private static void register(Operation o) {
+		if (!jmx) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (!summaryRegistered) {
+				synchronized (DBMetrics.class) {
+					if (!summaryRegistered) {
+						server.registerMBean(new StandardMBean(new Summary(), SummaryMBean.class),
+								new ObjectName("cpsc4620:type=DBMetrics,name=summary"));
+						summaryRegistered = true;
+					}
+				}
+			}
+			server.registerMBean(new StandardMBean(o, OperationMBean.class),
+					new ObjectName("cpsc4620:type=DBMetrics,operation=" + ObjectName.quote(o.name)));
+		} catch (JMException | RuntimeException e) {
+			System.err.println("Could not register metrics MBean for " + o.name + ": " + e);
+		}
+	}
+
+	// =========================================================
+	// TYPES
+	// =========================================================
+
+	public interface OperationMBean {
+		long getCalls();
+
+		long getErrors();
+
+		long getRows();
+
+		long getRoundTrips();
+
+		double getMeanMillis();
+
+		double getP50Millis();
+
+		double getP99Millis();
+
+		double getP999Millis();
+
+		double getMaxMillis();
+
+		void reset();
+	}
+
+	public interface SummaryMBean {
+		String dump();
+
+		void reset();
+	}
+
+	static final class Operation implements OperationMBean {
+		final String name;
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder roundTrips = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos, long rowCount, long trips, boolean succeeded) {
+			calls.increment();
+			if (!succeeded) {
+				errors.increment();
+			}
+			if (rowCount != 0) {
+				rows.add(rowCount);
+			}
+			if (trips != 0) {
+				roundTrips.add(trips);
+			}
+			latency.record(nanos);
+		}
+
+		@Override
+		public long getCalls() {
+			return calls.sum();
+		}
+
+		@Override
+		public long getErrors() {
+			return errors.sum();
+		}
+
+		@Override
+		public long getRows() {
+			return rows.sum();
+		}
+
+		@Override
+		public long getRoundTrips() {
+			return roundTrips.sum();
+		}
+
+		@Override
+		public double getMeanMillis() {
+			return latency.getMean() / 1e6;
+		}
+
+		@Override
+		public double getP50Millis() {
+			return latency.getValueAtPercentile(50) / 1e6;
+		}
+
+		@Override
+		public double getP99Millis() {
+			return latency.getValueAtPercentile(99) / 1e6;
+		}
+
+		@Override
+		public double getP999Millis() {
+			return latency.getValueAtPercentile(99.9) / 1e6;
+		}
+
+		@Override
+		public double getMaxMillis() {
+			return latency.getMax() / 1e6;
+		}
+
+		@Override
+		public void reset() {
+			calls.reset();
+			errors.reset();
+			rows.reset();
+			roundTrips.reset();
+			latency.reset();
+		}
+	}
+
+	private static final class Summary implements SummaryMBean {
+		@Override
+		public String dump() {
+			return DBMetrics.dump();
+		}
+
+		@Override
+		public void reset() {
+			DBMetrics.reset();
+		}
+	}
+
+	// One in-flight operation on one thread; only that thread touches it.
+	static final class Call {
+		final Operation operation;
+		final Call parent;
+		final long started = System.nanoTime();
+		long rows;
+		long roundTrips;
+
+		Call(Operation operation, Call parent) {
+			this.operation = operation;
+			this.parent = parent;
+		}
+	}
+}
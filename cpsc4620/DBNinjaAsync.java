@@ -0,0 +1,222 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Non-blocking versions of the DBNinja calls.
+ *
+ * Each method runs the matching DBNinja call on an executor and returns a
+ * CompletableFuture for its result, so a caller can start several lookups
+ * at once and wait for all of them (see Menu.buildPizza). Each call still
+ * runs in its own DBSession on its own pooled connection; the pool's
+ * maxSize bounds how many actually hit the database at once, the rest wait
+ * in ConnectionPool.borrow().
+ *
+ * On Java 21+ calls run on virtual threads, so thousands of outstanding
+ * calls cost no platform threads while they wait for a connection. On older
+ * runtimes they run on a cached pool of daemon threads. The executor is
+ * looked up reflectively so this still compiles for Java 17.
+ *
+ * A failed call completes its future exceptionally with the original
+ * SQLException/IOException; await() unwraps it again for blocking callers.
+ */
+
+public final class DBNinjaAsync {
+
+	private static final ExecutorService executor = createExecutor();
+
+	private DBNinjaAsync() {
+	}
+
+	// A DBNinja call, run on the async executor.
+	interface Call<T> {
+		T call() throws SQLException, IOException;
+	}
+
+	// Same as Call for calls that return nothing.
+	interface Task {
+		void run() throws SQLException, IOException;
+	}
+
+	static <T> CompletableFuture<T> supply(Call<T> call) {
+		CompletableFuture<T> f = new CompletableFuture<>();
+		try {
+			executor.execute(() -> {
+				try {
+					f.complete(call.call());
+				} catch (Throwable t) {
+					f.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			f.completeExceptionally(e);
+		}
+		return f;
+	}
+
+	static CompletableFuture<Void> run(Task task) {
+		return supply(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	public static <T> T await(CompletableFuture<T> future) throws SQLException, IOException {
+		/*
+		 * Waits for a future from this class and rethrows the exception the
+		 * call failed with.
+		 */
+
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the database", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SQLException(cause);
+		}
+	}
+
+	public static Executor executor() {
+		// for callers chaining their own *Async stages onto these futures
+		return executor;
+	}
+
+	// =========================================================
+	// WRITE OPERATIONS
+	// =========================================================
+
+	public static CompletableFuture<Integer> addOrder(Order o) {
+		/*
+		 * Completes with the new OrderID once the order is in the database.
+		 * Goes through DBNinja.submitOrder rather than addOrder, which with
+		 * the order journal on can return before the order has an id.
+		 */
+		try {
+			return DBNinja.submitOrder(o);
+		} catch (SQLException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	public static CompletableFuture<Integer> addPizza(java.util.Date d, int orderID, Pizza p) {
+		return supply(() -> DBNinja.addPizza(d, orderID, p));
+	}
+
+	public static CompletableFuture<Integer> addCustomer(Customer c) {
+		return supply(() -> DBNinja.addCustomer(c));
+	}
+
+	public static CompletableFuture<Void> completeOrder(int OrderID, DBNinja.order_state newState) {
+		return run(() -> DBNinja.completeOrder(OrderID, newState));
+	}
+
+	public static CompletableFuture<Void> addToInventory(int toppingID, double quantity) {
+		return run(() -> DBNinja.addToInventory(toppingID, quantity));
+	}
+
+	// =========================================================
+	// READ OPERATIONS
+	// =========================================================
+
+	public static CompletableFuture<ArrayList<Order>> getOrders(int status) {
+		return supply(() -> DBNinja.getOrders(status));
+	}
+
+	public static CompletableFuture<ArrayList<Order>> getOrders(int status, FetchPlan plan) {
+		return supply(() -> DBNinja.getOrders(status, plan));
+	}
+
+	public static CompletableFuture<Order> getOrder(int orderID) {
+		return supply(() -> DBNinja.getOrder(orderID));
+	}
+
+	public static CompletableFuture<Order> getLastOrder() {
+		return supply(DBNinja::getLastOrder);
+	}
+
+	public static CompletableFuture<ArrayList<Order>> getOrdersByDate(String date) {
+		return supply(() -> DBNinja.getOrdersByDate(date));
+	}
+
+	public static CompletableFuture<ArrayList<Order>> getOrdersByDate(String date, FetchPlan plan) {
+		return supply(() -> DBNinja.getOrdersByDate(date, plan));
+	}
+
+	public static CompletableFuture<ArrayList<Discount>> getDiscountList() {
+		return supply(DBNinja::getDiscountList);
+	}
+
+	public static CompletableFuture<Discount> findDiscountByName(String name) {
+		return supply(() -> DBNinja.findDiscountByName(name));
+	}
+
+	public static CompletableFuture<ArrayList<Customer>> getCustomerList() {
+		return supply(DBNinja::getCustomerList);
+	}
+
+	public static CompletableFuture<Customer> findCustomerByPhone(String phoneNumber) {
+		return supply(() -> DBNinja.findCustomerByPhone(phoneNumber));
+	}
+
+	public static CompletableFuture<String> getCustomerName(int CustID) {
+		return supply(() -> DBNinja.getCustomerName(CustID));
+	}
+
+	public static CompletableFuture<ArrayList<Topping>> getToppingList() {
+		return supply(DBNinja::getToppingList);
+	}
+
+	public static CompletableFuture<Topping> findToppingByName(String name) {
+		return supply(() -> DBNinja.findToppingByName(name));
+	}
+
+	public static CompletableFuture<Double> getBaseCustPrice(String size, String crust) {
+		return supply(() -> DBNinja.getBaseCustPrice(size, crust));
+	}
+
+	public static CompletableFuture<Double> getBaseBusPrice(String size, String crust) {
+		return supply(() -> DBNinja.getBaseBusPrice(size, crust));
+	}
+
+	// =========================================================
+	// EXECUTOR
+	// =========================================================
+
+	private static ExecutorService createExecutor() {
+		try {
+			// Java 21+: Executors.newVirtualThreadPerTaskExecutor()
+			Object virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return (ExecutorService) virtual;
+		} catch (ReflectiveOperationException e) {
+			AtomicInteger n = new AtomicInteger();
+			return Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "pizzadb-async-" + n.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+}
@@ -0,0 +1,1381 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * A unit of work against the database.
+ *
+ * A session owns one pooled connection for its whole lifetime, so each
+ * terminal (thread) that opens its own session gets its own connection and
+ * its own transaction scope. Sessions are not meant to be shared between
+ * threads; open one per caller and close it when done:
+ *
+ *     try (DBSession session = DBSession.open()) {
+ *         session.begin();
+ *         session.addOrder(o1);
+ *         session.addOrder(o2);
+ *         session.commit();
+ *     }
+ *
+ * Write operations called outside begin()/commit() run in a transaction of
+ * their own. Called inside one, they join it, so several operations can be
+ * committed or rolled back together. Closing a session with an open
+ * transaction rolls it back.
+ *
+ * DBNinja's static methods each open a short-lived session and delegate here.
+ */
+
+public final class DBSession implements AutoCloseable {
+
+	private static volatile ReportSource reportSource =
+			ReportSource.valueOf(System.getProperty("pizzadb.reportSource", "SUMMARY").toUpperCase());
+
+	private final Connection conn;
+	private boolean inTransaction;
+	private boolean closed;
+	// this transaction has uncommitted changes to baseprice/topping/discount
+	private boolean referenceDataChanged;
+
+	DBSession(Connection conn) {
+		// open() borrows the connection; tests pass their own
+		this.conn = conn;
+	}
+
+	public static DBSession open() throws SQLException, IOException {
+		return new DBSession(DBConnector.getConnection());
+	}
+
+	// =========================================================
+	// TRANSACTION SCOPE
+	// =========================================================
+
+	public static ReportSource getReportSource() {
+		return reportSource;
+	}
+
+	public static void setReportSource(ReportSource source) {
+		reportSource = source;
+	}
+
+	public Connection getConnection() {
+		return conn;
+	}
+
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	public boolean isInTransaction() {
+		return inTransaction;
+	}
+
+	public void begin() throws SQLException {
+		if (inTransaction) {
+			throw new IllegalStateException("A transaction is already open on this session");
+		}
+		conn.setAutoCommit(false);
+		inTransaction = true;
+	}
+
+	public void commit() throws SQLException {
+		if (!inTransaction) {
+			throw new IllegalStateException("No transaction is open on this session");
+		}
+		try {
+			conn.commit();
+			if (referenceDataChanged) {
+				ReferenceData.invalidate();
+			}
+		} finally {
+			endTransaction();
+		}
+	}
+
+	public void rollback() throws SQLException {
+		if (!inTransaction) {
+			return;
+		}
+		try {
+			conn.rollback();
+		} finally {
+			endTransaction();
+		}
+	}
+
+	private void endTransaction() throws SQLException {
+		inTransaction = false;
+		referenceDataChanged = false;
+		conn.setAutoCommit(true);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			rollback();
+		} finally {
+			conn.close(); // hands the connection back to the pool
+		}
+	}
+
+	private boolean beginUnitOfWork() throws SQLException {
+		/*
+		 * Starts a transaction for a single write operation unless the caller
+		 * already opened one, in which case the operation joins it.
+		 * Returns true if this call owns (and must commit) the transaction.
+		 *
+		 * A failure always rolls back the whole transaction, joined or not;
+		 * a half-applied order must never be committed by a later commit().
+		 */
+		if (inTransaction) {
+			return false;
+		}
+		begin();
+		return true;
+	}
+
+	private void commitUnitOfWork(boolean ownTransaction) throws SQLException {
+		if (ownTransaction) {
+			commit();
+		}
+	}
+
+	private ReferenceData.Snapshot referenceData() throws SQLException {
+		/*
+		 * Cached reference tables, unless this transaction has changed them;
+		 * then read them fresh so our own uncommitted writes are visible and
+		 * never leak into the shared cache.
+		 */
+		return referenceDataChanged ? ReferenceData.loadUncached(conn) : ReferenceData.get(conn);
+	}
+
+	private void markReferenceDataChanged() {
+		/*
+		 * Invalidates the shared cache once the change is visible to others:
+		 * right away in autocommit mode, otherwise when the transaction commits.
+		 */
+		if (inTransaction) {
+			referenceDataChanged = true;
+		} else {
+			ReferenceData.invalidate();
+		}
+	}
+
+	// =========================================================
+	// PUBLIC API: WRITE OPERATIONS
+	// =========================================================
+
+	public void addOrder(Order o) throws SQLException {
+		/*
+		 * Add the order to the DB: ordertable, child table (delivery/dinein/pickup),
+		 * pizzas, toppings, and discounts (order + pizza).
+		 *
+		 * Dine-in orders have no customer, so custID <= 0 => NULL.
+		 */
+
+		boolean ownTransaction = beginUnitOfWork();
+		try {
+			// ----------------------------------------------------
+			// 1. Insert into ordertable
+			// ----------------------------------------------------
+			String insertOrder =
+					"INSERT INTO ordertable (customer_CustID, ordertable_OrderType, ordertable_OrderDateTime, " +
+							"ordertable_CustPrice, ordertable_BusPrice, ordertable_IsComplete) VALUES (?,?,?,?,?,?)";
+
+			int orderId = -1;
+			try (PreparedStatement os = conn.prepareStatement(insertOrder, Statement.RETURN_GENERATED_KEYS)) {
+
+				if (o.getCustID() <= 0) {
+					os.setNull(1, Types.INTEGER);
+				} else {
+					os.setInt(1, o.getCustID());
+				}
+
+				os.setString(2, o.getOrderType());
+				os.setTimestamp(3, parseTimestamp(o.getDate()));
+				os.setBigDecimal(4, PriceEngine.decimal(o.getCustCents()));
+				os.setBigDecimal(5, PriceEngine.decimal(o.getBusCents()));
+				os.setBoolean(6, o.getIsComplete());
+				os.executeUpdate();
+
+				try (ResultSet keys = os.getGeneratedKeys()) {
+					if (keys.next()) {
+						orderId = keys.getInt(1);
+						o.setOrderID(orderId); // keep object in sync with DB
+					}
+				}
+			}
+
+			// ----------------------------------------------------
+			// 2. Insert into appropriate child table (dinein/pickup/delivery)
+			// ----------------------------------------------------
+			addOrderTypeDetails(conn, o, orderId);
+
+			// ----------------------------------------------------
+			// 3. Insert pizzas and their related data
+			// ----------------------------------------------------
+			insertPizzas(conn, referenceData(), parseTimestamp(o.getDate()), orderId, o.getPizzaList());
+			restoreOrderPrice(conn, o, orderId);
+
+			// ----------------------------------------------------
+			// 4. Insert order-level discounts, if any
+			// ----------------------------------------------------
+			if (o.getDiscountList() != null) {
+				String orderDiscSql =
+						"INSERT INTO order_discount (ordertable_OrderID, discount_DiscountID) VALUES (?,?)";
+				try (PreparedStatement ods = conn.prepareStatement(orderDiscSql)) {
+					for (Discount d : o.getDiscountList()) {
+						ods.setInt(1, orderId);
+						ods.setInt(2, d.getDiscountID());
+						ods.addBatch();
+					}
+					if (!o.getDiscountList().isEmpty()) {
+						ods.executeBatch();
+					}
+				}
+			}
+
+			// ----------------------------------------------------
+			// 5. Roll the order into the report summaries
+			// ----------------------------------------------------
+			ReportSummaries.addOrder(conn, orderId);
+
+			commitUnitOfWork(ownTransaction);
+		} catch (SQLException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+	}
+
+	int addJournaledOrder(Order o, String journalId, long sequence) throws SQLException {
+		/*
+		 * addOrder for an OrderJournal entry, at most once per entry. The
+		 * entry is recorded in journal_applied in the same transaction, so
+		 * replaying it finds that row and returns the OrderID it was given
+		 * instead of adding the order again.
+		 */
+
+		boolean ownTransaction = beginUnitOfWork();
+		try {
+			int orderId = 0;
+			String findSql = "SELECT ordertable_OrderID FROM journal_applied " +
+					"WHERE journal_applied_JournalID = ? AND journal_applied_Sequence = ?";
+			try (PreparedStatement ps = conn.prepareStatement(findSql)) {
+				ps.setString(1, journalId);
+				ps.setLong(2, sequence);
+				try (ResultSet rs = ps.executeQuery()) {
+					if (rs.next()) {
+						orderId = rs.getInt(1);
+					}
+				}
+			}
+
+			if (orderId == 0) {
+				addOrder(o); // joins this transaction
+				orderId = o.getOrderID();
+				String markSql = "INSERT INTO journal_applied (journal_applied_JournalID, " +
+						"journal_applied_Sequence, ordertable_OrderID) VALUES (?,?,?)";
+				try (PreparedStatement ps = conn.prepareStatement(markSql)) {
+					ps.setString(1, journalId);
+					ps.setLong(2, sequence);
+					ps.setInt(3, orderId);
+					ps.executeUpdate();
+				}
+			}
+
+			commitUnitOfWork(ownTransaction);
+			return orderId;
+		} catch (SQLException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+	}
+
+	void lockToppings(List<Order> orders) throws SQLException {
+		/*
+		 * Locks the topping rows the orders' pizzas use, in TopID order, for
+		 * the rest of the open transaction. A transaction that adds several
+		 * orders calls this first: otherwise each order takes its topping
+		 * and summary rows in its own order, and two such transactions
+		 * deadlock on them.
+		 */
+
+		if (!inTransaction) {
+			throw new IllegalStateException("lockToppings needs an open transaction");
+		}
+		TreeSet<Integer> ids = new TreeSet<>();
+		for (Order o : orders) {
+			for (Pizza p : o.getPizzaList()) {
+				if (p.getToppings() == null) continue;
+				for (Topping t : p.getToppings()) {
+					ids.add(t.getTopID());
+				}
+			}
+		}
+		if (ids.isEmpty()) {
+			return;
+		}
+		String sql = "SELECT topping_TopID FROM topping WHERE topping_TopID IN ("
+				+ String.join(",", Collections.nCopies(ids.size(), "?")) + ") ORDER BY topping_TopID FOR UPDATE";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			int i = 1;
+			for (Integer id : ids) {
+				ps.setInt(i++, id);
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					// drain; the locks are what matter
+				}
+			}
+		}
+	}
+
+	public int addPizza(java.util.Date d, int orderID, Pizza p) throws SQLException {
+		/*
+		 * Insert the pizza into the database.
+		 * Also insert pizza discounts and toppings.
+		 *
+		 * NOTE: Date d ensures all pizzas for an order share the same timestamp.
+		 * Returns the id of the pizza just added.
+		 */
+
+		int pizzaId;
+		boolean ownTransaction = beginUnitOfWork();
+		try {
+			ReportSummaries.OrderValue before = ReportSummaries.readOrderValue(conn, orderID);
+			insertPizzas(conn, referenceData(), new Timestamp(d.getTime()), orderID, Collections.singletonList(p));
+			ReportSummaries.orderChanged(conn, before, orderID);
+			OrderFactStore.markChanged(conn, orderID);
+			pizzaId = p.getPizzaID();
+			commitUnitOfWork(ownTransaction);
+		} catch (SQLException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+
+		return pizzaId;
+	}
+
+	public int addCustomer(Customer c) throws SQLException {
+		/*
+		 * Adds a new customer to the database.
+		 */
+
+		int custId = -1;
+
+		String sql =
+				"INSERT INTO customer (customer_FName, customer_LName, customer_PhoneNum) VALUES (?,?,?)";
+		try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+			ps.setString(1, c.getFName());
+			ps.setString(2, c.getLName());
+			ps.setString(3, c.getPhone());
+			ps.executeUpdate();
+
+			try (ResultSet keys = ps.getGeneratedKeys()) {
+				if (keys.next()) {
+					custId = keys.getInt(1);
+				}
+			}
+		}
+
+		return custId;
+	}
+
+	public void completeOrder(int OrderID, DBNinja.order_state newState) throws SQLException {
+		/*
+		 * Mark an order as complete or delivered/picked up.
+		 *
+		 * PREPARED  -> mark order and all pizzas as completed
+		 * DELIVERED -> mark delivery record as delivered
+		 * PICKEDUP  -> mark pickup record as picked up
+		 */
+
+		// PREPARED touches two tables, so it is done as one unit of work
+		boolean ownTransaction = beginUnitOfWork();
+		try {
+			switch (newState) {
+				case PREPARED:
+					try (PreparedStatement ps =
+							     conn.prepareStatement(
+									     "UPDATE ordertable SET ordertable_IsComplete=1 " +
+											     "WHERE ordertable_OrderID=? AND ordertable_IsComplete=0");
+					     PreparedStatement ps2 =
+							     conn.prepareStatement(
+									     "UPDATE pizza SET pizza_PizzaState='completed' WHERE ordertable_OrderID=?")) {
+						ps.setInt(1, OrderID);
+						boolean newlyComplete = ps.executeUpdate() > 0;
+
+						ps2.setInt(1, OrderID);
+						ps2.executeUpdate();
+
+						if (newlyComplete) {
+							ReportSummaries.orderCompleted(conn, OrderID);
+						}
+					}
+					break;
+
+				case DELIVERED:
+					try (PreparedStatement ps =
+							     conn.prepareStatement(
+									     "UPDATE delivery SET delivery_IsDelivered=1 WHERE ordertable_OrderID=?")) {
+						ps.setInt(1, OrderID);
+						ps.executeUpdate();
+					}
+					break;
+
+				case PICKEDUP:
+					try (PreparedStatement ps =
+							     conn.prepareStatement(
+									     "UPDATE pickup SET pickup_IsPickedUp=1 WHERE ordertable_OrderID=?")) {
+						ps.setInt(1, OrderID);
+						ps.executeUpdate();
+					}
+					break;
+			}
+
+			commitUnitOfWork(ownTransaction);
+		} catch (SQLException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+	}
+
+	public void rebuildReportSummaries() throws SQLException {
+		/*
+		 * Recomputes the report summary tables from the raw order data.
+		 */
+
+		boolean ownTransaction = beginUnitOfWork();
+		try {
+			ReportSummaries.rebuild(conn);
+			commitUnitOfWork(ownTransaction);
+		} catch (SQLException | RuntimeException e) {
+			rollback();
+			throw e;
+		}
+	}
+
+	public int migrateSchema() throws SQLException {
+		/*
+		 * Applies pending SchemaMigrations and verifies the required indexes.
+		 * Returns the schema version the database is at afterwards.
+		 */
+
+		if (inTransaction) {
+			throw new IllegalStateException("Schema migrations can't run inside a transaction");
+		}
+		return SchemaMigrations.migrate(conn);
+	}
+
+	// =========================================================
+	// PUBLIC API: READ OPERATIONS
+	// =========================================================
+
+	public ArrayList<Order> getOrders(int status) throws SQLException {
+		/*
+		 * Return an ArrayList of orders.
+		 * 	status == 1 => open orders (IsComplete = 0)
+		 * 	        == 2 => completed orders (IsComplete = 1)
+		 * 	        == 3 => all orders
+		 *
+		 * Fully populates each Order: discounts + pizzas + pizza toppings/discounts.
+		 */
+
+		return getOrders(status, FetchPlan.FULL);
+	}
+
+	public ArrayList<Order> getOrders(int status, FetchPlan plan) throws SQLException {
+		/*
+		 * getOrders(status), loading up front only what the plan asks for.
+		 * The rest loads on first access (see FetchPlan).
+		 */
+
+		ArrayList<Order> orders;
+
+		StringBuilder sql = new StringBuilder(OrderHydrator.ORDER_HEADER_SELECT);
+
+		String filter = statusFilter(status);
+		if (filter != null) {
+			sql.append(" WHERE ").append(filter);
+		}
+		sql.append(" ORDER BY o.ordertable_OrderID ASC");
+
+		try (PreparedStatement ps = conn.prepareStatement(sql.toString());
+		     ResultSet rs = ps.executeQuery()) {
+			orders = new OrderHydrator(this).readOrders(rs, plan);
+		}
+
+		return orders;
+	}
+
+	public ArrayList<Order> getOrdersAfter(int status, int afterOrderID, int limit, FetchPlan plan)
+			throws SQLException {
+		/*
+		 * One keyset page of orders: up to limit orders with an OrderID greater
+		 * than afterOrderID, in OrderID order, populated per the fetch plan.
+		 * status has the same meaning as in getOrders.
+		 *
+		 * Pass the last OrderID of a page to get the next one. Unlike OFFSET
+		 * paging, each page is an index range scan on the primary key no
+		 * matter how deep into the history it is.
+		 */
+
+		ArrayList<Order> orders;
+
+		StringBuilder sql = new StringBuilder(OrderHydrator.ORDER_HEADER_SELECT);
+		sql.append(" WHERE o.ordertable_OrderID > ?");
+
+		String filter = statusFilter(status);
+		if (filter != null) {
+			sql.append(" AND ").append(filter);
+		}
+		sql.append(" ORDER BY o.ordertable_OrderID ASC LIMIT ?");
+
+		try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+			ps.setInt(1, afterOrderID);
+			ps.setInt(2, limit);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				orders = new OrderHydrator(this).readOrders(rs, plan);
+			}
+		}
+
+		return orders;
+	}
+
+	public Order getOrder(int orderID) throws SQLException {
+		/*
+		 * A single fully populated order, or null if there is no such order.
+		 */
+
+		ArrayList<Order> orders;
+
+		String sql = OrderHydrator.ORDER_HEADER_SELECT + " WHERE o.ordertable_OrderID=?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setInt(1, orderID);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				orders = new OrderHydrator(this).readOrders(rs);
+			}
+		}
+
+		return orders.isEmpty() ? null : orders.get(0);
+	}
+
+	public Order getLastOrder() throws SQLException {
+		/*
+		 * Query the database for the LAST order added
+		 * then return an Order object for that order.
+		 * There will always be a "last order".
+		 */
+
+		ArrayList<Order> orders;
+
+		String sql = OrderHydrator.ORDER_HEADER_SELECT + " ORDER BY o.ordertable_OrderID DESC LIMIT 1";
+		try (PreparedStatement ps = conn.prepareStatement(sql);
+		     ResultSet rs = ps.executeQuery()) {
+			orders = new OrderHydrator(this).readOrders(rs);
+		}
+
+		return orders.isEmpty() ? null : orders.get(0);
+	}
+
+	public ArrayList<Order> getOrdersByDate(String date) throws SQLException {
+		/*
+		 * Query the database for ALL the orders placed on a specific date
+		 * (YYYY-MM-DD) and return a list of those orders.
+		 */
+
+		return getOrdersByDate(date, FetchPlan.FULL);
+	}
+
+	public ArrayList<Order> getOrdersByDate(String date, FetchPlan plan) throws SQLException {
+		/*
+		 * getOrdersByDate(date), loading up front only what the plan asks for.
+		 * A date that isn't YYYY-MM-DD matches no orders.
+		 */
+
+		LocalDate day;
+		try {
+			day = LocalDate.parse(date.trim());
+		} catch (DateTimeParseException e) {
+			return new ArrayList<>();
+		}
+
+		return getOrdersBetween(Timestamp.valueOf(day.atStartOfDay()),
+				Timestamp.valueOf(day.plusDays(1).atStartOfDay()), plan);
+	}
+
+	public ArrayList<Order> getOrdersBetween(Timestamp from, Timestamp to, FetchPlan plan) throws SQLException {
+		/*
+		 * Orders placed in the half-open range [from, to), oldest first.
+		 *
+		 * The bare column comparison lets MySQL range-scan
+		 * idx_ordertable_datetime; wrapping the column in DATE() would force
+		 * a full scan of ordertable.
+		 */
+
+		ArrayList<Order> orders;
+
+		String sql = OrderHydrator.ORDER_HEADER_SELECT +
+				" WHERE o.ordertable_OrderDateTime >= ? AND o.ordertable_OrderDateTime < ?" +
+				" ORDER BY o.ordertable_OrderDateTime ASC, o.ordertable_OrderID ASC";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setTimestamp(1, from);
+			ps.setTimestamp(2, to);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				orders = new OrderHydrator(this).readOrders(rs, plan);
+			}
+		}
+
+		return orders;
+	}
+
+	public ArrayList<Discount> getDiscountList() throws SQLException {
+		/*
+		 * Return all the available discounts ordered by discount name.
+		 * Served from the reference-data cache.
+		 */
+
+		return referenceData().discountList();
+	}
+
+	public Discount findDiscountByName(String name) throws SQLException {
+		/*
+		 * Look up a discount by name in the reference-data cache.
+		 * If found, return a Discount object; otherwise return null.
+		 */
+
+		return referenceData().discountByName(name);
+	}
+
+	public ArrayList<Customer> getCustomerList() throws SQLException {
+		/*
+		 * Query the DB for all customers and return them ordered by:
+		 * last name, first name, then phone.
+		 */
+
+		ArrayList<Customer> customers = new ArrayList<>();
+
+		String sql =
+				"SELECT * FROM customer ORDER BY customer_LName, customer_FName, customer_PhoneNum";
+		try (PreparedStatement ps = conn.prepareStatement(sql);
+		     ResultSet rs = ps.executeQuery()) {
+
+			while (rs.next()) {
+				customers.add(new Customer(
+						rs.getInt("customer_CustID"),
+						rs.getString("customer_FName"),
+						rs.getString("customer_LName"),
+						rs.getString("customer_PhoneNum")));
+			}
+		}
+
+		return customers;
+	}
+
+	public Customer findCustomerByPhone(String phoneNumber) throws SQLException {
+		/*
+		 * Query the database for a customer using a phone number.
+		 * If found, return a Customer object; otherwise return null.
+		 */
+
+		Customer c = null;
+
+		String sql = "SELECT * FROM customer WHERE customer_PhoneNum=?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, phoneNumber);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					c = new Customer(
+							rs.getInt("customer_CustID"),
+							rs.getString("customer_FName"),
+							rs.getString("customer_LName"),
+							rs.getString("customer_PhoneNum"));
+				}
+			}
+		}
+
+		return c;
+	}
+
+	public String getCustomerName(int CustID) throws SQLException {
+		/*
+		 * Helper method to fetch and format the name of a customer
+		 * based on a customer ID.
+		 */
+
+		String name = "";
+
+		String sql =
+				"SELECT customer_FName, customer_LName FROM customer WHERE customer_CustID=?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setInt(1, CustID);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					name = rs.getString("customer_FName") + " " +
+							rs.getString("customer_LName");
+				}
+			}
+		}
+
+		return name;
+	}
+
+	public HashMap<Integer, String> getCustomerNames(List<Integer> custIds) throws SQLException {
+		/*
+		 * Bulk version of getCustomerName: fetches the names for all of the
+		 * given customer IDs, one IN-list query per OrderHydrator.PAGE_SIZE IDs.
+		 * IDs with no customer row are left out of the map.
+		 */
+
+		HashMap<Integer, String> names = new HashMap<>(custIds.size() * 2);
+
+		for (int from = 0; from < custIds.size(); from += OrderHydrator.PAGE_SIZE) {
+			List<Integer> chunk = custIds.subList(from, Math.min(custIds.size(), from + OrderHydrator.PAGE_SIZE));
+			int[] ids = new int[chunk.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = chunk.get(i);
+			}
+
+			String sql =
+					"SELECT customer_CustID, customer_FName, customer_LName FROM customer " +
+							"WHERE customer_CustID IN (" + OrderHydrator.placeholders(ids.length) + ")";
+			try (PreparedStatement ps = conn.prepareStatement(sql)) {
+				OrderHydrator.bindIds(ps, ids);
+
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						names.put(rs.getInt("customer_CustID"),
+								rs.getString("customer_FName") + " " + rs.getString("customer_LName"));
+					}
+				}
+			}
+		}
+
+		return names;
+	}
+
+	public ArrayList<Topping> getToppingList() throws SQLException {
+		/*
+		 * Return an ArrayList of all the toppings ordered by name.
+		 * Served from the reference-data cache, with current stock.
+		 */
+
+		ArrayList<Topping> toppings = referenceData().toppingList();
+		HashMap<Integer, Integer> stock = new HashMap<>();
+		try (PreparedStatement ps = conn.prepareStatement("SELECT topping_TopID, topping_CurINVT FROM topping");
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				stock.put(rs.getInt(1), rs.getInt(2));
+			}
+		}
+		for (Topping t : toppings) {
+			t.setCurINVT(stock.getOrDefault(t.getTopID(), 0));
+		}
+		return toppings;
+	}
+
+	public Topping findToppingByName(String name) throws SQLException {
+		/*
+		 * Look up a topping by name in the reference-data cache.
+		 * If found, return a Topping object with its current stock;
+		 * otherwise return null.
+		 */
+
+		Topping t = referenceData().toppingByName(name);
+		if (t != null) {
+			try (PreparedStatement ps = conn.prepareStatement("SELECT topping_CurINVT FROM topping WHERE topping_TopID=?")) {
+				ps.setInt(1, t.getTopID());
+				try (ResultSet rs = ps.executeQuery()) {
+					t.setCurINVT(rs.next() ? rs.getInt(1) : 0);
+				}
+			}
+		}
+		return t;
+	}
+
+	public ArrayList<Topping> getToppingsOnPizza(Pizza p) throws SQLException {
+		/*
+		 * Builds an ArrayList of the toppings ON a pizza.
+		 */
+
+		return fetchPizzaToppings(conn, p.getPizzaID());
+	}
+
+	public void addToInventory(int toppingID, double quantity) throws SQLException {
+		/*
+		 * Updates the quantity of the topping in the database by the amount specified.
+		 * Positive quantity increases inventory.
+		 */
+
+		String sql =
+				"UPDATE topping SET topping_CurINVT = topping_CurINVT + ? WHERE topping_TopID=?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setDouble(1, quantity);
+			ps.setInt(2, toppingID);
+			ps.executeUpdate();
+		}
+		markReferenceDataChanged();
+	}
+
+	public ArrayList<Pizza> getPizzas(Order o) throws SQLException {
+		/*
+		 * Build an ArrayList of all the Pizzas associated with the Order.
+		 * Each Pizza object is fully populated (toppings + discounts).
+		 */
+
+		return new OrderHydrator(this).loadPizzas(o.getOrderID());
+	}
+
+	public ArrayList<Discount> getDiscounts(Order o) throws SQLException {
+		/*
+		 * Build an ArrayList of all the Discounts associated with the Order.
+		 */
+
+		return fetchOrderDiscounts(conn, o.getOrderID());
+	}
+
+	public ArrayList<Discount> getDiscounts(Pizza p) throws SQLException {
+		/*
+		 * Build an ArrayList of all the Discounts associated with the Pizza.
+		 */
+
+		return fetchPizzaDiscounts(conn, p.getPizzaID());
+	}
+
+	public double getBaseCustPrice(String size, String crust) throws SQLException {
+		/*
+		 * Base customer price for that size and crust, from the reference-data cache.
+		 */
+
+		return referenceData().baseCustPrice(size, crust);
+	}
+
+	public double getBaseBusPrice(String size, String crust) throws SQLException {
+		/*
+		 * Base business price for that size and crust, from the reference-data cache.
+		 */
+
+		return referenceData().baseBusPrice(size, crust);
+	}
+
+	public void printToppingReport() throws SQLException {
+		/*
+		 * Prints the ToppingPopularity view, or the same rows computed by
+		 * ReportEngine or OrderFactStore when that is the report source.
+		 */
+
+		List<String[]> rows;
+		switch (reportSource) {
+			case ENGINE:
+				rows = ReportEngine.toppingPopularity(conn);
+				break;
+			case FACTS:
+				rows = OrderFactStore.refreshed(conn).toppingPopularity(referenceData().toppingList());
+				break;
+			default:
+				rows = queryRows("SELECT * FROM ToppingPopularity", 2);
+		}
+		printToppingRows(rows);
+	}
+
+	static void printToppingRows(List<String[]> rows) {
+		// (Topping, ToppingCount) rows as printToppingReport shows them
+		System.out.printf("%-15s%-15s%n", "Topping", "Topping Count");
+		System.out.printf("%-15s%-15s%n", "-------", "-------------");
+
+		for (String[] r : rows) {
+			System.out.printf("%-15s%-15d%n",
+					r[0],
+					r[1] == null ? 0 : new java.math.BigDecimal(r[1]).intValue());
+		}
+	}
+
+	public void printProfitByPizzaReport() throws SQLException {
+		/*
+		 * Prints the ProfitByPizza view, or the equivalent rows from the
+		 * summary table, ReportEngine or OrderFactStore depending on the
+		 * report source.
+		 */
+
+		List<String[]> rows;
+		switch (reportSource) {
+			case VIEW:
+				rows = queryRows("SELECT * FROM ProfitByPizza", 4);
+				break;
+			case ENGINE:
+				rows = ReportEngine.profitByPizza(conn);
+				break;
+			case FACTS:
+				rows = OrderFactStore.refreshed(conn).profitByPizza();
+				break;
+			default:
+				rows = queryRows(ReportSummaries.PIZZA_REPORT_SQL, 4);
+		}
+		printProfitByPizzaRows(rows);
+	}
+
+	static void printProfitByPizzaRows(List<String[]> rows) {
+		// (Size, Crust, Profit, OrderMonth) rows as printProfitByPizzaReport shows them
+		System.out.printf("%-20s%-20s%-20s%-20s%n",
+				"Pizza Size", "Pizza Crust", "Profit", "Last Order Date");
+		System.out.printf("%-20s%-20s%-20s%-20s%n",
+				"----------", "-----------", "------", "---------------");
+
+		for (String[] r : rows) {
+			System.out.printf("%-20s%-20s%-20s%-20s%n",
+					r[0],
+					r[1],
+					r[2],
+					r[3]);
+		}
+	}
+
+	public void printProfitByOrderTypeReport() throws SQLException {
+		/*
+		 * Prints the ProfitByOrderType view, or the equivalent rows from the
+		 * summary table, ReportEngine or OrderFactStore depending on the
+		 * report source.
+		 */
+
+		List<String[]> rows;
+		switch (reportSource) {
+			case VIEW:
+				rows = queryRows("SELECT * FROM ProfitByOrderType", 5);
+				break;
+			case ENGINE:
+				rows = ReportEngine.profitByOrderType(conn);
+				break;
+			case FACTS:
+				rows = OrderFactStore.refreshed(conn).profitByOrderType();
+				break;
+			default:
+				rows = queryRows(ReportSummaries.ORDER_TYPE_REPORT_SQL, 5);
+		}
+		printProfitByOrderTypeRows(rows);
+	}
+
+	static void printProfitByOrderTypeRows(List<String[]> rows) {
+		// (CustomerType, OrderMonth, Price, Cost, Profit) rows as printProfitByOrderTypeReport shows them
+		System.out.printf("%-20s%-20s%-20s%-20s%-20s%n",
+				"Customer Type", "Order Month",
+				"Total Order Price", "Total Order Cost", "Profit");
+		System.out.printf("%-20s%-20s%-20s%-20s%-20s%n",
+				"-------------", "-----------",
+				"-----------------", "----------------", "------");
+
+		for (String[] r : rows) {
+			System.out.printf("%-20s%-20s%-20s%-20s%-20s%n",
+					r[0],
+					r[1],
+					r[2],
+					r[3],
+					r[4]);
+		}
+	}
+
+	private List<String[]> queryRows(String sql, int columns) throws SQLException {
+		// report rows as the strings the printers format
+		ArrayList<String[]> rows = new ArrayList<>();
+		try (PreparedStatement ps = conn.prepareStatement(sql);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				String[] r = new String[columns];
+				for (int i = 0; i < columns; i++) {
+					r[i] = rs.getString(i + 1);
+				}
+				rows.add(r);
+			}
+		}
+		return rows;
+	}
+
+	// =========================================================
+	// INTERNAL HELPERS (TIMESTAMP, PIZZA INSERT, INVENTORY, MAPPING)
+	// =========================================================
+
+	private static String statusFilter(int status) {
+		// WHERE condition for a getOrders-style status code, or null for all orders
+		if (status == 1) {
+			return "o.ordertable_IsComplete=0";
+		} else if (status == 2) {
+			return "o.ordertable_IsComplete=1";
+		}
+		return null;
+	}
+
+	static Timestamp parseTimestamp(String dateStr) {
+		// Safely parse a timestamp string, falling back to "now" if invalid
+		try {
+			return Timestamp.valueOf(dateStr);
+		} catch (IllegalArgumentException e) {
+			return new Timestamp(new java.util.Date().getTime());
+		}
+	}
+
+	private static void insertPizzas(Connection connection, ReferenceData.Snapshot ref, Timestamp d,
+	                                 int orderID, List<Pizza> pizzas) throws SQLException {
+		/*
+		 * Helper to insert a list of pizzas and their discounts and toppings.
+		 * Rows for each table go out as one JDBC batch (rewritten into a
+		 * multi-row INSERT by the driver) instead of one statement per row.
+		 * Generated pizza IDs are mapped back onto the Pizza objects in order.
+		 * Also updates topping inventory based on size and double flags,
+		 * before any topping rows are inserted.
+		 */
+
+		if (pizzas.isEmpty()) {
+			return;
+		}
+
+		PriceMatrix prices = ref.priceMatrix();
+		for (Pizza p : pizzas) {
+			checkPizzaPrice(prices, p);
+		}
+
+		// inventory: one net decrement per topping for everything being inserted.
+		// Done before the pizza_topping rows go in: their foreign key check
+		// takes a shared lock on each topping row, and two orders holding
+		// shared locks on the same topping deadlock when both then update it.
+		TreeMap<Integer, Double> usage = new TreeMap<>();
+		HashMap<Integer, String> names = new HashMap<>();
+		for (Pizza p : pizzas) {
+			if (p.getToppings() == null) continue;
+			for (Topping t : p.getToppings()) {
+				double unitsNeeded = toppingUnitsForSize(t, p.getPizzaSize());
+				if (t.getDoubled()) unitsNeeded *= 2;
+				usage.merge(t.getTopID(), Math.ceil(unitsNeeded), Double::sum);
+				names.put(t.getTopID(), t.getTopName());
+			}
+		}
+		consumeInventory(connection, usage, names);
+
+		String insertPizza =
+				"INSERT INTO pizza (pizza_Size, pizza_CrustType, ordertable_OrderID, pizza_PizzaState, " +
+						"pizza_PizzaDate, pizza_CustPrice, pizza_BusPrice) VALUES (?,?,?,?,?,?,?)";
+
+		try (PreparedStatement ps = connection.prepareStatement(insertPizza, Statement.RETURN_GENERATED_KEYS)) {
+			for (Pizza p : pizzas) {
+				ps.setString(1, p.getSize());
+				ps.setString(2, p.getCrustType());
+				ps.setInt(3, orderID);
+				ps.setString(4, p.getPizzaState());
+				ps.setTimestamp(5, d);
+				ps.setBigDecimal(6, PriceEngine.decimal(p.getCustCents()));
+				ps.setBigDecimal(7, PriceEngine.decimal(p.getBusCents()));
+				ps.addBatch();
+			}
+			ps.executeBatch();
+
+			// keys come back in the order the rows were batched
+			try (ResultSet keys = ps.getGeneratedKeys()) {
+				for (Pizza p : pizzas) {
+					if (!keys.next()) {
+						throw new SQLException("Missing generated key for pizza in order " + orderID);
+					}
+					p.setPizzaID(keys.getInt(1)); // keep Pizza object in sync
+					p.setOrderID(orderID);
+				}
+			}
+		}
+
+		// pizza-level discounts
+		String insertPizzaDisc =
+				"INSERT INTO pizza_discount (pizza_PizzaID, discount_DiscountID) VALUES (?,?)";
+		try (PreparedStatement pds = connection.prepareStatement(insertPizzaDisc)) {
+			int rows = 0;
+			for (Pizza p : pizzas) {
+				if (p.getDiscounts() == null) continue;
+				for (Discount dsc : p.getDiscounts()) {
+					pds.setInt(1, p.getPizzaID());
+					pds.setInt(2, dsc.getDiscountID());
+					pds.addBatch();
+					rows++;
+				}
+			}
+			if (rows > 0) {
+				pds.executeBatch();
+			}
+		}
+
+		// toppings
+		String insertTop =
+				"INSERT INTO pizza_topping (pizza_PizzaID, topping_TopID, pizza_topping_IsDouble) VALUES (?,?,?)";
+		try (PreparedStatement pts = connection.prepareStatement(insertTop)) {
+			int rows = 0;
+			for (Pizza p : pizzas) {
+				if (p.getToppings() == null) continue;
+				for (Topping t : p.getToppings()) {
+					pts.setInt(1, p.getPizzaID());
+					pts.setInt(2, t.getTopID());
+					pts.setInt(3, t.getDoubled() ? 1 : 0);
+					pts.addBatch();
+					rows++;
+				}
+			}
+			if (rows > 0) {
+				pts.executeBatch();
+			}
+		}
+
+		ReportSummaries.addPizzas(connection, d, pizzas);
+	}
+
+	private static void restoreOrderPrice(Connection connection, Order o, int orderId) throws SQLException {
+		/*
+		 * The UpdateOrderPrice_AfterPizzaInsert trigger adds each new pizza's
+		 * price to its order, but the order row was inserted with its full
+		 * price already. Put back the price the order was quoted at. (On a
+		 * completed order the trigger's update is refused, so nothing moved.)
+		 */
+
+		if (o.getIsComplete() || o.getPizzaList().isEmpty()) {
+			return;
+		}
+		String sql = "UPDATE ordertable SET ordertable_CustPrice = ?, ordertable_BusPrice = ? " +
+				"WHERE ordertable_OrderID = ?";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setBigDecimal(1, PriceEngine.decimal(o.getCustCents()));
+			ps.setBigDecimal(2, PriceEngine.decimal(o.getBusCents()));
+			ps.setInt(3, orderId);
+			ps.executeUpdate();
+		}
+	}
+
+	static void checkPizzaPrice(PriceMatrix prices, Pizza p) throws SQLException {
+		/*
+		 * Checks the pizza's prices against the catalog, using the double
+		 * flags Pizza.addToppings set. A pizza with no flags at all that
+		 * doesn't match gets them inferred from its price, for callers that
+		 * predate the flags. Throws SQLDataException if it still doesn't match.
+		 */
+
+		if (prices.matches(p)) {
+			return;
+		}
+		if (PriceEngine.doubledMask(p.getToppings()) == 0 && prices.inferDoubles(p)) {
+			return;
+		}
+		throw new SQLDataException("Pizza price " + p.getCustPrice() + "/" + p.getBusPrice()
+				+ " doesn't match the menu price "
+				+ PriceEngine.dollars(PriceEngine.toCents(prices.quote(p, true))) + "/"
+				+ PriceEngine.dollars(PriceEngine.toCents(prices.quote(p, false)))
+				+ " for a " + p.getSize() + " " + p.getCrustType() + " pizza");
+	}
+
+	private static void consumeInventory(Connection connection, TreeMap<Integer, Double> usage,
+	                                     HashMap<Integer, String> names) throws SQLException {
+		/*
+		 * Decrement topping inventory by the net units used per topping.
+		 * The stock check and the decrement are one conditional UPDATE, so two
+		 * orders racing for the same topping can't both pass a stale read.
+		 * Rows are touched in TopID order to keep lock order consistent
+		 * between concurrent orders.
+		 * Throws SQLException if there is not enough inventory.
+		 */
+
+		String updateSql =
+				"UPDATE topping SET topping_CurINVT = topping_CurINVT - ? " +
+						"WHERE topping_TopID=? AND topping_CurINVT >= ?";
+		try (PreparedStatement ups = connection.prepareStatement(updateSql)) {
+			for (Map.Entry<Integer, Double> e : usage.entrySet()) {
+				ups.setDouble(1, e.getValue());
+				ups.setInt(2, e.getKey());
+				ups.setDouble(3, e.getValue());
+				if (ups.executeUpdate() == 0) {
+					throw new SQLException("Not enough inventory for topping " + names.get(e.getKey()));
+				}
+			}
+		}
+	}
+
+	private static void addOrderTypeDetails(Connection connection, Order o, int orderId) throws SQLException {
+		/*
+		 * Insert into dinein/pickup/delivery depending on actual Order subtype.
+		 */
+
+		if (o instanceof DineinOrder) {
+			DineinOrder d = (DineinOrder) o;
+			String sql = "INSERT INTO dinein (ordertable_OrderID, dinein_TableNum) VALUES (?,?)";
+			try (PreparedStatement ps = connection.prepareStatement(sql)) {
+				ps.setInt(1, orderId);
+				ps.setInt(2, d.getTableNum());
+				ps.executeUpdate();
+			}
+		} else if (o instanceof PickupOrder) {
+			PickupOrder p = (PickupOrder) o;
+			String sql =
+					"INSERT INTO pickup (ordertable_OrderID, pickup_IsPickedUp) VALUES (?,?)";
+			try (PreparedStatement ps = connection.prepareStatement(sql)) {
+				ps.setInt(1, orderId);
+				ps.setBoolean(2, p.getIsPickedUp());
+				ps.executeUpdate();
+			}
+		} else if (o instanceof DeliveryOrder) {
+			DeliveryOrder d = (DeliveryOrder) o;
+			String[] parts = parseAddress(d.getAddress());
+
+			String sql =
+					"INSERT INTO delivery (ordertable_OrderID, delivery_HouseNum, delivery_Street, " +
+							"delivery_City, delivery_State, delivery_Zip, delivery_IsDelivered) " +
+							"VALUES (?,?,?,?,?,?,?)";
+			try (PreparedStatement ps = connection.prepareStatement(sql)) {
+				ps.setInt(1, orderId);
+				ps.setInt(2, Integer.parseInt(parts[0]));
+				ps.setString(3, parts[1]);
+				ps.setString(4, parts[2]);
+				ps.setString(5, parts[3]);
+				ps.setInt(6, Integer.parseInt(parts[4]));
+				ps.setBoolean(7, parts.length > 5 && Boolean.parseBoolean(parts[5]));
+				ps.executeUpdate();
+			}
+		}
+	}
+
+	static String[] parseAddress(String address) {
+		/*
+		 * Parses an address string into parts. First try tab-separated,
+		 * then fall back to whitespace-based splitting.
+		 * Ensures at least 5 parts (house, street, city, state, zip).
+		 */
+
+		String[] parts = address.split("\\t");
+		if (parts.length < 5) {
+			String[] fallback = address.split("\\s+");
+			if (fallback.length >= 5) {
+				return new String[]{fallback[0], fallback[1], fallback[2], fallback[3], fallback[4]};
+			}
+		}
+		if (parts.length < 5) {
+			return new String[]{"0", "", "", "", "0"};
+		}
+		return parts;
+	}
+
+	private static ArrayList<Discount> fetchOrderDiscounts(Connection connection, int orderId) throws SQLException {
+		/*
+		 * Helper to fetch all discounts applied at the order level.
+		 */
+
+		ArrayList<Discount> discounts = new ArrayList<>();
+		String sql =
+				"SELECT d.* FROM discount d " +
+						"JOIN order_discount od ON d.discount_DiscountID = od.discount_DiscountID " +
+						"WHERE od.ordertable_OrderID=? ORDER BY d.discount_DiscountID";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setInt(1, orderId);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					discounts.add(mapDiscount(rs));
+				}
+			}
+		}
+		return discounts;
+	}
+
+	private static ArrayList<Discount> fetchPizzaDiscounts(Connection connection, int pizzaId) throws SQLException {
+		/*
+		 * Helper to fetch all discounts applied at the pizza level.
+		 */
+
+		ArrayList<Discount> discounts = new ArrayList<>();
+		String sql =
+				"SELECT d.* FROM discount d " +
+						"JOIN pizza_discount pd ON d.discount_DiscountID = pd.discount_DiscountID " +
+						"WHERE pd.pizza_PizzaID=? ORDER BY d.discount_DiscountID";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setInt(1, pizzaId);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					discounts.add(mapDiscount(rs));
+				}
+			}
+		}
+		return discounts;
+	}
+
+	private static ArrayList<Topping> fetchPizzaToppings(Connection connection, int pizzaId) throws SQLException {
+		/*
+		 * Helper to fetch all toppings on a pizza, including IsDouble flag.
+		 */
+
+		ArrayList<Topping> tops = new ArrayList<>();
+		String sql =
+				"SELECT t.*, pt.pizza_topping_IsDouble " +
+						"FROM topping t " +
+						"JOIN pizza_topping pt ON t.topping_TopID = pt.topping_TopID " +
+						"WHERE pt.pizza_PizzaID=? ORDER BY t.topping_TopName";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setInt(1, pizzaId);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					Topping t = mapTopping(rs);
+					t.setDoubled(rs.getInt("pizza_topping_IsDouble") == 1);
+					tops.add(t);
+				}
+			}
+		}
+		return tops;
+	}
+
+	static double toppingUnitsForSize(Topping t, PizzaSize size) {
+		/*
+		 * Returns the topping amount used based on pizza size.
+		 */
+
+		if (size == null) {
+			return t.getXLAMT();
+		}
+		switch (size) {
+			case SMALL: return t.getSmallAMT();
+			case MEDIUM: return t.getMedAMT();
+			case LARGE: return t.getLgAMT();
+			default:     return t.getXLAMT();
+		}
+	}
+
+	static Discount mapDiscount(ResultSet rs) throws SQLException {
+		/*
+		 * Maps the current row of a ResultSet to a Discount object.
+		 */
+		return new Discount(
+				rs.getInt("discount_DiscountID"),
+				rs.getString("discount_DiscountName"),
+				rs.getDouble("discount_Amount"),
+				rs.getBoolean("discount_IsPercent"));
+	}
+
+	static Topping mapTopping(ResultSet rs) throws SQLException {
+		/*
+		 * Maps the current row of a ResultSet to a Topping object.
+		 */
+		return new Topping(
+				rs.getInt("topping_TopID"),
+				rs.getString("topping_TopName"),
+				rs.getDouble("topping_SmallAMT"),
+				rs.getDouble("topping_MedAMT"),
+				rs.getDouble("topping_LgAMT"),
+				rs.getDouble("topping_XLAMT"),
+				rs.getDouble("topping_CustPrice"),
+				rs.getDouble("topping_BusPrice"),
+				rs.getInt("topping_MinINVT"),
+				rs.getInt("topping_CurINVT"));
+	}
+}
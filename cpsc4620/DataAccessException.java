@@ -0,0 +1,16 @@
+package cpsc4620;
+
+/*
+ * Unchecked wrapper for SQLException/IOException, thrown from places that
+ * can't declare checked exceptions (Iterator, Stream, lazy getters).
+ * getCause() is the original exception.
+ */
+
+public class DataAccessException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DataAccessException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,538 @@
+package cpsc4620;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/*
+ * Deterministic bulk generator for production-sized test data.
+ *
+ * Adds N customers and M orders (with their pizzas, toppings, discounts and
+ * dinein/pickup/delivery rows) on top of whatever is in the database, using
+ * the baseprice/topping/discount rows already there. Every choice comes from
+ * a SplittableRandom seeded with pizzadb.gen.seed, and dates come from a
+ * fixed window, so the same seed on the same starting data always produces
+ * the same rows.
+ *
+ * Prices are worked out with PriceEngine, the way Pizza.addToppings/
+ * addDiscounts and Order.addDiscount do.
+ * Historic orders don't consume topping inventory.
+ *
+ * Loading:
+ *   - ids are assigned here, continuing after the current MAX(id) of each table
+ *   - the secondary indexes are dropped first and rebuilt once at the end
+ *   - foreign key and unique checks are off on the loading connection
+ *   - rows go in per chunk of orders, one transaction each, either with
+ *     LOAD DATA LOCAL INFILE from temporary TSV files (mode INFILE, the
+ *     default, needs local_infile=ON on the server) or multi-row INSERT
+ *     batches (mode BATCH)
+ *   - pizzas are loaded before their orders, so the UpdateOrderPrice pizza
+ *     trigger finds no order row to add to and the generated totals stand
+ *   - the report summary tables are rebuilt at the end
+ *
+ * Run it with
+ *   java -Dpizzadb.gen.customers=100000 -Dpizzadb.gen.orders=10000000 cpsc4620.DataGenerator
+ * or call generate() (the benchmarks do).
+ */
+
+final class DataGenerator {
+
+	enum Mode {
+		INFILE,
+		BATCH
+	}
+
+	// rows per executeBatch() in BATCH mode
+	private static final int BATCH_ROWS = 5_000;
+
+	private static final String[] FIRST_NAMES = {
+			"James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael", "Linda", "David", "Elizabeth",
+			"William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+			"Aryan", "Priya", "Wei", "Mei", "Carlos", "Sofia", "Ahmed", "Fatima", "Kofi", "Ama"};
+	private static final String[] LAST_NAMES = {
+			"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+			"Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+			"Patel", "Panchal", "Chen", "Wang", "Nguyen", "Kim", "Okafor", "Mensah", "Silva", "Khan"};
+	private static final String[] STREETS = {
+			"Main St", "College Ave", "Tiger Blvd", "Old Greenville Hwy", "Calhoun Dr", "Cherry Rd", "Issaqueena Trl",
+			"Pendleton Rd", "Lakeview Dr", "Berkeley Dr"};
+	private static final String[] CITIES = {"Clemson", "Central", "Pendleton", "Seneca", "Anderson", "Easley"};
+	private static final int[] ZIPS = {29631, 29630, 29670, 29678, 29621, 29640};
+
+	// weighted choices; weights are in the same order as the values they pick
+	private static final String[] ORDER_TYPES = {DBNinja.dine_in, DBNinja.pickup, DBNinja.delivery};
+	private static final int[] ORDER_TYPE_WEIGHTS = {30, 35, 35};
+	private static final PizzaSize[] SIZES = PizzaSize.values();
+	private static final int[] SIZE_WEIGHTS = {15, 35, 35, 15};
+	private static final CrustType[] CRUSTS = CrustType.values();
+	private static final int[] CRUST_WEIGHTS = {25, 45, 20, 10};
+	// pizzas per order, 1..6
+	private static final int[] PIZZA_COUNT_WEIGHTS = {45, 30, 12, 7, 4, 2};
+	// toppings per pizza, 0..5
+	private static final int[] TOPPING_COUNT_WEIGHTS = {8, 30, 30, 18, 9, 5};
+	// order hour, 10:00..22:00, peaking at lunch and dinner
+	private static final int[] HOUR_WEIGHTS = {2, 8, 12, 9, 4, 3, 5, 10, 14, 12, 7, 4, 2};
+
+	private static final int DOUBLE_PERCENT = 15;
+	private static final int PIZZA_DISCOUNT_PERCENT = 8;
+	private static final int ORDER_DISCOUNT_PERCENT = 12;
+	private static final int COMPLETE_PERCENT = 90;
+
+	private DataGenerator() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Config cfg = Config.fromSystemProperties();
+		Result r = generate(cfg);
+		System.out.println(r);
+		DBConnector.getPool().close();
+	}
+
+	static Result generate(Config cfg) throws SQLException, IOException {
+		/*
+		 * Generates and loads cfg.customers customers and cfg.orders orders.
+		 * On failure the chunk in progress is rolled back; earlier chunks stay.
+		 * The secondary indexes are put back either way.
+		 */
+
+		long started = System.nanoTime();
+		Properties extra = new Properties();
+		extra.setProperty("allowLoadLocalInfile", Boolean.toString(cfg.mode == Mode.INFILE));
+		Result result = new Result(cfg);
+
+		try (Connection conn = DBConnector.make_connection(extra)) {
+			if (conn == null) {
+				throw new SQLException("Could not connect to the database");
+			}
+			ReferenceData.Snapshot ref = ReferenceData.loadUncached(conn);
+			ArrayList<Topping> toppings = ref.toppingList();
+			toppings.sort(Comparator.comparingInt(Topping::getTopID));
+			ArrayList<Discount> discounts = ref.discountList();
+			discounts.sort(Comparator.comparingInt(Discount::getDiscountID));
+			if (toppings.isEmpty() || ref.baseCustPrice(DBNinja.size_s, DBNinja.crust_thin) == 0.0) {
+				throw new SQLException("Load PopulateData.sql (base prices and toppings) before generating data");
+			}
+
+			Ids ids = new Ids(conn);
+			setBulkChecks(conn, false);
+			SchemaMigrations.dropIndexes(conn, SchemaMigrations.REQUIRED_INDEXES);
+			conn.setAutoCommit(false);
+			try {
+				SplittableRandom customerRandom = new SplittableRandom(cfg.seed);
+				SplittableRandom orderRandom = new SplittableRandom(cfg.seed ^ 0x5DEECE66DL);
+
+				Loader customers = new Loader(conn, cfg, Table.CUSTOMER);
+				for (int i = 0; i < cfg.customers; i++) {
+					customers.add(customerRow(customerRandom, ++ids.customer));
+				}
+				customers.load();
+				conn.commit();
+				result.customers = cfg.customers;
+
+				long lastCustomer = ids.customer;
+				long done = 0;
+				while (done < cfg.orders) {
+					long n = Math.min(cfg.chunkOrders, cfg.orders - done);
+					Chunk chunk = new Chunk(conn, cfg);
+					for (long i = 0; i < n; i++) {
+						addOrder(orderRandom, cfg, ref, toppings, discounts, ids, lastCustomer, chunk, result);
+					}
+					chunk.load();
+					conn.commit();
+					done += n;
+					result.orders = done;
+					if (cfg.verbose) {
+						System.out.printf("  %,d / %,d orders (%.0f orders/s)%n", done, cfg.orders,
+								done / Math.max(1e-9, (System.nanoTime() - started) / 1e9));
+					}
+				}
+			} catch (SQLException | IOException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+				SchemaMigrations.createIndexes(conn, SchemaMigrations.REQUIRED_INDEXES);
+				setBulkChecks(conn, true);
+			}
+
+			conn.setAutoCommit(false);
+			try {
+				ReportSummaries.rebuild(conn);
+				conn.commit();
+			} catch (SQLException | RuntimeException e) {
+				conn.rollback();
+				throw e;
+			} finally {
+				conn.setAutoCommit(true);
+			}
+		}
+
+		result.elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+		return result;
+	}
+
+	// =========================================================
+	// ROW GENERATION
+	// =========================================================
+
+	private static String[] customerRow(SplittableRandom r, long custId) {
+		// 864 + a 7-digit permutation of the id: unique for the first 10M customers
+		long local = (custId * 7_919L) % 10_000_000L;
+		return new String[]{
+				Long.toString(custId),
+				FIRST_NAMES[r.nextInt(FIRST_NAMES.length)],
+				LAST_NAMES[r.nextInt(LAST_NAMES.length)],
+				String.format("864%07d", local)};
+	}
+
+	private static void addOrder(SplittableRandom r, Config cfg, ReferenceData.Snapshot ref,
+	                             List<Topping> toppings, List<Discount> discounts, Ids ids,
+	                             long lastCustomer, Chunk chunk, Result result) throws IOException, SQLException {
+		long orderId = ++ids.order;
+		String type = ORDER_TYPES[pick(r, ORDER_TYPE_WEIGHTS)];
+		String when = cfg.start.plusDays(r.nextInt(cfg.days)) + String.format(" %02d:%02d:%02d",
+				10 + pick(r, HOUR_WEIGHTS), r.nextInt(60), r.nextInt(60));
+		boolean complete = r.nextInt(100) < COMPLETE_PERCENT;
+
+		long custCents = 0;
+		long busCents = 0;
+		int pizzas = 1 + pick(r, PIZZA_COUNT_WEIGHTS);
+		for (int i = 0; i < pizzas; i++) {
+			long[] prices = addPizza(r, ref, toppings, discounts, ++ids.pizza, orderId, when, complete, chunk);
+			custCents += prices[0];
+			busCents += prices[1];
+		}
+		result.pizzas += pizzas;
+
+		// order-level discount, applied like Order.addDiscount
+		long cust = custCents * PriceEngine.MICROS_PER_CENT;
+		if (!discounts.isEmpty() && r.nextInt(100) < ORDER_DISCOUNT_PERCENT) {
+			Discount d = discounts.get(r.nextInt(discounts.size()));
+			cust = Math.max(0L, PriceEngine.applyDiscount(cust, d));
+			chunk.orderDiscounts.add(Long.toString(orderId), Integer.toString(d.getDiscountID()));
+		}
+
+		String custId = null;
+		if (!type.equals(DBNinja.dine_in) && lastCustomer > 0) {
+			// squared so regulars order more often than everyone else
+			double u = r.nextDouble();
+			custId = Long.toString(1 + (long) (u * u * lastCustomer));
+		}
+
+		chunk.orders.add(Long.toString(orderId), custId, type, when, money(PriceEngine.toCents(cust)), money(busCents),
+				complete ? "1" : "0");
+		if (type.equals(DBNinja.dine_in)) {
+			chunk.dinein.add(Long.toString(orderId), Integer.toString(1 + r.nextInt(30)));
+		} else if (type.equals(DBNinja.pickup)) {
+			chunk.pickup.add(Long.toString(orderId), complete ? "1" : "0");
+		} else {
+			int where = r.nextInt(CITIES.length);
+			chunk.delivery.add(Long.toString(orderId), Integer.toString(1 + r.nextInt(9_999)),
+					STREETS[r.nextInt(STREETS.length)], CITIES[where], "SC", Integer.toString(ZIPS[where]),
+					complete ? "1" : "0");
+		}
+	}
+
+	private static long[] addPizza(SplittableRandom r, ReferenceData.Snapshot ref, List<Topping> toppings,
+	                               List<Discount> discounts, long pizzaId, long orderId, String when,
+	                               boolean complete, Chunk chunk) throws IOException, SQLException {
+		/*
+		 * Emits one pizza with its toppings and discount; returns its
+		 * {customer, business} price in cents.
+		 */
+
+		PizzaSize size = SIZES[pick(r, SIZE_WEIGHTS)];
+		CrustType crust = CRUSTS[pick(r, CRUST_WEIGHTS)];
+		long cust = PriceEngine.micros(ref.baseCustPrice(size, crust));
+		long bus = PriceEngine.micros(ref.baseBusPrice(size, crust));
+
+		// distinct toppings: partial Fisher-Yates over the topping indexes
+		int count = Math.min(pick(r, TOPPING_COUNT_WEIGHTS), toppings.size());
+		int[] order = new int[toppings.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		for (int i = 0; i < count; i++) {
+			int j = i + r.nextInt(order.length - i);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+
+			Topping t = toppings.get(order[i]);
+			boolean doubled = r.nextInt(100) < DOUBLE_PERCENT;
+			cust += PriceEngine.toppingMicros(t, size, doubled, true);
+			bus += PriceEngine.toppingMicros(t, size, doubled, false);
+			chunk.pizzaToppings.add(Long.toString(pizzaId), Integer.toString(t.getTopID()), doubled ? "1" : "0");
+		}
+
+		if (!discounts.isEmpty() && r.nextInt(100) < PIZZA_DISCOUNT_PERCENT) {
+			Discount d = discounts.get(r.nextInt(discounts.size()));
+			cust = PriceEngine.applyDiscount(cust, d);
+			chunk.pizzaDiscounts.add(Long.toString(pizzaId), Integer.toString(d.getDiscountID()));
+		}
+
+		// prices can't go negative (ValidatePizzaPrice trigger)
+		long custCents = PriceEngine.toCents(Math.max(0L, cust));
+		long busCents = PriceEngine.toCents(Math.max(0L, bus));
+		chunk.pizzas.add(Long.toString(pizzaId), size.label, crust.label, Long.toString(orderId),
+				(complete ? PizzaState.COMPLETED : PizzaState.IN_PROGRESS).label, when, money(custCents), money(busCents));
+		return new long[]{custCents, busCents};
+	}
+
+	private static int pick(SplittableRandom r, int[] weights) {
+		int total = 0;
+		for (int w : weights) {
+			total += w;
+		}
+		int x = r.nextInt(total);
+		for (int i = 0; i < weights.length; i++) {
+			x -= weights[i];
+			if (x < 0) {
+				return i;
+			}
+		}
+		return weights.length - 1;
+	}
+
+	private static String money(long cents) {
+		return (cents / 100) + "." + (cents % 100 < 10 ? "0" : "") + (cents % 100);
+	}
+
+	private static void setBulkChecks(Connection conn, boolean on) throws SQLException {
+		try (Statement st = conn.createStatement()) {
+			st.execute("SET SESSION foreign_key_checks = " + (on ? 1 : 0));
+			st.execute("SET SESSION unique_checks = " + (on ? 1 : 0));
+		}
+	}
+
+	// =========================================================
+	// LOADING
+	// =========================================================
+
+	private enum Table {
+		CUSTOMER("customer", "customer_CustID", "customer_FName", "customer_LName", "customer_PhoneNum"),
+		ORDERTABLE("ordertable", "ordertable_OrderID", "customer_CustID", "ordertable_OrderType",
+				"ordertable_OrderDateTime", "ordertable_CustPrice", "ordertable_BusPrice", "ordertable_IsComplete"),
+		PIZZA("pizza", "pizza_PizzaID", "pizza_Size", "pizza_CrustType", "ordertable_OrderID", "pizza_PizzaState",
+				"pizza_PizzaDate", "pizza_CustPrice", "pizza_BusPrice"),
+		PIZZA_TOPPING("pizza_topping", "pizza_PizzaID", "topping_TopID", "pizza_topping_IsDouble"),
+		PIZZA_DISCOUNT("pizza_discount", "pizza_PizzaID", "discount_DiscountID"),
+		ORDER_DISCOUNT("order_discount", "ordertable_OrderID", "discount_DiscountID"),
+		DINEIN("dinein", "ordertable_OrderID", "dinein_TableNum"),
+		PICKUP("pickup", "ordertable_OrderID", "pickup_IsPickedUp"),
+		DELIVERY("delivery", "ordertable_OrderID", "delivery_HouseNum", "delivery_Street", "delivery_City",
+				"delivery_State", "delivery_Zip", "delivery_IsDelivered");
+
+		final String name;
+		final String[] columns;
+
+		Table(String name, String... columns) {
+			this.name = name;
+			this.columns = columns;
+		}
+	}
+
+	// One chunk's rows for every order table, loaded in dependency order.
+	private static final class Chunk {
+		final Loader pizzas;
+		final Loader pizzaToppings;
+		final Loader pizzaDiscounts;
+		final Loader orders;
+		final Loader orderDiscounts;
+		final Loader dinein;
+		final Loader pickup;
+		final Loader delivery;
+
+		Chunk(Connection conn, Config cfg) throws IOException, SQLException {
+			pizzas = new Loader(conn, cfg, Table.PIZZA);
+			pizzaToppings = new Loader(conn, cfg, Table.PIZZA_TOPPING);
+			pizzaDiscounts = new Loader(conn, cfg, Table.PIZZA_DISCOUNT);
+			// held back until load() so no order row exists while its pizzas go in
+			orders = new Loader(conn, cfg, Table.ORDERTABLE, true);
+			orderDiscounts = new Loader(conn, cfg, Table.ORDER_DISCOUNT);
+			dinein = new Loader(conn, cfg, Table.DINEIN);
+			pickup = new Loader(conn, cfg, Table.PICKUP);
+			delivery = new Loader(conn, cfg, Table.DELIVERY);
+		}
+
+		void load() throws IOException, SQLException {
+			pizzas.load();
+			pizzaToppings.load();
+			pizzaDiscounts.load();
+			orders.load();
+			orderDiscounts.load();
+			dinein.load();
+			pickup.load();
+			delivery.load();
+		}
+	}
+
+	// Rows for one table, staged in a TSV file (INFILE) or a JDBC batch (BATCH).
+	private static final class Loader {
+		private final Connection conn;
+		private final Table table;
+		private final Mode mode;
+		private final boolean deferred;
+		private Path file;
+		private BufferedWriter out;
+		private PreparedStatement ps;
+		private int pending;
+
+		Loader(Connection conn, Config cfg, Table table) throws IOException, SQLException {
+			this(conn, cfg, table, false);
+		}
+
+		Loader(Connection conn, Config cfg, Table table, boolean deferred) throws IOException, SQLException {
+			this.conn = conn;
+			this.table = table;
+			this.mode = cfg.mode;
+			this.deferred = deferred;
+			if (mode == Mode.INFILE) {
+				Files.createDirectories(cfg.workDir);
+				file = Files.createTempFile(cfg.workDir, table.name + "-", ".tsv");
+				out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+			} else {
+				StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.name).append(" (")
+						.append(String.join(", ", table.columns)).append(") VALUES (");
+				for (int i = 0; i < table.columns.length; i++) {
+					sql.append(i == 0 ? "?" : ", ?");
+				}
+				ps = conn.prepareStatement(sql.append(')').toString());
+			}
+		}
+
+		void add(String... values) throws IOException, SQLException {
+			if (mode == Mode.INFILE) {
+				// generated values never contain tabs, newlines or backslashes
+				for (int i = 0; i < values.length; i++) {
+					if (i > 0) {
+						out.write('\t');
+					}
+					out.write(values[i] == null ? "\\N" : values[i]);
+				}
+				out.write('\n');
+				return;
+			}
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null) {
+					ps.setNull(i + 1, Types.VARCHAR);
+				} else {
+					ps.setString(i + 1, values[i]);
+				}
+			}
+			ps.addBatch();
+			if (++pending >= BATCH_ROWS && !deferred) {
+				ps.executeBatch();
+				pending = 0;
+			}
+		}
+
+		void load() throws IOException, SQLException {
+			if (mode == Mode.BATCH) {
+				try {
+					if (pending > 0) {
+						ps.executeBatch();
+					}
+				} finally {
+					ps.close();
+				}
+				return;
+			}
+
+			out.close();
+			String sql = "LOAD DATA LOCAL INFILE '" + file.toAbsolutePath().toString().replace("\\", "\\\\")
+					+ "' INTO TABLE " + table.name + " CHARACTER SET utf8mb4 (" + String.join(", ", table.columns) + ")";
+			try (Statement st = conn.createStatement()) {
+				st.execute(sql);
+			} catch (SQLException e) {
+				throw new SQLException("LOAD DATA LOCAL INFILE into " + table.name + " failed (the server needs "
+						+ "local_infile=ON; -Dpizzadb.gen.mode=BATCH avoids it): " + e.getMessage(), e);
+			} finally {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	// Next free id per table, read once and then assigned here.
+	private static final class Ids {
+		long customer;
+		long order;
+		long pizza;
+
+		Ids(Connection conn) throws SQLException {
+			customer = max(conn, "SELECT COALESCE(MAX(customer_CustID), 0) FROM customer");
+			order = max(conn, "SELECT COALESCE(MAX(ordertable_OrderID), 0) FROM ordertable");
+			pizza = max(conn, "SELECT COALESCE(MAX(pizza_PizzaID), 0) FROM pizza");
+		}
+
+		private static long max(Connection conn, String sql) throws SQLException {
+			try (PreparedStatement ps = conn.prepareStatement(sql);
+			     ResultSet rs = ps.executeQuery()) {
+				return rs.next() ? rs.getLong(1) : 0;
+			}
+		}
+	}
+
+	// =========================================================
+	// CONFIG / RESULT
+	// =========================================================
+
+	static final class Config {
+		int customers = 1_000;
+		long orders = 10_000;
+		long seed = 4620L;
+		// orders are spread over [start, start + days)
+		LocalDate start = LocalDate.of(2024, 1, 1);
+		int days = 730;
+		Mode mode = Mode.INFILE;
+		int chunkOrders = 50_000;
+		Path workDir = Paths.get(System.getProperty("java.io.tmpdir"), "pizzadb-gen");
+		boolean verbose = true;
+
+		static Config fromSystemProperties() {
+			Config c = new Config();
+			c.customers = Integer.getInteger("pizzadb.gen.customers", c.customers);
+			c.orders = Long.getLong("pizzadb.gen.orders", c.orders);
+			c.seed = Long.getLong("pizzadb.gen.seed", c.seed);
+			c.start = LocalDate.parse(System.getProperty("pizzadb.gen.start", c.start.toString()));
+			c.days = Integer.getInteger("pizzadb.gen.days", c.days);
+			c.mode = Mode.valueOf(System.getProperty("pizzadb.gen.mode", c.mode.name()).toUpperCase());
+			c.chunkOrders = Integer.getInteger("pizzadb.gen.chunkOrders", c.chunkOrders);
+			c.workDir = Paths.get(System.getProperty("pizzadb.gen.workDir", c.workDir.toString()));
+			return c;
+		}
+	}
+
+	static final class Result {
+		final Config config;
+		int customers;
+		long orders;
+		long pizzas;
+		long elapsedMillis;
+
+		Result(Config config) {
+			this.config = config;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Generated %,d customers, %,d orders, %,d pizzas (seed %d, %s) in %.1f s",
+					customers, orders, pizzas, config.seed, config.mode, elapsedMillis / 1000.0);
+		}
+	}
+}
@@ -0,0 +1,1878 @@
+package cpsc4620;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/*
+ * PizzaStore kept in this process (-Dpizzadb.store=embedded), for a single
+ * node that doesn't need a MySQL server.
+ *
+ * Every row is held in memory: orders in a TreeMap by OrderID, with indexes
+ * on open orders, order date and customer phone, so reads are map lookups
+ * and range views with no round trip. The same rows are kept on disk in
+ * the store directory:
+ *
+ *   snapshot.db  every row as of one log sequence
+ *   log.db       the writes since that snapshot
+ *   store.lock   keeps two processes out of one directory
+ *
+ * Both files are a header followed by frames
+ *
+ *   int length | long sequence | int CRC32C(sequence, payload) | payload
+ *
+ * where a payload is a run of records, each one whole row (an order header,
+ * a pizza, a topping's stock count) as it is after the write. A write checks
+ * its input against the rows the way the MySQL schema would, builds the
+ * records for everything it changes, appends them to the log as one frame
+ * and only then applies the frame to memory, through the same code recovery
+ * uses. A frame is therefore all or nothing: on open the snapshot is loaded,
+ * the log frames after its sequence are applied, and a frame torn by a
+ * crash (short, or failing its checksum) is cut off the end of the log.
+ *
+ * Writers force the log outside the write lock, and one force covers every
+ * frame appended before it, so concurrent writes share their fsyncs. A read
+ * can see a write shortly before its writer returns. Once the log passes
+ * checkpointBytes the rows are written to a new snapshot (to a temporary
+ * file, forced, then renamed over the old one) and the log is emptied;
+ * writes wait for that, reads don't. close() does the same.
+ *
+ * A new store is seeded with the baseprice, topping, discount and customer
+ * rows of the seed script's INSERT statements (sql/PopulateData.sql); the
+ * sample orders, which are built with SQL functions, are left out.
+ *
+ * Errors are the ones MySQL gives for the same input: SQLIntegrityConstraint-
+ * ViolationException for a missing customer, order, topping or discount, a
+ * repeated topping or discount, or a NULL in a NOT NULL column;
+ * SQLDataException for a value too long or out of range for its column or
+ * a pizza priced off the menu; SQLException for a topping that is out of
+ * stock. Report rows are computed from the rows with the arithmetic
+ * ReportEngine uses. Every fetch plan loads whole orders, since nothing is
+ * left to load lazily.
+ *
+ * Settings (system properties):
+ *   pizzadb.embedded.dir              store directory (pizzadb-embedded)
+ *   pizzadb.embedded.sync             force the log before a write returns (true)
+ *   pizzadb.embedded.checkpointBytes  log size that triggers a snapshot (67108864)
+ *   pizzadb.embedded.seed             script a new store is seeded from (sql/PopulateData.sql)
+ */
+
+final class EmbeddedStore implements PizzaStore {
+
+	private static final String SNAPSHOT = "snapshot.db";
+	private static final String LOG = "log.db";
+	private static final String LOCK = "store.lock";
+	// "PZDB"
+	private static final int MAGIC = 0x505A4442;
+	private static final int FORMAT = 1;
+	// magic, format
+	private static final int LOG_HEADER = 8;
+	// magic, format, sequence
+	private static final int SNAPSHOT_HEADER = 16;
+	// length, sequence, checksum
+	private static final int FRAME_HEADER = 16;
+	private static final int MAX_FRAME = 64 << 20;
+	// payload size a snapshot frame is cut at
+	private static final int SNAPSHOT_FRAME = 1 << 20;
+
+	// record kinds
+	private static final byte BASE_PRICE = 1;
+	private static final byte TOPPING = 2;
+	private static final byte DISCOUNT = 3;
+	private static final byte CUSTOMER = 4;
+	private static final byte ORDER = 5;
+	private static final byte PIZZA = 6;
+	private static final byte ORDER_PRICE = 7;
+	private static final byte STOCK = 8;
+	private static final byte COMPLETE = 9;
+
+	// which of dinein/pickup/delivery an order has a row in
+	private static final byte NO_DETAIL = 0;
+	private static final byte DINE_IN_DETAIL = 1;
+	private static final byte PICKUP_DETAIL = 2;
+	private static final byte DELIVERY_DETAIL = 3;
+
+	private static final DateTimeFormatter DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	// largest DECIMAL(5,2), in cents
+	private static final long MAX_DECIMAL_CENTS = 99_999L;
+
+	private static final Comparator<OrderRow> BY_DATE =
+			Comparator.<OrderRow, LocalDateTime>comparing(r -> r.at).thenComparingInt(r -> r.id);
+	private static final Comparator<Topping> BY_TOPPING_NAME =
+			Comparator.comparing(Topping::getTopName, String.CASE_INSENSITIVE_ORDER)
+					.thenComparingInt(Topping::getTopID);
+	private static final Comparator<Discount> BY_DISCOUNT_NAME =
+			Comparator.comparing(Discount::getDiscountName, String.CASE_INSENSITIVE_ORDER)
+					.thenComparingInt(Discount::getDiscountID);
+
+	private final Path dir;
+	private final boolean syncWrites;
+	private final long checkpointBytes;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final FileChannel log;
+
+	private final ReentrantReadWriteLock rows = new ReentrantReadWriteLock();
+
+	// guarded by rows
+	private final double[][] basePrices = new double[PizzaSize.COUNT * CrustType.COUNT][];
+	private final TreeMap<Integer, Topping> toppings = new TreeMap<>();
+	private final TreeMap<Integer, Discount> discounts = new TreeMap<>();
+	private final TreeMap<Integer, Customer> customers = new TreeMap<>();
+	private final HashMap<String, Integer> customersByPhone = new HashMap<>();
+	private final TreeMap<Integer, OrderRow> orders = new TreeMap<>();
+	private final TreeSet<Integer> openOrders = new TreeSet<>();
+	private final TreeSet<OrderRow> ordersByDate = new TreeSet<>(BY_DATE);
+	private final HashMap<Integer, PizzaRow> pizzas = new HashMap<>();
+	private int lastPizzaID;
+	// prices and names of the catalog rows; rebuilt when those change
+	private ReferenceData.Snapshot catalog;
+	private boolean catalogChanged;
+
+	// guarded by the write lock
+	private long nextSequence = 1;
+	private long logSize;
+	private IOException failed;
+	private boolean closed;
+
+	// every frame up to durableSequence is on disk
+	private final Object syncLock = new Object();
+	private volatile long appendedSequence;
+	private long durableSequence;
+
+	EmbeddedStore(Path dir, boolean syncWrites, long checkpointBytes, Path seedScript) throws IOException {
+		if (checkpointBytes <= LOG_HEADER) {
+			throw new IllegalArgumentException("Invalid embedded store checkpointBytes: " + checkpointBytes);
+		}
+		this.dir = dir;
+		this.syncWrites = syncWrites;
+		this.checkpointBytes = checkpointBytes;
+
+		Files.createDirectories(dir);
+		lockChannel = FileChannel.open(dir.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock l;
+		try {
+			l = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			l = null;
+		}
+		if (l == null) {
+			lockChannel.close();
+			throw new IOException("Embedded store " + dir + " is in use by another process");
+		}
+		lock = l;
+
+		FileChannel opened = null;
+		try {
+			opened = FileChannel.open(dir.resolve(LOG), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			log = opened;
+			boolean hasSnapshot = Files.exists(dir.resolve(SNAPSHOT));
+			long snapshotSequence = hasSnapshot ? loadSnapshot() : 0;
+			boolean hasFrames = recoverLog(snapshotSequence);
+			rebuildCatalog();
+			if (!hasSnapshot && !hasFrames) {
+				seed(seedScript);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (opened != null) {
+				opened.close();
+			}
+			lockChannel.close();
+			throw e;
+		}
+	}
+
+	static EmbeddedStore open() throws IOException {
+		/*
+		 * The store named by the pizzadb.embedded.* properties, recovered,
+		 * and closed by a shutdown hook.
+		 */
+
+		EmbeddedStore store = new EmbeddedStore(
+				Paths.get(System.getProperty("pizzadb.embedded.dir", "pizzadb-embedded")),
+				Boolean.parseBoolean(System.getProperty("pizzadb.embedded.sync", "true")),
+				Long.getLong("pizzadb.embedded.checkpointBytes", 64L << 20),
+				Paths.get(System.getProperty("pizzadb.embedded.seed", "sql/PopulateData.sql")));
+		Runtime.getRuntime().addShutdownHook(new Thread(store::closeQuietly, "pizzadb-embedded-shutdown"));
+		return store;
+	}
+
+	// =========================================================
+	// WRITES
+	// =========================================================
+
+	@Override
+	public boolean addOrder(Order o) throws SQLException, IOException {
+		/*
+		 * Same checks and rows as DBSession.addOrder: the order keeps the
+		 * price it was quoted at, every pizza gets the order's timestamp and
+		 * topping stock goes down by the net amount used.
+		 */
+
+		int[] ids = write("addOrder", b -> {
+			int custId = o.getCustID() <= 0 ? 0 : o.getCustID();
+			if (custId != 0 && !customers.containsKey(custId)) {
+				throw foreignKey("ordertable", "customer_CustID", custId);
+			}
+			OrderType type = notNull(o.getType(), "ordertable_OrderType");
+
+			OrderRow r = new OrderRow(orders.isEmpty() ? 1 : orders.lastKey() + 1,
+					dateTime(DBSession.parseTimestamp(o.getDate())));
+			r.custId = custId;
+			r.type = type;
+			r.custCents = decimal(o.getCustCents(), "ordertable_CustPrice");
+			r.busCents = decimal(o.getBusCents(), "ordertable_BusPrice");
+			r.complete = o.getIsComplete();
+			if (o instanceof DineinOrder) {
+				r.detail = DINE_IN_DETAIL;
+				r.tableNum = ((DineinOrder) o).getTableNum();
+			} else if (o instanceof PickupOrder) {
+				r.detail = PICKUP_DETAIL;
+				r.pickedUp = ((PickupOrder) o).getIsPickedUp();
+			} else if (o instanceof DeliveryOrder) {
+				String[] parts = DBSession.parseAddress(((DeliveryOrder) o).getAddress());
+				r.detail = DELIVERY_DETAIL;
+				r.houseNum = Integer.parseInt(parts[0]);
+				r.street = varchar(parts[1], "delivery_Street", 30);
+				r.city = varchar(parts[2], "delivery_City", 30);
+				r.state = varchar(parts[3], "delivery_State", 2);
+				r.zip = Integer.parseInt(parts[4]);
+				r.delivered = parts.length > 5 && Boolean.parseBoolean(parts[5]);
+			}
+
+			ArrayList<Pizza> list = o.getPizzaList();
+			ArrayList<PizzaRow> added = pizzaRows(list, r.id, r.at);
+			r.discountIds = discountIds(o.getDiscountList(), "order_discount", r.id);
+
+			b.order(r);
+			addPizzaRecords(b, added, list);
+			int[] result = new int[added.size() + 1];
+			result[0] = r.id;
+			for (int i = 0; i < added.size(); i++) {
+				result[i + 1] = added.get(i).id;
+			}
+			return result;
+		});
+
+		o.setOrderID(ids[0]);
+		ArrayList<Pizza> list = o.getPizzaList();
+		for (int i = 0; i < list.size(); i++) {
+			list.get(i).setPizzaID(ids[i + 1]);
+			list.get(i).setOrderID(ids[0]);
+		}
+		return true;
+	}
+
+	@Override
+	public CompletableFuture<Integer> submitOrder(Order o) {
+		// nothing to batch: the order is saved before this returns
+		try {
+			addOrder(o);
+			return CompletableFuture.completedFuture(o.getOrderID());
+		} catch (SQLException | IOException | RuntimeException e) {
+			CompletableFuture<Integer> failure = new CompletableFuture<>();
+			failure.completeExceptionally(e);
+			return failure;
+		}
+	}
+
+	@Override
+	public int addPizza(java.util.Date d, int orderID, Pizza p) throws SQLException, IOException {
+		/*
+		 * Adds the pizza to an existing order. Like the
+		 * UpdateOrderPrice_AfterPizzaInsert trigger, its price is added to
+		 * the order's unless the order is complete.
+		 */
+
+		int pizzaId = write("addPizza", b -> {
+			OrderRow order = orders.get(orderID);
+			if (order == null) {
+				throw foreignKey("pizza", "ordertable_OrderID", orderID);
+			}
+			ArrayList<Pizza> list = new ArrayList<>(1);
+			list.add(p);
+			ArrayList<PizzaRow> added = pizzaRows(list, orderID, dateTime(new Timestamp(d.getTime())));
+			PizzaRow row = added.get(0);
+			long cust = order.custCents;
+			long bus = order.busCents;
+			if (!order.complete) {
+				cust = decimal(cust + row.custCents, "ordertable_CustPrice");
+				bus = decimal(bus + row.busCents, "ordertable_BusPrice");
+			}
+			addPizzaRecords(b, added, list);
+			if (!order.complete) {
+				b.orderPrice(orderID, cust, bus);
+			}
+			return row.id;
+		});
+
+		p.setPizzaID(pizzaId);
+		p.setOrderID(orderID);
+		return pizzaId;
+	}
+
+	@Override
+	public int addCustomer(Customer c) throws SQLException, IOException {
+		return write("addCustomer", b -> {
+			Customer row = new Customer(customers.isEmpty() ? 1 : customers.lastKey() + 1,
+					varchar(c.getFName(), "customer_FName", 30),
+					varchar(c.getLName(), "customer_LName", 30),
+					varchar(c.getPhone(), "customer_PhoneNum", 30));
+			b.customer(row);
+			return row.getCustID();
+		});
+	}
+
+	@Override
+	public void completeOrder(int orderID, DBNinja.order_state newState) throws SQLException, IOException {
+		write("completeOrder", b -> {
+			if (orders.containsKey(orderID)) {
+				b.complete(orderID, newState);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	public void addToInventory(int toppingID, double quantity) throws SQLException, IOException {
+		write("addToInventory", b -> {
+			Topping t = toppings.get(toppingID);
+			if (t != null) {
+				// topping_CurINVT is an INT; MySQL rounds the double sum with rint()
+				double stock = Math.rint(t.getCurINVT() + quantity);
+				if (stock < Integer.MIN_VALUE || stock > Integer.MAX_VALUE) {
+					throw new SQLDataException("Out of range value for column 'topping_CurINVT'");
+				}
+				b.stock(toppingID, (int) stock);
+			}
+			return null;
+		});
+	}
+
+	private ArrayList<PizzaRow> pizzaRows(List<Pizza> list, int orderId, LocalDateTime at) throws SQLException {
+		/*
+		 * Checks the pizzas the way inserting them into the pizza,
+		 * pizza_discount and pizza_topping tables would, and their topping
+		 * stock, and returns their rows with new ids. Changes nothing.
+		 */
+
+		ArrayList<PizzaRow> out = new ArrayList<>(list.size());
+		if (list.isEmpty()) {
+			return out;
+		}
+		PriceMatrix prices = catalog.priceMatrix();
+		for (Pizza p : list) {
+			DBSession.checkPizzaPrice(prices, p);
+		}
+
+		int nextId = lastPizzaID;
+		for (Pizza p : list) {
+			PizzaSize size = p.getPizzaSize();
+			CrustType crust = p.getCrust();
+			if (size != null && crust != null && basePrices[ReferenceData.basePriceIndex(size, crust)] == null) {
+				throw new SQLIntegrityConstraintViolationException("Cannot add or update a child row: "
+						+ "no baseprice row for a " + size + " " + crust + " pizza");
+			}
+			PizzaRow r = new PizzaRow(++nextId, orderId, size, crust, p.getState(), at,
+					decimal(p.getCustCents(), "pizza_CustPrice"), decimal(p.getBusCents(), "pizza_BusPrice"));
+			r.discountIds = discountIds(p.getDiscounts(), "pizza_discount", r.id);
+
+			ArrayList<Topping> tops = p.getToppings();
+			int n = tops == null ? 0 : tops.size();
+			r.toppingIds = new int[n];
+			r.doubled = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				Topping t = tops.get(i);
+				if (!toppings.containsKey(t.getTopID())) {
+					throw foreignKey("pizza_topping", "topping_TopID", t.getTopID());
+				}
+				for (int j = 0; j < i; j++) {
+					if (r.toppingIds[j] == t.getTopID()) {
+						throw duplicate("pizza_topping", r.id + "-" + t.getTopID());
+					}
+				}
+				r.toppingIds[i] = t.getTopID();
+				r.doubled[i] = t.getDoubled();
+			}
+			out.add(r);
+		}
+		return out;
+	}
+
+	private void addPizzaRecords(Batch b, List<PizzaRow> added, List<Pizza> list) throws SQLException, IOException {
+		/*
+		 * Records the pizzas and takes their toppings out of stock: one net
+		 * amount per topping, checked against what is left, with the amounts
+		 * DBSession.consumeInventory uses.
+		 */
+
+		TreeMap<Integer, Double> usage = new TreeMap<>();
+		HashMap<Integer, String> names = new HashMap<>();
+		for (Pizza p : list) {
+			if (p.getToppings() == null) continue;
+			for (Topping t : p.getToppings()) {
+				double unitsNeeded = DBSession.toppingUnitsForSize(t, p.getPizzaSize());
+				if (t.getDoubled()) unitsNeeded *= 2;
+				usage.merge(t.getTopID(), Math.ceil(unitsNeeded), Double::sum);
+				names.put(t.getTopID(), t.getTopName());
+			}
+		}
+		for (Map.Entry<Integer, Double> e : usage.entrySet()) {
+			if (toppings.get(e.getKey()).getCurINVT() < e.getValue()) {
+				throw new SQLException("Not enough inventory for topping " + names.get(e.getKey()));
+			}
+		}
+
+		for (PizzaRow r : added) {
+			b.pizza(r);
+		}
+		for (Map.Entry<Integer, Double> e : usage.entrySet()) {
+			b.stock(e.getKey(), (int) (toppings.get(e.getKey()).getCurINVT() - e.getValue()));
+		}
+	}
+
+	private int[] discountIds(List<Discount> list, String table, int ownerId) throws SQLException {
+		// ids of the discounts, sorted, each checked to exist once
+		if (list == null || list.isEmpty()) {
+			return new int[0];
+		}
+		int[] ids = new int[list.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = list.get(i).getDiscountID();
+			if (!discounts.containsKey(ids[i])) {
+				throw foreignKey(table, "discount_DiscountID", ids[i]);
+			}
+		}
+		Arrays.sort(ids);
+		for (int i = 1; i < ids.length; i++) {
+			if (ids[i] == ids[i - 1]) {
+				throw duplicate(table, ownerId + "-" + ids[i]);
+			}
+		}
+		return ids;
+	}
+
+	// =========================================================
+	// ORDERS
+	// =========================================================
+
+	@Override
+	public ArrayList<Order> getOrders(int status, FetchPlan plan) throws SQLException, IOException {
+		return read("getOrders", () -> {
+			ArrayList<Order> out = new ArrayList<>();
+			if (status == 1) {
+				for (int id : openOrders) {
+					out.add(toOrder(orders.get(id)));
+				}
+			} else {
+				for (OrderRow r : orders.values()) {
+					if (status != 2 || r.complete) {
+						out.add(toOrder(r));
+					}
+				}
+			}
+			return out;
+		});
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersAfter(int status, int afterOrderID, int limit, FetchPlan plan)
+			throws SQLException, IOException {
+		return read("OrderCursor.nextPage", () -> {
+			ArrayList<Order> out = new ArrayList<>();
+			if (limit <= 0) {
+				return out;
+			}
+			if (status == 1) {
+				for (int id : openOrders.tailSet(afterOrderID, false)) {
+					out.add(toOrder(orders.get(id)));
+					if (out.size() == limit) {
+						break;
+					}
+				}
+			} else {
+				for (OrderRow r : orders.tailMap(afterOrderID, false).values()) {
+					if (status != 2 || r.complete) {
+						out.add(toOrder(r));
+						if (out.size() == limit) {
+							break;
+						}
+					}
+				}
+			}
+			return out;
+		});
+	}
+
+	@Override
+	public Order getOrder(int orderID) throws SQLException, IOException {
+		return read("getOrder", () -> {
+			OrderRow r = orders.get(orderID);
+			return r == null ? null : toOrder(r);
+		});
+	}
+
+	@Override
+	public Order getLastOrder() throws SQLException, IOException {
+		return read("getLastOrder", () -> orders.isEmpty() ? null : toOrder(orders.lastEntry().getValue()));
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersByDate(String date, FetchPlan plan) throws SQLException, IOException {
+		// a date that isn't YYYY-MM-DD matches no orders
+		LocalDate day;
+		try {
+			day = LocalDate.parse(date.trim());
+		} catch (DateTimeParseException e) {
+			return new ArrayList<>();
+		}
+		LocalDateTime from = day.atStartOfDay();
+		LocalDateTime to = day.plusDays(1).atStartOfDay();
+		return read("getOrdersByDate", () -> ordersBetween(from, to));
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersBetween(java.util.Date from, java.util.Date to, FetchPlan plan)
+			throws SQLException, IOException {
+		LocalDateTime f = new Timestamp(from.getTime()).toLocalDateTime();
+		LocalDateTime t = new Timestamp(to.getTime()).toLocalDateTime();
+		return read("getOrdersBetween", () -> ordersBetween(f, t));
+	}
+
+	private ArrayList<Order> ordersBetween(LocalDateTime from, LocalDateTime to) {
+		// orders placed in [from, to), oldest first, off the date index
+		ArrayList<Order> out = new ArrayList<>();
+		if (!from.isBefore(to)) {
+			return out;
+		}
+		NavigableSet<OrderRow> range = ordersByDate.subSet(
+				new OrderRow(Integer.MIN_VALUE, from), true, new OrderRow(Integer.MIN_VALUE, to), false);
+		for (OrderRow r : range) {
+			out.add(toOrder(r));
+		}
+		return out;
+	}
+
+	@Override
+	public ArrayList<Pizza> getPizzas(Order o) throws SQLException, IOException {
+		return read("getPizzas", () -> {
+			ArrayList<Pizza> out = new ArrayList<>();
+			OrderRow r = orders.get(o.getOrderID());
+			if (r != null) {
+				for (PizzaRow p : r.pizzas) {
+					out.add(toPizza(p));
+				}
+			}
+			return out;
+		});
+	}
+
+	@Override
+	public ArrayList<Discount> getDiscounts(Order o) throws SQLException, IOException {
+		return read("getDiscounts", () -> {
+			OrderRow r = orders.get(o.getOrderID());
+			return r == null ? new ArrayList<>() : discountList(r.discountIds);
+		});
+	}
+
+	@Override
+	public ArrayList<Discount> getDiscounts(Pizza p) throws SQLException, IOException {
+		return read("getDiscounts", () -> {
+			PizzaRow r = pizzas.get(p.getPizzaID());
+			return r == null ? new ArrayList<>() : discountList(r.discountIds);
+		});
+	}
+
+	@Override
+	public ArrayList<Topping> getToppingsOnPizza(Pizza p) throws SQLException, IOException {
+		return read("getToppingsOnPizza", () -> {
+			PizzaRow r = pizzas.get(p.getPizzaID());
+			return r == null ? new ArrayList<>() : toppingList(r);
+		});
+	}
+
+	private Order toOrder(OrderRow r) {
+		// the Order subtype and values OrderHydrator.mapHeader builds, fully populated
+		String date = r.at.format(DATETIME);
+		double cust = PriceEngine.dollars(r.custCents);
+		double bus = PriceEngine.dollars(r.busCents);
+		int custId = r.custId == 0 ? -1 : r.custId;
+
+		Order o;
+		if (r.type == OrderType.DINE_IN) {
+			o = new DineinOrder(r.id, custId, date, cust, bus, r.complete, r.tableNum);
+		} else if (r.type == OrderType.PICKUP) {
+			o = new PickupOrder(r.id, custId, date, cust, bus, r.pickedUp, r.complete);
+		} else {
+			String addr = "";
+			if (r.detail == DELIVERY_DETAIL) {
+				addr = r.houseNum + "\t" + r.street + "\t" + r.city + "\t" + r.state + "\t" + r.zip;
+			}
+			o = new DeliveryOrder(r.id, custId, date, cust, bus, r.complete, r.delivered, addr);
+		}
+
+		ArrayList<Pizza> list = new ArrayList<>(r.pizzas.size());
+		for (PizzaRow p : r.pizzas) {
+			list.add(toPizza(p));
+		}
+		o.setPizzaList(list);
+		o.setDiscountList(discountList(r.discountIds));
+		return o;
+	}
+
+	private Pizza toPizza(PizzaRow r) {
+		Pizza p = new Pizza(r.id, r.size == null ? null : r.size.label, r.crust == null ? null : r.crust.label,
+				r.orderId, r.state == null ? null : r.state.label, r.at.format(DATETIME),
+				PriceEngine.dollars(r.custCents), PriceEngine.dollars(r.busCents));
+		p.setToppings(toppingList(r));
+		p.setDiscounts(discountList(r.discountIds));
+		return p;
+	}
+
+	private ArrayList<Topping> toppingList(PizzaRow r) {
+		// ordered by name, as fetchPizzaToppings returns them
+		ArrayList<Topping> out = new ArrayList<>(r.toppingIds.length);
+		for (int i = 0; i < r.toppingIds.length; i++) {
+			Topping t = ReferenceData.copy(toppings.get(r.toppingIds[i]));
+			t.setDoubled(r.doubled[i]);
+			out.add(t);
+		}
+		out.sort(BY_TOPPING_NAME);
+		return out;
+	}
+
+	private ArrayList<Discount> discountList(int[] ids) {
+		ArrayList<Discount> out = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			out.add(ReferenceData.copy(discounts.get(id)));
+		}
+		return out;
+	}
+
+	// =========================================================
+	// CUSTOMERS
+	// =========================================================
+
+	@Override
+	public ArrayList<Customer> getCustomerList() throws SQLException, IOException {
+		return read("getCustomerList", () -> {
+			ArrayList<Customer> out = new ArrayList<>(customers.size());
+			for (Customer c : customers.values()) {
+				out.add(copy(c));
+			}
+			out.sort(Comparator.comparing(Customer::getLName, String.CASE_INSENSITIVE_ORDER)
+					.thenComparing(Customer::getFName, String.CASE_INSENSITIVE_ORDER)
+					.thenComparing(Customer::getPhone, String.CASE_INSENSITIVE_ORDER));
+			return out;
+		});
+	}
+
+	@Override
+	public Customer findCustomerByPhone(String phoneNumber) throws SQLException, IOException {
+		return read("findCustomerByPhone", () -> {
+			Integer id = phoneNumber == null ? null : customersByPhone.get(phoneKey(phoneNumber));
+			return id == null ? null : copy(customers.get(id));
+		});
+	}
+
+	@Override
+	public String getCustomerName(int custID) throws SQLException, IOException {
+		return read("CustomerNames.load", () -> {
+			Customer c = customers.get(custID);
+			return c == null ? "" : c.getFName() + " " + c.getLName();
+		});
+	}
+
+	@Override
+	public Map<Integer, String> getCustomerNames(List<Integer> custIDs) throws SQLException, IOException {
+		return read("CustomerNames.prefetch", () -> {
+			HashMap<Integer, String> names = new HashMap<>(custIDs.size() * 2);
+			for (int id : custIDs) {
+				Customer c = customers.get(id);
+				if (c != null) {
+					names.put(id, c.getFName() + " " + c.getLName());
+				}
+			}
+			return names;
+		});
+	}
+
+	private static Customer copy(Customer c) {
+		return new Customer(c.getCustID(), c.getFName(), c.getLName(), c.getPhone());
+	}
+
+	private static String phoneKey(String phone) {
+		// compared case-insensitively, like the column
+		return phone.toLowerCase(Locale.ROOT);
+	}
+
+	// =========================================================
+	// CATALOG
+	// =========================================================
+
+	@Override
+	public ArrayList<Discount> getDiscountList() throws SQLException, IOException {
+		return read("getDiscountList", () -> catalog.discountList());
+	}
+
+	@Override
+	public Discount findDiscountByName(String name) throws SQLException, IOException {
+		return read("findDiscountByName", () -> catalog.discountByName(name));
+	}
+
+	@Override
+	public ArrayList<Topping> getToppingList() throws SQLException, IOException {
+		return read("getToppingList", () -> {
+			ArrayList<Topping> list = catalog.toppingList();
+			for (Topping t : list) {
+				t.setCurINVT(toppings.get(t.getTopID()).getCurINVT());
+			}
+			return list;
+		});
+	}
+
+	@Override
+	public Topping findToppingByName(String name) throws SQLException, IOException {
+		return read("findToppingByName", () -> {
+			Topping t = catalog.toppingByName(name);
+			if (t != null) {
+				t.setCurINVT(toppings.get(t.getTopID()).getCurINVT());
+			}
+			return t;
+		});
+	}
+
+	@Override
+	public double getBaseCustPrice(String size, String crust) throws SQLException, IOException {
+		return read("getBaseCustPrice", () -> catalog.baseCustPrice(size, crust));
+	}
+
+	@Override
+	public double getBaseBusPrice(String size, String crust) throws SQLException, IOException {
+		return read("getBaseBusPrice", () -> catalog.baseBusPrice(size, crust));
+	}
+
+	// =========================================================
+	// REPORTS AND ADMIN
+	// =========================================================
+
+	@Override
+	public void printToppingReport() throws SQLException, IOException {
+		DBSession.printToppingRows(read("printToppingReport", () -> {
+			long[] counts = new long[toppings.isEmpty() ? 0 : toppings.lastKey() + 1];
+			for (PizzaRow p : pizzas.values()) {
+				for (int i = 0; i < p.toppingIds.length; i++) {
+					counts[p.toppingIds[i]] += p.doubled[i] ? 2 : 1;
+				}
+			}
+			return ReportEngine.toppingRows(catalog.toppingList(), counts);
+		}));
+	}
+
+	@Override
+	public void printProfitByPizzaReport() throws SQLException, IOException {
+		DBSession.printProfitByPizzaRows(read("printProfitByPizzaReport", () -> {
+			// (size, crust, month) -> profit in cents
+			TreeMap<Long, long[]> groups = new TreeMap<>();
+			for (PizzaRow p : pizzas.values()) {
+				int s = p.size == null ? -1 : p.size.ordinal();
+				int c = p.crust == null ? -1 : p.crust.ordinal();
+				long key = ((long) monthKey(p.at) << 16) | ((s + 1) << 8) | (c + 1);
+				groups.computeIfAbsent(key, k -> new long[]{s, c, monthKey(p.at), 0})[3] +=
+						p.custCents - p.busCents;
+			}
+
+			ArrayList<long[]> sorted = new ArrayList<>(groups.values());
+			sorted.sort(Comparator.<long[]>comparingLong(g -> g[3]).thenComparingLong(g -> g[2])
+					.thenComparingLong(g -> g[0]).thenComparingLong(g -> g[1]));
+			ArrayList<String[]> out = new ArrayList<>(sorted.size());
+			for (long[] g : sorted) {
+				out.add(new String[]{g[0] < 0 ? null : PizzaSize.values()[(int) g[0]].label,
+						g[1] < 0 ? null : CrustType.values()[(int) g[1]].label,
+						BigDecimal.valueOf(g[3], 2).toPlainString(), ReportEngine.monthLabel((int) g[2])});
+			}
+			return out;
+		}));
+	}
+
+	@Override
+	public void printProfitByOrderTypeReport() throws SQLException, IOException {
+		DBSession.printProfitByOrderTypeRows(read("printProfitByOrderTypeReport", () -> {
+			int n = orders.size();
+			int[] group = new int[n];
+			double[] price = new double[n];
+			long[] cost = new long[n];
+			double[] profit = new double[n];
+			ArrayList<String[]> keys = new ArrayList<>();
+			HashMap<String, Integer> keyIds = new HashMap<>();
+
+			int i = 0;
+			for (OrderRow r : orders.values()) {
+				String type = r.type.label.toLowerCase(Locale.ROOT);
+				String month = ReportEngine.monthLabel(monthKey(r.at));
+				Integer g = keyIds.get(type + '\u0000' + month);
+				if (g == null) {
+					g = keys.size();
+					keys.add(new String[]{type, month});
+					keyIds.put(type + '\u0000' + month, g);
+				}
+
+				long pizzaCents = 0;
+				for (PizzaRow p : r.pizzas) {
+					pizzaCents += p.custCents;
+					cost[i] += p.busCents;
+				}
+				long dollarCents = 0;
+				double lnSum = 0;
+				for (int id : r.discountIds) {
+					Discount d = discounts.get(id);
+					long amount = ReportEngine.cents(BigDecimal.valueOf(d.getAmount()));
+					if (d.isPercent()) {
+						lnSum += ReportEngine.lnPercentOff(amount);
+					} else {
+						dollarCents += amount;
+					}
+				}
+				group[i] = g;
+				price[i] = ReportEngine.orderPrice(pizzaCents, dollarCents, lnSum);
+				profit[i] = price[i] - cost[i] / 100.0;
+				i++;
+			}
+			return ReportEngine.orderTypeRows(keys, group, price, cost, profit);
+		}));
+	}
+
+	private static int monthKey(LocalDateTime at) {
+		// ReportEngine.monthKey of the formatted date
+		return at.getYear() * 12 + at.getMonthValue() - 1;
+	}
+
+	@Override
+	public int migrateSchema() {
+		// the on-disk format is checked on open; there is nothing to migrate
+		return FORMAT;
+	}
+
+	@Override
+	public void rebuildReportSummaries() {
+		// reports are computed from the rows; there are no summaries to rebuild
+	}
+
+	@Override
+	public void setReportSource(ReportSource source) {
+		// reports are always computed from the rows
+	}
+
+	@Override
+	public void invalidateReferenceData() {
+		// the catalog is read from the rows; nothing is cached apart from them
+	}
+
+	@Override
+	public String getReferenceDataStats() {
+		return "EmbeddedStore [dir=" + dir + ", catalog read from memory, no reference data cache]";
+	}
+
+	@Override
+	public String getOrderIntakeStats() {
+		return "EmbeddedStore [dir=" + dir + ", orders saved on submit, no order intake]";
+	}
+
+	@Override
+	public void close() throws IOException {
+		/*
+		 * Writes a snapshot (so the next open has no log to replay), forces
+		 * it and releases the directory. Later calls fail.
+		 */
+
+		rows.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				if (failed == null && logSize > LOG_HEADER) {
+					checkpoint();
+				}
+			} finally {
+				log.close();
+				lockChannel.close();
+			}
+		} finally {
+			rows.writeLock().unlock();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (IOException e) {
+			System.err.println("Could not close embedded store " + dir + ": " + e.getMessage());
+		}
+	}
+
+	// =========================================================
+	// READ AND WRITE PATHS
+	// =========================================================
+
+	// A read against the rows, under the read lock.
+	private interface Read<T> {
+		T run() throws SQLException;
+	}
+
+	// Checks a write against the rows and records what it changes; must not change anything itself.
+	private interface Change<T> {
+		T run(Batch b) throws SQLException, IOException;
+	}
+
+	private <T> T read(String operation, Read<T> work) throws SQLException, IOException {
+		// operation names the call in DBMetrics, as DBNinja.callInSession does
+		DBMetrics.Call call = DBMetrics.begin(operation);
+		boolean succeeded = false;
+		rows.readLock().lock();
+		try {
+			if (closed) {
+				throw new IOException("Embedded store " + dir + " is closed");
+			}
+			T result = work.run();
+			succeeded = true;
+			return result;
+		} finally {
+			rows.readLock().unlock();
+			DBMetrics.end(call, succeeded);
+		}
+	}
+
+	private <T> T write(String operation, Change<T> change) throws SQLException, IOException {
+		/*
+		 * Runs the change under the write lock, appends its records to the
+		 * log as one frame and applies them, then waits for the frame to be
+		 * forced (outside the lock, so other writers can share the force).
+		 */
+
+		DBMetrics.Call call = DBMetrics.begin(operation);
+		boolean succeeded = false;
+		try {
+			T result;
+			long sequence;
+			rows.writeLock().lock();
+			try {
+				if (closed) {
+					throw new IOException("Embedded store " + dir + " is closed");
+				}
+				if (failed != null) {
+					throw new IOException("Embedded store " + dir + " stopped after a failed write", failed);
+				}
+				Batch b = new Batch();
+				result = change.run(b);
+				if (b.records == 0) {
+					succeeded = true;
+					return result;
+				}
+				byte[] payload = b.toByteArray();
+				sequence = append(payload);
+				try {
+					apply(payload);
+				} catch (IOException | RuntimeException e) {
+					// logged but only partly applied; memory no longer matches the files
+					failed = e instanceof IOException ? (IOException) e : new IOException(e);
+					throw e;
+				}
+				if (logSize >= checkpointBytes) {
+					try {
+						checkpoint();
+					} catch (IOException e) {
+						// the log still has everything; try again after the next write
+						System.err.println("Embedded store " + dir + " could not write a snapshot: " + e.getMessage());
+					}
+				}
+			} finally {
+				rows.writeLock().unlock();
+			}
+			sync(sequence);
+			succeeded = true;
+			return result;
+		} finally {
+			DBMetrics.end(call, succeeded);
+		}
+	}
+
+	private long append(byte[] payload) throws IOException {
+		// caller holds the write lock
+		long sequence = nextSequence;
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+		frame.putInt(payload.length).putLong(sequence).putInt(checksum(sequence, payload)).put(payload).flip();
+
+		long pos = logSize;
+		try {
+			while (frame.hasRemaining()) {
+				pos += log.write(frame, pos);
+			}
+		} catch (IOException e) {
+			// cut off whatever part of the frame made it, or stop taking writes
+			try {
+				log.truncate(logSize);
+			} catch (IOException t) {
+				e.addSuppressed(t);
+				failed = e;
+			}
+			throw e;
+		}
+		logSize = pos;
+		nextSequence++;
+		appendedSequence = sequence;
+		return sequence;
+	}
+
+	private void sync(long sequence) throws IOException {
+		if (!syncWrites) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (durableSequence >= sequence) {
+				return; // another writer's force covered it
+			}
+			long upTo = appendedSequence;
+			try {
+				log.force(false);
+			} catch (IOException e) {
+				rows.writeLock().lock();
+				try {
+					failed = e;
+				} finally {
+					rows.writeLock().unlock();
+				}
+				throw e;
+			}
+			durableSequence = upTo;
+		}
+	}
+
+	private static int checksum(long sequence, byte[] payload) {
+		CRC32C crc = new CRC32C();
+		crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	// =========================================================
+	// SNAPSHOT AND RECOVERY
+	// =========================================================
+
+	private void checkpoint() throws IOException {
+		/*
+		 * Writes every row to a new snapshot and empties the log. Caller
+		 * holds the write lock.
+		 */
+
+		long sequence = nextSequence - 1;
+		Path tmp = dir.resolve(SNAPSHOT + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER);
+			header.putInt(MAGIC).putInt(FORMAT).putLong(sequence).flip();
+			writeFully(out, header);
+
+			Batch b = new Batch();
+			for (PizzaSize s : PizzaSize.values()) {
+				for (CrustType c : CrustType.values()) {
+					double[] p = basePrices[ReferenceData.basePriceIndex(s, c)];
+					if (p != null) {
+						b.basePrice(s, c, p[0], p[1]);
+					}
+				}
+			}
+			for (Topping t : toppings.values()) {
+				b.topping(t);
+			}
+			for (Discount d : discounts.values()) {
+				b.discount(d);
+			}
+			b = flushFrame(out, b, sequence);
+			for (Customer c : customers.values()) {
+				b.customer(c);
+				b = flushFrame(out, b, sequence);
+			}
+			for (OrderRow r : orders.values()) {
+				b.order(r);
+				for (PizzaRow p : r.pizzas) {
+					b.pizza(p);
+				}
+				b = flushFrame(out, b, sequence);
+			}
+			if (b.records > 0) {
+				writeFrame(out, b.toByteArray(), sequence);
+			}
+			out.force(true);
+		}
+		Files.move(tmp, dir.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		forceDirectory();
+
+		synchronized (syncLock) {
+			log.truncate(LOG_HEADER);
+			log.force(true);
+			durableSequence = sequence;
+		}
+		logSize = LOG_HEADER;
+	}
+
+	private static Batch flushFrame(FileChannel out, Batch b, long sequence) throws IOException {
+		// writes the batch once it is a frame's worth, returning the batch to carry on with
+		if (b.size() < SNAPSHOT_FRAME) {
+			return b;
+		}
+		writeFrame(out, b.toByteArray(), sequence);
+		return new Batch();
+	}
+
+	private static void writeFrame(FileChannel out, byte[] payload, long sequence) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + payload.length);
+		frame.putInt(payload.length).putLong(sequence).putInt(checksum(sequence, payload)).put(payload).flip();
+		writeFully(out, frame);
+	}
+
+	private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			out.write(buffer);
+		}
+	}
+
+	private void forceDirectory() {
+		// makes the rename durable; not every platform can open a directory
+		try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+			d.force(true);
+		} catch (IOException e) {
+			// the snapshot itself was forced; at worst the old one is used with the full log
+		}
+	}
+
+	private long loadSnapshot() throws IOException {
+		// loads snapshot.db and returns the log sequence it was written at
+		Path file = dir.resolve(SNAPSHOT);
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = readAt(in, 0, SNAPSHOT_HEADER);
+			if (header == null || header.getInt() != MAGIC) {
+				throw new IOException(file + " is not an embedded store snapshot");
+			}
+			int format = header.getInt();
+			if (format != FORMAT) {
+				throw new IOException(file + " has format " + format + ", expected " + FORMAT);
+			}
+			long sequence = header.getLong();
+			long end = scan(in, SNAPSHOT_HEADER, Long.MIN_VALUE);
+			if (end != in.size()) {
+				throw new IOException(file + " is corrupt at byte " + end);
+			}
+			nextSequence = sequence + 1;
+			return sequence;
+		}
+	}
+
+	private boolean recoverLog(long snapshotSequence) throws IOException {
+		/*
+		 * Applies the log frames written after the snapshot and cuts off a
+		 * torn frame at the end. Returns whether the log had any frames.
+		 */
+
+		Path file = dir.resolve(LOG);
+		if (log.size() < LOG_HEADER) {
+			// new, or torn while the header was written
+			ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+			header.putInt(MAGIC).putInt(FORMAT).flip();
+			log.truncate(0);
+			while (header.hasRemaining()) {
+				log.write(header, LOG_HEADER - header.remaining());
+			}
+			log.force(true);
+			logSize = LOG_HEADER;
+			return false;
+		}
+
+		ByteBuffer header = readAt(log, 0, LOG_HEADER);
+		if (header.getInt() != MAGIC) {
+			throw new IOException(file + " is not an embedded store log");
+		}
+		int format = header.getInt();
+		if (format != FORMAT) {
+			throw new IOException(file + " has format " + format + ", expected " + FORMAT);
+		}
+
+		long end = scan(log, LOG_HEADER, snapshotSequence);
+		if (end != log.size()) {
+			System.err.println("Embedded store " + dir + ": dropped an incomplete write at byte " + end + " of " + LOG);
+			log.truncate(end);
+			log.force(true);
+		}
+		logSize = end;
+		durableSequence = nextSequence - 1;
+		appendedSequence = durableSequence;
+		return end > LOG_HEADER;
+	}
+
+	private long scan(FileChannel in, long pos, long afterSequence) throws IOException {
+		/*
+		 * Applies the frames from pos on whose sequence is past
+		 * afterSequence, up to the end or the first frame that is short or
+		 * fails its checksum. Returns where that stop was.
+		 */
+
+		long size = in.size();
+		while (size - pos >= FRAME_HEADER) {
+			ByteBuffer header = readAt(in, pos, FRAME_HEADER);
+			int length = header.getInt();
+			long sequence = header.getLong();
+			int crc = header.getInt();
+			if (length <= 0 || length > MAX_FRAME || size - pos - FRAME_HEADER < length) {
+				break;
+			}
+			ByteBuffer body = readAt(in, pos + FRAME_HEADER, length);
+			byte[] payload = body.array();
+			if (checksum(sequence, payload) != crc) {
+				break;
+			}
+			if (sequence > afterSequence) {
+				apply(payload);
+				nextSequence = Math.max(nextSequence, sequence + 1);
+			}
+			pos += FRAME_HEADER + length;
+		}
+		return pos;
+	}
+
+	private static ByteBuffer readAt(FileChannel in, long pos, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while (b.hasRemaining()) {
+			if (in.read(b, pos + b.position()) < 0) {
+				return null;
+			}
+		}
+		b.flip();
+		return b;
+	}
+
+	// =========================================================
+	// RECORDS
+	// =========================================================
+
+	private void apply(byte[] payload) throws IOException {
+		/*
+		 * Applies one frame's records to the rows. Every record carries the
+		 * whole row as it is after the write, so applying never depends on
+		 * the values it replaces.
+		 */
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		while (in.available() > 0) {
+			byte kind = in.readByte();
+			switch (kind) {
+				case BASE_PRICE: {
+					int i = ReferenceData.basePriceIndex(PizzaSize.values()[in.readByte()],
+							CrustType.values()[in.readByte()]);
+					basePrices[i] = new double[]{in.readDouble(), in.readDouble()};
+					catalogChanged = true;
+					break;
+				}
+				case TOPPING: {
+					Topping t = new Topping(in.readInt(), in.readUTF(), in.readDouble(), in.readDouble(),
+							in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt(),
+							in.readInt());
+					toppings.put(t.getTopID(), t);
+					catalogChanged = true;
+					break;
+				}
+				case DISCOUNT: {
+					Discount d = new Discount(in.readInt(), in.readUTF(), in.readDouble(), in.readBoolean());
+					discounts.put(d.getDiscountID(), d);
+					catalogChanged = true;
+					break;
+				}
+				case CUSTOMER: {
+					Customer c = new Customer(in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+					customers.put(c.getCustID(), c);
+					// several customers can share a phone; the lowest id is found first
+					customersByPhone.merge(phoneKey(c.getPhone()), c.getCustID(), Math::min);
+					break;
+				}
+				case ORDER:
+					putOrder(readOrder(in));
+					break;
+				case PIZZA:
+					putPizza(readPizza(in));
+					break;
+				case ORDER_PRICE: {
+					OrderRow r = row(in.readInt());
+					r.custCents = in.readLong();
+					r.busCents = in.readLong();
+					break;
+				}
+				case STOCK: {
+					int id = in.readInt();
+					Topping t = toppings.get(id);
+					if (t == null) {
+						throw new IOException("Stock record for unknown topping " + id);
+					}
+					t.setCurINVT(in.readInt());
+					break;
+				}
+				case COMPLETE: {
+					OrderRow r = row(in.readInt());
+					DBNinja.order_state state = DBNinja.order_state.values()[in.readByte()];
+					if (state == DBNinja.order_state.PREPARED) {
+						r.complete = true;
+						openOrders.remove(r.id);
+						for (PizzaRow p : r.pizzas) {
+							p.state = PizzaState.COMPLETED;
+						}
+					} else if (state == DBNinja.order_state.DELIVERED && r.detail == DELIVERY_DETAIL) {
+						r.delivered = true;
+					} else if (state == DBNinja.order_state.PICKEDUP && r.detail == PICKUP_DETAIL) {
+						r.pickedUp = true;
+					}
+					break;
+				}
+				default:
+					throw new IOException("Unknown embedded store record kind " + kind);
+			}
+		}
+		if (catalogChanged) {
+			rebuildCatalog();
+		}
+	}
+
+	private OrderRow row(int orderId) throws IOException {
+		OrderRow r = orders.get(orderId);
+		if (r == null) {
+			throw new IOException("Record for unknown order " + orderId);
+		}
+		return r;
+	}
+
+	private void putOrder(OrderRow r) {
+		OrderRow old = orders.put(r.id, r);
+		if (old != null) {
+			ordersByDate.remove(old);
+			r.pizzas.addAll(old.pizzas);
+		}
+		ordersByDate.add(r);
+		if (r.complete) {
+			openOrders.remove(r.id);
+		} else {
+			openOrders.add(r.id);
+		}
+	}
+
+	private void putPizza(PizzaRow p) throws IOException {
+		OrderRow r = row(p.orderId);
+		PizzaRow old = pizzas.put(p.id, p);
+		if (old != null) {
+			r.pizzas.remove(old);
+		}
+		// kept in pizza id order; new pizzas always come last
+		int i = r.pizzas.size();
+		while (i > 0 && r.pizzas.get(i - 1).id > p.id) {
+			i--;
+		}
+		r.pizzas.add(i, p);
+		lastPizzaID = Math.max(lastPizzaID, p.id);
+	}
+
+	private void rebuildCatalog() {
+		ArrayList<Topping> tops = new ArrayList<>(toppings.size());
+		for (Topping t : toppings.values()) {
+			tops.add(ReferenceData.copy(t));
+		}
+		tops.sort(BY_TOPPING_NAME);
+		ArrayList<Discount> discs = new ArrayList<>(discounts.size());
+		for (Discount d : discounts.values()) {
+			discs.add(ReferenceData.copy(d));
+		}
+		discs.sort(BY_DISCOUNT_NAME);
+		catalog = ReferenceData.of(basePrices.clone(), tops, discs);
+		catalogChanged = false;
+	}
+
+	private static OrderRow readOrder(DataInputStream in) throws IOException {
+		OrderRow r = new OrderRow(in.readInt(), LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC));
+		r.custId = in.readInt();
+		r.type = OrderType.values()[in.readByte()];
+		r.custCents = in.readLong();
+		r.busCents = in.readLong();
+		r.complete = in.readBoolean();
+		r.detail = in.readByte();
+		switch (r.detail) {
+			case DINE_IN_DETAIL:
+				r.tableNum = in.readInt();
+				break;
+			case PICKUP_DETAIL:
+				r.pickedUp = in.readBoolean();
+				break;
+			case DELIVERY_DETAIL:
+				r.houseNum = in.readInt();
+				r.street = in.readUTF();
+				r.city = in.readUTF();
+				r.state = in.readUTF();
+				r.zip = in.readInt();
+				r.delivered = in.readBoolean();
+				break;
+			default:
+				break;
+		}
+		r.discountIds = readIds(in);
+		return r;
+	}
+
+	private static PizzaRow readPizza(DataInputStream in) throws IOException {
+		int id = in.readInt();
+		int orderId = in.readInt();
+		byte size = in.readByte();
+		byte crust = in.readByte();
+		byte state = in.readByte();
+		PizzaRow r = new PizzaRow(id, orderId,
+				size < 0 ? null : PizzaSize.values()[size],
+				crust < 0 ? null : CrustType.values()[crust],
+				state < 0 ? null : PizzaState.values()[state],
+				LocalDateTime.ofEpochSecond(in.readLong(), 0, ZoneOffset.UTC), in.readLong(), in.readLong());
+		int n = in.readInt();
+		r.toppingIds = new int[n];
+		r.doubled = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			r.toppingIds[i] = in.readInt();
+			r.doubled[i] = in.readBoolean();
+		}
+		r.discountIds = readIds(in);
+		return r;
+	}
+
+	private static int[] readIds(DataInputStream in) throws IOException {
+		int[] ids = new int[in.readInt()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = in.readInt();
+		}
+		return ids;
+	}
+
+	// Records for one frame, in the format apply() reads.
+	private static final class Batch {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		int records;
+
+		int size() {
+			return bytes.size();
+		}
+
+		byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+
+		void basePrice(PizzaSize size, CrustType crust, double cust, double bus) throws IOException {
+			out.writeByte(BASE_PRICE);
+			out.writeByte(size.ordinal());
+			out.writeByte(crust.ordinal());
+			out.writeDouble(cust);
+			out.writeDouble(bus);
+			records++;
+		}
+
+		void topping(Topping t) throws IOException {
+			out.writeByte(TOPPING);
+			out.writeInt(t.getTopID());
+			out.writeUTF(t.getTopName());
+			out.writeDouble(t.getSmallAMT());
+			out.writeDouble(t.getMedAMT());
+			out.writeDouble(t.getLgAMT());
+			out.writeDouble(t.getXLAMT());
+			out.writeDouble(t.getCustPrice());
+			out.writeDouble(t.getBusPrice());
+			out.writeInt(t.getMinINVT());
+			out.writeInt(t.getCurINVT());
+			records++;
+		}
+
+		void discount(Discount d) throws IOException {
+			out.writeByte(DISCOUNT);
+			out.writeInt(d.getDiscountID());
+			out.writeUTF(d.getDiscountName());
+			out.writeDouble(d.getAmount());
+			out.writeBoolean(d.isPercent());
+			records++;
+		}
+
+		void customer(Customer c) throws IOException {
+			out.writeByte(CUSTOMER);
+			out.writeInt(c.getCustID());
+			out.writeUTF(c.getFName());
+			out.writeUTF(c.getLName());
+			out.writeUTF(c.getPhone());
+			records++;
+		}
+
+		void order(OrderRow r) throws IOException {
+			// the header only; pizzas are their own records
+			out.writeByte(ORDER);
+			out.writeInt(r.id);
+			out.writeLong(r.at.toEpochSecond(ZoneOffset.UTC));
+			out.writeInt(r.custId);
+			out.writeByte(r.type.ordinal());
+			out.writeLong(r.custCents);
+			out.writeLong(r.busCents);
+			out.writeBoolean(r.complete);
+			out.writeByte(r.detail);
+			switch (r.detail) {
+				case DINE_IN_DETAIL:
+					out.writeInt(r.tableNum);
+					break;
+				case PICKUP_DETAIL:
+					out.writeBoolean(r.pickedUp);
+					break;
+				case DELIVERY_DETAIL:
+					out.writeInt(r.houseNum);
+					out.writeUTF(r.street);
+					out.writeUTF(r.city);
+					out.writeUTF(r.state);
+					out.writeInt(r.zip);
+					out.writeBoolean(r.delivered);
+					break;
+				default:
+					break;
+			}
+			writeIds(r.discountIds);
+			records++;
+		}
+
+		void pizza(PizzaRow r) throws IOException {
+			out.writeByte(PIZZA);
+			out.writeInt(r.id);
+			out.writeInt(r.orderId);
+			out.writeByte(r.size == null ? -1 : r.size.ordinal());
+			out.writeByte(r.crust == null ? -1 : r.crust.ordinal());
+			out.writeByte(r.state == null ? -1 : r.state.ordinal());
+			out.writeLong(r.at.toEpochSecond(ZoneOffset.UTC));
+			out.writeLong(r.custCents);
+			out.writeLong(r.busCents);
+			out.writeInt(r.toppingIds.length);
+			for (int i = 0; i < r.toppingIds.length; i++) {
+				out.writeInt(r.toppingIds[i]);
+				out.writeBoolean(r.doubled[i]);
+			}
+			writeIds(r.discountIds);
+			records++;
+		}
+
+		void orderPrice(int orderId, long custCents, long busCents) throws IOException {
+			out.writeByte(ORDER_PRICE);
+			out.writeInt(orderId);
+			out.writeLong(custCents);
+			out.writeLong(busCents);
+			records++;
+		}
+
+		void stock(int toppingId, int curINVT) throws IOException {
+			out.writeByte(STOCK);
+			out.writeInt(toppingId);
+			out.writeInt(curINVT);
+			records++;
+		}
+
+		void complete(int orderId, DBNinja.order_state state) throws IOException {
+			out.writeByte(COMPLETE);
+			out.writeInt(orderId);
+			out.writeByte(state.ordinal());
+			records++;
+		}
+
+		private void writeIds(int[] ids) throws IOException {
+			out.writeInt(ids.length);
+			for (int id : ids) {
+				out.writeInt(id);
+			}
+		}
+	}
+
+	// =========================================================
+	// SEEDING
+	// =========================================================
+
+	private static final Pattern INSERT = Pattern.compile(
+			"INSERT\\s+INTO\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*VALUES\\s*", Pattern.CASE_INSENSITIVE);
+
+	private void seed(Path script) throws IOException {
+		/*
+		 * Loads the reference tables and customers from the seed script's
+		 * INSERT ... VALUES statements, in one frame.
+		 */
+
+		if (!Files.isRegularFile(script)) {
+			System.err.println("Embedded store " + dir + ": no seed script at " + script + ", starting empty");
+			return;
+		}
+		String sql = new String(Files.readAllBytes(script), StandardCharsets.UTF_8).replaceAll("--[^\\n]*", "");
+
+		try {
+			write("seed", b -> {
+				int toppingId = toppings.isEmpty() ? 0 : toppings.lastKey();
+				int discountId = discounts.isEmpty() ? 0 : discounts.lastKey();
+				int custId = customers.isEmpty() ? 0 : customers.lastKey();
+				Matcher m = INSERT.matcher(sql);
+				while (m.find()) {
+					String table = m.group(1).toLowerCase(Locale.ROOT);
+					if (!table.equals("baseprice") && !table.equals("topping")
+							&& !table.equals("discount") && !table.equals("customer")) {
+						continue;
+					}
+					List<String> columns = Arrays.asList(m.group(2).trim().split("\\s*,\\s*"));
+					for (String[] v : tuples(sql, m.end(), table)) {
+						if (table.equals("baseprice")) {
+							PizzaSize size = PizzaSize.of(seedValue(v, columns, "baseprice_Size"));
+							CrustType crust = CrustType.of(seedValue(v, columns, "baseprice_CrustType"));
+							if (size == null || crust == null) {
+								throw new IOException("Unknown size or crust in the seed script's baseprice rows");
+							}
+							b.basePrice(size, crust, seedNumber(v, columns, "baseprice_CustPrice"),
+									seedNumber(v, columns, "baseprice_BusPrice"));
+						} else if (table.equals("topping")) {
+							b.topping(new Topping(++toppingId, seedValue(v, columns, "topping_TopName"),
+									seedNumber(v, columns, "topping_SmallAMT"), seedNumber(v, columns, "topping_MedAMT"),
+									seedNumber(v, columns, "topping_LgAMT"), seedNumber(v, columns, "topping_XLAMT"),
+									seedNumber(v, columns, "topping_CustPrice"), seedNumber(v, columns, "topping_BusPrice"),
+									(int) seedNumber(v, columns, "topping_MinINVT"),
+									(int) seedNumber(v, columns, "topping_CurINVT")));
+						} else if (table.equals("discount")) {
+							b.discount(new Discount(++discountId, seedValue(v, columns, "discount_DiscountName"),
+									seedNumber(v, columns, "discount_Amount"),
+									seedNumber(v, columns, "discount_IsPercent") != 0));
+						} else {
+							b.customer(new Customer(++custId, seedValue(v, columns, "customer_FName"),
+									seedValue(v, columns, "customer_LName"), seedValue(v, columns, "customer_PhoneNum")));
+						}
+					}
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			throw new IOException("Could not seed embedded store " + dir + " from " + script, e);
+		}
+	}
+
+	private static List<String[]> tuples(String sql, int pos, String table) throws IOException {
+		/*
+		 * The ('a', 1.5, NULL), (...) tuples of a VALUES list starting at pos.
+		 * Only literals are supported.
+		 */
+
+		ArrayList<String[]> out = new ArrayList<>();
+		int i = pos;
+		while (true) {
+			i = skipSpace(sql, i);
+			if (i >= sql.length() || sql.charAt(i) != '(') {
+				throw new IOException("Expected a row of values for " + table + " in the seed script");
+			}
+			ArrayList<String> values = new ArrayList<>();
+			i++;
+			while (true) {
+				i = skipSpace(sql, i);
+				if (i < sql.length() && sql.charAt(i) == '\'') {
+					StringBuilder s = new StringBuilder();
+					i++;
+					while (i < sql.length() && (sql.charAt(i) != '\'' || sql.startsWith("''", i))) {
+						s.append(sql.charAt(i));
+						i += sql.startsWith("''", i) ? 2 : 1;
+					}
+					values.add(s.toString());
+					i++;
+				} else {
+					int start = i;
+					while (i < sql.length() && ",)".indexOf(sql.charAt(i)) < 0) {
+						i++;
+					}
+					String token = sql.substring(start, i).trim();
+					if (!token.matches("NULL|null|[-+]?[0-9]*\\.?[0-9]+")) {
+						throw new IOException("Unsupported value " + token + " for " + table + " in the seed script");
+					}
+					values.add(token.equalsIgnoreCase("NULL") ? null : token);
+				}
+				i = skipSpace(sql, i);
+				if (i >= sql.length()) {
+					throw new IOException("Unterminated row for " + table + " in the seed script");
+				}
+				char c = sql.charAt(i++);
+				if (c == ')') {
+					break;
+				}
+				if (c != ',') {
+					throw new IOException("Unexpected '" + c + "' in a row for " + table + " in the seed script");
+				}
+			}
+			out.add(values.toArray(new String[0]));
+			i = skipSpace(sql, i);
+			if (i >= sql.length() || sql.charAt(i) != ',') {
+				return out;
+			}
+			i++;
+		}
+	}
+
+	private static int skipSpace(String s, int i) {
+		while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	private static String seedValue(String[] row, List<String> columns, String column) throws IOException {
+		int i = columns.indexOf(column);
+		if (i < 0 || i >= row.length || row[i] == null) {
+			throw new IOException("No " + column + " in a seed script row");
+		}
+		return row[i];
+	}
+
+	private static double seedNumber(String[] row, List<String> columns, String column) throws IOException {
+		try {
+			return Double.parseDouble(seedValue(row, columns, column));
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad " + column + " in a seed script row", e);
+		}
+	}
+
+	// =========================================================
+	// COLUMN CHECKS
+	// =========================================================
+
+	private static LocalDateTime dateTime(Timestamp t) {
+		// DATETIME keeps whole seconds, rounding the fraction
+		return t.toLocalDateTime().plusNanos(500_000_000L).truncatedTo(ChronoUnit.SECONDS);
+	}
+
+	private static <T> T notNull(T value, String column) throws SQLException {
+		if (value == null) {
+			throw new SQLIntegrityConstraintViolationException("Column '" + column + "' cannot be null");
+		}
+		return value;
+	}
+
+	private static String varchar(String value, String column, int length) throws SQLException {
+		notNull(value, column);
+		if (value.length() > length) {
+			throw new SQLDataException("Data too long for column '" + column + "'");
+		}
+		return value;
+	}
+
+	private static long decimal(long cents, String column) throws SQLException {
+		// DECIMAL(5,2)
+		if (Math.abs(cents) > MAX_DECIMAL_CENTS) {
+			throw new SQLDataException("Out of range value for column '" + column + "'");
+		}
+		return cents;
+	}
+
+	private static SQLException foreignKey(String table, String column, int id) {
+		return new SQLIntegrityConstraintViolationException("Cannot add or update a child row: "
+				+ table + "." + column + " " + id + " does not exist");
+	}
+
+	private static SQLException duplicate(String table, String key) {
+		return new SQLIntegrityConstraintViolationException("Duplicate entry '" + key + "' for key '" + table + ".PRIMARY'");
+	}
+
+	// =========================================================
+	// ROWS
+	// =========================================================
+
+	// An ordertable row with its dinein/pickup/delivery row and order discounts.
+	private static final class OrderRow {
+		final int id;
+		final LocalDateTime at;
+		int custId; // 0 = NULL
+		OrderType type;
+		long custCents;
+		long busCents;
+		boolean complete;
+		byte detail;
+		int tableNum;
+		boolean pickedUp;
+		int houseNum;
+		String street;
+		String city;
+		String state;
+		int zip;
+		boolean delivered;
+		int[] discountIds = new int[0];
+		// in pizza id order
+		final ArrayList<PizzaRow> pizzas = new ArrayList<>(2);
+
+		OrderRow(int id, LocalDateTime at) {
+			this.id = id;
+			this.at = at;
+		}
+	}
+
+	// A pizza row with its toppings (and double flags) and discounts.
+	private static final class PizzaRow {
+		final int id;
+		final int orderId;
+		final PizzaSize size;
+		final CrustType crust;
+		PizzaState state;
+		final LocalDateTime at;
+		final long custCents;
+		final long busCents;
+		int[] toppingIds;
+		boolean[] doubled;
+		int[] discountIds;
+
+		PizzaRow(int id, int orderId, PizzaSize size, CrustType crust, PizzaState state, LocalDateTime at,
+		         long custCents, long busCents) {
+			this.id = id;
+			this.orderId = orderId;
+			this.size = size;
+			this.crust = crust;
+			this.state = state;
+			this.at = at;
+			this.custCents = custCents;
+			this.busCents = busCents;
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package cpsc4620;
+
+/*
+ * How much of an order graph a read loads up front.
+ *
+ * Anything not loaded up front is loaded on first access, for the whole page
+ * of orders (or pizzas) it was read with, in one batch of IN-list queries.
+ */
+
+public enum FetchPlan {
+	// ordertable and dinein/pickup/delivery columns only; pizzas and order discounts load on access
+	HEADERS,
+	// headers, order discounts and pizza rows; pizza toppings and discounts load on access
+	PIZZAS,
+	// the whole graph, eagerly
+	FULL
+}
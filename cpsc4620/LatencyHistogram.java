@@ -0,0 +1,108 @@
+package cpsc4620;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free log-linear histogram of nanosecond latencies, in the style of
+ * HdrHistogram.
+ *
+ * Values below 32 get a bucket each. Above that every power of two is split
+ * into 32 equal sub-buckets, so a reported percentile is within ~3% of the
+ * true value. Recording is one array increment plus two adders, safe from
+ * any number of threads. Values above MAX_VALUE land in the last bucket.
+ *
+ * Percentiles read the buckets without stopping writers, so a snapshot
+ * taken under load can be off by the few values recorded while reading.
+ */
+
+final class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// 2^44 ns is about 4.9 hours
+	private static final int MAX_EXPONENT = 44;
+	static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	void record(long nanos) {
+		long v = Math.max(0L, Math.min(nanos, MAX_VALUE));
+		counts.incrementAndGet(index(v));
+		total.increment();
+		sum.add(v);
+		max.accumulate(v);
+	}
+
+	long getCount() {
+		return total.sum();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	double getMean() {
+		long n = total.sum();
+		return n == 0 ? 0.0 : sum.sum() / (double) n;
+	}
+
+	long getValueAtPercentile(double percentile) {
+		/*
+		 * Smallest recorded value v (to bucket precision) such that at least
+		 * percentile% of the recorded values are <= v; 0 if empty.
+		 */
+
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long target = Math.max(1L, (long) Math.ceil(percentile / 100.0 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= target) {
+				return Math.min(highestEquivalent(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		total.reset();
+		sum.reset();
+		max.reset();
+	}
+
+	static int index(long v) {
+		if (v < SUB_COUNT) {
+			return (int) v;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(v);
+		int shift = exponent - SUB_BITS;
+		int sub = (int) (v >>> shift) - SUB_COUNT;
+		return (shift + 1) * SUB_COUNT + sub;
+	}
+
+	static long highestEquivalent(int index) {
+		if (index < SUB_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_COUNT - 1;
+		long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
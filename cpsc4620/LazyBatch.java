@@ -0,0 +1,55 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/*
+ * Deferred load of the child collections of a batch of orders or pizzas.
+ *
+ * OrderHydrator hands every object in a page the same LazyBatch. The first
+ * getter that needs children loads them for the whole page at once, so
+ * walking a lazily read page costs the same handful of queries as reading
+ * it eagerly, just later.
+ *
+ * A batch is bound to the session that read it. While that session is still
+ * open the load runs on its connection (and inside its transaction); once it
+ * is closed, the load opens a short session of its own. Failures surface as
+ * DataAccessException since the getters can't throw SQLException; the batch
+ * stays pending so a later access retries.
+ */
+
+final class LazyBatch<T> {
+
+	// fills in the children of every item; must clear each item's lazy pointer first
+	interface Loader<T> {
+		void load(OrderHydrator hydrator, List<T> items) throws SQLException;
+	}
+
+	private final DBSession session;
+	private final Loader<T> loader;
+	private List<T> pending;
+
+	LazyBatch(DBSession session, List<T> items, Loader<T> loader) {
+		this.session = session;
+		this.pending = items;
+		this.loader = loader;
+	}
+
+	synchronized void load() {
+		List<T> items = pending;
+		if (items == null) {
+			return;
+		}
+		try {
+			if (session != null && session.isOpen()) {
+				loader.load(new OrderHydrator(session), items);
+			} else {
+				DBNinja.runInSession("LazyBatch.load", s -> loader.load(new OrderHydrator(s), items));
+			}
+		} catch (SQLException | IOException e) {
+			throw new DataAccessException("Could not load order details", e);
+		}
+		pending = null;
+	}
+}
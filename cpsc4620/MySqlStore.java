@@ -0,0 +1,239 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * PizzaStore on the PizzaDB MySQL schema. Every call runs in its own
+ * DBSession (see DBNinja.callInSession) and is recorded in DBMetrics under
+ * the DBNinja method's name. addOrder and submitOrder go through the
+ * OrderJournal when that is enabled; otherwise submitOrder goes through the
+ * OrderIntake.
+ */
+
+final class MySqlStore implements PizzaStore {
+
+	// =========================================================
+	// WRITES
+	// =========================================================
+
+	@Override
+	public boolean addOrder(Order o) throws SQLException, IOException {
+		OrderJournal journal = OrderJournal.shared();
+		if (journal != null) {
+			// durable once this returns, applied by the journal (see OrderJournal)
+			return journal.addOrder(o);
+		}
+		DBNinja.runInSession("addOrder", s -> s.addOrder(o));
+		return true;
+	}
+
+	@Override
+	public CompletableFuture<Integer> submitOrder(Order o) throws SQLException {
+		try {
+			OrderJournal journal = OrderJournal.shared();
+			if (journal != null) {
+				// durable once this returns; the future completes when it is applied
+				return journal.submit(o);
+			}
+		} catch (IOException e) {
+			throw new SQLException("Could not journal the order", e);
+		}
+		return OrderIntake.shared().submit(o);
+	}
+
+	@Override
+	public int addPizza(java.util.Date d, int orderID, Pizza p) throws SQLException, IOException {
+		return DBNinja.callInSession("addPizza", s -> s.addPizza(d, orderID, p));
+	}
+
+	@Override
+	public int addCustomer(Customer c) throws SQLException, IOException {
+		return DBNinja.callInSession("addCustomer", s -> s.addCustomer(c));
+	}
+
+	@Override
+	public void completeOrder(int orderID, DBNinja.order_state newState) throws SQLException, IOException {
+		DBNinja.runInSession("completeOrder", s -> s.completeOrder(orderID, newState));
+	}
+
+	@Override
+	public void addToInventory(int toppingID, double quantity) throws SQLException, IOException {
+		DBNinja.runInSession("addToInventory", s -> s.addToInventory(toppingID, quantity));
+	}
+
+	// =========================================================
+	// ORDERS
+	// =========================================================
+
+	@Override
+	public ArrayList<Order> getOrders(int status, FetchPlan plan) throws SQLException, IOException {
+		return DBNinja.callInSession("getOrders", s -> s.getOrders(status, plan));
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersAfter(int status, int afterOrderID, int limit, FetchPlan plan)
+			throws SQLException, IOException {
+		return DBNinja.callInSession("OrderCursor.nextPage", s -> s.getOrdersAfter(status, afterOrderID, limit, plan));
+	}
+
+	@Override
+	public Order getOrder(int orderID) throws SQLException, IOException {
+		return DBNinja.callInSession("getOrder", s -> s.getOrder(orderID));
+	}
+
+	@Override
+	public Order getLastOrder() throws SQLException, IOException {
+		return DBNinja.callInSession("getLastOrder", s -> s.getLastOrder());
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersByDate(String date, FetchPlan plan) throws SQLException, IOException {
+		return DBNinja.callInSession("getOrdersByDate", s -> s.getOrdersByDate(date, plan));
+	}
+
+	@Override
+	public ArrayList<Order> getOrdersBetween(java.util.Date from, java.util.Date to, FetchPlan plan)
+			throws SQLException, IOException {
+		Timestamp f = new Timestamp(from.getTime());
+		Timestamp t = new Timestamp(to.getTime());
+		return DBNinja.callInSession("getOrdersBetween", s -> s.getOrdersBetween(f, t, plan));
+	}
+
+	@Override
+	public ArrayList<Pizza> getPizzas(Order o) throws SQLException, IOException {
+		return DBNinja.callInSession("getPizzas", s -> s.getPizzas(o));
+	}
+
+	@Override
+	public ArrayList<Discount> getDiscounts(Order o) throws SQLException, IOException {
+		return DBNinja.callInSession("getDiscounts", s -> s.getDiscounts(o));
+	}
+
+	@Override
+	public ArrayList<Discount> getDiscounts(Pizza p) throws SQLException, IOException {
+		return DBNinja.callInSession("getDiscounts", s -> s.getDiscounts(p));
+	}
+
+	@Override
+	public ArrayList<Topping> getToppingsOnPizza(Pizza p) throws SQLException, IOException {
+		return DBNinja.callInSession("getToppingsOnPizza", s -> s.getToppingsOnPizza(p));
+	}
+
+	// =========================================================
+	// CUSTOMERS
+	// =========================================================
+
+	@Override
+	public ArrayList<Customer> getCustomerList() throws SQLException, IOException {
+		return DBNinja.callInSession("getCustomerList", s -> s.getCustomerList());
+	}
+
+	@Override
+	public Customer findCustomerByPhone(String phoneNumber) throws SQLException, IOException {
+		return DBNinja.callInSession("findCustomerByPhone", s -> s.findCustomerByPhone(phoneNumber));
+	}
+
+	@Override
+	public String getCustomerName(int custID) throws SQLException, IOException {
+		return DBNinja.callInSession("CustomerNames.load", s -> s.getCustomerName(custID));
+	}
+
+	@Override
+	public Map<Integer, String> getCustomerNames(List<Integer> custIDs) throws SQLException, IOException {
+		return DBNinja.callInSession("CustomerNames.prefetch", s -> s.getCustomerNames(custIDs));
+	}
+
+	// =========================================================
+	// CATALOG
+	// =========================================================
+
+	@Override
+	public ArrayList<Discount> getDiscountList() throws SQLException, IOException {
+		return DBNinja.callInSession("getDiscountList", s -> s.getDiscountList());
+	}
+
+	@Override
+	public Discount findDiscountByName(String name) throws SQLException, IOException {
+		return DBNinja.callInSession("findDiscountByName", s -> s.findDiscountByName(name));
+	}
+
+	@Override
+	public ArrayList<Topping> getToppingList() throws SQLException, IOException {
+		return DBNinja.callInSession("getToppingList", s -> s.getToppingList());
+	}
+
+	@Override
+	public Topping findToppingByName(String name) throws SQLException, IOException {
+		return DBNinja.callInSession("findToppingByName", s -> s.findToppingByName(name));
+	}
+
+	@Override
+	public double getBaseCustPrice(String size, String crust) throws SQLException, IOException {
+		return DBNinja.callInSession("getBaseCustPrice", s -> s.getBaseCustPrice(size, crust));
+	}
+
+	@Override
+	public double getBaseBusPrice(String size, String crust) throws SQLException, IOException {
+		return DBNinja.callInSession("getBaseBusPrice", s -> s.getBaseBusPrice(size, crust));
+	}
+
+	// =========================================================
+	// REPORTS AND ADMIN
+	// =========================================================
+
+	@Override
+	public void printToppingReport() throws SQLException, IOException {
+		DBNinja.runInSession("printToppingReport", s -> s.printToppingReport());
+	}
+
+	@Override
+	public void printProfitByPizzaReport() throws SQLException, IOException {
+		DBNinja.runInSession("printProfitByPizzaReport", s -> s.printProfitByPizzaReport());
+	}
+
+	@Override
+	public void printProfitByOrderTypeReport() throws SQLException, IOException {
+		DBNinja.runInSession("printProfitByOrderTypeReport", s -> s.printProfitByOrderTypeReport());
+	}
+
+	@Override
+	public int migrateSchema() throws SQLException, IOException {
+		return DBNinja.callInSession("migrateSchema", s -> s.migrateSchema());
+	}
+
+	@Override
+	public void rebuildReportSummaries() throws SQLException, IOException {
+		DBNinja.runInSession("rebuildReportSummaries", s -> s.rebuildReportSummaries());
+	}
+
+	@Override
+	public void setReportSource(ReportSource source) {
+		DBSession.setReportSource(source);
+	}
+
+	@Override
+	public void invalidateReferenceData() {
+		ReferenceData.invalidate();
+	}
+
+	@Override
+	public String getReferenceDataStats() {
+		return ReferenceData.describe();
+	}
+
+	@Override
+	public String getOrderIntakeStats() {
+		return OrderIntake.describeShared();
+	}
+
+	@Override
+	public void close() {
+		// the connection pool outlives the store
+	}
+}
@@ -7,21 +7,25 @@ public class Order
 {
 	private int OrderID;
 	private int CustID;
-	private String OrderType;
+	// one-byte code for the ENUM column; getOrderType() returns its label
+	private OrderType OrderType;
 	private String Date;
-	private double CustPrice;
-	private double BusPrice;
+	// PriceEngine micros; read back rounded to cents
+	private long CustPrice;
+	private long BusPrice;
 	private boolean isComplete;
 	private ArrayList<Pizza> PizzaList;
 	private ArrayList<Discount> DiscountList;
+	// pending load of PizzaList/DiscountList for orders read with a lazy FetchPlan
+	LazyBatch<Order> lazyChildren;
 
 	public Order(int orderID, int custID, String orderType, String date, double custPrice, double busPrice, boolean iscomplete) {
 		OrderID = orderID;
 		CustID = custID;
-		OrderType = orderType;
+		OrderType = type(orderType);
 		Date = date;
-		CustPrice = custPrice;
-		BusPrice = busPrice;
+		CustPrice = PriceEngine.micros(custPrice);
+		BusPrice = PriceEngine.micros(busPrice);
 		this.isComplete = iscomplete;
 		PizzaList = new ArrayList<Pizza>();
 		DiscountList = new ArrayList<Discount>();
@@ -29,20 +33,21 @@ public class Order
 	
 	public void addPizza(Pizza p)
 	{
-		PizzaList.add(p);
+		getPizzaList().add(p);
 	}
 	public void addDiscount(Discount d)
 	{
-		DiscountList.add(d);
-		if(d.isPercent())
+		getDiscountList().add(d);
+		ArrayList<Pizza> pizzas = getPizzaList();
+		if (pizzas.isEmpty())
 		{
-			//this.BusPrice = (this.BusPrice*(1-d.getAmount()));
-			this.CustPrice = (this.CustPrice*(1-d.getAmount()/100.0));
+			// nothing to price from; discount the current price
+			this.CustPrice = Math.max(0L, PriceEngine.applyDiscount(this.CustPrice, d));
 		}
 		else
 		{
-			//this.BusPrice -= d.getAmount();
-			this.CustPrice -= d.getAmount();
+			// requote from the pizzas so the discounts combine the way the reports do
+			this.CustPrice = PriceEngine.orderMicros(PriceEngine.pizzaTotalMicros(pizzas, true), DiscountList);
 		}
 	}
 
@@ -55,6 +60,10 @@ public class Order
 	}
 
 	public String getOrderType() {
+		return OrderType == null ? null : OrderType.label;
+	}
+
+	OrderType getType() {
 		return OrderType;
 	}
 
@@ -63,11 +72,20 @@ public class Order
 	}
 
 	public double getCustPrice() {
-		return CustPrice;
+		return PriceEngine.dollars(getCustCents());
 	}
 
 	public double getBusPrice() {
-		return BusPrice;
+		return PriceEngine.dollars(getBusCents());
+	}
+
+	long getCustCents() {
+		// what ordertable_CustPrice stores
+		return PriceEngine.toCents(CustPrice);
+	}
+
+	long getBusCents() {
+		return PriceEngine.toCents(BusPrice);
 	}
 	
 	public boolean getIsComplete() {
@@ -75,13 +93,22 @@ public class Order
 	}
 
 	public ArrayList<Pizza> getPizzaList() {
+		loadChildren();
 		return PizzaList;
 	}
 
 	public ArrayList<Discount> getDiscountList() {
+		loadChildren();
 		return DiscountList;
 	}
 
+	private void loadChildren() {
+		LazyBatch<Order> batch = lazyChildren;
+		if (batch != null) {
+			batch.load();
+		}
+	}
+
 	public void setOrderID(int orderID) {
 		OrderID = orderID;
 	}
@@ -91,7 +118,7 @@ public class Order
 	}
 
 	public void setOrderType(String orderType) {
-		OrderType = orderType;
+		OrderType = type(orderType);
 	}
 
 	public void setDate(String date) {
@@ -99,11 +126,11 @@ public class Order
 	}
 
 	public void setCustPrice(double custPrice) {
-		CustPrice = custPrice;
+		CustPrice = PriceEngine.micros(custPrice);
 	}
 
 	public void setBusPrice(double busPrice) {
-		BusPrice = busPrice;
+		BusPrice = PriceEngine.micros(busPrice);
 	}
 
 	public void setIsComplete(boolean iscomplete) {
@@ -117,11 +144,19 @@ public class Order
 		DiscountList = discountList;
 	}
 
+	private static OrderType type(String label) {
+		OrderType t = cpsc4620.OrderType.of(label);
+		if (t == null && label != null) {
+			throw new IllegalArgumentException("Unknown order type: " + label);
+		}
+		return t;
+	}
+
 	@Override
 	public String toString() {
 		try 
 		{
-			String name = DBNinja.getCustomerName(CustID);
+			String name = CustomerNames.resolve(CustID);
 			name = (name != "")?name:"IN STORE";
 			return "OrderID=" + OrderID + " | Customer name= " + name + ", OrderType= " + OrderType + ", IsComplete= " + ((isComplete)?"Yes":"No");
 		} 
@@ -136,7 +171,7 @@ public class Order
 	{
 		try 
 		{
-			return "OrderID=" + OrderID + " | Customer name= " + DBNinja.getCustomerName(CustID) + ", OrderType= " + OrderType + ", IsComplete= " + ((isComplete)?"Yes":"No");
+			return "OrderID=" + OrderID + " | Customer name= " + CustomerNames.resolve(CustID) + ", OrderType= " + OrderType + ", IsComplete= " + ((isComplete)?"Yes":"No");
 		} 
 		catch (SQLException e) {
 			e.printStackTrace();
@@ -154,8 +189,8 @@ public class Order
 		String pizzaSummary;
 		try
 		{
-			orderSummary = "OrderID=" + OrderID + " | For customer: " + DBNinja.getCustomerName(CustID) + " | OrderType= " + OrderType + ", Placed on: " + Date
-					+ " | CustPrice= " + CustPrice + ", BusPrice= " + BusPrice;
+			orderSummary = "OrderID=" + OrderID + " | For customer: " + CustomerNames.resolve(CustID) + " | OrderType= " + OrderType + ", Placed on: " + Date
+					+ " | CustPrice= " + getCustPrice() + ", BusPrice= " + getBusPrice();
 			return orderSummary;
 		}
 		catch (SQLException e) {
@@ -0,0 +1,97 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/*
+ * Walks the orders matching a getOrders-style status in OrderID order, one
+ * keyset page at a time (PizzaStore.getOrdersAfter).
+ *
+ * At most two pages are held in memory, so any size of order history can be
+ * scanned with bounded heap. Each page is read in its own short call;
+ * no connection is held between pages, so a cursor can sit idle behind an
+ * interactive prompt for as long as it likes.
+ *
+ * The fetch plan decides how much of each order is read with its page;
+ * with HEADERS a listing only ever reads ordertable columns.
+ *
+ * Use nextPage()/hasMore() to page through results, or iterate it. The
+ * Iterator methods wrap database errors in DataAccessException.
+ */
+
+public final class OrderCursor implements Iterator<Order> {
+
+	private final int status;
+	private final int pageSize;
+	private final FetchPlan plan;
+	private final ArrayDeque<Order> buffer = new ArrayDeque<>();
+	private int afterOrderID;
+	private boolean exhausted;
+
+	OrderCursor(int status, int pageSize, FetchPlan plan) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+		}
+		this.status = status;
+		this.pageSize = pageSize;
+		this.plan = plan;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public ArrayList<Order> nextPage() throws SQLException, IOException {
+		/*
+		 * The next (up to) pageSize orders; empty once the cursor is done.
+		 */
+
+		fill(pageSize);
+		ArrayList<Order> page = new ArrayList<>(Math.min(pageSize, buffer.size()));
+		while (page.size() < pageSize && !buffer.isEmpty()) {
+			page.add(buffer.poll());
+		}
+		return page;
+	}
+
+	public boolean hasMore() throws SQLException, IOException {
+		// reads ahead one page if needed, so this is exact rather than a guess
+		fill(1);
+		return !buffer.isEmpty();
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			return hasMore();
+		} catch (SQLException | IOException e) {
+			throw new DataAccessException("Could not read the next page of orders", e);
+		}
+	}
+
+	@Override
+	public Order next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return buffer.poll();
+	}
+
+	private void fill(int wanted) throws SQLException, IOException {
+		while (buffer.size() < wanted && !exhausted) {
+			int after = afterOrderID;
+			ArrayList<Order> page = DBNinja.store().getOrdersAfter(status, after, pageSize, plan);
+			if (page.size() < pageSize) {
+				exhausted = true;
+			}
+			if (!page.isEmpty()) {
+				afterOrderID = page.get(page.size() - 1).getOrderID();
+				buffer.addAll(page);
+			}
+		}
+	}
+}
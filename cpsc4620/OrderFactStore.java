@@ -0,0 +1,1157 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Read-optimized copy of the order and pizza facts, in memory-mapped column
+ * files, for reports and ad-hoc filters that never touch MySQL
+ * (ReportSource.FACTS).
+ *
+ *   orders: id, epoch minute, type, customer, price (PriceEngine micros,
+ *           after discounts, as the ProfitByOrderType view computes it),
+ *           cost (cents)
+ *   pizzas: order id, epoch minute (pizza date), type, customer, size,
+ *           crust, customer and business price (cents), topping bitmask,
+ *           doubled-topping bitmask (bit n = topping id n)
+ *
+ * Each column is one little-endian file of fixed-width values, mapped
+ * read-write. Types, sizes and crusts are their enum ordinals in a byte (the
+ * enum's value count for NULL), minutes are from the epoch in the DATETIME's
+ * own time zone (NO_MINUTE for NULL) and a walk-in's customer is -1.
+ *
+ * refresh() copies the orders with an OrderID above the high-water mark,
+ * with their pizzas, toppings and discounts. It re-reads the last
+ * pizzadb.facts.rewind ids (1000) below the mark as well, so an order whose
+ * transaction committed after a higher-numbered one isn't skipped; ids
+ * already copied are recognized and left alone. addOrder writes an order
+ * and its children in one transaction, but DBSession.addPizza can add
+ * pizzas to an order later, and marks it in facts_dirty in the same
+ * transaction (markChanged). refresh() then copies marked orders again: the
+ * new pizzas are appended and the order's price and cost are rewritten in
+ * place, so a scan running at that moment may see the old or the new
+ * value. rebuild() starts over.
+ *
+ * The row counts and the high-water mark live in facts.properties, replaced
+ * atomically after the columns are forced to disk. Rows past those counts
+ * are ignored on open, so a refresh that dies part way is just redone.
+ *
+ * Scans split the rows over the common fork-join pool. Each leaf copies a
+ * block of every column it needs into primitive arrays and runs a flat,
+ * branch-free loop over them that the JIT can unroll and vectorize. One
+ * column file holds at most 2 GB, so 268 million rows for the 8-byte
+ * columns. Topping ids must be 0..63 to fit the bitmask; refresh() refuses a
+ * pizza with any other.
+ *
+ * Settings (system properties):
+ *   pizzadb.facts.dir     directory of the shared store (pizzadb-facts)
+ *   pizzadb.facts.rewind  ids below the high-water mark re-read per refresh (1000)
+ */
+
+final class OrderFactStore implements AutoCloseable {
+
+	static final int NO_MINUTE = Integer.MIN_VALUE;
+	static final int MAX_TOPPING_ID = 63;
+
+	private static final String META = "facts.properties";
+	private static final int FORMAT = 1;
+	private static final int BATCH_ORDERS = 10_000;
+	private static final int INITIAL_ROWS = 1 << 16;
+	// rows copied onto the heap at a time, and rows per fork-join leaf
+	private static final int BLOCK = 1 << 14;
+	private static final int LEAF_ROWS = 1 << 20;
+
+	private static final int rewind = Integer.getInteger("pizzadb.facts.rewind", 1000);
+
+	private static OrderFactStore shared;
+
+	private final Path dir;
+
+	private final Column orderId;
+	private final Column orderMinute;
+	private final Column orderType;
+	private final Column orderCustomer;
+	private final Column orderPrice;
+	private final Column orderCost;
+	private final List<Column> orderColumns;
+
+	private final Column pizzaOrder;
+	private final Column pizzaMinute;
+	private final Column pizzaType;
+	private final Column pizzaCustomer;
+	private final Column pizzaSize;
+	private final Column pizzaCrust;
+	private final Column pizzaCust;
+	private final Column pizzaBus;
+	private final Column pizzaToppings;
+	private final Column pizzaDoubled;
+	private final List<Column> pizzaColumns;
+
+	// published row counts; rows below them are complete, and only a changed
+	// order's price and cost are rewritten
+	private volatile int orders;
+	private volatile int pizzas;
+	// rows written, published by the next publish()
+	private int writtenOrders;
+	private int writtenPizzas;
+	private int highWaterMark;
+	// copied ids above highWaterMark - rewind
+	private final HashSet<Integer> recent = new HashSet<>();
+
+	private OrderFactStore(Path dir) throws IOException {
+		this.dir = dir;
+		orderId = new Column(dir, "order.id", 4);
+		orderMinute = new Column(dir, "order.minute", 4);
+		orderType = new Column(dir, "order.type", 1);
+		orderCustomer = new Column(dir, "order.customer", 4);
+		orderPrice = new Column(dir, "order.price", 8);
+		orderCost = new Column(dir, "order.cost", 4);
+		orderColumns = List.of(orderId, orderMinute, orderType, orderCustomer, orderPrice, orderCost);
+
+		pizzaOrder = new Column(dir, "pizza.order", 4);
+		pizzaMinute = new Column(dir, "pizza.minute", 4);
+		pizzaType = new Column(dir, "pizza.type", 1);
+		pizzaCustomer = new Column(dir, "pizza.customer", 4);
+		pizzaSize = new Column(dir, "pizza.size", 1);
+		pizzaCrust = new Column(dir, "pizza.crust", 1);
+		pizzaCust = new Column(dir, "pizza.cust", 4);
+		pizzaBus = new Column(dir, "pizza.bus", 4);
+		pizzaToppings = new Column(dir, "pizza.toppings", 8);
+		pizzaDoubled = new Column(dir, "pizza.doubled", 8);
+		pizzaColumns = List.of(pizzaOrder, pizzaMinute, pizzaType, pizzaCustomer, pizzaSize, pizzaCrust,
+				pizzaCust, pizzaBus, pizzaToppings, pizzaDoubled);
+	}
+
+	static OrderFactStore open(Path dir) throws IOException {
+		/*
+		 * Opens (creating if needed) the store in dir. Throws if the column
+		 * files are shorter than the recorded row counts.
+		 */
+
+		Files.createDirectories(dir);
+		OrderFactStore store = new OrderFactStore(dir);
+		try {
+			store.readMeta();
+		} catch (IOException | RuntimeException e) {
+			store.close();
+			throw e;
+		}
+		return store;
+	}
+
+	static synchronized OrderFactStore shared() throws IOException {
+		if (shared == null) {
+			shared = open(Paths.get(System.getProperty("pizzadb.facts.dir", "pizzadb-facts")));
+		}
+		return shared;
+	}
+
+	static OrderFactStore refreshed(Connection connection) throws SQLException {
+		// the shared store, brought up to date through connection
+		try {
+			OrderFactStore store = shared();
+			store.refresh(connection);
+			return store;
+		} catch (IOException e) {
+			throw new SQLException("Order fact store: " + e.getMessage(), e);
+		}
+	}
+
+	int orderCount() {
+		return orders;
+	}
+
+	int pizzaCount() {
+		return pizzas;
+	}
+
+	synchronized int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		IOException failed = null;
+		for (List<Column> columns : List.of(orderColumns, pizzaColumns)) {
+			for (Column c : columns) {
+				try {
+					c.close();
+				} catch (IOException e) {
+					failed = e;
+				}
+			}
+		}
+		if (failed != null) {
+			throw failed;
+		}
+	}
+
+	// =========================================================
+	// REFRESH
+	// =========================================================
+
+	static void markChanged(Connection connection, int orderId) throws SQLException {
+		/*
+		 * Records that orderId changed after it was written, so the next
+		 * refresh() copies it again. Called in the changing transaction.
+		 */
+
+		String sql = "INSERT INTO facts_dirty (ordertable_OrderID, facts_dirty_Changes) VALUES (?, 1) " +
+				"ON DUPLICATE KEY UPDATE facts_dirty_Changes = facts_dirty_Changes + 1";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setInt(1, orderId);
+			ps.executeUpdate();
+		}
+	}
+
+	synchronized int refresh(Connection connection) throws SQLException, IOException {
+		/*
+		 * Copies the orders not in the store yet, in batches of BATCH_ORDERS
+		 * ids, each batch published once it is on disk, then the orders
+		 * changed since they were copied. Returns the number of orders added.
+		 */
+
+		int added = 0;
+		int after = Math.max(0, highWaterMark - rewind);
+		String sql =
+				"SELECT ordertable_OrderID, customer_CustID, ordertable_OrderType, ordertable_OrderDateTime " +
+						"FROM ordertable WHERE ordertable_OrderID > ? ORDER BY ordertable_OrderID LIMIT ?";
+		while (true) {
+			LinkedHashMap<Integer, OrderFact> batch = new LinkedHashMap<>();
+			int read = 0;
+			try (PreparedStatement ps = connection.prepareStatement(sql)) {
+				ps.setInt(1, after);
+				ps.setInt(2, BATCH_ORDERS);
+				try (ResultSet rs = ps.executeQuery()) {
+					while (rs.next()) {
+						read++;
+						int id = rs.getInt(1);
+						after = id;
+						if (recent.contains(id)) {
+							continue;
+						}
+						OrderFact o = new OrderFact(id);
+						o.customer = rs.getInt(2);
+						if (rs.wasNull()) {
+							o.customer = -1;
+						}
+						o.type = code(OrderType.of(rs.getString(3)), OrderType.values().length);
+						o.minute = epochMinute(rs.getString(4));
+						batch.put(id, o);
+					}
+				}
+			}
+			if (!batch.isEmpty()) {
+				loadChildren(connection, batch);
+				append(batch);
+				added += batch.size();
+			}
+			if (after > highWaterMark || !batch.isEmpty()) {
+				highWaterMark = Math.max(highWaterMark, after);
+				recent.removeIf(id -> id <= highWaterMark - rewind);
+				publish();
+			}
+			if (read < BATCH_ORDERS) {
+				break;
+			}
+		}
+		recopyChanged(connection);
+		return added;
+	}
+
+	private void recopyChanged(Connection connection) throws SQLException, IOException {
+		/*
+		 * Copies the orders marked in facts_dirty again: the pizzas added
+		 * since the copy (pizzas are read in PizzaID order, so they come after
+		 * the ones already stored) are appended and the order row gets the
+		 * new price and cost. Marks are deleted once that is published, and
+		 * only if no pizza was added after they were read. Marked orders not
+		 * in the store yet are copied whole by refresh() when it gets to them.
+		 */
+
+		TreeMap<Integer, Integer> marks = new TreeMap<>();
+		try (PreparedStatement ps = connection.prepareStatement(
+				"SELECT ordertable_OrderID, facts_dirty_Changes FROM facts_dirty");
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				marks.put(rs.getInt(1), rs.getInt(2));
+			}
+		}
+		if (marks.isEmpty()) {
+			return;
+		}
+
+		// where the marked orders are stored, and how many pizzas each has there
+		HashMap<Integer, Integer> rowOf = new HashMap<>();
+		HashMap<Integer, Integer> storedPizzas = new HashMap<>();
+		int[] ids = new int[BLOCK];
+		for (int at = 0; at < writtenOrders; at += BLOCK) {
+			int len = Math.min(BLOCK, writtenOrders - at);
+			orderId.read(at, ids, len);
+			for (int i = 0; i < len; i++) {
+				if (marks.containsKey(ids[i])) {
+					rowOf.put(ids[i], at + i);
+				}
+			}
+		}
+		if (!rowOf.isEmpty()) {
+			for (int at = 0; at < writtenPizzas; at += BLOCK) {
+				int len = Math.min(BLOCK, writtenPizzas - at);
+				pizzaOrder.read(at, ids, len);
+				for (int i = 0; i < len; i++) {
+					if (rowOf.containsKey(ids[i])) {
+						storedPizzas.merge(ids[i], 1, Integer::sum);
+					}
+				}
+			}
+		}
+
+		// read back in id ranges of at most BATCH_ORDERS, like new orders
+		ArrayList<OrderFact> changed = new ArrayList<>();
+		LinkedHashMap<Integer, OrderFact> batch = new LinkedHashMap<>();
+		int first = 0;
+		for (int id : marks.keySet()) {
+			Integer row = rowOf.get(id);
+			if (row == null) {
+				continue;
+			}
+			if (!batch.isEmpty() && id - first >= BATCH_ORDERS) {
+				loadChildren(connection, batch);
+				changed.addAll(batch.values());
+				batch = new LinkedHashMap<>();
+			}
+			if (batch.isEmpty()) {
+				first = id;
+			}
+			OrderFact o = new OrderFact(id);
+			o.minute = orderMinute.getInt(row);
+			o.type = orderType.getByte(row);
+			o.customer = orderCustomer.getInt(row);
+			batch.put(id, o);
+		}
+		if (!batch.isEmpty()) {
+			loadChildren(connection, batch);
+			changed.addAll(batch.values());
+		}
+
+		if (!changed.isEmpty()) {
+			int pizzaTotal = 0;
+			for (OrderFact o : changed) {
+				pizzaTotal += Math.max(0, o.pizzas.size() - storedPizzas.getOrDefault(o.id, 0));
+			}
+			int pRow = writtenPizzas;
+			for (Column c : pizzaColumns) {
+				c.ensure(pRow + pizzaTotal);
+			}
+			for (OrderFact o : changed) {
+				int row = rowOf.get(o.id);
+				orderPrice.putLong(row, o.price);
+				orderCost.putInt(row, (int) o.cost);
+				for (int i = storedPizzas.getOrDefault(o.id, 0); i < o.pizzas.size(); i++) {
+					putPizza(pRow++, o, o.pizzas.get(i));
+				}
+			}
+			for (Column c : orderColumns) {
+				c.force();
+			}
+			for (Column c : pizzaColumns) {
+				c.force();
+			}
+			writtenPizzas = pRow;
+			publish();
+		}
+
+		try (PreparedStatement ps = connection.prepareStatement(
+				"DELETE FROM facts_dirty WHERE ordertable_OrderID = ? AND facts_dirty_Changes = ?")) {
+			for (Map.Entry<Integer, Integer> m : marks.entrySet()) {
+				ps.setInt(1, m.getKey());
+				ps.setInt(2, m.getValue());
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		}
+	}
+
+	synchronized void rebuild(Connection connection) throws SQLException, IOException {
+		// forgets every fact and copies everything again
+		writtenOrders = 0;
+		writtenPizzas = 0;
+		highWaterMark = 0;
+		recent.clear();
+		publish();
+		refresh(connection);
+	}
+
+	private void loadChildren(Connection connection, LinkedHashMap<Integer, OrderFact> batch) throws SQLException {
+		/*
+		 * Pizzas, toppings and discounts of the orders in batch. They are read
+		 * by OrderID range and rows of orders outside the batch (already
+		 * copied, or not yet visible when the orders were read) are dropped.
+		 */
+
+		int lo = Integer.MAX_VALUE;
+		int hi = Integer.MIN_VALUE;
+		for (int id : batch.keySet()) {
+			lo = Math.min(lo, id);
+			hi = Math.max(hi, id);
+		}
+
+		HashMap<Integer, PizzaFact> byPizzaId = new HashMap<>();
+		String pizzaSql =
+				"SELECT pizza_PizzaID, ordertable_OrderID, pizza_Size, pizza_CrustType, pizza_PizzaDate, " +
+						"pizza_CustPrice, pizza_BusPrice " +
+						"FROM pizza WHERE ordertable_OrderID BETWEEN ? AND ? ORDER BY ordertable_OrderID, pizza_PizzaID";
+		try (PreparedStatement ps = range(connection, pizzaSql, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				OrderFact o = batch.get(rs.getInt(2));
+				if (o == null) {
+					continue;
+				}
+				PizzaFact p = new PizzaFact();
+				p.size = code(PizzaSize.of(rs.getString(3)), PizzaSize.COUNT);
+				p.crust = code(CrustType.of(rs.getString(4)), CrustType.COUNT);
+				p.minute = epochMinute(rs.getString(5));
+				p.cust = (int) PriceEngine.hundredths(rs.getDouble(6));
+				p.bus = (int) PriceEngine.hundredths(rs.getDouble(7));
+				o.pizzas.add(p);
+				byPizzaId.put(rs.getInt(1), p);
+			}
+		}
+
+		String toppingSql =
+				"SELECT pt.pizza_PizzaID, pt.topping_TopID, pt.pizza_topping_IsDouble " +
+						"FROM pizza_topping pt JOIN pizza p ON p.pizza_PizzaID = pt.pizza_PizzaID " +
+						"WHERE p.ordertable_OrderID BETWEEN ? AND ?";
+		try (PreparedStatement ps = range(connection, toppingSql, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				PizzaFact p = byPizzaId.get(rs.getInt(1));
+				if (p == null) {
+					continue;
+				}
+				int top = rs.getInt(2);
+				if (top < 0 || top > MAX_TOPPING_ID) {
+					throw new SQLDataException("Topping id " + top + " of pizza " + rs.getInt(1)
+							+ " doesn't fit the order fact store's topping bitmask (0.." + MAX_TOPPING_ID + ")");
+				}
+				p.toppings |= 1L << top;
+				if (rs.getInt(3) == 1) {
+					p.doubled |= 1L << top;
+				}
+			}
+		}
+
+		// discount order as the view's subqueries read it, for the same rounding
+		HashMap<Integer, ArrayList<Discount>> discounts = new HashMap<>();
+		String discountSql =
+				"SELECT od.ordertable_OrderID, d.discount_DiscountID, d.discount_Amount, d.discount_IsPercent " +
+						"FROM order_discount od JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID " +
+						"WHERE od.ordertable_OrderID BETWEEN ? AND ? " +
+						"ORDER BY od.ordertable_OrderID, od.discount_DiscountID";
+		try (PreparedStatement ps = range(connection, discountSql, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				if (batch.containsKey(rs.getInt(1))) {
+					discounts.computeIfAbsent(rs.getInt(1), k -> new ArrayList<>())
+							.add(new Discount(rs.getInt(2), null, rs.getDouble(3), rs.getBoolean(4)));
+				}
+			}
+		}
+
+		for (OrderFact o : batch.values()) {
+			long custCents = 0;
+			for (PizzaFact p : o.pizzas) {
+				custCents += p.cust;
+				o.cost += p.bus;
+			}
+			o.price = PriceEngine.orderMicros(custCents * PriceEngine.MICROS_PER_CENT, discounts.get(o.id));
+		}
+	}
+
+	private void append(LinkedHashMap<Integer, OrderFact> batch) throws IOException {
+		int pizzaTotal = 0;
+		for (OrderFact o : batch.values()) {
+			pizzaTotal += o.pizzas.size();
+		}
+		int oRow = writtenOrders;
+		int pRow = writtenPizzas;
+		for (Column c : orderColumns) {
+			c.ensure(oRow + batch.size());
+		}
+		for (Column c : pizzaColumns) {
+			c.ensure(pRow + pizzaTotal);
+		}
+
+		for (OrderFact o : batch.values()) {
+			orderId.putInt(oRow, o.id);
+			orderMinute.putInt(oRow, o.minute);
+			orderType.putByte(oRow, o.type);
+			orderCustomer.putInt(oRow, o.customer);
+			orderPrice.putLong(oRow, o.price);
+			orderCost.putInt(oRow, (int) o.cost);
+			oRow++;
+			for (PizzaFact p : o.pizzas) {
+				putPizza(pRow++, o, p);
+			}
+			recent.add(o.id);
+		}
+		for (Column c : orderColumns) {
+			c.force();
+		}
+		for (Column c : pizzaColumns) {
+			c.force();
+		}
+		writtenOrders = oRow;
+		writtenPizzas = pRow;
+	}
+
+	private void putPizza(int row, OrderFact o, PizzaFact p) {
+		pizzaOrder.putInt(row, o.id);
+		pizzaMinute.putInt(row, p.minute);
+		pizzaType.putByte(row, o.type);
+		pizzaCustomer.putInt(row, o.customer);
+		pizzaSize.putByte(row, p.size);
+		pizzaCrust.putByte(row, p.crust);
+		pizzaCust.putInt(row, p.cust);
+		pizzaBus.putInt(row, p.bus);
+		pizzaToppings.putLong(row, p.toppings);
+		pizzaDoubled.putLong(row, p.doubled);
+	}
+
+	private void publish() throws IOException {
+		// record the written rows, then let scans see them
+		writeMeta();
+		pizzas = writtenPizzas;
+		orders = writtenOrders;
+	}
+
+	// =========================================================
+	// REPORTS
+	// =========================================================
+
+	ArrayList<String[]> profitByPizza() {
+		/*
+		 * The ProfitByPizza view's rows: (Size, Crust, Profit, OrderMonth),
+		 * least profitable first.
+		 */
+
+		int sizes = PizzaSize.COUNT + 1;
+		int crusts = CrustType.COUNT + 1;
+		int n = pizzas;
+		HashMap<Integer, long[]> byMonth = scan(n, (lo, hi) -> {
+			// month -> [profit cents, pizza count] per (size, crust) cell
+			HashMap<Integer, long[]> out = new HashMap<>();
+			int[] minute = new int[BLOCK];
+			byte[] size = new byte[BLOCK];
+			byte[] crust = new byte[BLOCK];
+			int[] cust = new int[BLOCK];
+			int[] bus = new int[BLOCK];
+			Months months = new Months();
+			for (int at = lo; at < hi; at += BLOCK) {
+				int len = Math.min(BLOCK, hi - at);
+				pizzaMinute.read(at, minute, len);
+				pizzaSize.read(at, size, len);
+				pizzaCrust.read(at, crust, len);
+				pizzaCust.read(at, cust, len);
+				pizzaBus.read(at, bus, len);
+				long[] cells = null;
+				int cellsMonth = 0;
+				for (int i = 0; i < len; i++) {
+					int month = months.key(minute[i]);
+					if (cells == null || month != cellsMonth) {
+						cells = out.computeIfAbsent(month, k -> new long[sizes * crusts * 2]);
+						cellsMonth = month;
+					}
+					int cell = (size[i] * crusts + crust[i]) * 2;
+					cells[cell] += cust[i] - bus[i];
+					cells[cell + 1]++;
+				}
+			}
+			return out;
+		}, OrderFactStore::mergeMonths);
+
+		ArrayList<Object[]> groups = new ArrayList<>();
+		for (Map.Entry<Integer, long[]> e : byMonth.entrySet()) {
+			long[] cells = e.getValue();
+			for (int s = 0; s < sizes; s++) {
+				for (int c = 0; c < crusts; c++) {
+					int cell = (s * crusts + c) * 2;
+					if (cells[cell + 1] > 0) {
+						groups.add(new Object[]{s < PizzaSize.COUNT ? PizzaSize.values()[s].label : null,
+								c < CrustType.COUNT ? CrustType.values()[c].label : null, cells[cell], e.getKey()});
+					}
+				}
+			}
+		}
+		groups.sort(Comparator.<Object[]>comparingLong(g -> (Long) g[2])
+				.thenComparingInt(g -> (Integer) g[3]));
+
+		ArrayList<String[]> rows = new ArrayList<>(groups.size());
+		for (Object[] g : groups) {
+			rows.add(new String[]{(String) g[0], (String) g[1], PriceEngine.decimal((Long) g[2]).toPlainString(),
+					ReportEngine.monthLabel((Integer) g[3])});
+		}
+		return rows;
+	}
+
+	ArrayList<String[]> profitByOrderType() {
+		/*
+		 * The ProfitByOrderType view's rows: (CustomerType, OrderMonth,
+		 * TotalOrderPrice, TotalOrderCost, Profit), least profitable first,
+		 * then the grand total. Prices are summed exactly and rounded once,
+		 * where the view sums doubles, so a total can differ from the view's
+		 * by a cent.
+		 */
+
+		int types = OrderType.values().length + 1;
+		int n = orders;
+		HashMap<Integer, long[]> byMonth = scan(n, (lo, hi) -> {
+			// month -> [price micros, cost cents, order count] per type
+			HashMap<Integer, long[]> out = new HashMap<>();
+			int[] minute = new int[BLOCK];
+			byte[] type = new byte[BLOCK];
+			long[] price = new long[BLOCK];
+			int[] cost = new int[BLOCK];
+			Months months = new Months();
+			for (int at = lo; at < hi; at += BLOCK) {
+				int len = Math.min(BLOCK, hi - at);
+				orderMinute.read(at, minute, len);
+				orderType.read(at, type, len);
+				orderPrice.read(at, price, len);
+				orderCost.read(at, cost, len);
+				long[] cells = null;
+				int cellsMonth = 0;
+				for (int i = 0; i < len; i++) {
+					int month = months.key(minute[i]);
+					if (cells == null || month != cellsMonth) {
+						cells = out.computeIfAbsent(month, k -> new long[types * 3]);
+						cellsMonth = month;
+					}
+					int cell = type[i] * 3;
+					cells[cell] += price[i];
+					cells[cell + 1] += cost[i];
+					cells[cell + 2]++;
+				}
+			}
+			return out;
+		}, OrderFactStore::mergeMonths);
+
+		ArrayList<long[]> groups = new ArrayList<>();
+		long totalPrice = 0;
+		long totalCost = 0;
+		for (Map.Entry<Integer, long[]> e : byMonth.entrySet()) {
+			long[] cells = e.getValue();
+			for (int t = 0; t < types; t++) {
+				long price = cells[t * 3];
+				long cost = cells[t * 3 + 1];
+				// the view has a row for every group with an order, even one that sums to 0
+				if (cells[t * 3 + 2] > 0) {
+					// month, type, price cents, cost cents, profit cents
+					groups.add(new long[]{e.getKey(), t, PriceEngine.toCents(price), cost,
+							PriceEngine.toCents(price - cost * PriceEngine.MICROS_PER_CENT)});
+				}
+				totalPrice += price;
+				totalCost += cost;
+			}
+		}
+		groups.sort(Comparator.comparingLong(g -> g[4]));
+
+		ArrayList<String[]> rows = new ArrayList<>(groups.size() + 1);
+		for (long[] g : groups) {
+			rows.add(new String[]{g[1] < OrderType.values().length ? OrderType.values()[(int) g[1]].label : null,
+					ReportEngine.monthLabel((int) g[0]), PriceEngine.decimal(g[2]).toPlainString(),
+					PriceEngine.decimal(g[3]).toPlainString(), PriceEngine.decimal(g[4]).toPlainString()});
+		}
+		if (n == 0) {
+			rows.add(new String[]{"", "Grand Total", null, null, null});
+		} else {
+			rows.add(new String[]{"", "Grand Total", PriceEngine.decimal(PriceEngine.toCents(totalPrice)).toPlainString(),
+					PriceEngine.decimal(totalCost).toPlainString(),
+					PriceEngine.decimal(PriceEngine.toCents(totalPrice - totalCost * PriceEngine.MICROS_PER_CENT))
+							.toPlainString()});
+		}
+		return rows;
+	}
+
+	ArrayList<String[]> toppingPopularity(List<Topping> toppings) {
+		/*
+		 * The ToppingPopularity view's rows for the given catalog: a doubled
+		 * topping counts twice.
+		 */
+
+		long[] counts = scan(pizzas, (lo, hi) -> {
+			long[] out = new long[MAX_TOPPING_ID + 1];
+			long[] tops = new long[BLOCK];
+			long[] doubled = new long[BLOCK];
+			for (int at = lo; at < hi; at += BLOCK) {
+				int len = Math.min(BLOCK, hi - at);
+				pizzaToppings.read(at, tops, len);
+				pizzaDoubled.read(at, doubled, len);
+				for (int i = 0; i < len; i++) {
+					for (long m = tops[i]; m != 0; m &= m - 1) {
+						out[Long.numberOfTrailingZeros(m)]++;
+					}
+					for (long m = doubled[i]; m != 0; m &= m - 1) {
+						out[Long.numberOfTrailingZeros(m)]++;
+					}
+				}
+			}
+			return out;
+		}, (a, b) -> {
+			for (int i = 0; i < a.length; i++) {
+				a[i] += b[i];
+			}
+			return a;
+		});
+		return ReportEngine.toppingRows(toppings, counts);
+	}
+
+	// =========================================================
+	// AD-HOC FILTERS
+	// =========================================================
+
+	Totals pizzaTotals(Filter f) {
+		/*
+		 * Count and customer/business price of the pizzas f accepts.
+		 */
+
+		return scan(pizzas, (lo, hi) -> {
+			Totals out = new Totals();
+			int[] minute = new int[BLOCK];
+			byte[] type = new byte[BLOCK];
+			int[] customer = f.customer == Filter.ANY_CUSTOMER ? null : new int[BLOCK];
+			byte[] size = new byte[BLOCK];
+			byte[] crust = new byte[BLOCK];
+			long[] tops = f.toppings == 0 ? null : new long[BLOCK];
+			int[] cust = new int[BLOCK];
+			int[] bus = new int[BLOCK];
+			long count = 0;
+			long custCents = 0;
+			long busCents = 0;
+			for (int at = lo; at < hi; at += BLOCK) {
+				int len = Math.min(BLOCK, hi - at);
+				pizzaMinute.read(at, minute, len);
+				pizzaType.read(at, type, len);
+				pizzaSize.read(at, size, len);
+				pizzaCrust.read(at, crust, len);
+				pizzaCust.read(at, cust, len);
+				pizzaBus.read(at, bus, len);
+				if (customer != null) {
+					pizzaCustomer.read(at, customer, len);
+				}
+				if (tops != null) {
+					pizzaToppings.read(at, tops, len);
+				}
+				for (int i = 0; i < len; i++) {
+					// no branches on the data: each test contributes a 0 or 1
+					int keep = (minute[i] >= f.fromMinute ? 1 : 0) & (minute[i] < f.toMinute ? 1 : 0)
+							& (f.types >>> type[i]) & (f.sizes >>> size[i]) & (f.crusts >>> crust[i]);
+					if (customer != null) {
+						keep &= customer[i] == f.customer ? 1 : 0;
+					}
+					if (tops != null) {
+						keep &= (tops[i] & f.toppings) == f.toppings ? 1 : 0;
+					}
+					count += keep;
+					custCents += cust[i] & -keep;
+					busCents += bus[i] & -keep;
+				}
+			}
+			out.pizzas = count;
+			out.custCents = custCents;
+			out.busCents = busCents;
+			return out;
+		}, (a, b) -> {
+			a.pizzas += b.pizzas;
+			a.custCents += b.custCents;
+			a.busCents += b.busCents;
+			return a;
+		});
+	}
+
+	// Which pizzas pizzaTotals() counts; every criterion defaults to all.
+	static final class Filter {
+		static final int ANY_CUSTOMER = Integer.MIN_VALUE;
+
+		private int fromMinute = Integer.MIN_VALUE;
+		private int toMinute = Integer.MAX_VALUE;
+		// bit n set = code n accepted; the NULL code is accepted only by the default
+		private int types = -1;
+		private int sizes = -1;
+		private int crusts = -1;
+		private int customer = ANY_CUSTOMER;
+		private long toppings;
+
+		Filter between(int fromMinute, int toMinute) {
+			// pizza date in [fromMinute, toMinute), see epochMinute()
+			this.fromMinute = fromMinute;
+			this.toMinute = toMinute;
+			return this;
+		}
+
+		Filter types(OrderType... accepted) {
+			types = 0;
+			for (OrderType t : accepted) {
+				types |= 1 << t.ordinal();
+			}
+			return this;
+		}
+
+		Filter sizes(PizzaSize... accepted) {
+			sizes = 0;
+			for (PizzaSize s : accepted) {
+				sizes |= 1 << s.ordinal();
+			}
+			return this;
+		}
+
+		Filter crusts(CrustType... accepted) {
+			crusts = 0;
+			for (CrustType c : accepted) {
+				crusts |= 1 << c.ordinal();
+			}
+			return this;
+		}
+
+		Filter customer(int custId) {
+			customer = custId;
+			return this;
+		}
+
+		Filter withToppings(int... topIds) {
+			// pizzas having all of these toppings
+			for (int id : topIds) {
+				if (id < 0 || id > MAX_TOPPING_ID) {
+					throw new IllegalArgumentException("Topping id out of range: " + id);
+				}
+				toppings |= 1L << id;
+			}
+			return this;
+		}
+	}
+
+	static final class Totals {
+		long pizzas;
+		long custCents;
+		long busCents;
+
+		@Override
+		public String toString() {
+			return "Totals [pizzas=" + pizzas + ", cust=" + PriceEngine.decimal(custCents)
+					+ ", bus=" + PriceEngine.decimal(busCents) + "]";
+		}
+	}
+
+	static int epochMinute(String dateTime) {
+		// 'YYYY-MM-DD HH:mm[:ss]' as minutes since 1970-01-01 00:00; NO_MINUTE for NULL
+		if (dateTime == null) {
+			return NO_MINUTE;
+		}
+		LocalDate day = LocalDate.of(Integer.parseInt(dateTime.substring(0, 4)),
+				Integer.parseInt(dateTime.substring(5, 7)), Integer.parseInt(dateTime.substring(8, 10)));
+		int minutes = 0;
+		if (dateTime.length() >= 16) {
+			minutes = Integer.parseInt(dateTime.substring(11, 13)) * 60 + Integer.parseInt(dateTime.substring(14, 16));
+		}
+		return Math.toIntExact(day.toEpochDay() * 1440 + minutes);
+	}
+
+	// =========================================================
+	// SCANS
+	// =========================================================
+
+	interface Leaf<R> {
+		R scan(int lo, int hi);
+	}
+
+	private static <R> R scan(int rows, Leaf<R> leaf, ReportEngine.Merge<R> merge) {
+		if (rows <= LEAF_ROWS) {
+			return leaf.scan(0, rows);
+		}
+		return ForkJoinPool.commonPool().invoke(new ScanTask<>(0, rows, leaf, merge));
+	}
+
+	private static final class ScanTask<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		private final int lo;
+		private final int hi;
+		private final transient Leaf<R> leaf;
+		private final transient ReportEngine.Merge<R> merge;
+
+		ScanTask(int lo, int hi, Leaf<R> leaf, ReportEngine.Merge<R> merge) {
+			this.lo = lo;
+			this.hi = hi;
+			this.leaf = leaf;
+			this.merge = merge;
+		}
+
+		@Override
+		protected R compute() {
+			if (hi - lo <= LEAF_ROWS) {
+				return leaf.scan(lo, hi);
+			}
+			int mid = lo + (hi - lo) / 2;
+			ScanTask<R> left = new ScanTask<>(lo, mid, leaf, merge);
+			ScanTask<R> right = new ScanTask<>(mid, hi, leaf, merge);
+			left.fork();
+			R r = right.compute();
+			return merge.merge(left.join(), r);
+		}
+	}
+
+	private static HashMap<Integer, long[]> mergeMonths(HashMap<Integer, long[]> a, HashMap<Integer, long[]> b) {
+		for (Map.Entry<Integer, long[]> e : b.entrySet()) {
+			long[] into = a.get(e.getKey());
+			if (into == null) {
+				a.put(e.getKey(), e.getValue());
+			} else {
+				long[] from = e.getValue();
+				for (int i = 0; i < into.length; i++) {
+					into[i] += from[i];
+				}
+			}
+		}
+		return a;
+	}
+
+	// Month keys (year * 12 + month - 1) of epoch minutes, remembering the last month's bounds.
+	private static final class Months {
+		private int start = 1;
+		private int end = 0;
+		private int key;
+
+		int key(int minute) {
+			if (minute == NO_MINUTE) {
+				return -1;
+			}
+			if (minute < start || minute >= end) {
+				LocalDate first = LocalDate.ofEpochDay(Math.floorDiv(minute, 1440)).withDayOfMonth(1);
+				key = first.getYear() * 12 + first.getMonthValue() - 1;
+				start = (int) (first.toEpochDay() * 1440);
+				end = (int) (first.plusMonths(1).toEpochDay() * 1440);
+			}
+			return key;
+		}
+	}
+
+	// =========================================================
+	// FILES
+	// =========================================================
+
+	private void readMeta() throws IOException {
+		Path meta = dir.resolve(META);
+		if (!Files.exists(meta)) {
+			writeMeta();
+			return;
+		}
+		Properties p = new Properties();
+		try (InputStream in = Files.newInputStream(meta)) {
+			p.load(in);
+		}
+		int format = Integer.parseInt(p.getProperty("format", "0"));
+		if (format != FORMAT) {
+			throw new IOException(meta + " has format " + format + ", expected " + FORMAT + "; delete " + dir
+					+ " to rebuild it");
+		}
+		int o = Integer.parseInt(p.getProperty("orders"));
+		int z = Integer.parseInt(p.getProperty("pizzas"));
+		for (Column c : orderColumns) {
+			c.check(o);
+		}
+		for (Column c : pizzaColumns) {
+			c.check(z);
+		}
+		highWaterMark = Integer.parseInt(p.getProperty("highWaterMark"));
+		writtenOrders = o;
+		writtenPizzas = z;
+		orders = o;
+		pizzas = z;
+
+		int[] ids = new int[BLOCK];
+		for (int at = 0; at < o; at += BLOCK) {
+			int len = Math.min(BLOCK, o - at);
+			orderId.read(at, ids, len);
+			for (int i = 0; i < len; i++) {
+				if (ids[i] > highWaterMark - rewind) {
+					recent.add(ids[i]);
+				}
+			}
+		}
+	}
+
+	private void writeMeta() throws IOException {
+		Properties p = new Properties();
+		p.setProperty("format", Integer.toString(FORMAT));
+		p.setProperty("orders", Integer.toString(writtenOrders));
+		p.setProperty("pizzas", Integer.toString(writtenPizzas));
+		p.setProperty("highWaterMark", Integer.toString(highWaterMark));
+		Path tmp = dir.resolve(META + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		     OutputStream out = Channels.newOutputStream(ch)) {
+			p.store(out, "OrderFactStore");
+			ch.force(true);
+		}
+		Files.move(tmp, dir.resolve(META), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static byte code(Enum<?> value, int nullCode) {
+		return (byte) (value == null ? nullCode : value.ordinal());
+	}
+
+	private static PreparedStatement range(Connection connection, String sql, int lo, int hi) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(sql);
+		ps.setInt(1, lo);
+		ps.setInt(2, hi);
+		return ps;
+	}
+
+	// One column file of fixed-width little-endian values, mapped read-write.
+	private static final class Column {
+		private final Path file;
+		private final int width;
+		private final FileChannel channel;
+		// replaced when the file grows; scans keep using the mapping they read
+		private volatile MappedByteBuffer buffer;
+
+		Column(Path dir, String name, int width) throws IOException {
+			this.file = dir.resolve(name + ".col");
+			this.width = width;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			map(Math.max(channel.size(), (long) INITIAL_ROWS * width));
+		}
+
+		void check(int rows) throws IOException {
+			if ((long) rows * width > buffer.capacity()) {
+				throw new IOException(file + " is shorter than its " + rows + " recorded rows");
+			}
+		}
+
+		void ensure(int rows) throws IOException {
+			long need = (long) rows * width;
+			long capacity = buffer.capacity();
+			if (need <= capacity) {
+				return;
+			}
+			if (need > Integer.MAX_VALUE) {
+				throw new IOException(file + " can't hold " + rows + " rows");
+			}
+			while (capacity < need) {
+				capacity *= 2;
+			}
+			map(Math.min(capacity, Integer.MAX_VALUE));
+		}
+
+		private void map(long bytes) throws IOException {
+			MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			buffer = b;
+		}
+
+		void putByte(int row, byte v) {
+			buffer.put(row, v);
+		}
+
+		void putInt(int row, int v) {
+			buffer.putInt(row * 4, v);
+		}
+
+		void putLong(int row, long v) {
+			buffer.putLong(row * 8, v);
+		}
+
+		byte getByte(int row) {
+			return buffer.get(row);
+		}
+
+		int getInt(int row) {
+			return buffer.getInt(row * 4);
+		}
+
+		void read(int row, byte[] dst, int n) {
+			buffer.duplicate().position(row).get(dst, 0, n);
+		}
+
+		void read(int row, int[] dst, int n) {
+			view(row).asIntBuffer().get(dst, 0, n);
+		}
+
+		void read(int row, long[] dst, int n) {
+			view(row).asLongBuffer().get(dst, 0, n);
+		}
+
+		private ByteBuffer view(int row) {
+			ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			b.position(row * width);
+			return b;
+		}
+
+		void force() {
+			buffer.force();
+		}
+
+		void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	// =========================================================
+	// TYPES
+	// =========================================================
+
+	private static final class OrderFact {
+		final int id;
+		int minute;
+		byte type;
+		int customer;
+		long price;
+		long cost;
+		final ArrayList<PizzaFact> pizzas = new ArrayList<>(2);
+
+		OrderFact(int id) {
+			this.id = id;
+		}
+	}
+
+	private static final class PizzaFact {
+		int minute;
+		byte size;
+		byte crust;
+		int cust;
+		int bus;
+		long toppings;
+		long doubled;
+	}
+
+}
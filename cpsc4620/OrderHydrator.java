@@ -0,0 +1,372 @@
+package cpsc4620;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/*
+ * Set-based loader for Order graphs.
+ *
+ * Instead of running a subtype query, a pizza query and per-pizza topping and
+ * discount queries for every order row, orders are read in pages and each
+ * page is filled in with a fixed number of IN-list queries:
+ *
+ *   1. order headers, LEFT JOINed to dinein/pickup/delivery (one query total)
+ *   2. pizzas for the page
+ *   3. pizza toppings for the page
+ *   4. pizza discounts for the page
+ *   5. order discounts for the page
+ *
+ * The rows are then stitched onto the Order/Pizza objects in memory.
+ *
+ * A FetchPlan other than FULL stops after the headers (or the pizza rows)
+ * and leaves a LazyBatch on each object to run the remaining queries for
+ * the whole page on first access.
+ */
+
+final class OrderHydrator {
+
+	// orders hydrated per round of child queries
+	static final int PAGE_SIZE = 500;
+
+	// Header select shared by every order read path. Callers append WHERE/ORDER BY.
+	static final String ORDER_HEADER_SELECT =
+			"SELECT o.ordertable_OrderID, o.customer_CustID, o.ordertable_OrderType, o.ordertable_OrderDateTime, " +
+					"o.ordertable_CustPrice, o.ordertable_BusPrice, o.ordertable_IsComplete, " +
+					"di.dinein_TableNum, pu.pickup_IsPickedUp, " +
+					"de.delivery_HouseNum, de.delivery_Street, de.delivery_City, de.delivery_State, " +
+					"de.delivery_Zip, de.delivery_IsDelivered " +
+					"FROM ordertable o " +
+					"LEFT JOIN dinein di ON di.ordertable_OrderID = o.ordertable_OrderID " +
+					"LEFT JOIN pickup pu ON pu.ordertable_OrderID = o.ordertable_OrderID " +
+					"LEFT JOIN delivery de ON de.ordertable_OrderID = o.ordertable_OrderID";
+
+	private final Connection connection;
+	// session lazy batches are bound to; null when reading on a bare connection
+	private final DBSession session;
+
+	OrderHydrator(Connection connection) {
+		this.connection = connection;
+		this.session = null;
+	}
+
+	OrderHydrator(DBSession session) {
+		this.connection = session.getConnection();
+		this.session = session;
+	}
+
+	// =========================================================
+	// ENTRY POINTS
+	// =========================================================
+
+	ArrayList<Order> readOrders(ResultSet headers) throws SQLException {
+		/*
+		 * Reads every row of an ORDER_HEADER_SELECT result and returns the
+		 * fully populated orders, in the order the rows came back.
+		 */
+		return readOrders(headers, FetchPlan.FULL);
+	}
+
+	ArrayList<Order> readOrders(ResultSet headers, FetchPlan plan) throws SQLException {
+		/*
+		 * Same as readOrders(ResultSet), loading only what the plan asks for
+		 * up front.
+		 */
+
+		ArrayList<Order> orders = new ArrayList<>();
+		ArrayList<Order> page = new ArrayList<>();
+
+		while (headers.next()) {
+			page.add(mapHeader(headers));
+			if (page.size() == PAGE_SIZE) {
+				attach(page, plan);
+				orders.addAll(page);
+				page = new ArrayList<>();
+			}
+		}
+		if (!page.isEmpty()) {
+			attach(page, plan);
+			orders.addAll(page);
+		}
+		return orders;
+	}
+
+	ArrayList<Pizza> loadPizzas(int orderId) throws SQLException {
+		/*
+		 * Pizzas for one order, with their toppings and discounts, in three queries.
+		 */
+
+		int[] ids = {orderId};
+		LinkedHashMap<Integer, Pizza> pizzas = loadPizzas(ids);
+		if (!pizzas.isEmpty()) {
+			loadPizzaToppings(ids, pizzas);
+			loadPizzaDiscounts(ids, pizzas);
+		}
+		return new ArrayList<>(pizzas.values());
+	}
+
+	void attachChildren(List<Order> page) throws SQLException {
+		/*
+		 * Loads pizzas (with toppings and discounts) and order discounts for
+		 * every order in the page and attaches them.
+		 */
+		attachOrderChildren(page, true);
+	}
+
+	private void attach(List<Order> page, FetchPlan plan) throws SQLException {
+		switch (plan) {
+			case HEADERS:
+				LazyBatch<Order> batch = new LazyBatch<>(session, page, OrderHydrator::attachChildren);
+				for (Order o : page) {
+					o.lazyChildren = batch;
+				}
+				break;
+			case PIZZAS:
+				attachOrderChildren(page, false);
+				break;
+			default:
+				attachOrderChildren(page, true);
+				break;
+		}
+	}
+
+	private void attachOrderChildren(List<Order> page, boolean withPizzaChildren) throws SQLException {
+		if (page.isEmpty()) {
+			return;
+		}
+
+		HashMap<Integer, Order> byId = new HashMap<>(page.size() * 2);
+		int[] ids = new int[page.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Order o = page.get(i);
+			ids[i] = o.getOrderID();
+			o.lazyChildren = null;
+			o.setPizzaList(new ArrayList<>());
+			o.setDiscountList(new ArrayList<>());
+			byId.put(o.getOrderID(), o);
+		}
+
+		LinkedHashMap<Integer, Pizza> pizzas = loadPizzas(ids);
+		if (!pizzas.isEmpty()) {
+			if (withPizzaChildren) {
+				loadPizzaToppings(ids, pizzas);
+				loadPizzaDiscounts(ids, pizzas);
+			} else {
+				LazyBatch<Pizza> batch = new LazyBatch<>(session, new ArrayList<>(pizzas.values()),
+						OrderHydrator::attachPizzaChildren);
+				for (Pizza p : pizzas.values()) {
+					p.lazyChildren = batch;
+				}
+			}
+			for (Pizza p : pizzas.values()) {
+				byId.get(p.getOrderID()).addPizza(p);
+			}
+		}
+		loadOrderDiscounts(ids, byId);
+	}
+
+	void attachPizzaChildren(List<Pizza> batch) throws SQLException {
+		/*
+		 * Loads toppings and discounts for pizzas read without them. The
+		 * queries go through the pizzas' orders, so batch should hold every
+		 * pizza of those orders (as PIZZAS-plan pages do).
+		 */
+
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		HashMap<Integer, Pizza> pizzas = new HashMap<>(batch.size() * 2);
+		LinkedHashSet<Integer> orderIds = new LinkedHashSet<>();
+		for (Pizza p : batch) {
+			p.lazyChildren = null;
+			p.setToppings(new ArrayList<>());
+			p.setDiscounts(new ArrayList<>());
+			pizzas.put(p.getPizzaID(), p);
+			orderIds.add(p.getOrderID());
+		}
+
+		int[] ids = new int[orderIds.size()];
+		int i = 0;
+		for (int id : orderIds) {
+			ids[i++] = id;
+		}
+		for (int from = 0; from < ids.length; from += PAGE_SIZE) {
+			int[] chunk = Arrays.copyOfRange(ids, from, Math.min(ids.length, from + PAGE_SIZE));
+			loadPizzaToppings(chunk, pizzas);
+			loadPizzaDiscounts(chunk, pizzas);
+		}
+	}
+
+	// =========================================================
+	// ROW MAPPING
+	// =========================================================
+
+	static Order mapHeader(ResultSet rs) throws SQLException {
+		/*
+		 * Builds the correct Order subtype from one ORDER_HEADER_SELECT row.
+		 * Child collections are left empty.
+		 */
+
+		int orderId = rs.getInt("ordertable_OrderID");
+		int custId = rs.getInt("customer_CustID");
+		if (rs.wasNull()) {
+			custId = -1; // -1 indicates "no customer" (dine-in)
+		}
+		OrderType orderType = OrderType.of(rs.getString("ordertable_OrderType"));
+		String date = rs.getString("ordertable_OrderDateTime");
+		double custPrice = rs.getDouble("ordertable_CustPrice");
+		double busPrice = rs.getDouble("ordertable_BusPrice");
+		boolean isComplete = rs.getBoolean("ordertable_IsComplete");
+
+		if (orderType == OrderType.DINE_IN) {
+			int table = rs.getInt("dinein_TableNum");
+			return new DineinOrder(orderId, custId, date, custPrice, busPrice, isComplete, table);
+		} else if (orderType == OrderType.PICKUP) {
+			boolean picked = rs.getBoolean("pickup_IsPickedUp");
+			return new PickupOrder(orderId, custId, date, custPrice, busPrice, picked, isComplete);
+		}
+
+		String addr = "";
+		int houseNum = rs.getInt("delivery_HouseNum");
+		if (!rs.wasNull()) {
+			addr = houseNum + "\t" +
+					rs.getString("delivery_Street") + "\t" +
+					rs.getString("delivery_City") + "\t" +
+					rs.getString("delivery_State") + "\t" +
+					rs.getInt("delivery_Zip");
+		}
+		boolean delivered = rs.getBoolean("delivery_IsDelivered");
+		return new DeliveryOrder(orderId, custId, date, custPrice, busPrice, isComplete, delivered, addr);
+	}
+
+	// =========================================================
+	// CHILD QUERIES (one per page each)
+	// =========================================================
+
+	private LinkedHashMap<Integer, Pizza> loadPizzas(int[] orderIds) throws SQLException {
+		// keyed by pizza id, iteration order follows (order id, pizza id)
+		LinkedHashMap<Integer, Pizza> pizzas = new LinkedHashMap<>();
+		String sql = "SELECT * FROM pizza WHERE ordertable_OrderID IN (" + placeholders(orderIds.length) + ") " +
+				"ORDER BY ordertable_OrderID, pizza_PizzaID";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			bindIds(ps, orderIds);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					int pizzaId = rs.getInt("pizza_PizzaID");
+					Pizza p = new Pizza(pizzaId,
+							rs.getString("pizza_Size"),
+							rs.getString("pizza_CrustType"),
+							rs.getInt("ordertable_OrderID"),
+							rs.getString("pizza_PizzaState"),
+							rs.getString("pizza_PizzaDate"),
+							rs.getDouble("pizza_CustPrice"),
+							rs.getDouble("pizza_BusPrice"));
+					pizzas.put(pizzaId, p);
+				}
+			}
+		}
+		return pizzas;
+	}
+
+	private void loadPizzaToppings(int[] orderIds, HashMap<Integer, Pizza> pizzas) throws SQLException {
+		String sql =
+				"SELECT pt.pizza_PizzaID, pt.pizza_topping_IsDouble, t.* " +
+						"FROM pizza p " +
+						"JOIN pizza_topping pt ON pt.pizza_PizzaID = p.pizza_PizzaID " +
+						"JOIN topping t ON t.topping_TopID = pt.topping_TopID " +
+						"WHERE p.ordertable_OrderID IN (" + placeholders(orderIds.length) + ") " +
+						"ORDER BY pt.pizza_PizzaID, t.topping_TopName";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			bindIds(ps, orderIds);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					Topping t = DBSession.mapTopping(rs);
+					t.setDoubled(rs.getInt("pizza_topping_IsDouble") == 1);
+					Pizza p = pizzas.get(rs.getInt("pizza_PizzaID"));
+					if (p != null) {
+						p.getToppings().add(t);
+					}
+				}
+			}
+		}
+	}
+
+	private void loadPizzaDiscounts(int[] orderIds, HashMap<Integer, Pizza> pizzas) throws SQLException {
+		String sql =
+				"SELECT pd.pizza_PizzaID, d.* " +
+						"FROM pizza p " +
+						"JOIN pizza_discount pd ON pd.pizza_PizzaID = p.pizza_PizzaID " +
+						"JOIN discount d ON d.discount_DiscountID = pd.discount_DiscountID " +
+						"WHERE p.ordertable_OrderID IN (" + placeholders(orderIds.length) + ") " +
+						"ORDER BY pd.pizza_PizzaID, d.discount_DiscountID";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			bindIds(ps, orderIds);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					Pizza p = pizzas.get(rs.getInt("pizza_PizzaID"));
+					if (p != null) {
+						p.getDiscounts().add(DBSession.mapDiscount(rs));
+					}
+				}
+			}
+		}
+	}
+
+	private void loadOrderDiscounts(int[] orderIds, HashMap<Integer, Order> byId) throws SQLException {
+		String sql =
+				"SELECT od.ordertable_OrderID, d.* " +
+						"FROM order_discount od " +
+						"JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID " +
+						"WHERE od.ordertable_OrderID IN (" + placeholders(orderIds.length) + ") " +
+						"ORDER BY od.ordertable_OrderID, d.discount_DiscountID";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			bindIds(ps, orderIds);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					byId.get(rs.getInt("ordertable_OrderID")).getDiscountList().add(DBSession.mapDiscount(rs));
+				}
+			}
+		}
+	}
+
+	// =========================================================
+	// IN-LIST HELPERS
+	// =========================================================
+
+	private static int bucketSize(int n) {
+		/*
+		 * IN-lists are padded up to a power of two (capped at PAGE_SIZE) so only a
+		 * handful of distinct SQL strings are ever prepared.
+		 */
+		int size = 8;
+		while (size < n) {
+			size <<= 1;
+		}
+		return Math.min(size, Math.max(n, PAGE_SIZE));
+	}
+
+	static String placeholders(int n) {
+		int size = bucketSize(n);
+		StringBuilder sb = new StringBuilder(size * 2);
+		for (int i = 0; i < size; i++) {
+			sb.append(i == 0 ? "?" : ",?");
+		}
+		return sb.toString();
+	}
+
+	static void bindIds(PreparedStatement ps, int[] ids) throws SQLException {
+		// pad with the last id; duplicates in an IN-list are harmless
+		int size = bucketSize(ids.length);
+		for (int i = 0; i < size; i++) {
+			ps.setInt(i + 1, ids[Math.min(i, ids.length - 1)]);
+		}
+	}
+}
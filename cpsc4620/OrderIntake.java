@@ -0,0 +1,348 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Bounded order queue drained by writer threads that commit several orders
+ * per transaction (group commit).
+ *
+ * submit() puts the order on the queue and returns a future for its
+ * OrderID. A writer takes the first waiting order, then keeps collecting
+ * until it has batchSize orders or lingerMs has passed, and adds the whole
+ * batch in one DBSession transaction: one commit (and one log flush) for
+ * the batch instead of one per order.
+ *
+ * DBSession rolls back the whole transaction when any order in it fails, so
+ * a failed batch is retried one order per transaction. Only the orders that
+ * fail on their own have their futures failed. A transaction lost to a
+ * deadlock is first run again as it was.
+ *
+ * When the queue is full, submit() waits up to offerTimeoutMs for room and
+ * then throws SQLTransientException, so a flood of orders slows the callers
+ * down instead of growing the heap.
+ *
+ * Futures are completed on the writer thread; callers shouldn't chain slow
+ * work onto them with the non-async CompletableFuture methods.
+ *
+ * Settings (system properties):
+ *   pizzadb.intake.queueCapacity  orders waiting before submit() blocks (1000)
+ *   pizzadb.intake.batchSize      most orders per transaction (32)
+ *   pizzadb.intake.lingerMs       how long a writer waits to fill a batch (5)
+ *   pizzadb.intake.writers        writer threads, each one connection while committing (2)
+ *   pizzadb.intake.offerTimeoutMs how long submit() waits on a full queue (2000)
+ */
+
+final class OrderIntake implements AutoCloseable {
+
+	// how often an idle writer checks whether the intake was closed
+	private static final long IDLE_POLL_MILLIS = 200L;
+
+	// times a transaction rolled back by a deadlock is run again
+	private static final int DEADLOCK_RETRIES = 3;
+
+	private static volatile OrderIntake shared;
+
+	private final ArrayBlockingQueue<Pending> queue;
+	private final int batchSize;
+	private final long lingerNanos;
+	private final long offerTimeoutMillis;
+	private final Thread[] writers;
+	private volatile boolean closed;
+
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder committed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder fallbacks = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	OrderIntake(int queueCapacity, int batchSize, long lingerMillis, int writerCount, long offerTimeoutMillis) {
+		if (queueCapacity <= 0 || batchSize <= 0 || lingerMillis < 0 || writerCount <= 0 || offerTimeoutMillis < 0) {
+			throw new IllegalArgumentException("Invalid order intake settings: capacity=" + queueCapacity
+					+ ", batch=" + batchSize + ", linger=" + lingerMillis + ", writers=" + writerCount);
+		}
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.batchSize = batchSize;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+		this.offerTimeoutMillis = offerTimeoutMillis;
+		this.writers = new Thread[writerCount];
+		for (int i = 0; i < writerCount; i++) {
+			writers[i] = new Thread(this::drain, "pizzadb-order-intake-" + i);
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+
+	static OrderIntake shared() {
+		/*
+		 * The intake DBNinja.submitOrder uses, started on first use and
+		 * drained by a shutdown hook when the JVM exits.
+		 */
+
+		OrderIntake i = shared;
+		if (i == null) {
+			synchronized (OrderIntake.class) {
+				i = shared;
+				if (i == null) {
+					i = new OrderIntake(
+							Integer.getInteger("pizzadb.intake.queueCapacity", 1000),
+							Integer.getInteger("pizzadb.intake.batchSize", 32),
+							Long.getLong("pizzadb.intake.lingerMs", 5L),
+							Integer.getInteger("pizzadb.intake.writers", 2),
+							Long.getLong("pizzadb.intake.offerTimeoutMs", 2000L));
+					OrderIntake started = i;
+					Runtime.getRuntime().addShutdownHook(new Thread(started::close, "pizzadb-order-intake-shutdown"));
+					shared = i;
+				}
+			}
+		}
+		return i;
+	}
+
+	static String describeShared() {
+		// stats of the shared intake, without starting it
+		OrderIntake i = shared;
+		return i == null ? "OrderIntake [not started]" : i.toString();
+	}
+
+	CompletableFuture<Integer> submit(Order o) throws SQLException {
+		/*
+		 * Queues the order and returns a future for its OrderID. Blocks while
+		 * the queue is full, up to offerTimeoutMs.
+		 */
+
+		if (closed) {
+			throw new SQLException("Order intake has been shut down");
+		}
+		Pending p = new Pending(o);
+		boolean queued;
+		try {
+			queued = queue.offer(p, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting to queue an order", e);
+		}
+		if (!queued) {
+			rejected.increment();
+			throw new SQLTransientException("Order intake queue is full (" + queue.size()
+					+ " orders waiting); try again shortly");
+		}
+		if (closed && queue.remove(p)) {
+			// lost the race with close(); nobody would pick it up
+			throw new SQLException("Order intake has been shut down");
+		}
+		submitted.increment();
+		return p.result;
+	}
+
+	@Override
+	public void close() {
+		/*
+		 * Stops taking new orders and waits for the writers to commit
+		 * everything already queued.
+		 */
+
+		closed = true;
+		for (Thread w : writers) {
+			try {
+				w.join(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		// anything a writer couldn't get to
+		Pending p;
+		while ((p = queue.poll()) != null) {
+			p.result.completeExceptionally(new SQLException("Order intake shut down before the order was saved"));
+		}
+	}
+
+	int getQueuedCount() {
+		return queue.size();
+	}
+
+	long getSubmittedCount() {
+		return submitted.sum();
+	}
+
+	long getCommittedCount() {
+		return committed.sum();
+	}
+
+	long getBatchCount() {
+		return batches.sum();
+	}
+
+	@Override
+	public String toString() {
+		long b = batches.sum();
+		return "OrderIntake [queued=" + queue.size() + ", submitted=" + submitted.sum() + ", committed=" + committed.sum()
+				+ ", failed=" + failed.sum() + ", rejected=" + rejected.sum() + ", batches=" + b
+				+ ", avgBatch=" + (b == 0 ? 0 : String.format("%.1f", committed.sum() / (double) b))
+				+ ", fallbacks=" + fallbacks.sum() + ", retries=" + retries.sum() + "]";
+	}
+
+	// =========================================================
+	// WRITERS
+	// =========================================================
+
+	private void drain() {
+		ArrayList<Pending> batch = new ArrayList<>(batchSize);
+		while (nextBatch(batch)) {
+			write(batch);
+			batch.clear();
+		}
+	}
+
+	private boolean nextBatch(ArrayList<Pending> batch) {
+		/*
+		 * Waits for the first order, then lingers for up to lingerNanos to
+		 * fill the batch. Returns false once closed and the queue is empty.
+		 *
+		 * Writers are never interrupted (an interrupt would also abort the
+		 * pool borrow in write()); close() is noticed by polling.
+		 */
+
+		try {
+			Pending first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			while (first == null) {
+				if (closed) {
+					return false;
+				}
+				first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			batch.add(first);
+			queue.drainTo(batch, batchSize - batch.size());
+
+			long deadline = System.nanoTime() + lingerNanos;
+			while (batch.size() < batchSize && !closed) {
+				long wait = deadline - System.nanoTime();
+				if (wait <= 0) {
+					break;
+				}
+				Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+				queue.drainTo(batch, batchSize - batch.size());
+			}
+		} catch (InterruptedException e) {
+			// not expected; write what we have, or stop if there's nothing
+			return !batch.isEmpty();
+		}
+		return true;
+	}
+
+	private void write(ArrayList<Pending> batch) {
+		Exception failure = commit(batch, "OrderIntake.writeBatch");
+		if (failure == null) {
+			batches.increment();
+			committed.add(batch.size());
+			for (Pending p : batch) {
+				p.result.complete(p.order.getOrderID());
+			}
+			return;
+		}
+		if (batch.size() == 1) {
+			fail(batch.get(0), failure);
+			return;
+		}
+
+		// one bad order spoiled the batch: give every order its own transaction
+		fallbacks.increment();
+		for (Pending p : batch) {
+			failure = commit(Collections.singletonList(p), "addOrder");
+			if (failure == null) {
+				batches.increment();
+				committed.increment();
+				p.result.complete(p.order.getOrderID());
+			} else {
+				fail(p, failure);
+			}
+		}
+	}
+
+	private Exception commit(List<Pending> orders, String operation) {
+		/*
+		 * Adds the orders in one transaction. A batch locks all of its
+		 * toppings first (see DBSession.lockToppings), so two writers' batches
+		 * queue up on the topping rows instead of deadlocking on them. A
+		 * transaction the database still rolled back to break a deadlock is
+		 * run again, up to DEADLOCK_RETRIES times. Returns the failure, or
+		 * null once committed.
+		 */
+
+		Exception failure = null;
+		for (int attempt = 0; attempt <= DEADLOCK_RETRIES; attempt++) {
+			if (attempt > 0) {
+				retries.increment();
+			}
+			DBMetrics.Call call = DBMetrics.begin(operation);
+			boolean succeeded = false;
+			try (DBSession s = DBSession.open()) {
+				s.begin();
+				if (orders.size() > 1) {
+					s.lockToppings(pendingOrders(orders));
+				}
+				for (Pending p : orders) {
+					s.addOrder(p.order);
+				}
+				s.commit();
+				succeeded = true;
+				return null;
+			} catch (SQLException | IOException | RuntimeException e) {
+				failure = e;
+			} finally {
+				DBMetrics.end(call, succeeded);
+			}
+			if (!rolledBack(failure)) {
+				break;
+			}
+		}
+		return failure;
+	}
+
+	private static List<Order> pendingOrders(List<Pending> pending) {
+		ArrayList<Order> orders = new ArrayList<>(pending.size());
+		for (Pending p : pending) {
+			orders.add(p.order);
+		}
+		return orders;
+	}
+
+	private static boolean rolledBack(Exception e) {
+		// SQLSTATE class 40: deadlock or serialization failure, safe to run again
+		if (!(e instanceof SQLException)) {
+			return false;
+		}
+		String state = ((SQLException) e).getSQLState();
+		return e instanceof SQLTransactionRollbackException || (state != null && state.startsWith("40"));
+	}
+
+	private void fail(Pending p, Exception e) {
+		failed.increment();
+		p.result.completeExceptionally(e);
+	}
+
+	private static final class Pending {
+		final Order order;
+		final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+		Pending(Order order) {
+			this.order = order;
+		}
+	}
+}
@@ -0,0 +1,903 @@
+package cpsc4620;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32C;
+
+/*
+ * Write-ahead journal in front of DBNinja.addOrder and submitOrder
+ * (-Dpizzadb.journal=true).
+ *
+ * addOrder appends the order to the journal and forces it to disk; from
+ * then on the order survives a crash or a database outage. A background
+ * applier adds the journaled orders to the database in sequence order
+ * through DBSession.addJournaledOrder, which records the entry in
+ * journal_applied in the same transaction, so replaying an entry that was
+ * already applied changes nothing. addOrder waits up to waitMs for its order
+ * to be applied, so the caller gets its OrderID (or a rejected order's
+ * error) as before; if the database is slow or down it returns false once
+ * the order is durable, leaving the order's ids as they were.
+ * DBNinja.submitOrder uses submit(), which returns as soon as the order is
+ * durable with a future for its OrderID, instead of going through
+ * OrderIntake.
+ *
+ * Segments are segment-<first sequence>.log files of segmentBytes, mapped
+ * read-write and filled with little-endian records
+ *
+ *   int length | long sequence | int CRC32C(sequence, payload) | payload
+ *
+ * up to a zero length or the end of the file. A record that runs past the
+ * end or fails its checksum is a write torn by a crash and ends the
+ * segment. A full segment is forced and sealed and appending moves to a new
+ * one; a sealed segment is deleted once every record in it has been
+ * applied. On open every segment is scanned, its records are queued for the
+ * applier again, and appending starts in a fresh segment.
+ *
+ * Appenders force the segment outside the append lock, and one force covers
+ * every record appended before it, so concurrent addOrder calls share their
+ * fsyncs.
+ *
+ * Errors the database can recover from (no connection, a lost connection,
+ * a deadlock or lock timeout) are retried with backoff, holding back the
+ * entries behind them. Any other error rejects the entry: its record is
+ * copied to rejected-<sequence>.bin in the journal directory, the error is
+ * printed on System.err, and addOrder throws it if it is still waiting.
+ *
+ * journal.properties holds the journal's id, which keeps the
+ * journal_applied rows of two journal directories apart; journal.lock keeps
+ * two processes out of one directory.
+ *
+ * Settings (system properties):
+ *   pizzadb.journal               route addOrder and submitOrder through the journal (false)
+ *   pizzadb.journal.dir           journal directory (pizzadb-journal)
+ *   pizzadb.journal.segmentBytes  size of a segment file (4194304)
+ *   pizzadb.journal.waitMs        how long addOrder waits for its order to be applied (1000)
+ */
+
+final class OrderJournal implements AutoCloseable {
+
+	private static final boolean enabled = Boolean.getBoolean("pizzadb.journal");
+
+	private static final String META = "journal.properties";
+	private static final String LOCK = "journal.lock";
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int FORMAT = 1;
+	// length, sequence, checksum
+	private static final int HEADER = 16;
+
+	// order kinds in a record
+	private static final byte PLAIN = 0;
+	private static final byte DINE_IN = 1;
+	private static final byte PICKUP = 2;
+	private static final byte DELIVERY = 3;
+
+	// how often an idle or backing-off applier checks whether the journal was closed
+	private static final long IDLE_POLL_MILLIS = 200L;
+	private static final long MIN_BACKOFF_MILLIS = 50L;
+	private static final long MAX_BACKOFF_MILLIS = 5000L;
+
+	private static volatile OrderJournal shared;
+
+	private final Path dir;
+	private final int segmentBytes;
+	private final long waitMillis;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final String journalId;
+	private final LinkedBlockingQueue<Entry> unapplied = new LinkedBlockingQueue<>();
+	private final Thread applier;
+	private volatile boolean closed;
+
+	// guarded by this
+	private Segment active;
+	private long nextSequence;
+
+	// guarded by syncLock; every record up to this sequence is on disk
+	private final Object syncLock = new Object();
+	private volatile long durableSequence;
+
+	OrderJournal(Path dir, int segmentBytes, long waitMillis) throws IOException {
+		if (segmentBytes <= HEADER || waitMillis < 0) {
+			throw new IllegalArgumentException("Invalid order journal settings: segmentBytes=" + segmentBytes
+					+ ", waitMs=" + waitMillis);
+		}
+		this.dir = dir;
+		this.segmentBytes = segmentBytes;
+		this.waitMillis = waitMillis;
+
+		Files.createDirectories(dir);
+		lockChannel = FileChannel.open(dir.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock l;
+		try {
+			l = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			l = null;
+		}
+		if (l == null) {
+			lockChannel.close();
+			throw new IOException("Order journal " + dir + " is in use by another process");
+		}
+		lock = l;
+
+		try {
+			journalId = loadId();
+			recover();
+		} catch (IOException | RuntimeException e) {
+			lockChannel.close();
+			throw e;
+		}
+
+		applier = new Thread(this::applyAll, "pizzadb-journal-applier");
+		applier.setDaemon(true);
+		applier.start();
+	}
+
+	static OrderJournal shared() throws IOException {
+		/*
+		 * The journal DBNinja.addOrder and submitOrder write to, opened (and
+		 * recovered) on first use and closed by a shutdown hook; null unless
+		 * pizzadb.journal is set.
+		 */
+
+		if (!enabled) {
+			return null;
+		}
+		OrderJournal j = shared;
+		if (j == null) {
+			synchronized (OrderJournal.class) {
+				j = shared;
+				if (j == null) {
+					j = new OrderJournal(
+							Paths.get(System.getProperty("pizzadb.journal.dir", "pizzadb-journal")),
+							Integer.getInteger("pizzadb.journal.segmentBytes", 4 << 20),
+							Long.getLong("pizzadb.journal.waitMs", 1000L));
+					OrderJournal opened = j;
+					Runtime.getRuntime().addShutdownHook(new Thread(opened::close, "pizzadb-journal-shutdown"));
+					shared = j;
+				}
+			}
+		}
+		return j;
+	}
+
+	static boolean isEnabled() {
+		// whether DBNinja's order writes go through the journal (pizzadb.journal)
+		return enabled;
+	}
+
+	boolean addOrder(Order o) throws SQLException, IOException {
+		/*
+		 * Journals the order and waits up to waitMs for it to be applied.
+		 * Returns true once it is, with the order and its pizzas given their
+		 * ids as with DBSession.addOrder. Throws the database's error if the
+		 * order was rejected within that time, IOException if it couldn't be
+		 * journaled.
+		 *
+		 * If the order isn't applied within waitMs (or the wait is
+		 * interrupted) this returns false: the order is durable and will be
+		 * applied, but its ids are left as they were and the order is not
+		 * touched again; callers that need the id use submit() and wait on
+		 * the future.
+		 */
+
+		Entry e = journal(o);
+		try {
+			e.result.get(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			return false; // durable; the applier will get to it
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof SQLException) {
+				throw (SQLException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new SQLException("Order was rejected", cause);
+		}
+		// still ours: the applier only touches its own copy
+		copyIds(e.order, o);
+		return true;
+	}
+
+	CompletableFuture<Integer> submit(Order o) throws IOException {
+		/*
+		 * Journals the order and returns once it is on disk, with a future
+		 * for its OrderID that completes when the applier has added it, or
+		 * fails if the order is rejected. The order and its pizzas get their
+		 * ids before the future completes, so the caller hands the order
+		 * over until then. Throws IOException if the order couldn't be
+		 * journaled.
+		 */
+
+		Entry e = journal(o);
+		return e.result.thenApply(id -> {
+			copyIds(e.order, o);
+			return id;
+		});
+	}
+
+	private Entry journal(Order o) throws IOException {
+		// appends the order and returns once it is on disk
+		byte[] payload = encode(o);
+		// the applier adds its own copy, read back the way recovery would
+		Order copy = decode(payload);
+
+		Entry e;
+		DBMetrics.Call call = DBMetrics.begin("OrderJournal.append");
+		boolean succeeded = false;
+		try {
+			e = append(payload, copy);
+			sync(e.sequence);
+			succeeded = true;
+		} finally {
+			DBMetrics.end(call, succeeded);
+		}
+		return e;
+	}
+
+	private static void copyIds(Order applied, Order o) {
+		o.setOrderID(applied.getOrderID());
+		ArrayList<Pizza> mine = o.getPizzaList();
+		ArrayList<Pizza> theirs = applied.getPizzaList();
+		for (int i = 0; i < mine.size() && i < theirs.size(); i++) {
+			mine.get(i).setPizzaID(theirs.get(i).getPizzaID());
+			mine.get(i).setOrderID(theirs.get(i).getOrderID());
+		}
+	}
+
+	int getUnappliedCount() {
+		return unapplied.size();
+	}
+
+	String getJournalId() {
+		return journalId;
+	}
+
+	@Override
+	public void close() {
+		/*
+		 * Stops the applier once it finishes the entry it is on and forces
+		 * the active segment. Entries not applied yet stay in the journal
+		 * and are applied after the next open.
+		 */
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			applier.join(TimeUnit.SECONDS.toMillis(30));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			try {
+				active.buffer.force();
+				active.channel.close();
+				lock.release();
+				lockChannel.close();
+			} catch (IOException e) {
+				System.err.println("Order journal " + dir + " did not close cleanly: " + e.getMessage());
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OrderJournal [dir=" + dir + ", id=" + journalId + ", unapplied=" + unapplied.size()
+				+ ", durable=" + durableSequence + "]";
+	}
+
+	// =========================================================
+	// APPENDING
+	// =========================================================
+
+	private synchronized Entry append(byte[] payload, Order order) throws IOException {
+		if (closed) {
+			throw new IOException("Order journal " + dir + " is closed");
+		}
+		int size = HEADER + payload.length;
+		if (active.buffer.remaining() < size) {
+			roll(size);
+		}
+		long sequence = nextSequence;
+		ByteBuffer b = active.buffer;
+		b.putInt(payload.length);
+		b.putLong(sequence);
+		b.putInt(checksum(sequence, payload));
+		b.put(payload);
+		nextSequence++;
+
+		Entry e = new Entry(sequence, active, payload, order);
+		active.records++;
+		unapplied.add(e);
+		return e;
+	}
+
+	private void roll(int recordBytes) throws IOException {
+		// seal the full segment; a record bigger than a segment gets one of its own
+		Segment full = active;
+		full.buffer.force();
+		active = Segment.create(segmentPath(nextSequence), nextSequence, Math.max(segmentBytes, recordBytes));
+		full.sealed = true;
+		deleteIfApplied(full);
+	}
+
+	private void sync(long sequence) throws IOException {
+		/*
+		 * Returns once the record with this sequence is on disk. One force
+		 * covers everything appended before it, so whoever gets here first
+		 * syncs for the others.
+		 */
+
+		if (durableSequence >= sequence) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (durableSequence >= sequence) {
+				return;
+			}
+			Segment s;
+			long upTo;
+			synchronized (this) {
+				// older segments were forced when they were sealed
+				s = active;
+				upTo = nextSequence - 1;
+			}
+			s.buffer.force();
+			durableSequence = upTo;
+		}
+	}
+
+	private static int checksum(long sequence, byte[] payload) {
+		CRC32C crc = new CRC32C();
+		ByteBuffer seq = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, sequence);
+		crc.update(seq);
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	// =========================================================
+	// APPLYING
+	// =========================================================
+
+	private void applyAll() {
+		while (!closed) {
+			Entry e;
+			try {
+				e = unapplied.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			if (e != null && !apply(e)) {
+				return;
+			}
+		}
+	}
+
+	private boolean apply(Entry e) {
+		/*
+		 * Adds the entry's order to the database, retrying while the failure
+		 * looks temporary. Returns false if the journal was closed first; the
+		 * entry stays in its segment for the next open.
+		 */
+
+		long backoff = MIN_BACKOFF_MILLIS;
+		while (!closed) {
+			DBMetrics.Call call = DBMetrics.begin("OrderJournal.apply");
+			boolean succeeded = false;
+			boolean connected = false;
+			Exception failure = null;
+			try {
+				sync(e.sequence);
+				try (DBSession s = DBSession.open()) {
+					connected = true;
+					e.order.setOrderID(s.addJournaledOrder(e.order, journalId, e.sequence));
+				}
+				succeeded = true;
+			} catch (SQLException | IOException | RuntimeException ex) {
+				failure = ex;
+			} finally {
+				DBMetrics.end(call, succeeded);
+			}
+
+			if (succeeded) {
+				applied(e);
+				e.result.complete(e.order.getOrderID());
+				return true;
+			}
+			if (connected && !retryable(failure)) {
+				reject(e, failure);
+				return true;
+			}
+			if (backoff == MIN_BACKOFF_MILLIS) {
+				System.err.println("Order journal: entry " + e.sequence + " not applied yet, retrying: " + failure);
+			}
+			pause(backoff);
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+		}
+		return false;
+	}
+
+	private static boolean retryable(Exception e) {
+		// the database (or the connection to it) may come back; the order itself is fine
+		if (e instanceof IOException || e instanceof SQLTransientException || e instanceof SQLRecoverableException
+				|| e instanceof SQLNonTransientConnectionException) {
+			return true;
+		}
+		if (e instanceof SQLException) {
+			String state = ((SQLException) e).getSQLState();
+			return state != null && (state.startsWith("08") || state.startsWith("40"));
+		}
+		return false;
+	}
+
+	private void reject(Entry e, Exception failure) {
+		Path saved = saveRejected(e.sequence, e.payload);
+		System.err.println("Order journal: entry " + e.sequence + " rejected"
+				+ (saved == null ? "" : ", saved to " + saved) + ": " + failure);
+		applied(e);
+		e.result.completeExceptionally(failure);
+	}
+
+	private Path saveRejected(long sequence, byte[] payload) {
+		Path file = dir.resolve("rejected-" + sequence + ".bin");
+		try {
+			Files.write(file, payload);
+			return file;
+		} catch (IOException ex) {
+			System.err.println("Order journal: could not save rejected entry " + sequence + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	private synchronized void applied(Entry e) {
+		e.segment.applied++;
+		deleteIfApplied(e.segment);
+	}
+
+	private void deleteIfApplied(Segment s) {
+		if (!s.sealed || s.deleted || s.applied < s.records) {
+			return;
+		}
+		s.deleted = true;
+		try {
+			s.channel.close();
+			Files.deleteIfExists(s.file);
+		} catch (IOException ex) {
+			System.err.println("Order journal: could not delete " + s.file + ": " + ex.getMessage());
+		}
+	}
+
+	private void pause(long millis) {
+		long deadline = System.currentTimeMillis() + millis;
+		while (!closed) {
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) {
+				return;
+			}
+			try {
+				Thread.sleep(Math.min(left, IDLE_POLL_MILLIS));
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	// =========================================================
+	// RECOVERY
+	// =========================================================
+
+	private void recover() throws IOException {
+		/*
+		 * Queues every intact record for the applier and starts a fresh
+		 * active segment after the last one. The new segment is created
+		 * before empty old ones are deleted, so a segment file always names
+		 * the next sequence and sequences are never reused.
+		 */
+
+		ArrayList<Segment> found = new ArrayList<>();
+		long next = 1;
+		for (Path file : segmentFiles()) {
+			long first = firstSequence(file);
+			Segment s = Segment.open(file, first);
+			s.sealed = true;
+			next = Math.max(next, Math.max(first, scan(s) + 1));
+			found.add(s);
+		}
+		durableSequence = next - 1;
+
+		nextSequence = next;
+		for (Segment s : found) {
+			if (s.firstSequence == next) {
+				// empty, and about to be replaced by the new active segment
+				s.deleted = true;
+				s.channel.close();
+			}
+		}
+		active = Segment.create(segmentPath(next), next, segmentBytes);
+		for (Segment s : found) {
+			deleteIfApplied(s);
+		}
+		if (!unapplied.isEmpty()) {
+			System.out.println("Order journal " + dir + ": replaying " + unapplied.size() + " entries");
+		}
+	}
+
+	private long scan(Segment s) {
+		// queues the segment's records; returns the last sequence seen (0 if none)
+		ByteBuffer b = s.buffer;
+		int capacity = b.capacity();
+		int pos = 0;
+		long last = 0;
+		while (capacity - pos >= HEADER) {
+			int length = b.getInt(pos);
+			if (length == 0) {
+				return last;
+			}
+			if (length < 0 || length > capacity - pos - HEADER) {
+				break;
+			}
+			long sequence = b.getLong(pos + 4);
+			byte[] payload = new byte[length];
+			b.get(pos + HEADER, payload);
+			if (checksum(sequence, payload) != b.getInt(pos + 12)) {
+				break;
+			}
+			pos += HEADER + length;
+			last = sequence;
+			s.records++;
+
+			Order order;
+			try {
+				order = decode(payload);
+			} catch (IOException | RuntimeException ex) {
+				Path saved = saveRejected(sequence, payload);
+				System.err.println("Order journal: entry " + sequence + " can't be read"
+						+ (saved == null ? "" : ", saved to " + saved) + ": " + ex);
+				s.applied++;
+				continue;
+			}
+			unapplied.add(new Entry(sequence, s, payload, order));
+		}
+		if (capacity - pos < HEADER) {
+			return last; // full
+		}
+		// a torn record was never forced, so never acknowledged or applied; its sequence is reused
+		System.err.println("Order journal: " + s.file + " ends in an incomplete record at byte " + pos
+				+ "; ignoring the rest");
+		return last;
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		ArrayList<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path p : ds) {
+				files.add(p);
+			}
+		}
+		files.sort(Comparator.comparingLong(OrderJournal::firstSequence));
+		return files;
+	}
+
+	private Path segmentPath(long firstSequence) {
+		return dir.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+	}
+
+	private static long firstSequence(Path segment) {
+		String name = segment.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	private String loadId() throws IOException {
+		Path meta = dir.resolve(META);
+		Properties p = new Properties();
+		if (Files.exists(meta)) {
+			try (InputStream in = Files.newInputStream(meta)) {
+				p.load(in);
+			}
+			int format = Integer.parseInt(p.getProperty("format", "0"));
+			if (format != FORMAT) {
+				throw new IOException(meta + " has format " + format + ", expected " + FORMAT);
+			}
+			return p.getProperty("id");
+		}
+
+		String id = UUID.randomUUID().toString();
+		p.setProperty("format", Integer.toString(FORMAT));
+		p.setProperty("id", id);
+		Path tmp = dir.resolve(META + ".tmp");
+		try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		     OutputStream out = Channels.newOutputStream(ch)) {
+			p.store(out, "OrderJournal");
+			ch.force(true);
+		}
+		Files.move(tmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return id;
+	}
+
+	// =========================================================
+	// RECORD FORMAT
+	// =========================================================
+
+	static byte[] encode(Order o) throws IOException {
+		/*
+		 * Everything DBSession.addOrder reads from the order: its kind and
+		 * kind-specific field, customer, date, cent prices and completion,
+		 * then its pizzas (with toppings and discounts) and discounts.
+		 * Sizes, crusts, types and states are written as their labels.
+		 */
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(FORMAT);
+		if (o instanceof DineinOrder) {
+			out.writeByte(DINE_IN);
+			out.writeInt(((DineinOrder) o).getTableNum());
+		} else if (o instanceof PickupOrder) {
+			out.writeByte(PICKUP);
+			out.writeBoolean(((PickupOrder) o).getIsPickedUp());
+		} else if (o instanceof DeliveryOrder) {
+			out.writeByte(DELIVERY);
+			writeString(out, ((DeliveryOrder) o).getAddress());
+		} else {
+			out.writeByte(PLAIN);
+			writeString(out, o.getOrderType());
+		}
+		out.writeInt(o.getCustID());
+		writeString(out, o.getDate());
+		out.writeLong(o.getCustCents());
+		out.writeLong(o.getBusCents());
+		out.writeBoolean(o.getIsComplete());
+
+		ArrayList<Pizza> pizzas = o.getPizzaList();
+		out.writeInt(pizzas == null ? 0 : pizzas.size());
+		if (pizzas != null) {
+			for (Pizza p : pizzas) {
+				writeString(out, p.getSize());
+				writeString(out, p.getCrustType());
+				writeString(out, p.getPizzaState());
+				writeString(out, p.getPizzaDate());
+				out.writeLong(p.getCustCents());
+				out.writeLong(p.getBusCents());
+				ArrayList<Topping> toppings = p.getToppings();
+				out.writeInt(toppings == null ? 0 : toppings.size());
+				if (toppings != null) {
+					for (Topping t : toppings) {
+						out.writeInt(t.getTopID());
+						writeString(out, t.getTopName());
+						out.writeDouble(t.getSmallAMT());
+						out.writeDouble(t.getMedAMT());
+						out.writeDouble(t.getLgAMT());
+						out.writeDouble(t.getXLAMT());
+						out.writeDouble(t.getCustPrice());
+						out.writeDouble(t.getBusPrice());
+						out.writeInt(t.getMinINVT());
+						out.writeInt(t.getCurINVT());
+						out.writeBoolean(t.getDoubled());
+					}
+				}
+				writeDiscounts(out, p.getDiscounts());
+			}
+		}
+		writeDiscounts(out, o.getDiscountList());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static Order decode(byte[] payload) throws IOException {
+		/*
+		 * The order encode() wrote, without ids. Lists are set directly, not
+		 * through addToppings/addDiscount, so the prices stay as written.
+		 */
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int format = in.readByte();
+		if (format != FORMAT) {
+			throw new IOException("Journal record has format " + format + ", expected " + FORMAT);
+		}
+		byte kind = in.readByte();
+		int table = 0;
+		boolean pickedUp = false;
+		String address = null;
+		String type = null;
+		switch (kind) {
+			case DINE_IN:
+				table = in.readInt();
+				break;
+			case PICKUP:
+				pickedUp = in.readBoolean();
+				break;
+			case DELIVERY:
+				address = readString(in);
+				break;
+			case PLAIN:
+				type = readString(in);
+				break;
+			default:
+				throw new IOException("Journal record has unknown order kind " + kind);
+		}
+		int custId = in.readInt();
+		String date = readString(in);
+		double custPrice = PriceEngine.dollars(in.readLong());
+		double busPrice = PriceEngine.dollars(in.readLong());
+		boolean complete = in.readBoolean();
+
+		Order o;
+		switch (kind) {
+			case DINE_IN:
+				o = new DineinOrder(0, custId, date, custPrice, busPrice, complete, table);
+				break;
+			case PICKUP:
+				o = new PickupOrder(0, custId, date, custPrice, busPrice, pickedUp, complete);
+				break;
+			case DELIVERY:
+				o = new DeliveryOrder(0, custId, date, custPrice, busPrice, complete, address);
+				break;
+			default:
+				o = new Order(0, custId, type, date, custPrice, busPrice, complete);
+				break;
+		}
+
+		int pizzaCount = in.readInt();
+		ArrayList<Pizza> pizzas = new ArrayList<>(pizzaCount);
+		for (int i = 0; i < pizzaCount; i++) {
+			String size = readString(in);
+			String crust = readString(in);
+			String state = readString(in);
+			String pizzaDate = readString(in);
+			Pizza p = new Pizza(0, size, crust, 0, state, pizzaDate,
+					PriceEngine.dollars(in.readLong()), PriceEngine.dollars(in.readLong()));
+			int toppingCount = in.readInt();
+			ArrayList<Topping> toppings = new ArrayList<>(toppingCount);
+			for (int j = 0; j < toppingCount; j++) {
+				Topping t = new Topping(in.readInt(), readString(in), in.readDouble(), in.readDouble(),
+						in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readInt(), in.readInt());
+				t.setDoubled(in.readBoolean());
+				toppings.add(t);
+			}
+			p.setToppings(toppings);
+			p.setDiscounts(readDiscounts(in));
+			pizzas.add(p);
+		}
+		o.setPizzaList(pizzas);
+		o.setDiscountList(readDiscounts(in));
+		if (in.available() != 0) {
+			throw new IOException("Journal record has " + in.available() + " unread bytes");
+		}
+		return o;
+	}
+
+	private static void writeDiscounts(DataOutputStream out, ArrayList<Discount> discounts) throws IOException {
+		out.writeInt(discounts == null ? 0 : discounts.size());
+		if (discounts != null) {
+			for (Discount d : discounts) {
+				out.writeInt(d.getDiscountID());
+				writeString(out, d.getDiscountName());
+				out.writeDouble(d.getAmount());
+				out.writeBoolean(d.isPercent());
+			}
+		}
+	}
+
+	private static ArrayList<Discount> readDiscounts(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		ArrayList<Discount> discounts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			discounts.add(new Discount(in.readInt(), readString(in), in.readDouble(), in.readBoolean()));
+		}
+		return discounts;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	// =========================================================
+	// TYPES
+	// =========================================================
+
+	// One segment file, mapped whole.
+	private static final class Segment {
+		final Path file;
+		final long firstSequence;
+		final FileChannel channel;
+		final MappedByteBuffer buffer;
+		// guarded by the journal
+		int records;
+		int applied;
+		boolean sealed;
+		boolean deleted;
+
+		private Segment(Path file, long firstSequence, FileChannel channel, long bytes) throws IOException {
+			this.file = file;
+			this.firstSequence = firstSequence;
+			this.channel = channel;
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		static Segment create(Path file, long firstSequence, int bytes) throws IOException {
+			// an existing file of this name holds no intact records (see recover)
+			FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			try {
+				return new Segment(file, firstSequence, ch, bytes);
+			} catch (IOException | RuntimeException e) {
+				ch.close();
+				throw e;
+			}
+		}
+
+		static Segment open(Path file, long firstSequence) throws IOException {
+			FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				return new Segment(file, firstSequence, ch, Math.min(ch.size(), Integer.MAX_VALUE));
+			} catch (IOException | RuntimeException e) {
+				ch.close();
+				throw e;
+			}
+		}
+	}
+
+	// A journaled order on its way to the database.
+	private static final class Entry {
+		final long sequence;
+		final Segment segment;
+		final byte[] payload;
+		final Order order;
+		final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+		Entry(long sequence, Segment segment, byte[] payload, Order order) {
+			this.sequence = sequence;
+			this.segment = segment;
+			this.payload = payload;
+			this.order = order;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package cpsc4620;
+
+/*
+ * Order types, stored in ordertable_OrderType as a MySQL ENUM since schema
+ * migration 3. The label is the column value and the DBNinja constant
+ * (dine_in, pickup, delivery). Declaration order is the ENUM order, so only
+ * append.
+ */
+
+enum OrderType {
+	DINE_IN(DBNinja.dine_in),
+	PICKUP(DBNinja.pickup),
+	DELIVERY(DBNinja.delivery);
+
+	private static final OrderType[] VALUES = values();
+
+	final String label;
+
+	OrderType(String label) {
+		this.label = label;
+	}
+
+	static OrderType of(String label) {
+		/*
+		 * null for null or an unknown label. Case and dashes are ignored, so
+		 * the CreateOrder procedure's 'Dine-in' is DINE_IN.
+		 */
+
+		if (label != null) {
+			for (OrderType t : VALUES) {
+				if (t.label.equalsIgnoreCase(label)) {
+					return t;
+				}
+			}
+			if (label.indexOf('-') >= 0) {
+				return of(label.replace("-", ""));
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
@@ -4,27 +4,31 @@ import java.util.ArrayList;
 public class Pizza 
 {
 	private int PizzaID;
-	private String CrustType;
-	private String Size;
+	// one-byte codes for the ENUM columns; the String getters return their labels
+	private CrustType CrustType;
+	private PizzaSize Size;
 	private int OrderID;
-	private String PizzaState;
+	private PizzaState PizzaState;
 	private String PizzaDate;
-	private double CustPrice;
-	private double BusPrice;
+	// running prices in PriceEngine micros; read back rounded to cents
+	private long CustPrice;
+	private long BusPrice;
 	private ArrayList<Topping> Toppings;
 	//private boolean[] isToppingDoubled;//each index in this array will represent whether the topping at Toppings.get(index) is doubled.
 	private ArrayList<Discount> Discounts;
+	// pending load of Toppings/Discounts for pizzas read with FetchPlan.PIZZAS
+	LazyBatch<Pizza> lazyChildren;
 	
 	public Pizza(int pizzaID, String size, String crustType, int orderID, String pizzaState, String pizzaDate,
 			double custPrice, double busPrice) {
 		PizzaID = pizzaID;
-		CrustType = crustType;
-		Size = size;
+		CrustType = crust(crustType);
+		Size = size(size);
 		OrderID = orderID;
-		PizzaState = pizzaState;
+		PizzaState = state(pizzaState);
 		PizzaDate = pizzaDate;
-		CustPrice = custPrice;
-		BusPrice = busPrice;
+		CustPrice = PriceEngine.micros(custPrice);
+		BusPrice = PriceEngine.micros(busPrice);
 		Toppings = new ArrayList<Topping>();
 		//isToppingDoubled = new boolean[17];//We have 17 toppings, the array needs to be size 17. A good programmer wouldn't hard code this.
 		Discounts = new ArrayList<Discount>();
@@ -37,13 +41,13 @@ public class Pizza
 
 
 	public String getCrustType() {
-		return CrustType;
+		return CrustType == null ? null : CrustType.label;
 	}
 
 
 
 	public String getSize() {
-		return Size;
+		return Size == null ? null : Size.label;
 	}
 
 
@@ -55,7 +59,7 @@ public class Pizza
 
 
 	public String getPizzaState() {
-		return PizzaState;
+		return PizzaState == null ? null : PizzaState.label;
 	}
 
 
@@ -67,27 +71,57 @@ public class Pizza
 
 
 	public double getCustPrice() {
-		return CustPrice;
+		return PriceEngine.dollars(getCustCents());
 	}
 
 
 
 	public double getBusPrice() {
-		return BusPrice;
+		return PriceEngine.dollars(getBusCents());
+	}
+
+	PizzaSize getPizzaSize() {
+		return Size;
+	}
+
+	CrustType getCrust() {
+		return CrustType;
+	}
+
+	PizzaState getState() {
+		return PizzaState;
+	}
+
+	long getCustCents() {
+		// what pizza_CustPrice stores
+		return PriceEngine.toCents(Math.max(0L, CustPrice));
+	}
+
+	long getBusCents() {
+		return PriceEngine.toCents(Math.max(0L, BusPrice));
 	}
 
 
 
 	public ArrayList<Topping> getToppings() {
+		loadChildren();
 		return Toppings;
 	}
 
 
 
 	public ArrayList<Discount> getDiscounts() {
+		loadChildren();
 		return Discounts;
 	}
 
+	private void loadChildren() {
+		LazyBatch<Pizza> batch = lazyChildren;
+		if (batch != null) {
+			batch.load();
+		}
+	}
+
 
 
 	public void setPizzaID(int pizzaID) {
@@ -97,13 +131,13 @@ public class Pizza
 
 
 	public void setCrustType(String crustType) {
-		CrustType = crustType;
+		CrustType = crust(crustType);
 	}
 
 
 
 	public void setSize(String size) {
-		Size = size;
+		Size = size(size);
 	}
 
 
@@ -115,7 +149,7 @@ public class Pizza
 
 
 	public void setPizzaState(String pizzaState) {
-		PizzaState = pizzaState;
+		PizzaState = state(pizzaState);
 	}
 
 
@@ -127,13 +161,13 @@ public class Pizza
 
 
 	public void setCustPrice(double custPrice) {
-		CustPrice = custPrice;
+		CustPrice = PriceEngine.micros(custPrice);
 	}
 
 
 
 	public void setBusPrice(double busPrice) {
-		BusPrice = busPrice;
+		BusPrice = PriceEngine.micros(busPrice);
 	}
 
 
@@ -148,46 +182,42 @@ public class Pizza
 
 	public void addToppings(Topping t, boolean isExtra)
 	{
-		Toppings.add(t);
-
-		double unitsNeeded = 0.0;
-
-		if (Size.equals(DBNinja.size_s)) {
-			unitsNeeded = t.getSmallAMT();
-		} else if (Size.equals(DBNinja.size_m)) {
-			unitsNeeded = t.getMedAMT();
-		} else if (Size.equals(DBNinja.size_l)) {
-			unitsNeeded = t.getXLAMT();
-		} else {
-			unitsNeeded = t.getXLAMT();
-		}
-
-
-		//also add to the prices of the pizza
-		if(isExtra)
-		{
-			this.BusPrice += unitsNeeded*t.getBusPrice()*2;
-			this.CustPrice += unitsNeeded*t.getCustPrice()*2;
-		}
-		else
-		{
-			this.BusPrice += unitsNeeded*t.getBusPrice();
-			this.CustPrice += unitsNeeded*t.getCustPrice();
-		}
+		getToppings().add(t);
+		t.setDoubled(isExtra);//the flag is what gets stored and what the price is checked against
 
+		//also add to the prices of the pizza (amount for this size, twice if extra)
+		this.BusPrice += PriceEngine.toppingMicros(t, Size, isExtra, false);
+		this.CustPrice += PriceEngine.toppingMicros(t, Size, isExtra, true);
 	}
 	
 	public void addDiscounts(Discount d)
 	{
-		Discounts.add(d);
-		if(d.isPercent())
-		{
-			this.CustPrice = (this.CustPrice*(1-d.getAmount()/100.0));
+		getDiscounts().add(d);
+		this.CustPrice = PriceEngine.applyDiscount(this.CustPrice, d);
+	}
+
+	private static PizzaSize size(String label) {
+		PizzaSize s = PizzaSize.of(label);
+		if (s == null && label != null) {
+			throw new IllegalArgumentException("Unknown pizza size: " + label);
 		}
-		else
-		{
-			this.CustPrice -= d.getAmount();
+		return s;
+	}
+
+	private static CrustType crust(String label) {
+		CrustType c = cpsc4620.CrustType.of(label);
+		if (c == null && label != null) {
+			throw new IllegalArgumentException("Unknown crust type: " + label);
+		}
+		return c;
+	}
+
+	private static PizzaState state(String label) {
+		PizzaState s = cpsc4620.PizzaState.of(label);
+		if (s == null && label != null) {
+			throw new IllegalArgumentException("Unknown pizza state: " + label);
 		}
+		return s;
 	}
 
 //	public void modifyDoubledArray(int index, boolean b)
@@ -203,8 +233,8 @@ public class Pizza
 	@Override
 	public String toString() {
 		return "PizzaID=" + PizzaID + " | CrustType= " + CrustType + ", Size= " + Size + " | For order " + OrderID
-				+ " | Pizza Status: " + PizzaState + ", as of " + PizzaDate + " | Customer Price= " + CustPrice + " | Business Price= "
-				+ BusPrice;
+				+ " | Pizza Status: " + PizzaState + ", as of " + PizzaDate + " | Customer Price= " + getCustPrice() + " | Business Price= "
+				+ getBusPrice();
 	}
 
 }
@@ -0,0 +1,41 @@
+package cpsc4620;
+
+/*
+ * Pizza sizes, stored in pizza_Size / baseprice_Size as a MySQL ENUM (one
+ * byte) since schema migration 3. The label is the column value and the
+ * DBNinja size_* constant. Declaration order is the ENUM order and the index
+ * PriceMatrix and ReferenceData use, so only append.
+ */
+
+enum PizzaSize {
+	SMALL(DBNinja.size_s),
+	MEDIUM(DBNinja.size_m),
+	LARGE(DBNinja.size_l),
+	XLARGE(DBNinja.size_xl);
+
+	private static final PizzaSize[] VALUES = values();
+	static final int COUNT = VALUES.length;
+
+	final String label;
+
+	PizzaSize(String label) {
+		this.label = label;
+	}
+
+	static PizzaSize of(String label) {
+		// null for null or an unknown label; case-insensitive like the column
+		if (label != null) {
+			for (PizzaSize s : VALUES) {
+				if (s.label.equalsIgnoreCase(label)) {
+					return s;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
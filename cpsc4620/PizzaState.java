@@ -0,0 +1,37 @@
+package cpsc4620;
+
+/*
+ * Pizza states, stored in pizza_PizzaState as a MySQL ENUM since schema
+ * migration 3. The label is the column value. Declaration order is the ENUM
+ * order, so only append.
+ */
+
+enum PizzaState {
+	IN_PROGRESS("In Progress"),
+	COMPLETED("completed");
+
+	private static final PizzaState[] VALUES = values();
+
+	final String label;
+
+	PizzaState(String label) {
+		this.label = label;
+	}
+
+	static PizzaState of(String label) {
+		// null for null or an unknown label; case-insensitive like the column
+		if (label != null) {
+			for (PizzaState s : VALUES) {
+				if (s.label.equalsIgnoreCase(label)) {
+					return s;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
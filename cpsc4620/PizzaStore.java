@@ -0,0 +1,133 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * The storage operations behind DBNinja's public API.
+ *
+ * DBNinja delegates every order, customer, catalog, inventory and report
+ * call to one PizzaStore, chosen with -Dpizzadb.store:
+ *
+ *   mysql     the PizzaDB schema over JDBC (the default; see MySqlStore)
+ *   embedded  an in-process engine with its own files (see EmbeddedStore)
+ *
+ * or installed with DBNinja.setStore. Implementations must behave the same
+ * as seen through these methods: the same ids, orderings, prices, errors
+ * and report rows. Errors are SQLExceptions either way, with the subclass
+ * MySQL would raise where that matters (a missing foreign key is an
+ * SQLIntegrityConstraintViolationException, a mispriced pizza an
+ * SQLDataException); IOException is for the store's own I/O.
+ *
+ * Returned objects are the caller's to change; nothing the caller does to
+ * them changes the store.
+ *
+ * The admin calls at the end (report source, reference data cache, order
+ * intake) tune or describe MySQL machinery; a store without that machinery
+ * ignores them and says so in its stats. The order journal and the metrics
+ * stay on DBNinja.
+ */
+
+public interface PizzaStore extends AutoCloseable {
+
+	// =========================================================
+	// WRITES
+	// =========================================================
+
+	// true once the order is saved with its ids; false if it was accepted
+	// durably but not saved yet (MySqlStore with the order journal on)
+	boolean addOrder(Order o) throws SQLException, IOException;
+
+	CompletableFuture<Integer> submitOrder(Order o) throws SQLException;
+
+	int addPizza(java.util.Date d, int orderID, Pizza p) throws SQLException, IOException;
+
+	int addCustomer(Customer c) throws SQLException, IOException;
+
+	void completeOrder(int orderID, DBNinja.order_state newState) throws SQLException, IOException;
+
+	void addToInventory(int toppingID, double quantity) throws SQLException, IOException;
+
+	// =========================================================
+	// ORDERS
+	// =========================================================
+
+	ArrayList<Order> getOrders(int status, FetchPlan plan) throws SQLException, IOException;
+
+	ArrayList<Order> getOrdersAfter(int status, int afterOrderID, int limit, FetchPlan plan)
+			throws SQLException, IOException;
+
+	Order getOrder(int orderID) throws SQLException, IOException;
+
+	Order getLastOrder() throws SQLException, IOException;
+
+	ArrayList<Order> getOrdersByDate(String date, FetchPlan plan) throws SQLException, IOException;
+
+	ArrayList<Order> getOrdersBetween(java.util.Date from, java.util.Date to, FetchPlan plan)
+			throws SQLException, IOException;
+
+	ArrayList<Pizza> getPizzas(Order o) throws SQLException, IOException;
+
+	ArrayList<Discount> getDiscounts(Order o) throws SQLException, IOException;
+
+	ArrayList<Discount> getDiscounts(Pizza p) throws SQLException, IOException;
+
+	ArrayList<Topping> getToppingsOnPizza(Pizza p) throws SQLException, IOException;
+
+	// =========================================================
+	// CUSTOMERS
+	// =========================================================
+
+	ArrayList<Customer> getCustomerList() throws SQLException, IOException;
+
+	Customer findCustomerByPhone(String phoneNumber) throws SQLException, IOException;
+
+	String getCustomerName(int custID) throws SQLException, IOException;
+
+	Map<Integer, String> getCustomerNames(List<Integer> custIDs) throws SQLException, IOException;
+
+	// =========================================================
+	// CATALOG
+	// =========================================================
+
+	ArrayList<Discount> getDiscountList() throws SQLException, IOException;
+
+	Discount findDiscountByName(String name) throws SQLException, IOException;
+
+	ArrayList<Topping> getToppingList() throws SQLException, IOException;
+
+	Topping findToppingByName(String name) throws SQLException, IOException;
+
+	double getBaseCustPrice(String size, String crust) throws SQLException, IOException;
+
+	double getBaseBusPrice(String size, String crust) throws SQLException, IOException;
+
+	// =========================================================
+	// REPORTS AND ADMIN
+	// =========================================================
+
+	void printToppingReport() throws SQLException, IOException;
+
+	void printProfitByPizzaReport() throws SQLException, IOException;
+
+	void printProfitByOrderTypeReport() throws SQLException, IOException;
+
+	int migrateSchema() throws SQLException, IOException;
+
+	void rebuildReportSummaries() throws SQLException, IOException;
+
+	void setReportSource(ReportSource source);
+
+	void invalidateReferenceData();
+
+	String getReferenceDataStats();
+
+	String getOrderIntakeStats();
+
+	@Override
+	void close() throws SQLException, IOException;
+}
@@ -0,0 +1,152 @@
+package cpsc4620;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+/*
+ * Fixed-point price arithmetic for pizzas and orders.
+ *
+ * Every price, topping amount and discount in the schema is a DECIMAL(5,2),
+ * so each one is an exact whole number of hundredths. Running totals are
+ * kept in micros (millionths of a dollar, 10,000 per cent): a topping's
+ * amount times its unit price is exact at that scale, and percentage
+ * discounts (hundredths of a percent, i.e. basis points) round once per
+ * discount, half away from zero, at a millionth of a dollar. A finished
+ * price is rounded to cents the way MySQL rounds an exact value into a
+ * DECIMAL(5,2) column, half away from zero, and that cent value is what gets
+ * stored. So the price Java shows and the price in the table are the same
+ * number, with no epsilon.
+ *
+ * Pizza: base price, plus each topping's amount for the size times its unit
+ * price (twice if doubled), then the pizza's discounts in the order they
+ * were added. Never below zero (ValidatePizzaPrice rejects it). Discounts
+ * apply to the customer price only.
+ *
+ * Order: the sum of its pizzas' cent prices, minus all $ discounts, times
+ * every % discount, never below zero. This is the ProfitByOrderType
+ * view's per-order expression, so an order's price matches its row in the
+ * view. The view's EXP(SUM(LN())) is floating point, so at an exact
+ * half-cent tie the view's own rounding may differ by a cent; the stored
+ * value is the one computed here.
+ *
+ * Nothing here allocates or boxes. Lists are walked by index, so Pizza and
+ * Order can requote on every change. PriceMatrix precompiles the catalog
+ * side of a pizza quote.
+ */
+
+final class PriceEngine {
+
+	static final long MICROS_PER_CENT = 10_000L;
+	private static final long BASIS_POINTS = 10_000L;
+
+	private PriceEngine() {
+	}
+
+	// =========================================================
+	// CONVERSIONS
+	// =========================================================
+
+	static long hundredths(double decimal52) {
+		// a value read from a DECIMAL(x,2) column, as an exact count of hundredths
+		return Math.round(decimal52 * 100.0);
+	}
+
+	static long micros(double dollars) {
+		return hundredths(dollars) * MICROS_PER_CENT;
+	}
+
+	static long toCents(long micros) {
+		// half away from zero, like MySQL storing an exact value into DECIMAL(,2)
+		long half = MICROS_PER_CENT / 2;
+		return micros >= 0 ? (micros + half) / MICROS_PER_CENT : -((-micros + half) / MICROS_PER_CENT);
+	}
+
+	static double dollars(long cents) {
+		return cents / 100.0;
+	}
+
+	static BigDecimal decimal(long cents) {
+		// for binding to a DECIMAL(,2) column
+		return BigDecimal.valueOf(cents, 2);
+	}
+
+	// =========================================================
+	// PIECES
+	// =========================================================
+
+	static long toppingMicros(Topping t, PizzaSize size, boolean doubled, boolean customer) {
+		/*
+		 * What one topping adds to a pizza of the given size. amount is in
+		 * hundredths of a unit and price in cents per unit, so their product
+		 * is in hundredths of a cent.
+		 */
+
+		long amount = hundredths(DBSession.toppingUnitsForSize(t, size));
+		long price = hundredths(customer ? t.getCustPrice() : t.getBusPrice());
+		long cost = amount * price * (MICROS_PER_CENT / 100);
+		return doubled ? 2 * cost : cost;
+	}
+
+	static long applyDiscount(long micros, Discount d) {
+		if (d.isPercent()) {
+			return percentOff(micros, hundredths(d.getAmount()));
+		}
+		return micros - hundredths(d.getAmount()) * MICROS_PER_CENT;
+	}
+
+	static long percentOff(long micros, long basisPoints) {
+		long scaled = micros * (BASIS_POINTS - basisPoints);
+		long half = BASIS_POINTS / 2;
+		return scaled >= 0 ? (scaled + half) / BASIS_POINTS : -((-scaled + half) / BASIS_POINTS);
+	}
+
+	// =========================================================
+	// QUOTES
+	// =========================================================
+
+	static long orderMicros(long pizzaTotalMicros, ArrayList<Discount> discounts) {
+		/*
+		 * Order price from its pizzas' total: $ discounts first, then %
+		 * discounts, floored at zero, like the ProfitByOrderType view.
+		 */
+
+		long total = pizzaTotalMicros;
+		if (discounts != null) {
+			for (int i = 0; i < discounts.size(); i++) {
+				Discount d = discounts.get(i);
+				if (!d.isPercent()) {
+					total -= hundredths(d.getAmount()) * MICROS_PER_CENT;
+				}
+			}
+			for (int i = 0; i < discounts.size(); i++) {
+				Discount d = discounts.get(i);
+				if (d.isPercent()) {
+					total = percentOff(total, hundredths(d.getAmount()));
+				}
+			}
+		}
+		return Math.max(0L, total);
+	}
+
+	static long pizzaTotalMicros(ArrayList<Pizza> pizzas, boolean customer) {
+		// sum of the pizzas' stored (cent) prices
+		long cents = 0;
+		for (int i = 0; i < pizzas.size(); i++) {
+			Pizza p = pizzas.get(i);
+			cents += customer ? p.getCustCents() : p.getBusCents();
+		}
+		return cents * MICROS_PER_CENT;
+	}
+
+	static long doubledMask(ArrayList<Topping> toppings) {
+		long mask = 0;
+		if (toppings != null) {
+			for (int i = 0; i < toppings.size() && i < 64; i++) {
+				if (toppings.get(i).getDoubled()) {
+					mask |= 1L << i;
+				}
+			}
+		}
+		return mask;
+	}
+}
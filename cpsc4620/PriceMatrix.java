@@ -0,0 +1,193 @@
+package cpsc4620;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * The baseprice and topping tables compiled into flat arrays of PriceEngine
+ * micros, so a pizza can be priced without maps, strings or the database.
+ *
+ *   base:    [size][crust]                  customer and business price
+ *   topping: [topping slot][size][doubled]  customer and business price
+ *
+ * Sizes and crusts are indexed by their enum ordinals. A (size, crust) pair
+ * that isn't in baseprice, or a pizza without a size or crust, prices at 0
+ * like ReferenceData does; no size uses the XLarge topping amounts like
+ * DBSession.toppingUnitsForSize. Topping ids map
+ * to slots through a dense id-indexed array (a sorted id list if the ids are
+ * too sparse for that). A topping that isn't in the catalog is priced from
+ * its own fields.
+ *
+ * One matrix is compiled per ReferenceData snapshot, so it is replaced
+ * whenever the catalog is invalidated.
+ */
+
+final class PriceMatrix {
+
+	private static final int SIZES = PizzaSize.COUNT;
+	private static final int CRUSTS = CrustType.COUNT;
+	private static final int XL = PizzaSize.XLARGE.ordinal();
+	// largest topping id kept in a dense lookup array
+	private static final int DENSE_ID_LIMIT = 1 << 16;
+
+	private final long[] baseCust = new long[SIZES * CRUSTS];
+	private final long[] baseBus = new long[SIZES * CRUSTS];
+	private final long[] toppingCust;
+	private final long[] toppingBus;
+	// topping id -> slot + 1 (0 = unknown), or null when ids are sparse
+	private final int[] slotById;
+	// sorted topping ids, slot = position, when slotById is null
+	private final int[] sortedIds;
+
+	private PriceMatrix(int toppings, int[] slotById, int[] sortedIds) {
+		this.toppingCust = new long[toppings * SIZES * 2];
+		this.toppingBus = new long[toppings * SIZES * 2];
+		this.slotById = slotById;
+		this.sortedIds = sortedIds;
+	}
+
+	static PriceMatrix compile(ReferenceData.Snapshot ref, List<Topping> catalog) {
+		int maxId = 0;
+		int[] ids = new int[catalog.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = catalog.get(i).getTopID();
+			maxId = Math.max(maxId, ids[i]);
+		}
+		Arrays.sort(ids);
+
+		int[] slotById = null;
+		if (maxId < DENSE_ID_LIMIT) {
+			slotById = new int[maxId + 1];
+			for (int i = 0; i < ids.length; i++) {
+				slotById[ids[i]] = i + 1;
+			}
+		}
+		PriceMatrix m = new PriceMatrix(ids.length, slotById, ids);
+
+		for (PizzaSize s : PizzaSize.values()) {
+			for (CrustType c : CrustType.values()) {
+				int i = s.ordinal() * CRUSTS + c.ordinal();
+				m.baseCust[i] = PriceEngine.micros(ref.baseCustPrice(s, c));
+				m.baseBus[i] = PriceEngine.micros(ref.baseBusPrice(s, c));
+			}
+		}
+		for (Topping t : catalog) {
+			int slot = m.slot(t.getTopID());
+			for (PizzaSize s : PizzaSize.values()) {
+				for (int d = 0; d < 2; d++) {
+					int i = (slot * SIZES + s.ordinal()) * 2 + d;
+					m.toppingCust[i] = PriceEngine.toppingMicros(t, s, d == 1, true);
+					m.toppingBus[i] = PriceEngine.toppingMicros(t, s, d == 1, false);
+				}
+			}
+		}
+		return m;
+	}
+
+	// =========================================================
+	// LOOKUPS
+	// =========================================================
+
+	static int sizeIndex(PizzaSize size) {
+		return size == null ? -1 : size.ordinal();
+	}
+
+	static int crustIndex(CrustType crust) {
+		return crust == null ? -1 : crust.ordinal();
+	}
+
+	private int slot(int topId) {
+		if (slotById != null) {
+			return topId >= 0 && topId < slotById.length ? slotById[topId] - 1 : -1;
+		}
+		int i = Arrays.binarySearch(sortedIds, topId);
+		return i >= 0 ? i : -1;
+	}
+
+	long baseMicros(int size, int crust, boolean customer) {
+		if (size < 0 || crust < 0) {
+			return 0;
+		}
+		return (customer ? baseCust : baseBus)[size * CRUSTS + crust];
+	}
+
+	long toppingMicros(Topping t, PizzaSize size, boolean doubled, boolean customer) {
+		int slot = slot(t.getTopID());
+		if (slot < 0) {
+			return PriceEngine.toppingMicros(t, size, doubled, customer);
+		}
+		int s = size == null ? XL : size.ordinal();
+		return (customer ? toppingCust : toppingBus)[(slot * SIZES + s) * 2 + (doubled ? 1 : 0)];
+	}
+
+	// =========================================================
+	// PIZZAS
+	// =========================================================
+
+	long quote(Pizza p, boolean customer) {
+		// unrounded price from the pizza's own double flags
+		return quote(p, PriceEngine.doubledMask(p.getToppings()), customer);
+	}
+
+	long quote(Pizza p, long doubledMask, boolean customer) {
+		/*
+		 * Same arithmetic as Pizza.addToppings/addDiscounts, from scratch:
+		 * base, toppings (bit i of doubledMask doubles toppings.get(i); past
+		 * the 64th their own flag), then the customer price's discounts.
+		 */
+
+		PizzaSize size = p.getPizzaSize();
+		long total = baseMicros(sizeIndex(size), crustIndex(p.getCrust()), customer);
+		ArrayList<Topping> toppings = p.getToppings();
+		if (toppings != null) {
+			for (int i = 0; i < toppings.size(); i++) {
+				Topping t = toppings.get(i);
+				boolean doubled = i < 64 ? (doubledMask & (1L << i)) != 0 : t.getDoubled();
+				total += toppingMicros(t, size, doubled, customer);
+			}
+		}
+		ArrayList<Discount> discounts = p.getDiscounts();
+		if (customer && discounts != null) {
+			for (int i = 0; i < discounts.size(); i++) {
+				total = PriceEngine.applyDiscount(total, discounts.get(i));
+			}
+		}
+		return Math.max(0L, total);
+	}
+
+	boolean matches(Pizza p) {
+		// the pizza's cent prices are what its toppings and flags cost
+		return PriceEngine.toCents(quote(p, true)) == p.getCustCents()
+				&& PriceEngine.toCents(quote(p, false)) == p.getBusCents();
+	}
+
+	boolean inferDoubles(Pizza p) {
+		/*
+		 * For pizzas built without double flags (older callers that priced
+		 * extra toppings but never flagged them): going down the list, marks
+		 * a topping double if the pizza quoted with it doubled still doesn't
+		 * exceed the pizza's price. Returns whether the result matches.
+		 */
+
+		ArrayList<Topping> toppings = p.getToppings();
+		if (toppings == null) {
+			return matches(p);
+		}
+		long custCents = p.getCustCents();
+		long busCents = p.getBusCents();
+		long doubled = PriceEngine.doubledMask(toppings);
+		for (int i = 0; i < toppings.size() && i < 64; i++) {
+			long trial = doubled | (1L << i);
+			if (trial == doubled) {
+				continue;
+			}
+			if (PriceEngine.toCents(quote(p, trial, true)) <= custCents
+					&& PriceEngine.toCents(quote(p, trial, false)) <= busCents) {
+				toppings.get(i).setDoubled(true);
+				doubled = trial;
+			}
+		}
+		return matches(p);
+	}
+}
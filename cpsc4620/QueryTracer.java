@@ -0,0 +1,386 @@
+package cpsc4620;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/*
+ * Optional tracing layer around the physical connections DBConnector opens.
+ *
+ * With -Dpizzadb.trace=true every statement prepared or created on a
+ * connection is wrapped, and each execution is timed. An execution slower
+ * than slowMs is written to the log as SLOW; of the rest, a sampleRate
+ * fraction is written as SAMPLE. Each line has:
+ *
+ *   - the SQL text and its bind parameters (redacted, see below)
+ *   - exec: time spent in execute*(); total: until the result set was read
+ *     to the end or closed, so slow row-by-row consumers show up too
+ *   - rows read from the result, or the update count
+ *   - op: the DBNinja call it ran under, or - when metrics are off (see
+ *     DBMetrics)
+ *   - at: the first frame outside the JDBC/pool layers, e.g.
+ *     OrderHydrator.loadToppings(OrderHydrator.java:142), which tells the
+ *     many small hydration queries apart
+ *
+ * The call site is only looked up for lines that get written.
+ *
+ * Bind parameters: with redact=strings (the default) string and byte
+ * values are written as <n chars>, since they carry customer names, phone
+ * numbers and addresses; numbers, dates and nulls are written as is.
+ * redact=all hides every value, redact=none hides nothing.
+ *
+ * The wrapping happens below the pool, so the statement cache holds traced
+ * statements and the trace sees the real executions. Without
+ * pizzadb.trace the connections are returned untouched and cost nothing.
+ *
+ * Settings (system properties):
+ *   pizzadb.trace             wrap connections (false)
+ *   pizzadb.trace.slowMs      executions at least this slow are logged as SLOW (100)
+ *   pizzadb.trace.sampleRate  fraction of the other executions logged as SAMPLE (0.0)
+ *   pizzadb.trace.log         log file, appended to (pizzadb-trace.log)
+ *   pizzadb.trace.redact      strings, all or none (strings)
+ */
+
+final class QueryTracer {
+
+	private static final boolean enabled = Boolean.getBoolean("pizzadb.trace");
+	private static final long slowNanos = Long.getLong("pizzadb.trace.slowMs", 100L) * 1_000_000L;
+	private static final double sampleRate = Double.parseDouble(System.getProperty("pizzadb.trace.sampleRate", "0.0"));
+	private static final String logFile = System.getProperty("pizzadb.trace.log", "pizzadb-trace.log");
+	private static final String redact = System.getProperty("pizzadb.trace.redact", "strings");
+
+	// classes between the caller and the driver; their nested classes (proxy handlers) count too
+	private static final Set<String> plumbing = Set.of(
+			QueryTracer.class.getName(), StatementCache.class.getName(), ConnectionPool.class.getName(),
+			DBMetrics.class.getName(), CountingResultSet.class.getName());
+
+	private static final Object logLock = new Object();
+	private static BufferedWriter log;
+	private static boolean logFailed;
+
+	private QueryTracer() {
+	}
+
+	static Connection wrap(Connection raw) {
+		if (!enabled || raw == null) {
+			return raw;
+		}
+		return trace(raw);
+	}
+
+	static Connection trace(Connection raw) {
+		// wraps raw whether or not pizzadb.trace is set
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[]{Connection.class}, new TracedConnection(raw));
+	}
+
+	// =========================================================
+	// PROXIES
+	// =========================================================
+
+	private static final class TracedConnection implements InvocationHandler {
+		private final Connection raw;
+
+		TracedConnection(Connection raw) {
+			this.raw = raw;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			}
+			if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			Object result;
+			try {
+				result = method.invoke(raw, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			switch (method.getName()) {
+				case "prepareStatement":
+				case "prepareCall":
+					return traced(method.getReturnType(), result, (String) args[0]);
+				case "createStatement":
+					return traced(Statement.class, result, null);
+				default:
+					return result;
+			}
+		}
+	}
+
+	private static Object traced(Class<?> type, Object statement, String sql) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+				new Traced((Statement) statement, sql));
+	}
+
+	// A statement and the parameters currently bound to it.
+	private static final class Traced implements InvocationHandler {
+		private final Statement statement;
+		private final String sql;
+		private final ArrayList<Object> params = new ArrayList<>();
+		private int batched;
+
+		Traced(Statement statement, String sql) {
+			this.statement = statement;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("execute")) {
+				return execute(method, args);
+			}
+			if (name.equals("equals")) {
+				return proxy == args[0];
+			}
+			if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+			Object result;
+			try {
+				result = method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+					&& statement instanceof PreparedStatement) {
+				bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+			} else if (name.equals("clearParameters")) {
+				params.clear();
+			} else if (name.equals("addBatch")) {
+				batched++;
+			} else if (name.equals("clearBatch")) {
+				batched = 0;
+			}
+			return result;
+		}
+
+		private void bind(int index, Object value) {
+			while (params.size() < index) {
+				params.add(null);
+			}
+			params.set(index - 1, value);
+		}
+
+		private Object execute(Method method, Object[] args) throws Throwable {
+			String text = sql != null ? sql : (args != null && args.length > 0 ? (String) args[0] : "(batch)");
+			// formatted only if the line gets written
+			Bound bound = new Bound(params.toArray(), batched);
+			batched = 0;
+			boolean sampled = sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				long elapsed = System.nanoTime() - start;
+				write("FAILED", text, bound, elapsed, elapsed, -1, e.getCause().toString());
+				throw e.getCause();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			if (result instanceof ResultSet) {
+				return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+						new TracedResult((ResultSet) result, text, bound, start, elapsed, sampled));
+			}
+			long rows = -1;
+			if (result instanceof Integer || result instanceof Long) {
+				rows = ((Number) result).longValue();
+			} else if (result instanceof int[]) {
+				rows = 0;
+				for (int n : (int[]) result) {
+					rows += Math.max(n, 0);
+				}
+			}
+			finish(text, bound, elapsed, elapsed, rows, sampled);
+			return result;
+		}
+	}
+
+	// Parameters bound at execute time (the last set, for a batch).
+	private static final class Bound {
+		final Object[] values;
+		final int batched;
+
+		Bound(Object[] values, int batched) {
+			this.values = values;
+			this.batched = batched;
+		}
+	}
+
+	// Counts rows and logs the execution once the result is exhausted or closed.
+	private static final class TracedResult implements InvocationHandler {
+		private final ResultSet rs;
+		private final String sql;
+		private final Bound params;
+		private final long started;
+		private final long execNanos;
+		private final boolean sampled;
+		private long rows;
+		private boolean done;
+
+		TracedResult(ResultSet rs, String sql, Bound params, long started, long execNanos, boolean sampled) {
+			this.rs = rs;
+			this.sql = sql;
+			this.params = params;
+			this.started = started;
+			this.execNanos = execNanos;
+			this.sampled = sampled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			Object result;
+			try {
+				result = method.invoke(rs, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			String name = method.getName();
+			if (name.equals("next")) {
+				if (Boolean.TRUE.equals(result)) {
+					rows++;
+				} else {
+					done();
+				}
+			} else if (name.equals("close")) {
+				done();
+			}
+			return result;
+		}
+
+		private void done() {
+			if (!done) {
+				done = true;
+				finish(sql, params, execNanos, System.nanoTime() - started, rows, sampled);
+			}
+		}
+	}
+
+	// =========================================================
+	// LOGGING
+	// =========================================================
+
+	private static void finish(String sql, Bound params, long execNanos, long totalNanos, long rows, boolean sampled) {
+		if (totalNanos >= slowNanos) {
+			write("SLOW", sql, params, execNanos, totalNanos, rows, null);
+		} else if (sampled) {
+			write("SAMPLE", sql, params, execNanos, totalNanos, rows, null);
+		}
+	}
+
+	private static void write(String kind, String sql, Bound params, long execNanos, long totalNanos,
+			long rows, String error) {
+		StringBuilder line = new StringBuilder(256);
+		line.append(LocalDateTime.now()).append(' ').append(kind)
+				.append(String.format(" exec=%.3fms total=%.3fms", execNanos / 1e6, totalNanos / 1e6));
+		if (rows >= 0) {
+			line.append(" rows=").append(rows);
+		}
+		String op = DBMetrics.currentOperation();
+		line.append(" op=").append(op == null ? "-" : op);
+		line.append(" at=").append(callSite());
+		line.append(" sql=[").append(sql.replaceAll("\\s+", " ").trim()).append(']');
+		if (params.values.length > 0) {
+			line.append(" params=").append(describe(params.values));
+		}
+		if (params.batched > 0) {
+			line.append(" batched=").append(params.batched);
+		}
+		if (error != null) {
+			line.append(" error=").append(error);
+		}
+
+		synchronized (logLock) {
+			if (logFailed) {
+				return;
+			}
+			try {
+				if (log == null) {
+					log = Files.newBufferedWriter(Paths.get(logFile), StandardCharsets.UTF_8,
+							StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+				}
+				log.write(line.toString());
+				log.newLine();
+				log.flush();
+			} catch (IOException e) {
+				logFailed = true;
+				System.err.println("Query trace log " + logFile + " disabled: " + e.getMessage());
+			}
+		}
+	}
+
+	private static String callSite() {
+		return StackWalker.getInstance().walk(QueryTracer::callSite);
+	}
+
+	static String callSite(Stream<StackWalker.StackFrame> frames) {
+		// the first of our frames, innermost first, that isn't plumbing
+		return frames
+				.filter(f -> f.getClassName().startsWith("cpsc4620.") && !plumbing.contains(outerClass(f.getClassName())))
+				.findFirst()
+				.map(f -> simpleName(f.getClassName()) + "." + f.getMethodName()
+						+ "(" + f.getFileName() + ":" + f.getLineNumber() + ")")
+				.orElse("-");
+	}
+
+	private static String outerClass(String className) {
+		int nested = className.indexOf('$');
+		return nested < 0 ? className : className.substring(0, nested);
+	}
+
+	private static String simpleName(String className) {
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+
+	private static String describe(Object[] params) {
+		StringBuilder out = new StringBuilder("[");
+		for (int i = 0; i < params.length; i++) {
+			if (i > 0) {
+				out.append(", ");
+			}
+			out.append(redacted(params[i]));
+		}
+		return out.append(']').toString();
+	}
+
+	private static String redacted(Object value) {
+		if (value == null) {
+			return "NULL";
+		}
+		if (redact.equals("none")) {
+			return value instanceof String ? "'" + value + "'" : String.valueOf(value);
+		}
+		if (value instanceof CharSequence) {
+			return "<" + ((CharSequence) value).length() + " chars>";
+		}
+		if (value instanceof byte[]) {
+			return "<" + ((byte[]) value).length + " bytes>";
+		}
+		if (redact.equals("all")) {
+			return "?";
+		}
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,269 @@
+package cpsc4620;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Read-mostly cache of the baseprice, topping and discount tables.
+ *
+ * The three tables are loaded together into an immutable Snapshot tagged with
+ * the version it was read at. invalidate() bumps the version; the next lookup
+ * sees its snapshot is out of date and reloads it on the caller's connection.
+ * A load that races with an invalidate() keeps the old version number, so it
+ * is thrown away on the next lookup rather than served as current.
+ *
+ * Topping and Discount are mutable (Pizza.addToppings sets the double flag),
+ * so every lookup hands out copies and the snapshot itself is never exposed.
+ * Each snapshot also carries the PriceMatrix compiled from its prices.
+ *
+ * Topping stock (topping_CurINVT) is not part of a snapshot: it changes with
+ * every order, and caching it would invalidate the cache on every write.
+ * Toppings in a snapshot have CurINVT 0; DBSession reads the live value
+ * where a caller needs it.
+ *
+ * Name lookups ignore case, matching MySQL's default collation.
+ */
+
+final class ReferenceData {
+
+	private static final AtomicLong version = new AtomicLong();
+	private static final LongAdder hits = new LongAdder();
+	private static final LongAdder misses = new LongAdder();
+	private static final LongAdder loads = new LongAdder();
+
+	private static volatile Snapshot current;
+
+	private ReferenceData() {
+	}
+
+	static Snapshot get(Connection connection) throws SQLException {
+		/*
+		 * Returns the current snapshot, reloading it through connection if it
+		 * has been invalidated since it was read.
+		 */
+
+		Snapshot s = current;
+		if (s != null && s.version == version.get()) {
+			hits.increment();
+			return s;
+		}
+		misses.increment();
+		synchronized (ReferenceData.class) {
+			s = current;
+			if (s != null && s.version == version.get()) {
+				return s;
+			}
+			s = load(connection, version.get());
+			current = s;
+			return s;
+		}
+	}
+
+	static Snapshot loadUncached(Connection connection) throws SQLException {
+		/*
+		 * Reads a private snapshot without publishing it. Used by sessions whose
+		 * open transaction has changed these tables, so uncommitted values
+		 * never end up in the shared cache.
+		 */
+		misses.increment();
+		return load(connection, -1);
+	}
+
+	static void invalidate() {
+		version.incrementAndGet();
+	}
+
+	static long getVersion() {
+		return version.get();
+	}
+
+	static long getHitCount() {
+		return hits.sum();
+	}
+
+	static long getMissCount() {
+		return misses.sum();
+	}
+
+	static long getLoadCount() {
+		return loads.sum();
+	}
+
+	static String describe() {
+		return "ReferenceData [version=" + version.get() + ", hits=" + hits.sum()
+				+ ", misses=" + misses.sum() + ", loads=" + loads.sum() + "]";
+	}
+
+	private static Snapshot load(Connection connection, long atVersion) throws SQLException {
+		loads.increment();
+
+		// {customer, business} per (size, crust), indexed by basePriceIndex
+		double[][] prices = new double[PizzaSize.COUNT * CrustType.COUNT][];
+		String priceSql = "SELECT baseprice_Size, baseprice_CrustType, baseprice_CustPrice, baseprice_BusPrice FROM baseprice";
+		try (PreparedStatement ps = connection.prepareStatement(priceSql);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int i = basePriceIndex(PizzaSize.of(rs.getString(1)), CrustType.of(rs.getString(2)));
+				if (i >= 0) {
+					prices[i] = new double[]{rs.getDouble(3), rs.getDouble(4)};
+				}
+			}
+		}
+
+		ArrayList<Topping> toppings = new ArrayList<>();
+		String toppingSql = "SELECT topping_TopID, topping_TopName, topping_SmallAMT, topping_MedAMT, topping_LgAMT,"
+				+ " topping_XLAMT, topping_CustPrice, topping_BusPrice, topping_MinINVT FROM topping ORDER BY topping_TopName";
+		try (PreparedStatement ps = connection.prepareStatement(toppingSql);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				toppings.add(new Topping(rs.getInt(1), rs.getString(2), rs.getDouble(3), rs.getDouble(4),
+						rs.getDouble(5), rs.getDouble(6), rs.getDouble(7), rs.getDouble(8), rs.getInt(9), 0));
+			}
+		}
+
+		ArrayList<Discount> discounts = new ArrayList<>();
+		try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM discount ORDER BY discount_DiscountName ASC");
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				discounts.add(DBSession.mapDiscount(rs));
+			}
+		}
+
+		return new Snapshot(atVersion, prices, toppings, discounts);
+	}
+
+	static Snapshot of(double[][] basePrices, ArrayList<Topping> toppings, ArrayList<Discount> discounts) {
+		/*
+		 * A snapshot of tables kept somewhere other than MySQL (EmbeddedStore).
+		 * basePrices is indexed by basePriceIndex; toppings and discounts
+		 * should be in name order, as the lists are served in the order given.
+		 */
+		return new Snapshot(-1, basePrices, toppings, discounts);
+	}
+
+	static int basePriceIndex(PizzaSize size, CrustType crust) {
+		// -1 for a size or crust that isn't one of the enum values
+		return size == null || crust == null ? -1 : size.ordinal() * CrustType.COUNT + crust.ordinal();
+	}
+
+	private static String nameKey(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	static Topping copy(Topping t) {
+		Topping c = new Topping(t.getTopID(), t.getTopName(), t.getSmallAMT(), t.getMedAMT(), t.getLgAMT(),
+				t.getXLAMT(), t.getCustPrice(), t.getBusPrice(), t.getMinINVT(), t.getCurINVT());
+		c.setDoubled(t.getDoubled());
+		return c;
+	}
+
+	static Discount copy(Discount d) {
+		return new Discount(d.getDiscountID(), d.getDiscountName(), d.getAmount(), d.isPercent());
+	}
+
+	// =========================================================
+	// SNAPSHOT
+	// =========================================================
+
+	static final class Snapshot {
+		final long version;
+		private final double[][] basePrices;
+		private final List<Topping> toppings;
+		private final HashMap<Integer, Topping> toppingsById = new HashMap<>();
+		private final HashMap<String, Topping> toppingsByName = new HashMap<>();
+		private final List<Discount> discounts;
+		private final HashMap<Integer, Discount> discountsById = new HashMap<>();
+		private final HashMap<String, Discount> discountsByName = new HashMap<>();
+		private final PriceMatrix prices;
+
+		private Snapshot(long version, double[][] basePrices,
+		                 ArrayList<Topping> toppings, ArrayList<Discount> discounts) {
+			this.version = version;
+			this.basePrices = basePrices;
+			this.toppings = Collections.unmodifiableList(toppings);
+			this.discounts = Collections.unmodifiableList(discounts);
+			for (Topping t : toppings) {
+				toppingsById.put(t.getTopID(), t);
+				toppingsByName.putIfAbsent(nameKey(t.getTopName()), t);
+			}
+			for (Discount d : discounts) {
+				discountsById.put(d.getDiscountID(), d);
+				discountsByName.putIfAbsent(nameKey(d.getDiscountName()), d);
+			}
+			this.prices = PriceMatrix.compile(this, toppings);
+		}
+
+		PriceMatrix priceMatrix() {
+			return prices;
+		}
+
+		double baseCustPrice(String size, String crust) {
+			return baseCustPrice(PizzaSize.of(size), CrustType.of(crust));
+		}
+
+		double baseBusPrice(String size, String crust) {
+			return baseBusPrice(PizzaSize.of(size), CrustType.of(crust));
+		}
+
+		double baseCustPrice(PizzaSize size, CrustType crust) {
+			// unknown (size, crust) pairs price at 0.0, same as an empty query
+			double[] p = basePrice(size, crust);
+			return p == null ? 0.0 : p[0];
+		}
+
+		double baseBusPrice(PizzaSize size, CrustType crust) {
+			double[] p = basePrice(size, crust);
+			return p == null ? 0.0 : p[1];
+		}
+
+		private double[] basePrice(PizzaSize size, CrustType crust) {
+			int i = basePriceIndex(size, crust);
+			return i < 0 ? null : basePrices[i];
+		}
+
+		ArrayList<Topping> toppingList() {
+			ArrayList<Topping> out = new ArrayList<>(toppings.size());
+			for (Topping t : toppings) {
+				out.add(copy(t));
+			}
+			return out;
+		}
+
+		Topping toppingById(int id) {
+			Topping t = toppingsById.get(id);
+			return t == null ? null : copy(t);
+		}
+
+		Topping toppingByName(String name) {
+			Topping t = name == null ? null : toppingsByName.get(nameKey(name));
+			return t == null ? null : copy(t);
+		}
+
+		ArrayList<Discount> discountList() {
+			ArrayList<Discount> out = new ArrayList<>(discounts.size());
+			for (Discount d : discounts) {
+				out.add(copy(d));
+			}
+			return out;
+		}
+
+		Discount discountById(int id) {
+			Discount d = discountsById.get(id);
+			return d == null ? null : copy(d);
+		}
+
+		Discount discountByName(String name) {
+			Discount d = name == null ? null : discountsByName.get(nameKey(name));
+			return d == null ? null : copy(d);
+		}
+	}
+}
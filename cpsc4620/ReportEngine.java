@@ -0,0 +1,593 @@
+package cpsc4620;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * In-JVM implementation of the ToppingPopularity, ProfitByPizza and
+ * ProfitByOrderType views (ReportSource.ENGINE).
+ *
+ * Each report splits the primary-key range of the tables it needs into
+ * chunks and scans them with a fork-join pool, every leaf on its own
+ * connection with a streaming result set. Leaves aggregate into primitive
+ * arrays (topping counts by TopID, profit cents by size x crust, per-order
+ * sums indexed by OrderID) that are merged after the join.
+ *
+ * Output rows are the strings the view's ResultSet would return, so the
+ * same printers serve both. To come out identical the arithmetic mirrors
+ * the view's: DECIMAL sums are done exactly in cents, the percent-discount
+ * factor is EXP(SUM(LN())) in doubles, and the order-type sums are added in
+ * OrderID order and rounded the way MySQL's ROUND(double, 2) does. Rows with
+ * equal sort keys may come out in a different order than the view's.
+ *
+ * Leaves read on separate connections, so on a database taking writes
+ * the numbers can differ from the view by whatever committed in between.
+ *
+ * The caller's session keeps its connection while the report runs, so the
+ * leaves don't borrow from the shared pool: a report waiting there for
+ * connections held by other reports (or by writers) could stall until the
+ * borrow timeout. They borrow from a pool of their own, sized by
+ * pizzadb.report.parallelism, which only leaves use and whose connections
+ * are never held while waiting for another.
+ */
+
+final class ReportEngine {
+
+	private static final int parallelism = Math.max(1, Integer.getInteger("pizzadb.report.parallelism",
+			Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+	// key ranges are split until a leaf covers at most this many ids
+	private static final long MIN_LEAF_WIDTH = 10_000L;
+
+	// distinct sizes/crusts the pizza report can index; the menu only uses four of each
+	private static final int MAX_KINDS = 16;
+
+	private static final ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+	// the leaves' own connections, opened on first use
+	private static volatile ConnectionPool connections;
+
+	private ReportEngine() {
+	}
+
+	// =========================================================
+	// TOPPING POPULARITY
+	// =========================================================
+
+	static ArrayList<String[]> toppingPopularity(Connection connection) throws SQLException {
+		/*
+		 * Rows of (Topping, ToppingCount), most used first.
+		 */
+
+		ArrayList<Topping> toppings = ReferenceData.get(connection).toppingList();
+		long[] range = idRange(connection, "pizza_topping", "pizza_PizzaID");
+
+		long[] counts = new long[0];
+		if (range != null) {
+			counts = run(new ScanTask<>(range[0], range[1], leafWidth(range), ReportEngine::scanToppings,
+					ReportEngine::addCounts));
+		}
+
+		return toppingRows(toppings, counts);
+	}
+
+	static ArrayList<String[]> toppingRows(List<Topping> toppings, long[] counts) {
+		// the view groups by name (case-insensitively, like the collation)
+		LinkedHashMap<String, Object[]> byName = new LinkedHashMap<>();
+		for (Topping t : toppings) {
+			Object[] row = byName.computeIfAbsent(t.getTopName().toLowerCase(Locale.ROOT),
+					k -> new Object[]{t.getTopName(), 0L});
+			if (t.getTopID() >= 0 && t.getTopID() < counts.length) {
+				row[1] = (Long) row[1] + counts[t.getTopID()];
+			}
+		}
+
+		ArrayList<Object[]> sorted = new ArrayList<>(byName.values());
+		sorted.sort(Comparator.<Object[]>comparingLong(r -> -(Long) r[1])
+				.thenComparing(r -> (String) r[0], String.CASE_INSENSITIVE_ORDER));
+
+		ArrayList<String[]> rows = new ArrayList<>(sorted.size());
+		for (Object[] r : sorted) {
+			rows.add(new String[]{(String) r[0], String.valueOf(r[1])});
+		}
+		return rows;
+	}
+
+	private static long[] scanToppings(Connection connection, long lo, long hi) throws SQLException {
+		long[] counts = new long[64];
+		String sql = "SELECT topping_TopID, pizza_topping_IsDouble FROM pizza_topping WHERE pizza_PizzaID BETWEEN ? AND ?";
+		try (PreparedStatement ps = streaming(connection, sql, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int top = rs.getInt(1);
+				int dbl = rs.getInt(2);
+				if (rs.wasNull()) {
+					continue;
+				}
+				if (top >= counts.length) {
+					counts = java.util.Arrays.copyOf(counts, Math.max(top + 1, counts.length * 2));
+				}
+				// CASE IsDouble WHEN 1 THEN 2 WHEN 0 THEN 1 ELSE 0
+				counts[top] += dbl == 1 ? 2 : dbl == 0 ? 1 : 0;
+			}
+		}
+		return counts;
+	}
+
+	private static long[] addCounts(long[] a, long[] b) {
+		long[] big = a.length >= b.length ? a : b;
+		long[] small = big == a ? b : a;
+		for (int i = 0; i < small.length; i++) {
+			big[i] += small[i];
+		}
+		return big;
+	}
+
+	// =========================================================
+	// PROFIT BY PIZZA
+	// =========================================================
+
+	static ArrayList<String[]> profitByPizza(Connection connection) throws SQLException {
+		/*
+		 * Rows of (Size, Crust, Profit, OrderMonth), least profitable first.
+		 */
+
+		Kinds sizes = new Kinds(DBNinja.size_s, DBNinja.size_m, DBNinja.size_l, DBNinja.size_xl);
+		Kinds crusts = new Kinds(DBNinja.crust_thin, DBNinja.crust_orig, DBNinja.crust_pan, DBNinja.crust_gf);
+
+		long[] range = idRange(connection, "pizza", "pizza_PizzaID");
+		HashMap<Integer, long[]> byMonth = new HashMap<>();
+		if (range != null) {
+			byMonth = run(new ScanTask<>(range[0], range[1], leafWidth(range),
+					(c, lo, hi) -> scanPizzaProfit(c, lo, hi, sizes, crusts), ReportEngine::mergeMonths));
+		}
+
+		ArrayList<Object[]> groups = new ArrayList<>();
+		for (Map.Entry<Integer, long[]> e : byMonth.entrySet()) {
+			long[] cells = e.getValue();
+			for (int s = 0; s < MAX_KINDS; s++) {
+				for (int c = 0; c < MAX_KINDS; c++) {
+					int cell = (s * MAX_KINDS + c) * 2;
+					if (cells[cell + 1] > 0) {
+						groups.add(new Object[]{sizes.name(s), crusts.name(c), cells[cell], e.getKey()});
+					}
+				}
+			}
+		}
+		groups.sort(Comparator.<Object[]>comparingLong(g -> (Long) g[2])
+				.thenComparingInt(g -> (Integer) g[3]));
+
+		ArrayList<String[]> rows = new ArrayList<>(groups.size());
+		for (Object[] g : groups) {
+			rows.add(new String[]{(String) g[0], (String) g[1],
+					BigDecimal.valueOf((Long) g[2], 2).toPlainString(), monthLabel((Integer) g[3])});
+		}
+		return rows;
+	}
+
+	private static HashMap<Integer, long[]> scanPizzaProfit(Connection connection, long lo, long hi,
+	                                                       Kinds sizes, Kinds crusts) throws SQLException {
+		// month -> [profit cents, pizza count] per (size, crust) cell
+		HashMap<Integer, long[]> byMonth = new HashMap<>();
+		String sql =
+				"SELECT pizza_Size, pizza_CrustType, pizza_PizzaDate, pizza_CustPrice, pizza_BusPrice " +
+						"FROM pizza WHERE pizza_PizzaID BETWEEN ? AND ?";
+		try (PreparedStatement ps = streaming(connection, sql, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int s = sizes.index(rs.getString(1));
+				int c = crusts.index(rs.getString(2));
+				int month = monthKey(rs.getString(3));
+				BigDecimal cust = rs.getBigDecimal(4);
+				BigDecimal bus = rs.getBigDecimal(5);
+
+				long[] cells = byMonth.computeIfAbsent(month, k -> new long[MAX_KINDS * MAX_KINDS * 2]);
+				int cell = (s * MAX_KINDS + c) * 2;
+				if (cust != null && bus != null) {
+					cells[cell] += cents(cust) - cents(bus);
+				}
+				cells[cell + 1]++;
+			}
+		}
+		return byMonth;
+	}
+
+	private static HashMap<Integer, long[]> mergeMonths(HashMap<Integer, long[]> a, HashMap<Integer, long[]> b) {
+		for (Map.Entry<Integer, long[]> e : b.entrySet()) {
+			long[] into = a.get(e.getKey());
+			if (into == null) {
+				a.put(e.getKey(), e.getValue());
+			} else {
+				long[] from = e.getValue();
+				for (int i = 0; i < into.length; i++) {
+					into[i] += from[i];
+				}
+			}
+		}
+		return a;
+	}
+
+	// =========================================================
+	// PROFIT BY ORDER TYPE
+	// =========================================================
+
+	static ArrayList<String[]> profitByOrderType(Connection connection) throws SQLException {
+		/*
+		 * Rows of (CustomerType, OrderMonth, TotalOrderPrice, TotalOrderCost,
+		 * Profit), least profitable first, then the grand total.
+		 */
+
+		long[] range = idRange(connection, "ordertable", "ordertable_OrderID");
+		if (range == null) {
+			return orderTypeRows(new ArrayList<>(), new int[0], new double[0], new long[0], new double[0]);
+		}
+
+		OrderSums sums = new OrderSums(range[0], range[1]);
+		run(new ScanTask<>(range[0], range[1], leafWidth(range),
+				(c, lo, hi) -> scanOrders(c, lo, hi, sums), (a, b) -> a));
+		return orderTypeRows(sums.groups, sums.group, sums.price, sums.costCents, sums.profit);
+	}
+
+	static ArrayList<String[]> orderTypeRows(List<String[]> groupKeys, int[] group, double[] price,
+	                                         long[] costCents, double[] profit) {
+		/*
+		 * The order type report from per-order results: group[i] indexes
+		 * groupKeys (type, month) for order i, or is -1 for no order.
+		 */
+
+		ArrayList<String[]> rows = new ArrayList<>();
+		if (group.length == 0) {
+			// the view's grand total over no rows
+			rows.add(new String[]{"", "Grand Total", null, null, null});
+			return rows;
+		}
+		// Sequential, in OrderID order, so the double sums add up exactly as the view's do.
+		int groupCount = groupKeys.size();
+		double[] groupPrice = new double[groupCount];
+		long[] groupCost = new long[groupCount];
+		double[] groupProfit = new double[groupCount];
+		double totalPrice = 0;
+		long totalCost = 0;
+		double totalProfit = 0;
+		for (int i = 0; i < group.length; i++) {
+			int g = group[i];
+			if (g < 0) {
+				continue;
+			}
+			groupPrice[g] += price[i];
+			groupCost[g] += costCents[i];
+			groupProfit[g] += profit[i];
+			totalPrice += price[i];
+			totalCost += costCents[i];
+			totalProfit += profit[i];
+		}
+
+		ArrayList<Object[]> groups = new ArrayList<>(groupCount);
+		for (int g = 0; g < groupCount; g++) {
+			String[] key = groupKeys.get(g);
+			groups.add(new Object[]{key[0], key[1], decimal2(groupPrice[g]), BigDecimal.valueOf(groupCost[g], 2),
+					decimal2(groupProfit[g])});
+		}
+		groups.sort(Comparator.comparing(g -> (BigDecimal) g[4]));
+
+		for (Object[] g : groups) {
+			rows.add(new String[]{(String) g[0], (String) g[1], ((BigDecimal) g[2]).toPlainString(),
+					((BigDecimal) g[3]).toPlainString(), ((BigDecimal) g[4]).toPlainString()});
+		}
+		rows.add(new String[]{"", "Grand Total", decimal2(totalPrice).toPlainString(),
+				BigDecimal.valueOf(totalCost, 2).toPlainString(), decimal2(totalProfit).toPlainString()});
+		return rows;
+	}
+
+	private static Void scanOrders(Connection connection, long lo, long hi, OrderSums sums) throws SQLException {
+		/*
+		 * Fills sums for OrderIDs lo..hi. Leaves own disjoint slices of the
+		 * arrays, so they write without locking.
+		 */
+
+		int n = (int) (hi - lo + 1);
+		long[] priceCents = new long[n];
+		long[] dollarCents = new long[n];
+		double[] lnSum = new double[n];
+
+		String orders =
+				"SELECT ordertable_OrderID, ordertable_OrderType, ordertable_OrderDateTime " +
+						"FROM ordertable WHERE ordertable_OrderID BETWEEN ? AND ?";
+		try (PreparedStatement ps = streaming(connection, orders, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int i = (int) (rs.getLong(1) - sums.base);
+				String type = rs.getString(2);
+				type = type == null ? null : type.toLowerCase(Locale.ROOT);
+				sums.group[i] = sums.groupIndex(type, monthLabel(monthKey(rs.getString(3))));
+			}
+		}
+
+		String pizzas =
+				"SELECT ordertable_OrderID, pizza_CustPrice, pizza_BusPrice " +
+						"FROM pizza WHERE ordertable_OrderID BETWEEN ? AND ?";
+		try (PreparedStatement ps = streaming(connection, pizzas, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int i = (int) (rs.getLong(1) - lo);
+				BigDecimal cust = rs.getBigDecimal(2);
+				BigDecimal bus = rs.getBigDecimal(3);
+				if (cust != null) {
+					priceCents[i] += cents(cust);
+				}
+				if (bus != null) {
+					sums.costCents[(int) (lo - sums.base) + i] += cents(bus);
+				}
+			}
+		}
+
+		// same order the view's correlated subqueries read order_discount in
+		String discounts =
+				"SELECT od.ordertable_OrderID, d.discount_Amount, d.discount_IsPercent " +
+						"FROM order_discount od JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID " +
+						"WHERE od.ordertable_OrderID BETWEEN ? AND ? " +
+						"ORDER BY od.ordertable_OrderID, od.discount_DiscountID";
+		try (PreparedStatement ps = streaming(connection, discounts, lo, hi);
+		     ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				int i = (int) (rs.getLong(1) - lo);
+				long amount = cents(rs.getBigDecimal(2));
+				if (rs.getBoolean(3)) {
+					lnSum[i] += lnPercentOff(amount);
+				} else {
+					dollarCents[i] += amount;
+				}
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			int at = (int) (lo - sums.base) + i;
+			double p = orderPrice(priceCents[i], dollarCents[i], lnSum[i]);
+			sums.price[at] = p;
+			sums.profit[at] = p - sums.costCents[at] / 100.0;
+		}
+		return null;
+	}
+
+	// =========================================================
+	// FORK-JOIN PLUMBING
+	// =========================================================
+
+	// scans ids lo..hi (inclusive) on the given connection
+	interface RangeScan<R> {
+		R scan(Connection connection, long lo, long hi) throws SQLException;
+	}
+
+	interface Merge<R> {
+		R merge(R left, R right);
+	}
+
+	private static final class ScanTask<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		private final long lo;
+		private final long hi;
+		private final long leafWidth;
+		private final transient RangeScan<R> scan;
+		private final transient Merge<R> merge;
+
+		ScanTask(long lo, long hi, long leafWidth, RangeScan<R> scan, Merge<R> merge) {
+			this.lo = lo;
+			this.hi = hi;
+			this.leafWidth = leafWidth;
+			this.scan = scan;
+			this.merge = merge;
+		}
+
+		@Override
+		protected R compute() {
+			if (hi - lo + 1 <= leafWidth) {
+				try (Connection c = connections().borrow()) {
+					return scan.scan(c, lo, hi);
+				} catch (SQLException | IOException e) {
+					throw new DataAccessException("Report scan of ids " + lo + ".." + hi + " failed", e);
+				}
+			}
+			long mid = lo + (hi - lo) / 2;
+			ScanTask<R> left = new ScanTask<>(lo, mid, leafWidth, scan, merge);
+			ScanTask<R> right = new ScanTask<>(mid + 1, hi, leafWidth, scan, merge);
+			left.fork();
+			R r = right.compute();
+			return merge.merge(left.join(), r);
+		}
+	}
+
+	private static <R> R run(ScanTask<R> task) throws SQLException {
+		try {
+			return pool.invoke(task);
+		} catch (DataAccessException e) {
+			for (Throwable t = e; t != null; t = t.getCause()) {
+				if (t instanceof SQLException) {
+					throw (SQLException) t;
+				}
+			}
+			throw new SQLException(e.getMessage(), e);
+		}
+	}
+
+	private static ConnectionPool connections() {
+		ConnectionPool c = connections;
+		if (c == null) {
+			synchronized (ReportEngine.class) {
+				c = connections;
+				if (c == null) {
+					c = DBConnector.newPool(0, parallelism);
+					connections = c;
+				}
+			}
+		}
+		return c;
+	}
+
+	private static long leafWidth(long[] range) {
+		// aim for a couple of leaves per worker
+		long span = range[1] - range[0] + 1;
+		return Math.max(MIN_LEAF_WIDTH, (span + parallelism * 2L - 1) / (parallelism * 2L));
+	}
+
+	// =========================================================
+	// HELPERS
+	// =========================================================
+
+	private static long[] idRange(Connection connection, String table, String column) throws SQLException {
+		// table/column are always our own constants
+		String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + table;
+		try (PreparedStatement ps = connection.prepareStatement(sql);
+		     ResultSet rs = ps.executeQuery()) {
+			if (!rs.next()) {
+				return null;
+			}
+			long min = rs.getLong(1);
+			if (rs.wasNull()) {
+				return null;
+			}
+			return new long[]{min, rs.getLong(2)};
+		}
+	}
+
+	private static PreparedStatement streaming(Connection connection, String sql, long lo, long hi)
+			throws SQLException {
+		// MIN_VALUE tells Connector/J to stream rows instead of buffering the result
+		PreparedStatement ps = connection.prepareStatement(sql);
+		ps.setFetchSize(Integer.MIN_VALUE);
+		ps.setLong(1, lo);
+		ps.setLong(2, hi);
+		return ps;
+	}
+
+	static double lnPercentOff(long amountCents) {
+		// LN(1 - amount/100); LN of 0 or less is NULL and SUM skips it
+		long remaining = 10_000L - amountCents;
+		return remaining > 0 ? Math.log(remaining / 10_000.0) : 0.0;
+	}
+
+	static double orderPrice(long pizzaCents, long dollarOffCents, double lnSum) {
+		// GREATEST((base_price - dollar_off) * percent_factor, 0)
+		double p = ((pizzaCents - dollarOffCents) / 100.0) * Math.exp(lnSum);
+		return p < 0 ? 0 : p;
+	}
+
+	static long cents(BigDecimal amount) {
+		return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+	}
+
+	private static BigDecimal decimal2(double value) {
+		// CAST(ROUND(value, 2) AS DECIMAL(10,2)); MySQL rounds doubles with rint()
+		double rounded = Math.rint(value * 100.0) / 100.0;
+		return BigDecimal.valueOf(rounded).setScale(2, RoundingMode.HALF_UP);
+	}
+
+	static int monthKey(String dateTime) {
+		// 'YYYY-MM-DD HH:mm:ss' -> year * 12 + month - 1; -1 for NULL
+		if (dateTime == null) {
+			return -1;
+		}
+		return Integer.parseInt(dateTime.substring(0, 4)) * 12 + Integer.parseInt(dateTime.substring(5, 7)) - 1;
+	}
+
+	static String monthLabel(int monthKey) {
+		// DATE_FORMAT(..., '%c/%Y')
+		if (monthKey < 0) {
+			return null;
+		}
+		return (monthKey % 12 + 1) + "/" + (monthKey / 12);
+	}
+
+	// Dense indexes for the size/crust strings seen during a scan.
+	private static final class Kinds {
+		private final ConcurrentHashMap<String, Integer> index = new ConcurrentHashMap<>();
+		private final List<String> names = new CopyOnWriteArrayList<>();
+
+		Kinds(String... known) {
+			for (String k : known) {
+				index(k);
+			}
+		}
+
+		int index(String name) {
+			String key = name == null ? "\u0000" : name;
+			Integer i = index.get(key);
+			if (i != null) {
+				return i;
+			}
+			synchronized (this) {
+				i = index.get(key);
+				if (i == null) {
+					if (names.size() == MAX_KINDS) {
+						throw new IllegalStateException("More than " + MAX_KINDS + " distinct values of " + name);
+					}
+					i = names.size();
+					names.add(name);
+					index.put(key, i);
+				}
+				return i;
+			}
+		}
+
+		String name(int i) {
+			return i < names.size() ? names.get(i) : null;
+		}
+	}
+
+	// Per-order results for the order type report, indexed by OrderID - base.
+	private static final class OrderSums {
+		final long base;
+		final int[] group;
+		final double[] price;
+		final double[] profit;
+		final long[] costCents;
+		final List<String[]> groups = new CopyOnWriteArrayList<>();
+		private final ConcurrentHashMap<String, Integer> groupIds = new ConcurrentHashMap<>();
+
+		OrderSums(long min, long max) {
+			long n = max - min + 1;
+			if (n > Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("OrderID range too wide for the report engine: " + n);
+			}
+			this.base = min;
+			this.group = new int[(int) n];
+			java.util.Arrays.fill(group, -1);
+			this.price = new double[(int) n];
+			this.profit = new double[(int) n];
+			this.costCents = new long[(int) n];
+		}
+
+		int groupIndex(String type, String month) {
+			String key = type + '\u0000' + month;
+			Integer g = groupIds.get(key);
+			if (g != null) {
+				return g;
+			}
+			synchronized (this) {
+				g = groupIds.get(key);
+				if (g == null) {
+					g = groups.size();
+					groups.add(new String[]{type, month});
+					groupIds.put(key, g);
+				}
+				return g;
+			}
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package cpsc4620;
+
+/*
+ * Where the profit reports read their numbers from.
+ */
+
+public enum ReportSource {
+	// the ProfitByPizza / ProfitByOrderType views, recomputed on every request
+	VIEW,
+	// the summary tables maintained by ReportSummaries; cost doesn't grow with history
+	SUMMARY,
+	// ReportEngine: the view's arithmetic done in the JVM over parallel range scans
+	ENGINE,
+	// OrderFactStore: local column files, topped up with the orders added since the last report
+	FACTS
+}
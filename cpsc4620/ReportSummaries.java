@@ -0,0 +1,268 @@
+package cpsc4620;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * Incrementally maintained summary tables behind the profit reports.
+ *
+ *   summary_pizza_month      (size, crust, month)  -> profit, pizza count
+ *   summary_ordertype_month  (order type, month)   -> price, cost, order count
+ *
+ * They hold the same numbers the ProfitByPizza and ProfitByOrderType views
+ * compute from scratch, kept up to date by DBSession inside the same
+ * transaction as the write that changes them:
+ *
+ *   addOrder      -> pizza rows for its pizzas, plus the order's value
+ *   addPizza      -> pizza row, plus the change in its order's value
+ *   completeOrder -> completed count of the order's (type, month)
+ *
+ * An order's value is the view's per-order expression
+ * GREATEST((pizza prices - $ discounts) * percent factor, 0), which isn't
+ * additive over pizzas, so addPizza reads it before and after and applies
+ * the difference.
+ *
+ * rebuild() recomputes both tables from the raw tables, e.g. after data was
+ * loaded or changed outside the application.
+ *
+ * Concurrency: the upserts take row locks held until the write commits.
+ * Pizza rows are upserted in key order, so two orders touching the same
+ * rows lock them in the same order and can't deadlock. Every order also
+ * updates its (order type, month) row, so concurrent writes of the same
+ * order type in the same month queue on that one row until the holder
+ * commits. That hot row caps how far more connections (DBSession) or
+ * larger batches (OrderIntake) scale the write path; keep those
+ * transactions short.
+ */
+
+final class ReportSummaries {
+
+	// Per-order value, same expressions as the ProfitByOrderType view.
+	private static final String ORDER_VALUE_SELECT =
+			"SELECT LOWER(o.ordertable_OrderType) AS OrderType, " +
+					"DATE_FORMAT(o.ordertable_OrderDateTime, '%Y-%m-01') AS OrderMonth, " +
+					"o.ordertable_IsComplete AS IsComplete, " +
+					"GREATEST((" +
+					"(SELECT COALESCE(SUM(p.pizza_CustPrice), 0) FROM pizza p " +
+					"WHERE p.ordertable_OrderID = o.ordertable_OrderID) - " +
+					"(SELECT COALESCE(SUM(d.discount_Amount), 0) FROM order_discount od " +
+					"JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID " +
+					"WHERE od.ordertable_OrderID = o.ordertable_OrderID AND d.discount_IsPercent = 0)) * " +
+					"(SELECT EXP(COALESCE(SUM(LN(1 - (d.discount_Amount / 100))), 0)) FROM order_discount od " +
+					"JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID " +
+					"WHERE od.ordertable_OrderID = o.ordertable_OrderID AND d.discount_IsPercent = 1), 0) AS Price, " +
+					"(SELECT COALESCE(SUM(p.pizza_BusPrice), 0) FROM pizza p " +
+					"WHERE p.ordertable_OrderID = o.ordertable_OrderID) AS Cost " +
+					"FROM ordertable o";
+
+	static final String PIZZA_REPORT_SQL =
+			"SELECT sp_Size AS Size, sp_CrustType AS Crust, sp_Profit AS Profit, " +
+					"DATE_FORMAT(sp_Month, '%c/%Y') AS OrderMonth " +
+					"FROM summary_pizza_month ORDER BY Profit ASC";
+
+	static final String ORDER_TYPE_REPORT_SQL =
+			"SELECT so_OrderType AS CustomerType, DATE_FORMAT(so_Month, '%c/%Y') AS OrderMonth, " +
+					"CAST(ROUND(so_TotalPrice, 2) AS DECIMAL(10, 2)) AS TotalOrderPrice, " +
+					"CAST(ROUND(so_TotalCost, 2) AS DECIMAL(10, 2)) AS TotalOrderCost, " +
+					"CAST(ROUND(so_TotalPrice - so_TotalCost, 2) AS DECIMAL(10, 2)) AS Profit " +
+					"FROM summary_ordertype_month " +
+					"UNION ALL " +
+					"SELECT '', 'Grand Total', " +
+					"CAST(ROUND(SUM(so_TotalPrice), 2) AS DECIMAL(10, 2)), " +
+					"CAST(ROUND(SUM(so_TotalCost), 2) AS DECIMAL(10, 2)), " +
+					"CAST(ROUND(SUM(so_TotalPrice - so_TotalCost), 2) AS DECIMAL(10, 2)) " +
+					"FROM summary_ordertype_month " +
+					"ORDER BY CASE WHEN CustomerType = '' THEN 1 ELSE 0 END, Profit ASC";
+
+	private ReportSummaries() {
+	}
+
+	// =========================================================
+	// INCREMENTAL MAINTENANCE
+	// =========================================================
+
+	static void addPizzas(Connection connection, Timestamp date, List<Pizza> pizzas) throws SQLException {
+		/*
+		 * Adds freshly inserted pizzas (all sharing date) to summary_pizza_month,
+		 * one upsert per distinct (size, crust), in (size, crust) order. The
+		 * month is the same for all of them, so that is primary key order and
+		 * concurrent orders lock the rows they share in the same order.
+		 */
+
+		// the cent prices the DECIMAL(5,2) columns store (see PriceEngine)
+		TreeMap<String, Object[]> groups = new TreeMap<>();
+		for (Pizza p : pizzas) {
+			BigDecimal profit = PriceEngine.decimal(p.getCustCents() - p.getBusCents());
+			Object[] g = groups.computeIfAbsent(p.getSize() + '\u0000' + p.getCrustType(),
+					k -> new Object[]{p.getSize(), p.getCrustType(), BigDecimal.ZERO, 0});
+			g[2] = ((BigDecimal) g[2]).add(profit);
+			g[3] = (Integer) g[3] + 1;
+		}
+
+		String sql =
+				"INSERT INTO summary_pizza_month (sp_Size, sp_CrustType, sp_Month, sp_Profit, sp_PizzaCount) " +
+						"VALUES (?, ?, DATE_FORMAT(?, '%Y-%m-01'), ?, ?) " +
+						"ON DUPLICATE KEY UPDATE sp_Profit = sp_Profit + VALUES(sp_Profit), " +
+						"sp_PizzaCount = sp_PizzaCount + VALUES(sp_PizzaCount)";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			for (Object[] g : groups.values()) {
+				ps.setString(1, (String) g[0]);
+				ps.setString(2, (String) g[1]);
+				ps.setTimestamp(3, date);
+				ps.setBigDecimal(4, (BigDecimal) g[2]);
+				ps.setInt(5, (Integer) g[3]);
+				ps.addBatch();
+			}
+			if (!groups.isEmpty()) {
+				ps.executeBatch();
+			}
+		}
+	}
+
+	static OrderValue readOrderValue(Connection connection, int orderId) throws SQLException {
+		/*
+		 * The order's current contribution to summary_ordertype_month, or null
+		 * if there is no such order.
+		 */
+
+		try (PreparedStatement ps = connection.prepareStatement(ORDER_VALUE_SELECT + " WHERE o.ordertable_OrderID = ?")) {
+			ps.setInt(1, orderId);
+			try (ResultSet rs = ps.executeQuery()) {
+				if (!rs.next()) {
+					return null;
+				}
+				return new OrderValue(rs.getString("OrderType"), rs.getString("OrderMonth"),
+						rs.getBigDecimal("Price"), rs.getBigDecimal("Cost"), rs.getBoolean("IsComplete"));
+			}
+		}
+	}
+
+	static void addOrder(Connection connection, int orderId) throws SQLException {
+		// counts a newly inserted order (with its pizzas and discounts) once
+		OrderValue v = readOrderValue(connection, orderId);
+		if (v != null) {
+			upsertOrderType(connection, v.orderType, v.month, v.price, v.cost, 1, v.complete ? 1 : 0);
+		}
+	}
+
+	static void orderChanged(Connection connection, OrderValue before, int orderId) throws SQLException {
+		/*
+		 * Applies the difference between an order's value before a change
+		 * (from readOrderValue) and now.
+		 */
+
+		OrderValue after = readOrderValue(connection, orderId);
+		if (before == null || after == null) {
+			return;
+		}
+		upsertOrderType(connection, after.orderType, after.month,
+				after.price.subtract(before.price), after.cost.subtract(before.cost), 0, 0);
+	}
+
+	static void orderCompleted(Connection connection, int orderId) throws SQLException {
+		OrderValue v = readOrderValue(connection, orderId);
+		if (v != null) {
+			upsertOrderType(connection, v.orderType, v.month, BigDecimal.ZERO, BigDecimal.ZERO, 0, 1);
+		}
+	}
+
+	private static void upsertOrderType(Connection connection, String orderType, String month,
+	                                    BigDecimal price, BigDecimal cost, int orders, int completed)
+			throws SQLException {
+		String sql =
+				"INSERT INTO summary_ordertype_month (so_OrderType, so_Month, so_TotalPrice, so_TotalCost, " +
+						"so_OrderCount, so_CompletedCount) VALUES (?, ?, ?, ?, ?, ?) " +
+						"ON DUPLICATE KEY UPDATE so_TotalPrice = so_TotalPrice + VALUES(so_TotalPrice), " +
+						"so_TotalCost = so_TotalCost + VALUES(so_TotalCost), " +
+						"so_OrderCount = so_OrderCount + VALUES(so_OrderCount), " +
+						"so_CompletedCount = so_CompletedCount + VALUES(so_CompletedCount)";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setString(1, orderType);
+			ps.setString(2, month);
+			ps.setBigDecimal(3, price);
+			ps.setBigDecimal(4, cost);
+			ps.setInt(5, orders);
+			ps.setInt(6, completed);
+			ps.executeUpdate();
+		}
+	}
+
+	// =========================================================
+	// SCHEMA / REBUILD
+	// =========================================================
+
+	static void createTables(Connection connection) throws SQLException {
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate(
+					"CREATE TABLE IF NOT EXISTS summary_pizza_month (" +
+							"sp_Size VARCHAR(30) NOT NULL, " +
+							"sp_CrustType VARCHAR(30) NOT NULL, " +
+							"sp_Month DATE NOT NULL, " +
+							"sp_Profit DECIMAL(12,2) NOT NULL DEFAULT 0, " +
+							"sp_PizzaCount INT NOT NULL DEFAULT 0, " +
+							"PRIMARY KEY (sp_Size, sp_CrustType, sp_Month))");
+			st.executeUpdate(
+					"CREATE TABLE IF NOT EXISTS summary_ordertype_month (" +
+							"so_OrderType VARCHAR(30) NOT NULL, " +
+							"so_Month DATE NOT NULL, " +
+							"so_TotalPrice DECIMAL(16,6) NOT NULL DEFAULT 0, " +
+							"so_TotalCost DECIMAL(16,6) NOT NULL DEFAULT 0, " +
+							"so_OrderCount INT NOT NULL DEFAULT 0, " +
+							"so_CompletedCount INT NOT NULL DEFAULT 0, " +
+							"PRIMARY KEY (so_OrderType, so_Month))");
+		}
+	}
+
+	static void rebuild(Connection connection) throws SQLException {
+		/*
+		 * Recomputes both summary tables from pizza/ordertable/discounts.
+		 * Run it inside a transaction so readers never see them half built.
+		 */
+
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("DELETE FROM summary_pizza_month");
+			st.executeUpdate(
+					"INSERT INTO summary_pizza_month (sp_Size, sp_CrustType, sp_Month, sp_Profit, sp_PizzaCount) " +
+							"SELECT pizza_Size, pizza_CrustType, DATE_FORMAT(pizza_PizzaDate, '%Y-%m-01'), " +
+							"SUM(pizza_CustPrice - pizza_BusPrice), COUNT(*) " +
+							"FROM pizza " +
+							"WHERE pizza_Size IS NOT NULL AND pizza_CrustType IS NOT NULL AND pizza_PizzaDate IS NOT NULL " +
+							"GROUP BY pizza_Size, pizza_CrustType, DATE_FORMAT(pizza_PizzaDate, '%Y-%m-01')");
+
+			st.executeUpdate("DELETE FROM summary_ordertype_month");
+			st.executeUpdate(
+					"INSERT INTO summary_ordertype_month (so_OrderType, so_Month, so_TotalPrice, so_TotalCost, " +
+							"so_OrderCount, so_CompletedCount) " +
+							"SELECT v.OrderType, v.OrderMonth, SUM(v.Price), SUM(v.Cost), COUNT(*), SUM(v.IsComplete) " +
+							"FROM (" + ORDER_VALUE_SELECT + ") v " +
+							"GROUP BY v.OrderType, v.OrderMonth");
+		}
+	}
+
+	// =========================================================
+	// TYPES
+	// =========================================================
+
+	static final class OrderValue {
+		final String orderType;
+		final String month; // 'YYYY-MM-01'
+		final BigDecimal price;
+		final BigDecimal cost;
+		final boolean complete;
+
+		OrderValue(String orderType, String month, BigDecimal price, BigDecimal cost, boolean complete) {
+			this.orderType = orderType;
+			this.month = month;
+			this.price = price == null ? BigDecimal.ZERO : price;
+			this.cost = cost == null ? BigDecimal.ZERO : cost;
+			this.complete = complete;
+		}
+	}
+}
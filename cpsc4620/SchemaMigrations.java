@@ -0,0 +1,371 @@
+package cpsc4620;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Versioned, forward-only schema changes on top of CreateTables.sql.
+ *
+ * Applied versions are recorded in schema_version. migrate() applies every
+ * migration newer than the recorded version, in order, and then checks that
+ * the indexes the DBSession access paths depend on are actually present.
+ * Running it against an up-to-date schema is a couple of cheap queries.
+ *
+ * A MySQL named lock keeps two application instances from migrating the
+ * same database at once. MySQL DDL commits implicitly, so each step is
+ * written to be safe to re-run if a previous attempt died half way.
+ *
+ * To change the schema, append a Migration with the next version number.
+ * Never edit or reorder one that has shipped.
+ */
+
+final class SchemaMigrations {
+
+	private static final String LOCK_NAME = "pizzadb_schema_migration";
+	private static final int LOCK_TIMEOUT_SECONDS = 30;
+
+	// Secondary indexes behind the order, pizza, topping and customer lookups.
+	static final List<IndexSpec> REQUIRED_INDEXES = Arrays.asList(
+			// getOrdersBetween / getOrdersByDate range scans
+			new IndexSpec("ordertable", "idx_ordertable_datetime", "ordertable_OrderDateTime"),
+			// getOrders(status) and keyset pages filtered by IsComplete
+			new IndexSpec("ordertable", "idx_ordertable_complete_id", "ordertable_IsComplete", "ordertable_OrderID"),
+			// pizzas of an order (hydration IN-lists)
+			new IndexSpec("pizza", "idx_pizza_order", "ordertable_OrderID"),
+			// topping popularity / usage by topping
+			new IndexSpec("pizza_topping", "idx_pizza_topping_topping", "topping_TopID"),
+			// findCustomerByPhone
+			new IndexSpec("customer", "idx_customer_phone", "customer_PhoneNum"));
+
+	private static final List<Migration> MIGRATIONS = Arrays.asList(
+			new Migration(1, "secondary indexes for order, pizza, topping and customer lookups",
+					c -> createIndexes(c, REQUIRED_INDEXES)),
+			new Migration(2, "report summary tables",
+					SchemaMigrations::createReportSummaries),
+			new Migration(3, "ENUM columns for size, crust, order type and pizza state",
+					SchemaMigrations::compactCodeColumns),
+			new Migration(4, "journal_applied table for the order journal",
+					SchemaMigrations::createJournalTable),
+			new Migration(5, "facts_dirty table for the order fact store",
+					SchemaMigrations::createFactsDirtyTable));
+
+	// Column types for migration 3: the enums' labels, in declaration order.
+	private static final String SIZE_ENUM = "ENUM('Small', 'Medium', 'Large', 'XLarge')";
+	private static final String CRUST_ENUM = "ENUM('Thin', 'Original', 'Pan', 'Gluten-Free')";
+	private static final String ORDER_TYPE_ENUM = "ENUM('dinein', 'pickup', 'delivery')";
+	private static final String PIZZA_STATE_ENUM = "ENUM('In Progress', 'completed')";
+
+	private SchemaMigrations() {
+	}
+
+	static int latestVersion() {
+		return MIGRATIONS.get(MIGRATIONS.size() - 1).version;
+	}
+
+	static int migrate(Connection connection) throws SQLException {
+		/*
+		 * Brings the schema up to latestVersion() and returns the version it
+		 * ends at. Missing required indexes are reported on System.err.
+		 */
+
+		acquireLock(connection);
+		int version;
+		try {
+			ensureVersionTable(connection);
+			version = currentVersion(connection);
+
+			for (Migration m : MIGRATIONS) {
+				if (m.version <= version) {
+					continue;
+				}
+				System.out.println("Applying schema migration " + m.version + ": " + m.description);
+				m.step.apply(connection);
+				recordVersion(connection, m);
+				version = m.version;
+			}
+		} finally {
+			releaseLock(connection);
+		}
+
+		List<String> missing = verify(connection);
+		for (String problem : missing) {
+			System.err.println("Schema check: " + problem);
+		}
+		return version;
+	}
+
+	static List<String> verify(Connection connection) throws SQLException {
+		/*
+		 * Returns one message per required index that is missing or doesn't
+		 * have the expected columns; empty if everything is in place.
+		 */
+
+		ArrayList<String> problems = new ArrayList<>();
+		for (IndexSpec idx : REQUIRED_INDEXES) {
+			List<String> columns = indexColumns(connection, idx.table, idx.name);
+			if (columns.isEmpty()) {
+				problems.add("missing index " + idx);
+			} else if (!columns.equals(idx.columns)) {
+				problems.add("index " + idx.table + "." + idx.name + " is on " + columns
+						+ ", expected " + idx.columns);
+			}
+		}
+		return problems;
+	}
+
+	// =========================================================
+	// STEPS
+	// =========================================================
+
+	static void createIndexes(Connection connection, List<IndexSpec> indexes) throws SQLException {
+		// MySQL has no CREATE INDEX IF NOT EXISTS, so look before creating
+		for (IndexSpec idx : indexes) {
+			if (!indexColumns(connection, idx.table, idx.name).isEmpty()) {
+				continue;
+			}
+			try (Statement st = connection.createStatement()) {
+				st.executeUpdate("CREATE INDEX " + idx.name + " ON " + idx.table
+						+ " (" + String.join(", ", idx.columns) + ")");
+			}
+		}
+	}
+
+	static void dropIndexes(Connection connection, List<IndexSpec> indexes) throws SQLException {
+		// bulk loads drop these first and put them back with createIndexes afterwards
+		for (IndexSpec idx : indexes) {
+			if (indexColumns(connection, idx.table, idx.name).isEmpty()) {
+				continue;
+			}
+			try (Statement st = connection.createStatement()) {
+				st.executeUpdate("DROP INDEX " + idx.name + " ON " + idx.table);
+			}
+		}
+	}
+
+	private static void createReportSummaries(Connection connection) throws SQLException {
+		// fill them from existing data in one transaction
+		ReportSummaries.createTables(connection);
+		connection.setAutoCommit(false);
+		try {
+			ReportSummaries.rebuild(connection);
+			connection.commit();
+		} catch (SQLException | RuntimeException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(true);
+		}
+	}
+
+	private static void compactCodeColumns(Connection connection) throws SQLException {
+		/*
+		 * VARCHAR(30) -> one-byte ENUM for pizza size/crust/state, the
+		 * baseprice key and the order type, and the summary tables' copies.
+		 * Order types are first normalized the way the app writes them (lower
+		 * case, no dash, so the CreateOrder procedure's 'Dine-in' becomes
+		 * 'dinein'); other values only need to match a label ignoring case, as
+		 * the conversion does. Anything else stops the migration before any
+		 * column is changed, since MySQL would refuse it. The summary tables
+		 * are emptied, converted and rebuilt rather than normalized, because
+		 * folding 'Dine-in' into 'dinein' could collide on their keys.
+		 */
+
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("UPDATE ordertable SET ordertable_OrderType = LOWER(REPLACE(ordertable_OrderType, '-', '')) " +
+					"WHERE ordertable_OrderType NOT IN ('dinein', 'pickup', 'delivery')");
+		}
+
+		ArrayList<String> stray = new ArrayList<>();
+		strayValues(connection, "ordertable", "ordertable_OrderType", OrderType.values(), stray);
+		strayValues(connection, "pizza", "pizza_PizzaState", PizzaState.values(), stray);
+		strayValues(connection, "pizza", "pizza_Size", PizzaSize.values(), stray);
+		strayValues(connection, "pizza", "pizza_CrustType", CrustType.values(), stray);
+		strayValues(connection, "baseprice", "baseprice_Size", PizzaSize.values(), stray);
+		strayValues(connection, "baseprice", "baseprice_CrustType", CrustType.values(), stray);
+		if (!stray.isEmpty()) {
+			throw new SQLException("Cannot convert to ENUM columns, unknown values: " + String.join(", ", stray));
+		}
+
+		try (Statement st = connection.createStatement()) {
+			// pizza (size, crust) references baseprice; both sides change type together
+			st.execute("SET foreign_key_checks = 0");
+			try {
+				st.executeUpdate("ALTER TABLE baseprice " +
+						"MODIFY baseprice_Size " + SIZE_ENUM + " NOT NULL, " +
+						"MODIFY baseprice_CrustType " + CRUST_ENUM + " NOT NULL");
+				st.executeUpdate("ALTER TABLE pizza " +
+						"MODIFY pizza_Size " + SIZE_ENUM + ", " +
+						"MODIFY pizza_CrustType " + CRUST_ENUM + ", " +
+						"MODIFY pizza_PizzaState " + PIZZA_STATE_ENUM);
+			} finally {
+				st.execute("SET foreign_key_checks = 1");
+			}
+			st.executeUpdate("ALTER TABLE ordertable MODIFY ordertable_OrderType " + ORDER_TYPE_ENUM + " NOT NULL");
+
+			st.executeUpdate("DELETE FROM summary_pizza_month");
+			st.executeUpdate("DELETE FROM summary_ordertype_month");
+			st.executeUpdate("ALTER TABLE summary_pizza_month " +
+					"MODIFY sp_Size " + SIZE_ENUM + " NOT NULL, " +
+					"MODIFY sp_CrustType " + CRUST_ENUM + " NOT NULL");
+			st.executeUpdate("ALTER TABLE summary_ordertype_month " +
+					"MODIFY so_OrderType " + ORDER_TYPE_ENUM + " NOT NULL");
+		}
+		createReportSummaries(connection);
+	}
+
+	private static void createJournalTable(Connection connection) throws SQLException {
+		// OrderJournal entries already added, so a replay skips them
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("CREATE TABLE IF NOT EXISTS journal_applied (" +
+					"journal_applied_JournalID CHAR(36) NOT NULL, " +
+					"journal_applied_Sequence BIGINT NOT NULL, " +
+					"ordertable_OrderID INT NOT NULL, " +
+					"PRIMARY KEY (journal_applied_JournalID, journal_applied_Sequence), " +
+					"FOREIGN KEY (ordertable_OrderID) REFERENCES ordertable (ordertable_OrderID))");
+		}
+	}
+
+	private static void createFactsDirtyTable(Connection connection) throws SQLException {
+		// orders changed after OrderFactStore may have copied them, see OrderFactStore.markChanged
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("CREATE TABLE IF NOT EXISTS facts_dirty (" +
+					"ordertable_OrderID INT NOT NULL PRIMARY KEY, " +
+					"facts_dirty_Changes INT NOT NULL)");
+		}
+	}
+
+	private static void strayValues(Connection connection, String table, String column, Enum<?>[] known,
+	                                List<String> out) throws SQLException {
+		// distinct non-null values of column that don't match any label (column collation)
+		StringBuilder sql = new StringBuilder("SELECT DISTINCT ").append(column).append(" FROM ").append(table)
+				.append(" WHERE ").append(column).append(" IS NOT NULL AND ").append(column).append(" NOT IN (");
+		for (int i = 0; i < known.length; i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(')');
+		try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+			for (int i = 0; i < known.length; i++) {
+				ps.setString(i + 1, known[i].toString());
+			}
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					out.add(table + "." + column + "='" + rs.getString(1) + "'");
+				}
+			}
+		}
+	}
+
+	// =========================================================
+	// VERSION TABLE / LOCKING
+	// =========================================================
+
+	private static void ensureVersionTable(Connection connection) throws SQLException {
+		String sql =
+				"CREATE TABLE IF NOT EXISTS schema_version (" +
+						"schema_version_Version INT PRIMARY KEY, " +
+						"schema_version_Description VARCHAR(200) NOT NULL, " +
+						"schema_version_AppliedAt DATETIME NOT NULL)";
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate(sql);
+		}
+	}
+
+	private static int currentVersion(Connection connection) throws SQLException {
+		String sql = "SELECT COALESCE(MAX(schema_version_Version), 0) FROM schema_version";
+		try (PreparedStatement ps = connection.prepareStatement(sql);
+		     ResultSet rs = ps.executeQuery()) {
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private static void recordVersion(Connection connection, Migration m) throws SQLException {
+		String sql =
+				"INSERT INTO schema_version (schema_version_Version, schema_version_Description, " +
+						"schema_version_AppliedAt) VALUES (?, ?, NOW())";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setInt(1, m.version);
+			ps.setString(2, m.description);
+			ps.executeUpdate();
+		}
+	}
+
+	private static void acquireLock(Connection connection) throws SQLException {
+		try (PreparedStatement ps = connection.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+			ps.setString(1, LOCK_NAME);
+			ps.setInt(2, LOCK_TIMEOUT_SECONDS);
+			try (ResultSet rs = ps.executeQuery()) {
+				if (!rs.next() || rs.getInt(1) != 1) {
+					throw new SQLException("Timed out waiting for another instance to finish migrating the schema");
+				}
+			}
+		}
+	}
+
+	private static void releaseLock(Connection connection) throws SQLException {
+		try (PreparedStatement ps = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+			ps.setString(1, LOCK_NAME);
+			ps.executeQuery().close();
+		}
+	}
+
+	private static List<String> indexColumns(Connection connection, String table, String index) throws SQLException {
+		ArrayList<String> columns = new ArrayList<>();
+		String sql =
+				"SELECT COLUMN_NAME FROM information_schema.STATISTICS " +
+						"WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND INDEX_NAME = ? " +
+						"ORDER BY SEQ_IN_INDEX";
+		try (PreparedStatement ps = connection.prepareStatement(sql)) {
+			ps.setString(1, table);
+			ps.setString(2, index);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					columns.add(rs.getString(1));
+				}
+			}
+		}
+		return columns;
+	}
+
+	// =========================================================
+	// TYPES
+	// =========================================================
+
+	interface Step {
+		void apply(Connection connection) throws SQLException;
+	}
+
+	private static final class Migration {
+		final int version;
+		final String description;
+		final Step step;
+
+		Migration(int version, String description, Step step) {
+			this.version = version;
+			this.description = description;
+			this.step = step;
+		}
+	}
+
+	static final class IndexSpec {
+		final String table;
+		final String name;
+		final List<String> columns;
+
+		IndexSpec(String table, String name, String... columns) {
+			this.table = table;
+			this.name = name;
+			this.columns = Arrays.asList(columns);
+		}
+
+		@Override
+		public String toString() {
+			return table + "." + name + " " + columns;
+		}
+	}
+}
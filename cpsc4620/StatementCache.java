@@ -0,0 +1,270 @@
+package cpsc4620;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Prepared statement cache bound to one physical connection.
+ *
+ * prepareStatement(sql) on a pooled connection comes here. The statement is
+ * looked up by SQL text (plus the generated-keys flag) and handed out wrapped
+ * in a proxy whose close() puts it back in the cache instead of closing it,
+ * so DBSession code keeps using try-with-resources unchanged.
+ *
+ * A returned statement gets its parameters and batch cleared. Settings a
+ * borrower changed (fetch size, max rows, query timeout, fetch direction,
+ * max field size) are put back to the JDBC defaults, so e.g. ReportEngine's
+ * streaming fetch size doesn't carry over to the next caller of the same
+ * SQL; a statement whose other settings were changed isn't cached again.
+ *
+ * Least recently used statements are closed once the cache is full. If the
+ * same SQL is already checked out (e.g. a nested helper), the second caller
+ * gets a plain uncached statement rather than sharing one.
+ *
+ * Every execute*() call made through a handed-out statement is counted as a
+ * round trip, so callers can measure how chatty a code path is. The same
+ * round trips, and the rows read from executeQuery() results, also go to
+ * DBMetrics for the call in progress on this thread.
+ *
+ * Not thread-safe on its own; a connection is only used by one borrower at a time.
+ */
+
+final class StatementCache {
+
+	private final Connection raw;
+	private final int capacity;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder roundTrips;
+	private final LinkedHashMap<Key, Entry> entries;
+
+	StatementCache(Connection raw, int capacity, LongAdder hits, LongAdder misses, LongAdder roundTrips) {
+		this.raw = raw;
+		this.capacity = capacity;
+		this.hits = hits;
+		this.misses = misses;
+		this.roundTrips = roundTrips;
+		this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+				if (size() <= StatementCache.this.capacity) {
+					return false;
+				}
+				Entry e = eldest.getValue();
+				e.evicted = true;
+				if (!e.inUse) {
+					closeQuietly(e.statement);
+				}
+				return true;
+			}
+		};
+	}
+
+	PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		if (capacity <= 0) {
+			misses.increment();
+			return wrap(new Entry(create(sql, autoGeneratedKeys), false));
+		}
+
+		Key key = new Key(sql, autoGeneratedKeys);
+		Entry e = entries.get(key);
+
+		if (e != null && !e.inUse) {
+			hits.increment();
+			e.inUse = true;
+			return wrap(e);
+		}
+
+		misses.increment();
+		PreparedStatement ps = create(sql, autoGeneratedKeys);
+		if (e != null) {
+			// already checked out by an outer caller; don't share it
+			return wrap(new Entry(ps, false));
+		}
+
+		Entry fresh = new Entry(ps, true);
+		fresh.inUse = true;
+		entries.put(key, fresh);
+		return wrap(fresh);
+	}
+
+	void closeAll() {
+		for (Entry e : entries.values()) {
+			closeQuietly(e.statement);
+		}
+		entries.clear();
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	private PreparedStatement create(String sql, int autoGeneratedKeys) throws SQLException {
+		return autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS
+				? raw.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+				: raw.prepareStatement(sql);
+	}
+
+	private void giveBack(Entry e) {
+		/*
+		 * Clears borrower state so the next caller starts from a clean statement.
+		 */
+		if (!e.cached) {
+			closeQuietly(e.statement);
+			return;
+		}
+		try {
+			e.statement.clearParameters();
+			e.statement.clearBatch();
+			if (e.settingsChanged) {
+				e.statement.setFetchSize(0);
+				e.statement.setMaxRows(0);
+				e.statement.setQueryTimeout(0);
+				e.statement.setFetchDirection(ResultSet.FETCH_FORWARD);
+				e.statement.setMaxFieldSize(0);
+				e.settingsChanged = false;
+			}
+		} catch (SQLException ex) {
+			e.tainted = true;
+		}
+		if (e.tainted) {
+			e.evicted = true;
+			entries.values().remove(e);
+		}
+		e.inUse = false;
+		if (e.evicted) {
+			closeQuietly(e.statement);
+		}
+	}
+
+	private PreparedStatement wrap(Entry e) {
+		return (PreparedStatement) Proxy.newProxyInstance(
+				PreparedStatement.class.getClassLoader(),
+				new Class<?>[]{PreparedStatement.class},
+				new Checkout(e));
+	}
+
+	private static void closeQuietly(Statement s) {
+		try {
+			s.close();
+		} catch (SQLException e) {
+			// the connection is probably gone already
+		}
+	}
+
+	// =========================================================
+	// ENTRIES / CHECKOUT PROXY
+	// =========================================================
+
+	private static final class Key {
+		final String sql;
+		final int autoGeneratedKeys;
+
+		Key(String sql, int autoGeneratedKeys) {
+			this.sql = sql;
+			this.autoGeneratedKeys = autoGeneratedKeys;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return autoGeneratedKeys == k.autoGeneratedKeys && sql.equals(k.sql);
+		}
+
+		@Override
+		public int hashCode() {
+			return sql.hashCode() * 31 + autoGeneratedKeys;
+		}
+	}
+
+	private static final class Entry {
+		final PreparedStatement statement;
+		final boolean cached;
+		boolean inUse;
+		boolean evicted;
+		// set by a borrower; see giveBack
+		boolean settingsChanged;
+		boolean tainted;
+
+		Entry(PreparedStatement statement, boolean cached) {
+			this.statement = statement;
+			this.cached = cached;
+		}
+	}
+
+	private final class Checkout implements InvocationHandler {
+		private final Entry entry;
+		private boolean returned;
+
+		Checkout(Entry entry) {
+			this.entry = entry;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					if (!returned) {
+						returned = true;
+						giveBack(entry);
+					}
+					return null;
+				case "isClosed":
+					return returned || entry.statement.isClosed();
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					break;
+			}
+
+			if (returned) {
+				throw new SQLException("Statement has already been closed");
+			}
+			switch (method.getName()) {
+				case "setFetchSize":
+				case "setMaxRows":
+				case "setLargeMaxRows":
+				case "setQueryTimeout":
+				case "setFetchDirection":
+				case "setMaxFieldSize":
+					entry.settingsChanged = true;
+					break;
+				case "setEscapeProcessing":
+				case "setCursorName":
+				case "setPoolable":
+				case "closeOnCompletion":
+					entry.tainted = true;
+					break;
+				default:
+					if (method.getName().startsWith("execute")) {
+						roundTrips.increment();
+						DBMetrics.roundTrip();
+					}
+			}
+			try {
+				Object result = method.invoke(entry.statement, args);
+				if (method.getName().equals("executeQuery")) {
+					return DBMetrics.countRows((ResultSet) result);
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
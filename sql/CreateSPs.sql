@@ -114,7 +114,7 @@ BEGIN
         ordertable_isComplete
     ) VALUES (
         NULLIF(custID, 0),  -- Handle NULL customer for walk-ins
-        orderType,
+        LOWER(REPLACE(orderType, '-', '')),  -- stored as the ENUM label: dinein, pickup, delivery
         orderDateTime,
         COALESCE(custPrice, 0.00),
         COALESCE(busPrice, 0.00),
@@ -15,8 +15,8 @@ USE PizzaDB;
 -- for each (size, crust) combination.
 -- ============================================================
 CREATE TABLE baseprice (
-    baseprice_Size       VARCHAR(30),
-    baseprice_CrustType  VARCHAR(30),
+    baseprice_Size       ENUM('Small', 'Medium', 'Large', 'XLarge'),
+    baseprice_CrustType  ENUM('Thin', 'Original', 'Pan', 'Gluten-Free'),
     baseprice_CustPrice  DECIMAL(5,2) NOT NULL,
     baseprice_BusPrice   DECIMAL(5,2) NOT NULL,
 
@@ -43,7 +43,7 @@ CREATE TABLE customer (
 CREATE TABLE ordertable (
     ordertable_OrderID      INT AUTO_INCREMENT PRIMARY KEY,
     customer_CustID         INT,
-    ordertable_OrderType    VARCHAR(30) NOT NULL,
+    ordertable_OrderType    ENUM('dinein', 'pickup', 'delivery') NOT NULL,
     ordertable_OrderDateTime DATETIME   NOT NULL,
     ordertable_CustPrice    DECIMAL(5,2) NOT NULL,
     ordertable_BusPrice     DECIMAL(5,2) NOT NULL,
@@ -60,10 +60,10 @@ CREATE TABLE ordertable (
 -- ============================================================
 CREATE TABLE pizza (
     pizza_PizzaID      INT AUTO_INCREMENT PRIMARY KEY,
-    pizza_Size         VARCHAR(30),
-    pizza_CrustType    VARCHAR(30),
+    pizza_Size         ENUM('Small', 'Medium', 'Large', 'XLarge'),
+    pizza_CrustType    ENUM('Thin', 'Original', 'Pan', 'Gluten-Free'),
     ordertable_OrderID INT,
-    pizza_PizzaState   VARCHAR(30),
+    pizza_PizzaState   ENUM('In Progress', 'completed'),
     pizza_PizzaDate    DATETIME,
     pizza_CustPrice    DECIMAL(5,2),
     pizza_BusPrice     DECIMAL(5,2),
@@ -200,3 +200,89 @@ CREATE TABLE dinein (
         REFERENCES ordertable (ordertable_OrderID)
 );
 
+
+-- ============================================================
+-- Secondary indexes
+-- Access paths used by the application (see SchemaMigrations,
+-- migration 1). Keep the two in sync.
+-- ============================================================
+CREATE INDEX idx_ordertable_datetime    ON ordertable (ordertable_OrderDateTime);
+CREATE INDEX idx_ordertable_complete_id ON ordertable (ordertable_IsComplete, ordertable_OrderID);
+CREATE INDEX idx_pizza_order            ON pizza (ordertable_OrderID);
+CREATE INDEX idx_pizza_topping_topping  ON pizza_topping (topping_TopID);
+CREATE INDEX idx_customer_phone         ON customer (customer_PhoneNum);
+
+-- ============================================================
+-- Table: summary_pizza_month
+-- Profit per (size, crust, month), kept up to date by the
+-- application as pizzas are added. Backs the ProfitByPizza report.
+-- ============================================================
+CREATE TABLE summary_pizza_month (
+    sp_Size       ENUM('Small', 'Medium', 'Large', 'XLarge') NOT NULL,
+    sp_CrustType  ENUM('Thin', 'Original', 'Pan', 'Gluten-Free') NOT NULL,
+    sp_Month      DATE          NOT NULL,
+    sp_Profit     DECIMAL(12,2) NOT NULL DEFAULT 0,
+    sp_PizzaCount INT           NOT NULL DEFAULT 0,
+
+    PRIMARY KEY (sp_Size, sp_CrustType, sp_Month)
+);
+
+-- ============================================================
+-- Table: summary_ordertype_month
+-- Price/cost per (order type, month), kept up to date by the
+-- application. Backs the ProfitByOrderType report.
+-- ============================================================
+CREATE TABLE summary_ordertype_month (
+    so_OrderType      ENUM('dinein', 'pickup', 'delivery') NOT NULL,
+    so_Month          DATE          NOT NULL,
+    so_TotalPrice     DECIMAL(16,6) NOT NULL DEFAULT 0,
+    so_TotalCost      DECIMAL(16,6) NOT NULL DEFAULT 0,
+    so_OrderCount     INT           NOT NULL DEFAULT 0,
+    so_CompletedCount INT           NOT NULL DEFAULT 0,
+
+    PRIMARY KEY (so_OrderType, so_Month)
+);
+
+-- ============================================================
+-- Table: journal_applied
+-- Order journal entries already added to the database, so a
+-- replay of the journal skips them.
+-- ============================================================
+CREATE TABLE journal_applied (
+    journal_applied_JournalID CHAR(36) NOT NULL,
+    journal_applied_Sequence  BIGINT   NOT NULL,
+    ordertable_OrderID        INT      NOT NULL,
+
+    PRIMARY KEY (journal_applied_JournalID, journal_applied_Sequence),
+
+    FOREIGN KEY (ordertable_OrderID)
+        REFERENCES ordertable (ordertable_OrderID)
+);
+
+-- ============================================================
+-- Table: facts_dirty
+-- Orders given pizzas after they were placed, so the order fact
+-- store copies them again. Changes counts the additions.
+-- ============================================================
+CREATE TABLE facts_dirty (
+    ordertable_OrderID  INT NOT NULL PRIMARY KEY,
+    facts_dirty_Changes INT NOT NULL
+);
+
+-- ============================================================
+-- Table: schema_version
+-- Schema migrations applied on top of this script.
+-- A fresh install already includes migrations 1 to 5.
+-- ============================================================
+CREATE TABLE schema_version (
+    schema_version_Version     INT PRIMARY KEY,
+    schema_version_Description VARCHAR(200) NOT NULL,
+    schema_version_AppliedAt   DATETIME     NOT NULL
+);
+
+INSERT INTO schema_version VALUES
+    (1, 'secondary indexes for order, pizza, topping and customer lookups', NOW()),
+    (2, 'report summary tables', NOW()),
+    (3, 'ENUM columns for size, crust, order type and pizza state', NOW()),
+    (4, 'journal_applied table for the order journal', NOW()),
+    (5, 'facts_dirty table for the order fact store', NOW());
@@ -11,6 +11,8 @@ USE PizzaDB;
 SET FOREIGN_KEY_CHECKS = 0;
 
 -- Drop child tables first (discount bridges, toppings mapping, etc.)
+DROP TABLE IF EXISTS journal_applied;
+DROP TABLE IF EXISTS facts_dirty;
 DROP TABLE IF EXISTS pizza_discount;
 DROP TABLE IF EXISTS order_discount;
 DROP TABLE IF EXISTS pizza_topping;
@@ -23,6 +25,9 @@ DROP TABLE IF EXISTS discount;
 DROP TABLE IF EXISTS topping;
 DROP TABLE IF EXISTS customer;
 DROP TABLE IF EXISTS baseprice;
+DROP TABLE IF EXISTS summary_pizza_month;
+DROP TABLE IF EXISTS summary_ordertype_month;
+DROP TABLE IF EXISTS schema_version;
 
 -- Re-enable foreign key checks
 SET FOREIGN_KEY_CHECKS = 1;
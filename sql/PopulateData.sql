@@ -291,3 +291,46 @@ SELECT pizza_PizzaID, topping_TopID, pizza_topping_IsDouble
 FROM TempPizzaToppings;
 
 DROP TEMPORARY TABLE TempPizzaToppings;
+
+-- ============================================================
+-- Report summaries
+-- The seed orders above bypass the application, so fill the
+-- summary tables from them (same as DBNinja.rebuildReportSummaries).
+-- ============================================================
+DELETE FROM summary_pizza_month;
+INSERT INTO summary_pizza_month (sp_Size, sp_CrustType, sp_Month, sp_Profit, sp_PizzaCount)
+SELECT pizza_Size, pizza_CrustType, DATE_FORMAT(pizza_PizzaDate, '%Y-%m-01'),
+       SUM(pizza_CustPrice - pizza_BusPrice), COUNT(*)
+FROM pizza
+WHERE pizza_Size IS NOT NULL AND pizza_CrustType IS NOT NULL AND pizza_PizzaDate IS NOT NULL
+GROUP BY pizza_Size, pizza_CrustType, DATE_FORMAT(pizza_PizzaDate, '%Y-%m-01');
+
+DELETE FROM summary_ordertype_month;
+INSERT INTO summary_ordertype_month (so_OrderType, so_Month, so_TotalPrice, so_TotalCost,
+                                     so_OrderCount, so_CompletedCount)
+SELECT v.OrderType, v.OrderMonth, SUM(v.Price), SUM(v.Cost), COUNT(*), SUM(v.IsComplete)
+FROM (
+    SELECT
+        LOWER(o.ordertable_OrderType) AS OrderType,
+        DATE_FORMAT(o.ordertable_OrderDateTime, '%Y-%m-01') AS OrderMonth,
+        o.ordertable_IsComplete AS IsComplete,
+        GREATEST(
+            (
+                (SELECT COALESCE(SUM(p.pizza_CustPrice), 0) FROM pizza p
+                 WHERE p.ordertable_OrderID = o.ordertable_OrderID)
+                -
+                (SELECT COALESCE(SUM(d.discount_Amount), 0) FROM order_discount od
+                 JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID
+                 WHERE od.ordertable_OrderID = o.ordertable_OrderID AND d.discount_IsPercent = 0)
+            )
+            *
+            (SELECT EXP(COALESCE(SUM(LN(1 - (d.discount_Amount / 100))), 0)) FROM order_discount od
+             JOIN discount d ON d.discount_DiscountID = od.discount_DiscountID
+             WHERE od.ordertable_OrderID = o.ordertable_OrderID AND d.discount_IsPercent = 1),
+            0
+        ) AS Price,
+        (SELECT COALESCE(SUM(p.pizza_BusPrice), 0) FROM pizza p
+         WHERE p.ordertable_OrderID = o.ordertable_OrderID) AS Cost
+    FROM ordertable o
+) AS v
+GROUP BY v.OrderType, v.OrderMonth;